@@ -1,5 +1,6 @@
 package com.senselessweb.soundcloud.domain.library;
 
+import java.io.Serializable;
 import java.util.Collection;
 import java.util.Collections;
 
@@ -13,9 +14,14 @@ import com.senselessweb.soundcloud.util.IdentityUtils;
  * 
  * @author thomas
  */
-public abstract class AbstractLibraryItem implements LibraryItem
+public abstract class AbstractLibraryItem implements LibraryItem, Serializable
 {
 
+	/**
+	 * The serialVersionUID
+	 */
+	private static final long serialVersionUID = -2874265318750163517L;
+
 	/**
 	 * The id. May be null if this item has no id yet.
 	 */
@@ -0,0 +1,67 @@
+package com.senselessweb.soundcloud.domain.library;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A group of local files with the same audio content, like the same rip stored in
+ * different folders. The files may differ in their tags.
+ * 
+ * @author thomas
+ */
+public class DuplicateGroup implements Serializable
+{
+
+	/**
+	 * The serialVersionUID
+	 */
+	private static final long serialVersionUID = -6402179405620993281L;
+
+	/**
+	 * The id. The hash of the audio content.
+	 */
+	private final String id;
+	
+	/**
+	 * The paths of the files in alphabetical order
+	 */
+	private final List<String> paths;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param id The id. The hash of the audio content.
+	 * @param paths The paths of the files
+	 */
+	public DuplicateGroup(final String id, final List<String> paths)
+	{
+		final List<String> sortedPaths = new ArrayList<String>(paths);
+		Collections.sort(sortedPaths);
+		
+		this.id = id;
+		this.paths = Collections.unmodifiableList(sortedPaths);
+	}
+	
+	/**
+	 * Returns the id
+	 * 
+	 * @return The hash of the audio content
+	 */
+	public String getId()
+	{
+		return this.id;
+	}
+	
+	/**
+	 * Returns the paths
+	 * 
+	 * @return The paths of the files in alphabetical order
+	 */
+	public List<String> getPaths()
+	{
+		return this.paths;
+	}
+}
@@ -35,10 +35,15 @@ public class FileInformations
 	private final String genre;
 	
 	/**
-	 * The bitrate of the file. May be null.
+	 * The bitrate of the file in kbit/s. May be null.
 	 */
 	private final String bitrate;
 	
+	/**
+	 * The duration of the file in seconds or -1 if it is unknown.
+	 */
+	private final long duration;
+	
 
 	/**
 	 * Constructor
@@ -52,6 +57,23 @@ public class FileInformations
 	 */
 	public FileInformations(final String title, final String artist, final String album, final String tracknumber, 
 			final String genre, final String bitrate)
+	{
+		this(title, artist, album, tracknumber, genre, bitrate, -1);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param title The title of the file
+	 * @param artist The artist of the file 
+	 * @param album The album of the file 
+	 * @param tracknumber The tracknumber of the file 
+	 * @param genre The genre of the file 
+	 * @param bitrate The bitrate of the file in kbit/s
+	 * @param duration The duration of the file in seconds or -1 if it is unknown
+	 */
+	public FileInformations(final String title, final String artist, final String album, final String tracknumber, 
+			final String genre, final String bitrate, final long duration)
 	{
 		this.title = title;
 		this.artist = artist;
@@ -59,6 +81,7 @@ public class FileInformations
 		this.tracknumber = tracknumber;
 		this.genre = genre;
 		this.bitrate = bitrate;
+		this.duration = duration;
 	}
 	
 	/**
@@ -120,4 +143,14 @@ public class FileInformations
 	{
 		return this.bitrate;
 	}
+	
+	/**
+	 * Returns the duration
+	 * 
+	 * @return The duration in seconds or -1 if it is unknown
+	 */
+	public long getDuration()
+	{
+		return this.duration;
+	}
 }
\ No newline at end of file
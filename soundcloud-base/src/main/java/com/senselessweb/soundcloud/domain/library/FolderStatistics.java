@@ -0,0 +1,85 @@
+package com.senselessweb.soundcloud.domain.library;
+
+/**
+ * The number of tracks, the size and the duration of all files of a folder and its subfolders.
+ * 
+ * @author thomas
+ */
+public class FolderStatistics
+{
+
+	/**
+	 * The statistics of a folder without files.
+	 */
+	public static final FolderStatistics empty = new FolderStatistics(0, 0, 0);
+	
+	
+	/**
+	 * The number of tracks
+	 */
+	private final int tracks;
+	
+	/**
+	 * The total size in bytes
+	 */
+	private final long size;
+	
+	/**
+	 * The total duration in seconds
+	 */
+	private final long duration;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param tracks The number of tracks
+	 * @param size The total size in bytes
+	 * @param duration The total duration in seconds
+	 */
+	public FolderStatistics(final int tracks, final long size, final long duration)
+	{
+		this.tracks = tracks;
+		this.size = size;
+		this.duration = duration;
+	}
+	
+	/**
+	 * Returns the tracks
+	 * 
+	 * @return The number of tracks
+	 */
+	public int getTracks()
+	{
+		return this.tracks;
+	}
+	
+	/**
+	 * Returns the size
+	 * 
+	 * @return The total size in bytes. Files of unknown size are not counted.
+	 */
+	public long getSize()
+	{
+		return this.size;
+	}
+	
+	/**
+	 * Returns the duration
+	 * 
+	 * @return The total duration in seconds. Files of unknown duration are not counted.
+	 */
+	public long getDuration()
+	{
+		return this.duration;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return this.tracks + " tracks, " + this.size + " bytes, " + this.duration + " s";
+	}
+}
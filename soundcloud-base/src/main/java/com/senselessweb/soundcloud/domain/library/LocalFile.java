@@ -1,9 +1,11 @@
 package com.senselessweb.soundcloud.domain.library;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.CharUtils;
@@ -11,6 +13,7 @@ import org.apache.commons.lang3.StringUtils;
 
 import com.senselessweb.soundcloud.domain.sources.FileSource;
 import com.senselessweb.soundcloud.domain.sources.MediaSource;
+import com.senselessweb.soundcloud.util.IdentityUtils;
 
 /**
  * Library item that represents a local file.
@@ -20,6 +23,11 @@ import com.senselessweb.soundcloud.domain.sources.MediaSource;
 public class LocalFile extends AbstractLibraryItem implements Comparable<LocalFile>
 {
 
+	/**
+	 * The serialVersionUID
+	 */
+	private static final long serialVersionUID = 4383305216409617154L;
+
 	/**
 	 * The path to the file.
 	 */
@@ -40,6 +48,43 @@ public class LocalFile extends AbstractLibraryItem implements Comparable<LocalFi
 	 */
 	private final long lastModified;
 	
+	/**
+	 * The duration in seconds or -1 if it is unknown
+	 */
+	private final long duration;
+	
+	/**
+	 * The bitrate in kbit/s or -1 if it is unknown
+	 */
+	private final int bitrate;
+	
+	/**
+	 * The artist or an empty string if it is unknown
+	 */
+	private final String artist;
+	
+	/**
+	 * The album or an empty string if it is unknown
+	 */
+	private final String album;
+	
+	/**
+	 * The size in bytes or -1 if it is unknown
+	 */
+	private final long size;
+	
+	/**
+	 * The normalized path of the folder that contains the file
+	 */
+	private final String folder;
+	
+	/**
+	 * The normalized paths of all folders that contain the file, the nearest folder first.
+	 * Stored with the file, so the files of a whole subtree can be found by an indexed 
+	 * equality lookup.
+	 */
+	private final List<String> ancestors;
+	
 	/**
 	 * Constructor
 	 * 
@@ -51,10 +96,16 @@ public class LocalFile extends AbstractLibraryItem implements Comparable<LocalFi
 	 * @param longTitle The long title
 	 * @param tracknumber The tracknumber
 	 * @param lastModified The last modified
+	 * @param duration The duration in seconds
+	 * @param bitrate The bitrate in kbit/s
+	 * @param artist The artist. May be null.
+	 * @param album The album. May be null.
+	 * @param size The size in bytes
 	 *
 	 */
 	public LocalFile(final String id, final String shortTitle, final Collection<String> genres, final Collection<String> keywords, 
-			final String path, final String longTitle, final int tracknumber, final long lastModified)
+			final String path, final String longTitle, final int tracknumber, final long lastModified, 
+			final long duration, final int bitrate, final String artist, final String album, final long size)
 	{
 		super(id, shortTitle, genres, keywords);
 
@@ -65,6 +116,13 @@ public class LocalFile extends AbstractLibraryItem implements Comparable<LocalFi
 		this.longTitle = longTitle;
 		this.tracknumber = tracknumber;
 		this.lastModified = lastModified;
+		this.duration = duration;
+		this.bitrate = bitrate;
+		this.artist = StringUtils.trimToEmpty(artist);
+		this.album = StringUtils.trimToEmpty(album);
+		this.size = size;
+		this.ancestors = Collections.unmodifiableList(createAncestors(path));
+		this.folder = this.ancestors.isEmpty() ? "" : this.ancestors.get(0);
 	}
 	
 	/**
@@ -73,18 +131,68 @@ public class LocalFile extends AbstractLibraryItem implements Comparable<LocalFi
 	 * @param path The path to the file.
 	 * @param fileInformations The file informations container
 	 * 
-	 * @return The new local file. Has no id yet.
+	 * @return The new local file. Its id is derived from the path.
 	 */
 	public static LocalFile create(final String path, final FileInformations fileInformations)
 	{
-		return new LocalFile(null,
+		return new LocalFile(createId(path),
 				createShortTitle(path, fileInformations), 
 				StringUtils.isBlank(fileInformations.getGenre()) ? Collections.<String>emptySet() : Collections.singleton(fileInformations.getGenre()), 
 				createKeywords(path, fileInformations),
 				path, 
 				createLongTitle(path, fileInformations),
 				readTracknumber(fileInformations),
-				new File(path).lastModified());
+				new File(path).lastModified(),
+				fileInformations.getDuration(),
+				readBitrate(fileInformations),
+				fileInformations.getArtist(),
+				fileInformations.getAlbum(),
+				new File(path).length());
+	}
+	
+	/**
+	 * Creates a copy of this file for another path, for example after it has been moved.
+	 * The metadata is kept, so the other file must have the same name and content.
+	 * 
+	 * @param path The new path.
+	 * 
+	 * @return The new local file. Its id is derived from the new path.
+	 */
+	public LocalFile moveTo(final String path)
+	{
+		return new LocalFile(createId(path), this.getShortTitle(), this.getGenres(), this.getKeywords(), path, 
+				this.longTitle, this.tracknumber, this.lastModified, this.duration, this.bitrate, 
+				this.artist, this.album, this.size);
+	}
+	
+	/**
+	 * Creates the id of a local file. The id only depends on the normalized path, so it 
+	 * stays the same when the file is read again and can be derived from a {@link FileSource}.
+	 * 
+	 * @param path The absolute path of the file.
+	 * 
+	 * @return The id. The hex encoded MD5 hash of the path.
+	 */
+	public static String createId(final String path)
+	{
+		final String normalized = FilenameUtils.normalizeNoEndSeparator(path);
+		return IdentityUtils.hash(normalized != null ? normalized : path);
+	}
+	
+	/**
+	 * Creates the ancestors of a local file.
+	 * 
+	 * @param path The absolute path of the file.
+	 * 
+	 * @return The normalized paths of all folders that contain the file, the nearest folder first.
+	 */
+	public static List<String> createAncestors(final String path)
+	{
+		final String normalized = FilenameUtils.normalizeNoEndSeparator(path);
+		final List<String> ancestors = new ArrayList<String>();
+		for (File folder = new File(normalized != null ? normalized : path).getParentFile(); folder != null; folder = folder.getParentFile())
+			ancestors.add(folder.getPath());
+		return ancestors;
 	}
 	
 	/**
@@ -164,6 +272,26 @@ public class LocalFile extends AbstractLibraryItem implements Comparable<LocalFi
 		return this.longTitle;
 	}
 	
+	/**
+	 * Returns the folder
+	 * 
+	 * @return The normalized path of the folder that contains the file
+	 */
+	public String getFolder()
+	{
+		return this.folder;
+	}
+	
+	/**
+	 * Returns the ancestors
+	 * 
+	 * @return The normalized paths of all folders that contain the file, the nearest folder first
+	 */
+	public List<String> getAncestors()
+	{
+		return this.ancestors;
+	}
+	
 	/**
 	 * Returns the tracknumber
 	 * 
@@ -184,6 +312,36 @@ public class LocalFile extends AbstractLibraryItem implements Comparable<LocalFi
 		return sb.length() == 0 ? -1 : Integer.parseInt(sb.toString());
 	}
 	
+	/**
+	 * Returns the bitrate
+	 * 
+	 * @param fileInformations The fileInformations
+	 * @return The bitrate in kbit/s. -1 if it is unknown.
+	 */
+	public static int readBitrate(final FileInformations fileInformations)
+	{
+		if (StringUtils.isBlank(fileInformations.getBitrate())) return -1;
+		
+		try
+		{
+			return Integer.parseInt(fileInformations.getBitrate().trim());
+		}
+		catch (final NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+	
+	/**
+	 * Returns the path
+	 * 
+	 * @return The path
+	 */
+	public String getPath()
+	{
+		return this.path;
+	}
+	
 	/**
 	 * Returns the tracknumber
 	 *
@@ -204,13 +362,63 @@ public class LocalFile extends AbstractLibraryItem implements Comparable<LocalFi
 		return this.lastModified;
 	}
 	
+	/**
+	 * Returns the duration
+	 * 
+	 * @return The duration in seconds. -1 if it is unknown.
+	 */
+	public long getDuration()
+	{
+		return this.duration;
+	}
+	
+	/**
+	 * Returns the bitrate
+	 * 
+	 * @return The bitrate in kbit/s. -1 if it is unknown.
+	 */
+	public int getBitrate()
+	{
+		return this.bitrate;
+	}
+	
+	/**
+	 * Returns the artist
+	 * 
+	 * @return The artist. An empty string if it is unknown.
+	 */
+	public String getArtist()
+	{
+		return this.artist;
+	}
+	
+	/**
+	 * Returns the album
+	 * 
+	 * @return The album. An empty string if it is unknown.
+	 */
+	public String getAlbum()
+	{
+		return this.album;
+	}
+	
+	/**
+	 * Returns the size
+	 * 
+	 * @return The size in bytes. -1 if it is unknown.
+	 */
+	public long getSize()
+	{
+		return this.size;
+	}
+	
 	/**
 	 * @see com.senselessweb.soundcloud.domain.library.LibraryItem#asMediaSources()
 	 */
 	@Override
 	public Collection<? extends MediaSource> asMediaSources()
 	{
-		return Collections.singleton(new FileSource(this.getShortTitle(), new File(this.path)));
+		return Collections.singleton(new FileSource(this.getShortTitle(), new File(this.path), this.duration));
 	}
 
 	/**
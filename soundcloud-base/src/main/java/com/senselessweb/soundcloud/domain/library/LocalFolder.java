@@ -34,6 +34,11 @@ public class LocalFolder
 	 */
 	private final Collection<LocalFile> files;
 	
+	/**
+	 * The totals of this folder and its subfolders
+	 */
+	private final FolderStatistics statistics;
+	
 
 	/**
 	 * Constructor
@@ -43,13 +48,15 @@ public class LocalFolder
 	 * @param subfolders The subfolders
 	 * @param files The files in this folder
 	 * @param keywords Keywords of this folder
+	 * @param statistics The totals of this folder and its subfolders
 	 */
 	public LocalFolder(final String name, final String path, final Collection<LocalSubfolder> subfolders, 
-			final Collection<LocalFile> files, final Collection<String> keywords)
+			final Collection<LocalFile> files, final Collection<String> keywords, final FolderStatistics statistics)
 	{
 		this.name = name;
 		this.subfolders = subfolders;
 		this.files = files;
+		this.statistics = statistics;
 		
 		try
 		{
@@ -98,5 +105,15 @@ public class LocalFolder
 		return this.subfolders;
 	}
 	
+	/**
+	 * Returns the statistics
+	 * 
+	 * @return The totals of this folder and its subfolders
+	 */
+	public FolderStatistics getStatistics()
+	{
+		return this.statistics;
+	}
+
 	
 }
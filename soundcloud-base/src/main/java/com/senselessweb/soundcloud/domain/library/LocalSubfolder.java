@@ -8,8 +8,8 @@ import java.net.URLEncoder;
 import java.util.Set;
 
 /**
- * Simple container that contains the name of a subfolder and 
- * the keywords, but not the actual content.
+ * Simple container that contains the name of a subfolder, 
+ * the keywords and the totals, but not the actual content.
  *
  * @author thomas
  */
@@ -31,16 +31,23 @@ public class LocalSubfolder implements Comparable<LocalSubfolder>
 	 */
 	private final Set<String> keywords;
 	
+	/**
+	 * The totals of this subfolder
+	 */
+	private final FolderStatistics statistics;
+	
 	/**
 	 * Constructor
 	 * 
 	 * @param name The name of this subfolder
 	 * @param keywords The keywords of this subfolder
+	 * @param statistics The totals of this subfolder
 	 */
-	public LocalSubfolder(final String name, final Set<String> keywords)
+	public LocalSubfolder(final String name, final Set<String> keywords, final FolderStatistics statistics)
 	{
 		this.name = name;
 		this.keywords = keywords;
+		this.statistics = statistics;
 		
 		try
 		{
@@ -69,6 +76,16 @@ public class LocalSubfolder implements Comparable<LocalSubfolder>
 		return this.keywords;
 	}
 	
+	/**
+	 * Returns the statistics
+	 * 
+	 * @return The totals of this subfolder
+	 */
+	public FolderStatistics getStatistics()
+	{
+		return this.statistics;
+	}
+	
 	/**
 	 * Returns the decodedName
 	 *
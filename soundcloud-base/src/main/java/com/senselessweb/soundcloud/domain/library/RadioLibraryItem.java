@@ -56,6 +56,17 @@ public class RadioLibraryItem extends AbstractLibraryItem implements Serializabl
 		this.urls = urls;
 	}
 	
+	/**
+	 * Creates a copy of this station with the id derived from its title, so storing a 
+	 * station with the same title again replaces the stored one.
+	 * 
+	 * @return The station with the derived id.
+	 */
+	public RadioLibraryItem withTitleId()
+	{
+		return new RadioLibraryItem(IdentityUtils.hash(this.getShortTitle()), this.getShortTitle(), this.urls, this.getGenres());
+	}
+	
 	/**
 	 * @see com.senselessweb.soundcloud.domain.library.LibraryItem#asMediaSources()
 	 */
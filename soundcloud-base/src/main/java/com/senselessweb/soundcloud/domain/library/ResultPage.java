@@ -0,0 +1,75 @@
+package com.senselessweb.soundcloud.domain.library;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a sorted result.
+ * 
+ * @param <T> The type of the items.
+ * 
+ * @author thomas
+ */
+public class ResultPage<T>
+{
+
+	/**
+	 * The items of this page
+	 */
+	private final List<T> items;
+	
+	/**
+	 * The position of the first item of this page in the whole result
+	 */
+	private final int offset;
+	
+	/**
+	 * The number of items of the whole result
+	 */
+	private final int total;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param items The items of this page
+	 * @param offset The position of the first item in the whole result
+	 * @param total The number of items of the whole result
+	 */
+	public ResultPage(final List<T> items, final int offset, final int total)
+	{
+		this.items = Collections.unmodifiableList(items);
+		this.offset = offset;
+		this.total = total;
+	}
+	
+	/**
+	 * Returns the items
+	 * 
+	 * @return The items of this page
+	 */
+	public List<T> getItems()
+	{
+		return this.items;
+	}
+	
+	/**
+	 * Returns the offset
+	 * 
+	 * @return The position of the first item in the whole result
+	 */
+	public int getOffset()
+	{
+		return this.offset;
+	}
+	
+	/**
+	 * Returns the total
+	 * 
+	 * @return The number of items of the whole result
+	 */
+	public int getTotal()
+	{
+		return this.total;
+	}
+}
@@ -3,14 +3,21 @@
  */
 package com.senselessweb.soundcloud.domain.sources;
 
+import java.io.Serializable;
+
 /**
  * Abstract base class for {@link MediaSource}s.
  *
  * @author thomas
  */
-public abstract class AbstractMediaSource implements MediaSource 
+public abstract class AbstractMediaSource implements MediaSource, Serializable
 {
 
+	/**
+	 * The serialVersionUID
+	 */
+	private static final long serialVersionUID = 7921680938211472270L;
+
 	/**
 	 * The title
 	 */
@@ -16,6 +16,12 @@ import com.senselessweb.soundcloud.util.IdentityUtils;
  */
 public class FileSource extends AbstractMediaSource
 {
+
+	/**
+	 * The serialVersionUID
+	 */
+	private static final long serialVersionUID = -1307459845391042566L;
+	
 	
 	/**
 	 * The log
@@ -27,17 +33,33 @@ public class FileSource extends AbstractMediaSource
 	 */
 	private final File file;
 	
+	/**
+	 * The duration in seconds or -1 if it is unknown
+	 */
+	private final long duration;
+	
 	/**
 	 * @param title The title
 	 * @param file The file of this media source
 	 */
 	public FileSource(final String title, final File file)
+	{
+		this(title, file, -1);
+	}
+	
+	/**
+	 * @param title The title
+	 * @param file The file of this media source
+	 * @param duration The duration in seconds or -1 if it is unknown
+	 */
+	public FileSource(final String title, final File file, final long duration)
 	{
 		super(title);
 		
 		if (!file.isFile()) 
 			log.warn("File \"" + file + "\" does not exist!");
 		this.file = new File(file.getAbsolutePath());
+		this.duration = duration;
 	}
 	
 	/**
@@ -50,6 +72,16 @@ public class FileSource extends AbstractMediaSource
 		return this.file;
 	}
 	
+	/**
+	 * Returns the duration.
+	 * 
+	 * @return The duration in seconds or -1 if it is unknown.
+	 */
+	public long getDuration()
+	{
+		return this.duration;
+	}
+	
 	/**
 	 * @see java.lang.Object#toString()
 	 */
@@ -76,7 +108,8 @@ public class FileSource extends AbstractMediaSource
 	@Override
 	public int hashCode()
 	{
-		return HashCodeBuilder.reflectionHashCode(this, true);
+		// The duration is not part of the identity, see equals()
+		return HashCodeBuilder.reflectionHashCode(this, "duration");
 	}
 
 }
@@ -12,6 +12,12 @@ import com.senselessweb.soundcloud.util.IdentityUtils;
  */
 public class StreamSource extends AbstractMediaSource
 {
+
+	/**
+	 * The serialVersionUID
+	 */
+	private static final long serialVersionUID = 2645196713316408957L;
+	
 	
 	/**
 	 * The id of this media source
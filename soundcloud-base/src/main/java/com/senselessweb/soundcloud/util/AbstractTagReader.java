@@ -0,0 +1,176 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import com.senselessweb.soundcloud.domain.library.FileInformations;
+
+/**
+ * Base class for {@link TagReader}s that read a file through a {@link FileChannel}
+ * into a small buffer that is reused per thread.
+ * 
+ * @author thomas
+ */
+public abstract class AbstractTagReader implements TagReader
+{
+
+	/**
+	 * The size of the buffer. Longer values are truncated.
+	 */
+	protected static final int bufferSize = 4 * 1024;
+	
+	/**
+	 * The ISO-8859-1 charset
+	 */
+	protected static final Charset latin1 = Charset.forName("ISO-8859-1");
+	
+	/**
+	 * The UTF-8 charset
+	 */
+	protected static final Charset utf8 = Charset.forName("UTF-8");
+	
+	/**
+	 * The UTF-16LE charset
+	 */
+	protected static final Charset utf16le = Charset.forName("UTF-16LE");
+	
+	/**
+	 * The buffers of all threads.
+	 */
+	private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+		/** @see java.lang.ThreadLocal#initialValue() */
+		@Override protected ByteBuffer initialValue()
+		{
+			return ByteBuffer.allocate(bufferSize);
+		}
+	};
+	
+	/**
+	 * @see com.senselessweb.soundcloud.util.TagReader#read(java.io.File)
+	 */
+	@Override
+	public FileInformations read(final File input) throws IOException
+	{
+		final FileInputStream in = new FileInputStream(input);
+		try
+		{
+			final ByteBuffer buffer = buffers.get();
+			buffer.order(ByteOrder.BIG_ENDIAN);
+			return this.read(in.getChannel(), buffer);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Reads the tags of a file.
+	 * 
+	 * @param channel The file.
+	 * @param buffer The buffer to use. Big endian, may be changed by the implementation.
+	 * 
+	 * @return The unformatted {@link FileInformations} or null if the file is not supported.
+	 * 
+	 * @throws IOException
+	 */
+	protected abstract FileInformations read(FileChannel channel, ByteBuffer buffer) throws IOException;
+	
+	/**
+	 * Returns the position of the audio payload, which is the file without its tags.
+	 * 
+	 * @param channel The file.
+	 * 
+	 * @return The start and the end of the payload or null if the file is not supported.
+	 * 
+	 * @throws IOException
+	 */
+	long[] payload(final FileChannel channel) throws IOException
+	{
+		final ByteBuffer buffer = buffers.get();
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		return this.payload(channel, buffer);
+	}
+	
+	/**
+	 * Returns the position of the audio payload, using the offsets of the tags this reader
+	 * parses anyway.
+	 * 
+	 * @param channel The file.
+	 * @param buffer The buffer to use. Big endian, may be changed by the implementation.
+	 * 
+	 * @return The start and the end of the payload or null if the file is not supported.
+	 * 
+	 * @throws IOException
+	 */
+	protected abstract long[] payload(FileChannel channel, ByteBuffer buffer) throws IOException;
+	
+	/**
+	 * Reads a number of bytes into the buffer.
+	 * 
+	 * @param channel The file.
+	 * @param buffer The buffer. Is flipped afterwards.
+	 * @param position The position in the file.
+	 * @param length The number of bytes to read. Must not be larger than the buffer.
+	 * 
+	 * @return If all bytes could be read.
+	 * 
+	 * @throws IOException
+	 */
+	protected static boolean read(final FileChannel channel, final ByteBuffer buffer, 
+			final long position, final int length) throws IOException
+	{
+		buffer.clear();
+		buffer.limit(length);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0) return false;
+		buffer.flip();
+		return true;
+	}
+	
+	/**
+	 * Calculates the average bitrate of a file.
+	 * 
+	 * @param bytes The size of the audio data.
+	 * @param duration The duration in seconds.
+	 * 
+	 * @return The bitrate in kbit/s or null if the duration is unknown.
+	 */
+	protected static String bitrate(final long bytes, final long duration)
+	{
+		return duration > 0 ? Long.toString(bytes * 8 / duration / 1000) : null;
+	}
+	
+	/**
+	 * Decodes a string from the buffer. Stops at the first zero byte, or zero byte pair
+	 * for UTF-16.
+	 * 
+	 * @param buffer The buffer.
+	 * @param offset The offset of the string.
+	 * @param length The maximum length of the string in bytes.
+	 * @param charset The charset.
+	 * 
+	 * @return The string.
+	 */
+	protected static String string(final ByteBuffer buffer, final int offset, final int length, final Charset charset)
+	{
+		final int limit = Math.min(buffer.limit(), offset + length);
+		if (offset >= limit) return "";
+		
+		int end = offset;
+		if (charset.name().startsWith("UTF-16")) 
+			while (end + 1 < limit && (buffer.get(end) != 0 || buffer.get(end + 1) != 0)) end += 2;
+		else 
+			while (end < limit && buffer.get(end) != 0) end++;
+		
+		return new String(buffer.array(), offset, end - offset, charset);
+	}
+}
@@ -0,0 +1,228 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.senselessweb.soundcloud.domain.library.FileInformations;
+
+/**
+ * Reads the tags of ASF files (wma). Only the objects of the ASF header are read,
+ * the tags are taken from the content description and the extended content 
+ * description objects. The payload of a file is the content of its data object.
+ * 
+ * @author thomas
+ */
+public class AsfTagReader extends AbstractTagReader
+{
+
+	/**
+	 * The ASF header object
+	 */
+	private static final byte[] headerObject = guid("75B22630-668E-11CF-A6D9-00AA0062CE6C");
+	
+	/**
+	 * The content description object
+	 */
+	private static final byte[] contentDescriptionObject = guid("75B22633-668E-11CF-A6D9-00AA0062CE6C");
+	
+	/**
+	 * The extended content description object
+	 */
+	private static final byte[] extendedContentDescriptionObject = guid("D2D0A440-E307-11D2-97F0-00A0C95EA850");
+	
+	/**
+	 * The file properties object
+	 */
+	private static final byte[] filePropertiesObject = guid("8CABDCA1-A947-11CF-8EE4-00C00C205365");
+	
+	/**
+	 * The data object
+	 */
+	private static final byte[] dataObject = guid("75B22636-668E-11CF-A6D9-00AA0062CE6C");
+	
+	/**
+	 * The size of the data object header in front of the first data packet
+	 */
+	private static final int dataObjectHeaderSize = 50;
+	
+	
+	/**
+	 * @see com.senselessweb.soundcloud.util.AbstractTagReader#read(java.nio.channels.FileChannel, java.nio.ByteBuffer)
+	 */
+	@Override
+	protected FileInformations read(final FileChannel channel, final ByteBuffer buffer) throws IOException
+	{
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (!read(channel, buffer, 0, 30) || !guidEquals(buffer, headerObject)) return null;
+		
+		final long headerEnd = Math.min(buffer.getLong(16), channel.size());
+		final long objects = buffer.getInt(24) & 0xffffffffL;
+		
+		String title = null, artist = null;
+		long duration = -1;
+		final Map<String, String> attributes = new HashMap<String, String>();
+		
+		long position = 30;
+		for (long i = 0; i < objects && position + 24 <= headerEnd; i++)
+		{
+			if (!read(channel, buffer, position, 24)) break;
+			final long size = buffer.getLong(16);
+			if (size < 24 || position + size > headerEnd) break;
+			
+			if (guidEquals(buffer, contentDescriptionObject) && 
+					read(channel, buffer, position + 24, (int) Math.min(size - 24, bufferSize)) && buffer.limit() >= 10)
+			{
+				// The lengths of title, author, copyright, description and rating, followed by the values
+				final int titleLength = buffer.getShort(0) & 0xffff;
+				final int authorLength = buffer.getShort(2) & 0xffff;
+				title = string(buffer, 10, titleLength, utf16le);
+				artist = string(buffer, 10 + titleLength, authorLength, utf16le);
+			}
+			else if (guidEquals(buffer, filePropertiesObject) && read(channel, buffer, position + 24, 64))
+			{
+				// The play duration is given in 100 ns units and includes the preroll in ms
+				duration = (buffer.getLong(40) / 10000 - buffer.getLong(56)) / 1000;
+			}
+			else if (guidEquals(buffer, extendedContentDescriptionObject))
+				readDescriptors(channel, buffer, position + 24, position + size, attributes);
+			
+			position += size;
+		}
+		
+		String tracknumber = attributes.get("WM/TrackNumber");
+		if (tracknumber == null && attributes.containsKey("WM/Track"))
+		{
+			// WM/Track is zero based
+			try { tracknumber = Integer.toString(Integer.parseInt(attributes.get("WM/Track").trim()) + 1); } 
+			catch (final NumberFormatException e) { tracknumber = attributes.get("WM/Track"); }
+		}
+		
+		return new FileInformations(title, artist, attributes.get("WM/AlbumTitle"), tracknumber, attributes.get("WM/Genre"), 
+				bitrate(channel.size(), duration), duration);
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.util.AbstractTagReader#payload(java.nio.channels.FileChannel, java.nio.ByteBuffer)
+	 */
+	@Override
+	protected long[] payload(final FileChannel channel, final ByteBuffer buffer) throws IOException
+	{
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (!read(channel, buffer, 0, 24) || !guidEquals(buffer, headerObject)) return null;
+		
+		// The data object follows the header object. Its header contains the file id, the number of packets and
+		// two reserved bytes. The size may be zero for files that were written while streaming.
+		final long size = channel.size();
+		final long headerEnd = buffer.getLong(16);
+		if (headerEnd < 30 || headerEnd + dataObjectHeaderSize > size || !read(channel, buffer, headerEnd, 24) || 
+				!guidEquals(buffer, dataObject)) 
+			return null;
+		
+		final long dataSize = buffer.getLong(16);
+		final long end = dataSize < dataObjectHeaderSize ? size : Math.min(headerEnd + dataSize, size);
+		return new long[] { headerEnd + dataObjectHeaderSize, end };
+	}
+	
+	/**
+	 * Reads the content descriptors of an extended content description object. Only 
+	 * descriptors that fit into the buffer are read.
+	 * 
+	 * @param channel The file.
+	 * @param buffer The buffer to use.
+	 * @param start The start of the object content.
+	 * @param end The end of the object.
+	 * @param attributes Receives the values by name.
+	 * 
+	 * @throws IOException
+	 */
+	private static void readDescriptors(final FileChannel channel, final ByteBuffer buffer, 
+			final long start, final long end, final Map<String, String> attributes) throws IOException
+	{
+		if (start + 2 > end || !read(channel, buffer, start, 2)) return;
+		final int count = buffer.getShort(0) & 0xffff;
+		
+		long position = start + 2;
+		for (int i = 0; i < count && position + 2 <= end; i++)
+		{
+			if (!read(channel, buffer, position, 2)) return;
+			final int nameLength = buffer.getShort(0) & 0xffff;
+			if (position + 2 + nameLength + 4 > end || !read(channel, buffer, position + 2 + nameLength, 4)) return;
+			
+			final int type = buffer.getShort(0) & 0xffff;
+			final int valueLength = buffer.getShort(2) & 0xffff;
+			final long valuePosition = position + 2 + nameLength + 4;
+			if (valuePosition + valueLength > end) return;
+			
+			if (nameLength <= bufferSize && valueLength <= bufferSize && read(channel, buffer, position + 2, nameLength))
+			{
+				final String name = string(buffer, 0, nameLength, utf16le);
+				if (name.startsWith("WM/") && !attributes.containsKey(name) && read(channel, buffer, valuePosition, valueLength))
+				{
+					final String value = value(buffer, type, valueLength);
+					if (value != null) attributes.put(name, value);
+				}
+			}
+			position = valuePosition + valueLength;
+		}
+	}
+	
+	/**
+	 * Decodes the value of a content descriptor.
+	 * 
+	 * @param buffer The buffer that contains the value.
+	 * @param type The value type.
+	 * @param length The length of the value.
+	 * 
+	 * @return The value as string or null if the type is not supported.
+	 */
+	private static String value(final ByteBuffer buffer, final int type, final int length)
+	{
+		switch (type)
+		{
+			case 0: return string(buffer, 0, length, utf16le);
+			case 3: return length >= 4 ? Long.toString(buffer.getInt(0) & 0xffffffffL) : null;
+			case 4: return length >= 8 ? Long.toString(buffer.getLong(0)) : null;
+			case 5: return length >= 2 ? Integer.toString(buffer.getShort(0) & 0xffff) : null;
+			default: return null;
+		}
+	}
+	
+	/**
+	 * Checks if the buffer starts with the given guid.
+	 * 
+	 * @param buffer The buffer.
+	 * @param guid The guid.
+	 * 
+	 * @return If the buffer starts with the guid.
+	 */
+	private static boolean guidEquals(final ByteBuffer buffer, final byte[] guid)
+	{
+		return Arrays.equals(Arrays.copyOf(buffer.array(), guid.length), guid);
+	}
+	
+	/**
+	 * Converts a guid to the byte order used in ASF files. The first three groups 
+	 * are little endian.
+	 * 
+	 * @param guid The guid in its string representation.
+	 * 
+	 * @return The bytes.
+	 */
+	static byte[] guid(final String guid)
+	{
+		final String hex = guid.replace("-", "");
+		final int[] order = new int[] { 3, 2, 1, 0, 5, 4, 7, 6, 8, 9, 10, 11, 12, 13, 14, 15 };
+		final byte[] result = new byte[16];
+		for (int i = 0; i < 16; i++) 
+			result[i] = (byte) Integer.parseInt(hex.substring(order[i] * 2, order[i] * 2 + 2), 16);
+		return result;
+	}
+}
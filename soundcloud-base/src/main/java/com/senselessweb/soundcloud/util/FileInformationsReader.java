@@ -4,8 +4,13 @@
 package com.senselessweb.soundcloud.util;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Map;
 
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.CharUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.farng.mp3.MP3File;
 
 import com.senselessweb.soundcloud.domain.library.FileInformations;
@@ -18,6 +23,59 @@ import com.senselessweb.soundcloud.domain.library.FileInformations;
 public class FileInformationsReader
 {
 
+	/**
+	 * The log
+	 */
+	private static final Log log = LogFactory.getLog(FileInformationsReader.class);
+
+	/**
+	 * The available implementations.
+	 */
+	public enum Implementation
+	{
+		/** Uses the {@link MP3File} of jid3lib */
+		JID3LIB,
+		
+		/** Uses the {@link TagReader} for the file extension, falls back to jid3lib for unsupported files */
+		NIO
+	}
+	
+	/**
+	 * The {@link TagReader}s by file extension.
+	 */
+	private static final Map<String, TagReader> tagReaders = new MapBuilder<String, TagReader>()
+			.with("mp3", new Id3TagReader())
+			.with("ogg", new VorbisCommentReader())
+			.with("m4a", new Mp4TagReader())
+			.with("wma", new AsfTagReader())
+			.with("wav", new RiffInfoReader()).build();
+	
+	/**
+	 * The implementation used by {@link #read(File)}. Can be configured using the
+	 * system property <code>soundcloud.tagreader</code>.
+	 */
+	private static final Implementation defaultImplementation = readDefaultImplementation();
+	
+	/**
+	 * Reads the configured implementation.
+	 * 
+	 * @return The configured implementation or {@link Implementation#NIO} if the configured
+	 * value is unknown.
+	 */
+	private static Implementation readDefaultImplementation()
+	{
+		final String name = System.getProperty("soundcloud.tagreader", Implementation.NIO.name());
+		try
+		{
+			return Implementation.valueOf(name.toUpperCase());
+		}
+		catch (final IllegalArgumentException e)
+		{
+			log.warn("Unknown tag reader \"" + name + "\", using " + Implementation.NIO);
+			return Implementation.NIO;
+		}
+	}
+	
 	/**
 	 * Tries to read the {@link FileInformations} from a given file.
 	 * 
@@ -26,6 +84,80 @@ public class FileInformationsReader
 	 * @return The {@link FileInformations}.
 	 */
 	public static FileInformations read(final File input)
+	{
+		return read(input, defaultImplementation);
+	}
+	
+	/**
+	 * Tries to read the {@link FileInformations} from a given file using the given implementation.
+	 * 
+	 * @param input The file.
+	 * @param implementation The implementation to use.
+	 * 
+	 * @return The {@link FileInformations}.
+	 */
+	public static FileInformations read(final File input, final Implementation implementation)
+	{
+		if (implementation == Implementation.NIO)
+		{
+			final FileInformations fileInformations = readNio(input);
+			if (fileInformations != null) return fileInformations;
+		}
+		return readJid3lib(input);
+	}
+	
+	/**
+	 * Returns the {@link TagReader} for the file extension.
+	 * 
+	 * @param input The file.
+	 * 
+	 * @return The {@link TagReader} or null if the file extension is not supported.
+	 */
+	static TagReader getTagReader(final File input)
+	{
+		return tagReaders.get(FilenameUtils.getExtension(input.getName()).toLowerCase());
+	}
+	
+	/**
+	 * Reads the {@link FileInformations} using the {@link TagReader} for the file extension.
+	 * 
+	 * @param input The file.
+	 * 
+	 * @return The {@link FileInformations} or null if the file is not supported.
+	 */
+	private static FileInformations readNio(final File input)
+	{
+		final TagReader tagReader = getTagReader(input);
+		if (tagReader == null) return null;
+		
+		try
+		{
+			final FileInformations raw = tagReader.read(input);
+			if (raw == null) return null;
+			
+			return new FileInformations(format(raw.getTitle()), format(raw.getArtist()), format(raw.getAlbum()), 
+					format(raw.getTracknumber()), format(raw.getGenre()), raw.getBitrate(), raw.getDuration());
+		}
+		catch (final IOException e)
+		{
+			return new FileInformations(null, null, null, null, null, null);
+		}
+		catch (final RuntimeException e)
+		{
+			// Malformed tags may cause invalid positions or sizes
+			log.debug("Could not read the tags of " + input, e);
+			return new FileInformations(null, null, null, null, null, null);
+		}
+	}
+	
+	/**
+	 * Reads the {@link FileInformations} using jid3lib.
+	 * 
+	 * @param input The file.
+	 * 
+	 * @return The {@link FileInformations}.
+	 */
+	private static FileInformations readJid3lib(final File input)
 	{
 		final String title, album, artist, genre, tracknumber;
 		
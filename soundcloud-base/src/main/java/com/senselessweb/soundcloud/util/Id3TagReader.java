@@ -0,0 +1,419 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.senselessweb.soundcloud.domain.library.FileInformations;
+
+/**
+ * Reads the ID3 tags of mp3 files. Only the ID3v2 header and frames at the beginning
+ * of the file and the last 128 bytes for ID3v1 are read. Supports ID3v2.2, ID3v2.3, 
+ * ID3v2.4 and ID3v1(.1).
+ * 
+ * The returned values are not formatted and are the same as the ones returned by
+ * jid3lib. Tags that use features this reader does not support, like unsynchronisation
+ * of the whole tag, are reported as unsupported, so the caller can fall back to jid3lib.
+ * 
+ * The duration and the bitrate are calculated from the first MPEG audio frame and its
+ * Xing or VBRI header. Files without such a header are assumed to have a constant bitrate.
+ * 
+ * @author thomas
+ */
+public class Id3TagReader extends AbstractTagReader
+{
+	
+	/**
+	 * The charsets of ID3v2 text frames by encoding byte.
+	 */
+	private static final Charset[] charsets = new Charset[] {
+		latin1, Charset.forName("UTF-16"), Charset.forName("UTF-16BE"), utf8 };
+	
+	/**
+	 * The number of bytes behind the ID3v2 tag that are searched for the first MPEG audio frame.
+	 */
+	private static final int maxFrameSearch = 64 * 1024;
+	
+	/**
+	 * The MPEG audio sample rates by version and index.
+	 */
+	private static final int[][] sampleRates = new int[][] { 
+		{ 11025, 12000, 8000 }, null, { 22050, 24000, 16000 }, { 44100, 48000, 32000 } };
+	
+	/**
+	 * The MPEG audio bitrates in kbit/s for MPEG1 Layer I, II, III and MPEG2 Layer I and II/III.
+	 */
+	private static final int[][] bitrates = new int[][] {
+		{ 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },
+		{ 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+		{ 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 },
+		{ 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },
+		{ 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 } };
+	
+	/**
+	 * The frames this reader is interested in. The ID3v2.2 frame ids are mapped to the
+	 * ID3v2.3 ones.
+	 */
+	private static final Map<String, String> frameIds = new MapBuilder<String, String>()
+			.with("TIT2", "TIT2").with("TALB", "TALB").with("TPE1", "TPE1").with("TCON", "TCON").with("TRCK", "TRCK")
+			.with("TT2", "TIT2").with("TAL", "TALB").with("TP1", "TPE1").with("TCO", "TCON").with("TRK", "TRCK").build();
+	
+	
+	/**
+	 * @see com.senselessweb.soundcloud.util.AbstractTagReader#read(java.nio.channels.FileChannel, java.nio.ByteBuffer)
+	 */
+	@Override
+	protected FileInformations read(final FileChannel channel, final ByteBuffer buffer) throws IOException
+	{
+		final Map<String, String> frames = new HashMap<String, String>();
+		final FileInformations tags;
+		switch (readId3v2(channel, buffer, frames))
+		{
+			case FOUND:
+				tags = new FileInformations(text(frames, "TIT2"), text(frames, "TPE1"), text(frames, "TALB"), 
+						text(frames, "TRCK"), text(frames, "TCON"), null);
+				break;
+			case UNSUPPORTED:
+				return null;
+			default:
+				tags = readId3v1(channel, buffer);
+		}
+		
+		final long[] properties = readMpegProperties(channel, buffer);
+		return properties == null ? tags : new FileInformations(tags.getTitle(), tags.getArtist(), tags.getAlbum(), 
+				tags.getTracknumber(), tags.getGenre(), Long.toString(properties[1]), properties[0]);
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.util.AbstractTagReader#payload(java.nio.channels.FileChannel, java.nio.ByteBuffer)
+	 */
+	@Override
+	protected long[] payload(final FileChannel channel, final ByteBuffer buffer) throws IOException
+	{
+		return audioData(channel, buffer);
+	}
+	
+	/**
+	 * The result of reading the ID3v2 tag.
+	 */
+	private enum Result
+	{
+		/** The tag has been read */
+		FOUND,
+		
+		/** There is no ID3v2 tag */
+		MISSING,
+		
+		/** The tag uses unsupported features */
+		UNSUPPORTED
+	}
+	
+	/**
+	 * Reads the ID3v2 text frames this reader is interested in.
+	 * 
+	 * @param channel The file.
+	 * @param buffer The buffer to use.
+	 * @param frames Receives the text of the frames by ID3v2.3 frame id.
+	 * 
+	 * @return The result.
+	 * 
+	 * @throws IOException
+	 */
+	private static Result readId3v2(final FileChannel channel, final ByteBuffer buffer,
+			final Map<String, String> frames) throws IOException
+	{
+		if (!read(channel, buffer, 0, 10)) return Result.MISSING;
+		if (buffer.get() != 'I' || buffer.get() != 'D' || buffer.get() != '3') return Result.MISSING;
+		
+		final int version = buffer.get();
+		buffer.get(); // revision
+		final int flags = buffer.get() & 0xff;
+		final long end = 10 + syncsafe(buffer.getInt());
+		
+		if (version < 2 || version > 4) return Result.UNSUPPORTED;
+		
+		// Unsynchronisation of the whole tag, compression in ID3v2.2
+		if ((flags & 0x80) != 0 || (version == 2 && (flags & 0x40) != 0)) return Result.UNSUPPORTED;
+		
+		long position = 10;
+		if (version > 2 && (flags & 0x40) != 0)
+		{
+			// Skip the extended header. Its size includes itself only in ID3v2.4.
+			if (!read(channel, buffer, position, 4)) return Result.UNSUPPORTED;
+			position += version == 3 ? 4 + buffer.getInt() : syncsafe(buffer.getInt());
+		}
+		
+		final int headerSize = version == 2 ? 6 : 10;
+		while (position + headerSize <= end && frames.size() < 5)
+		{
+			if (!read(channel, buffer, position, headerSize)) break;
+			
+			final byte[] id = new byte[headerSize == 6 ? 3 : 4];
+			buffer.get(id);
+			if (id[0] == 0) break; // Padding
+			
+			final long size;
+			int frameFlags = 0;
+			if (version == 2) size = (buffer.get() & 0xff) << 16 | (buffer.get() & 0xff) << 8 | (buffer.get() & 0xff);
+			else
+			{
+				size = version == 3 ? buffer.getInt() & 0xffffffffL : syncsafe(buffer.getInt());
+				buffer.get(); // Status flags
+				frameFlags = buffer.get() & 0xff;
+			}
+			if (size <= 0 || position + headerSize + size > end) break;
+			
+			final String frameId = frameIds.get(new String(id, latin1));
+			if (frameId != null && !frames.containsKey(frameId))
+			{
+				long offset = position + headerSize;
+				long length = size;
+				boolean readable = true;
+				
+				if (version == 3)
+				{
+					// Compression, encryption and grouping
+					readable = (frameFlags & 0xc0) == 0;
+					if ((frameFlags & 0x20) != 0) { offset++; length--; }
+				}
+				else if (version == 4)
+				{
+					// Compression, encryption and unsynchronisation, grouping and data length
+					readable = (frameFlags & 0x0e) == 0;
+					if ((frameFlags & 0x40) != 0) { offset++; length--; }
+					if ((frameFlags & 0x01) != 0) { offset += 4; length -= 4; }
+				}
+				
+				if (readable && length > 0 && read(channel, buffer, offset, (int) Math.min(length, bufferSize)))
+					frames.put(frameId, decodeText(buffer));
+			}
+			
+			position += headerSize + size;
+		}
+		return Result.FOUND;
+	}
+	
+	/**
+	 * Reads the ID3v1 tag at the end of the file.
+	 * 
+	 * @param channel The file.
+	 * @param buffer The buffer to use.
+	 * 
+	 * @return The {@link FileInformations}. All fields are null if there is no ID3v1 tag.
+	 * 
+	 * @throws IOException
+	 */
+	private static FileInformations readId3v1(final FileChannel channel, final ByteBuffer buffer) throws IOException
+	{
+		final long size = channel.size();
+		if (size < 128 || !read(channel, buffer, size - 128, 128) ||
+				buffer.get(0) != 'T' || buffer.get(1) != 'A' || buffer.get(2) != 'G')
+			return new FileInformations(null, null, null, null, null, null);
+		
+		final String title = string(buffer, 3, 30, latin1);
+		final String artist = string(buffer, 33, 30, latin1);
+		final String album = string(buffer, 63, 30, latin1);
+		
+		// ID3v1.1 stores the track number in the last byte of the comment
+		final String tracknumber = buffer.get(125) == 0 ? Integer.toString(buffer.get(126)) : null;
+		final String genre = Integer.toString(buffer.get(127));
+		
+		return new FileInformations(title, artist, album, tracknumber, genre, null);
+	}
+	
+	/**
+	 * Returns the position of the audio data. It starts behind the ID3v2 tag and its optional
+	 * footer and ends in front of the ID3v1 tag.
+	 * 
+	 * @param channel The file.
+	 * @param buffer The buffer to use.
+	 * 
+	 * @return The start and the end of the audio data.
+	 * 
+	 * @throws IOException
+	 */
+	private static long[] audioData(final FileChannel channel, final ByteBuffer buffer) throws IOException
+	{
+		final long size = channel.size();
+		long start = 0;
+		if (read(channel, buffer, 0, 10) && buffer.get(0) == 'I' && buffer.get(1) == 'D' && buffer.get(2) == '3')
+			start = Math.min(size, 10 + syncsafe(buffer.getInt(6)) + ((buffer.get(5) & 0x10) != 0 ? 10 : 0));
+		long end = size;
+		if (end - start >= 128 && read(channel, buffer, size - 128, 3) && string(buffer, 0, 3, latin1).equals("TAG")) 
+			end -= 128;
+		return new long[] { start, end };
+	}
+	
+	/**
+	 * Finds the first MPEG audio frame and calculates the duration and the bitrate. Uses
+	 * the frame count of a Xing or VBRI header if present, otherwise the file is assumed
+	 * to have a constant bitrate.
+	 * 
+	 * @param channel The file.
+	 * @param buffer The buffer to use.
+	 * 
+	 * @return The duration in seconds and the bitrate in kbit/s or null if no frame was found.
+	 * 
+	 * @throws IOException
+	 */
+	private static long[] readMpegProperties(final FileChannel channel, final ByteBuffer buffer) throws IOException
+	{
+		final long[] audioData = audioData(channel, buffer);
+		final long audioStart = audioData[0];
+		final long audioEnd = audioData[1];
+		
+		// Search the first frame, which is followed by a second one
+		for (long position = audioStart; position < Math.min(audioEnd, audioStart + maxFrameSearch) - 4; position++)
+		{
+			if (!read(channel, buffer, position, (int) Math.min(bufferSize, audioEnd - position))) return null;
+			for (int i = 0; i + 4 <= buffer.limit(); i++)
+			{
+				final int header = buffer.getInt(i);
+				final int frameLength = frameLength(header);
+				if (frameLength <= 0) continue;
+				
+				final ByteBuffer next = ByteBuffer.allocate(4);
+				if (position + i + frameLength + 4 <= audioEnd && 
+						(channel.read(next, position + i + frameLength) < 4 || frameLength(next.getInt(0)) <= 0)) continue;
+				
+				return mpegProperties(channel, buffer, position + i, header, audioEnd);
+			}
+			position += buffer.limit() - 4;
+		}
+		return null;
+	}
+	
+	/**
+	 * Calculates the duration and the bitrate from the first MPEG audio frame.
+	 * 
+	 * @param channel The file.
+	 * @param buffer The buffer to use.
+	 * @param position The position of the first frame.
+	 * @param header The header of the first frame.
+	 * @param audioEnd The end of the audio data.
+	 * 
+	 * @return The duration in seconds and the bitrate in kbit/s.
+	 * 
+	 * @throws IOException
+	 */
+	private static long[] mpegProperties(final FileChannel channel, final ByteBuffer buffer, 
+			final long position, final int header, final long audioEnd) throws IOException
+	{
+		final int version = header >> 19 & 3; // 3 = MPEG1, 2 = MPEG2, 0 = MPEG2.5
+		final int layer = header >> 17 & 3; // 3 = Layer I, 2 = Layer II, 1 = Layer III
+		final boolean mono = (header >> 6 & 3) == 3;
+		final int sampleRate = sampleRates[version][header >> 10 & 3];
+		final int samplesPerFrame = layer == 3 ? 384 : layer == 2 || version == 3 ? 1152 : 576;
+		final long audioBytes = audioEnd - position;
+		
+		long frames = -1;
+		if (read(channel, buffer, position, (int) Math.min(64, audioEnd - position)))
+		{
+			// The Xing header follows the side information, the VBRI header has a fixed offset
+			final int xing = 4 + (version == 3 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+			if (buffer.limit() >= xing + 12 && (string(buffer, xing, 4, latin1).equals("Xing") || 
+					string(buffer, xing, 4, latin1).equals("Info")) && (buffer.getInt(xing + 4) & 1) != 0)
+				frames = buffer.getInt(xing + 8) & 0xffffffffL;
+			else if (buffer.limit() >= 54 && string(buffer, 36, 4, latin1).equals("VBRI"))
+				frames = buffer.getInt(50) & 0xffffffffL;
+		}
+		
+		if (frames > 0)
+		{
+			final long duration = frames * samplesPerFrame / sampleRate;
+			return new long[] { duration, duration > 0 ? audioBytes * 8 / duration / 1000 : 0 };
+		}
+		
+		final int bitrate = bitrate(header);
+		return new long[] { audioBytes * 8 / (bitrate * 1000L), bitrate };
+	}
+	
+	/**
+	 * Returns the length of an MPEG audio frame.
+	 * 
+	 * @param header The frame header.
+	 * 
+	 * @return The length in bytes or -1 if the header is invalid.
+	 */
+	private static int frameLength(final int header)
+	{
+		if ((header & 0xffe00000) != 0xffe00000) return -1;
+		
+		final int version = header >> 19 & 3;
+		final int layer = header >> 17 & 3;
+		final int sampleRateIndex = header >> 10 & 3;
+		if (version == 1 || layer == 0 || sampleRateIndex == 3) return -1;
+		
+		final int bitrate = bitrate(header);
+		if (bitrate <= 0) return -1;
+		
+		final int sampleRate = sampleRates[version][sampleRateIndex];
+		final int padding = header >> 9 & 1;
+		if (layer == 3) return (12000 * bitrate / sampleRate + padding) * 4;
+		return (layer == 1 && version != 3 ? 72000 : 144000) * bitrate / sampleRate + padding;
+	}
+	
+	/**
+	 * Returns the bitrate of an MPEG audio frame.
+	 * 
+	 * @param header The frame header.
+	 * 
+	 * @return The bitrate in kbit/s or -1 if the bitrate index is invalid.
+	 */
+	private static int bitrate(final int header)
+	{
+		final int version = header >> 19 & 3;
+		final int layer = header >> 17 & 3;
+		final int index = header >> 12 & 0xf;
+		if (index == 0 || index == 15) return -1;
+		
+		if (version == 3) return bitrates[3 - layer][index];
+		return bitrates[layer == 3 ? 3 : 4][index];
+	}
+	
+	/**
+	 * Decodes a syncsafe integer, which uses only the lower 7 bits of every byte.
+	 * 
+	 * @param value The raw value.
+	 * 
+	 * @return The decoded value.
+	 */
+	private static long syncsafe(final int value)
+	{
+		return (value & 0x7f) | (value >> 1 & 0x3f80) | (value >> 2 & 0x1fc000) | (value >> 3 & 0xfe00000);
+	}
+	
+	/**
+	 * Decodes the first string of a text frame.
+	 * 
+	 * @param buffer The buffer that contains the frame content.
+	 * 
+	 * @return The text.
+	 */
+	private static String decodeText(final ByteBuffer buffer)
+	{
+		final int encoding = buffer.get();
+		final Charset charset = encoding >= 0 && encoding < charsets.length ? charsets[encoding] : latin1;
+		return string(buffer, buffer.position(), buffer.remaining(), charset);
+	}
+	
+	/**
+	 * Returns the trimmed text of a frame like jid3lib does.
+	 * 
+	 * @param frames The frames.
+	 * @param frameId The frame id.
+	 * 
+	 * @return The text or an empty string if the frame is missing.
+	 */
+	private static String text(final Map<String, String> frames, final String frameId)
+	{
+		final String text = frames.get(frameId);
+		return text == null ? "" : text.trim();
+	}
+}
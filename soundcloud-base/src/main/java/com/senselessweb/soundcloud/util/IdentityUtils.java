@@ -1,5 +1,9 @@
 package com.senselessweb.soundcloud.util;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 /**
  * Contains static methods to check the identity of a class.
  * 
@@ -35,4 +39,25 @@ public class IdentityUtils
 		}
 		return true;
 	}
+	
+	/**
+	 * Creates a stable id for a string, for example for documents whose id is derived
+	 * from their content.
+	 * 
+	 * @param value The string.
+	 * 
+	 * @return The hex encoded MD5 hash of the UTF-8 encoded string.
+	 */
+	public static String hash(final String value)
+	{
+		try
+		{
+			final byte[] hash = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+			final StringBuilder sb = new StringBuilder(hash.length * 2);
+			for (final byte b : hash) sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			return sb.toString();
+		}
+		catch (final NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+		catch (final UnsupportedEncodingException e) { throw new RuntimeException(e); }
+	}
 }
@@ -0,0 +1,238 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.farng.mp3.TagConstant;
+
+import com.senselessweb.soundcloud.domain.library.FileInformations;
+
+/**
+ * Reads the iTunes metadata of MP4 files (m4a). Walks the atom headers down to 
+ * <code>moov/udta/meta/ilst</code> and reads only the items of that list, the media
+ * data is skipped. The payload of a file is the content of its mdat atom.
+ * 
+ * @author thomas
+ */
+public class Mp4TagReader extends AbstractTagReader
+{
+
+	/**
+	 * The title item
+	 */
+	private static final String title = "\u00a9nam";
+	
+	/**
+	 * The artist item
+	 */
+	private static final String artist = "\u00a9ART";
+	
+	/**
+	 * The album item
+	 */
+	private static final String album = "\u00a9alb";
+	
+	/**
+	 * The genre item containing free text
+	 */
+	private static final String genre = "\u00a9gen";
+	
+	/**
+	 * The genre item containing the ID3v1 genre id + 1
+	 */
+	private static final String genreId = "gnre";
+	
+	/**
+	 * The track number item
+	 */
+	private static final String tracknumber = "trkn";
+	
+	
+	/**
+	 * @see com.senselessweb.soundcloud.util.AbstractTagReader#read(java.nio.channels.FileChannel, java.nio.ByteBuffer)
+	 */
+	@Override
+	protected FileInformations read(final FileChannel channel, final ByteBuffer buffer) throws IOException
+	{
+		final List<Atom> atoms = children(channel, buffer, 0, channel.size());
+		if (atoms.isEmpty() || !atoms.get(0).type.equals("ftyp")) return null;
+		
+		final Atom moov = find(atoms, "moov");
+		if (moov == null) return new FileInformations(null, null, null, null, null, null);
+		
+		final List<Atom> moovAtoms = children(channel, buffer, moov.start, moov.end);
+		final long duration = readDuration(channel, buffer, find(moovAtoms, "mvhd"));
+		final String bitrate = bitrate(channel.size(), duration);
+		
+		final Atom udta = find(moovAtoms, "udta");
+		Atom meta = udta != null ? find(children(channel, buffer, udta.start, udta.end), "meta") : null;
+		if (meta == null) meta = find(moovAtoms, "meta");
+		
+		// meta is a full atom, the children start after the version and the flags
+		final Atom ilst = meta != null ? find(children(channel, buffer, meta.start + 4, meta.end), "ilst") : null;
+		if (ilst == null) return new FileInformations(null, null, null, null, null, bitrate, duration);
+		
+		String titleValue = null, artistValue = null, albumValue = null, genreValue = null, tracknumberValue = null;
+		for (final Atom item : children(channel, buffer, ilst.start, ilst.end))
+		{
+			final Atom data = find(children(channel, buffer, item.start, item.end), "data");
+			
+			// The data atom contains the type, the locale and the value
+			if (data == null || data.end - data.start < 8 || 
+					!read(channel, buffer, data.start, (int) Math.min(data.end - data.start, bufferSize))) continue;
+			
+			if (item.type.equals(title)) titleValue = string(buffer, 8, buffer.limit(), utf8);
+			else if (item.type.equals(artist)) artistValue = string(buffer, 8, buffer.limit(), utf8);
+			else if (item.type.equals(album)) albumValue = string(buffer, 8, buffer.limit(), utf8);
+			else if (item.type.equals(genre)) genreValue = string(buffer, 8, buffer.limit(), utf8);
+			else if (item.type.equals(genreId) && genreValue == null && buffer.limit() >= 10) 
+				genreValue = (String) TagConstant.genreIdToString.get(Long.valueOf((buffer.getShort(8) & 0xffff) - 1));
+			else if (item.type.equals(tracknumber) && buffer.limit() >= 14)
+			{
+				final int track = buffer.getShort(10) & 0xffff;
+				final int total = buffer.getShort(12) & 0xffff;
+				if (track > 0) tracknumberValue = total > 0 ? track + "/" + total : Integer.toString(track);
+			}
+		}
+		return new FileInformations(titleValue, artistValue, albumValue, tracknumberValue, genreValue, bitrate, duration);
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.util.AbstractTagReader#payload(java.nio.channels.FileChannel, java.nio.ByteBuffer)
+	 */
+	@Override
+	protected long[] payload(final FileChannel channel, final ByteBuffer buffer) throws IOException
+	{
+		// The tags are kept in the moov atom, the audio samples in the mdat atom
+		final List<Atom> atoms = children(channel, buffer, 0, channel.size());
+		if (atoms.isEmpty() || !atoms.get(0).type.equals("ftyp")) return null;
+		
+		final Atom mdat = find(atoms, "mdat");
+		return mdat != null ? new long[] { mdat.start, mdat.end } : null;
+	}
+	
+	/**
+	 * Reads the duration of the movie from the movie header.
+	 * 
+	 * @param channel The file.
+	 * @param buffer The buffer to use.
+	 * @param mvhd The movie header atom. May be null.
+	 * 
+	 * @return The duration in seconds or -1 if unknown.
+	 * 
+	 * @throws IOException
+	 */
+	private static long readDuration(final FileChannel channel, final ByteBuffer buffer, final Atom mvhd) throws IOException
+	{
+		if (mvhd == null || !read(channel, buffer, mvhd.start, (int) Math.min(mvhd.end - mvhd.start, 32))) return -1;
+		
+		// Version 1 uses 64 bit times and durations
+		final long timescale, duration;
+		if (buffer.get(0) == 1 && buffer.limit() >= 32) 
+		{
+			timescale = buffer.getInt(20) & 0xffffffffL;
+			duration = buffer.getLong(24);
+		}
+		else if (buffer.get(0) == 0 && buffer.limit() >= 20)
+		{
+			timescale = buffer.getInt(12) & 0xffffffffL;
+			duration = buffer.getInt(16) & 0xffffffffL;
+		}
+		else return -1;
+		
+		return timescale > 0 ? duration / timescale : -1;
+	}
+	
+	/**
+	 * Reads the headers of all atoms in the given range.
+	 * 
+	 * @param channel The file.
+	 * @param buffer The buffer to use.
+	 * @param start The start of the range.
+	 * @param end The end of the range.
+	 * 
+	 * @return The atoms. Stops at the first invalid atom.
+	 * 
+	 * @throws IOException
+	 */
+	private static List<Atom> children(final FileChannel channel, final ByteBuffer buffer, 
+			final long start, final long end) throws IOException
+	{
+		final List<Atom> result = new ArrayList<Atom>();
+		long position = start;
+		while (position + 8 <= end && read(channel, buffer, position, (int) Math.min(16, end - position)))
+		{
+			long size = buffer.getInt(0) & 0xffffffffL;
+			int header = 8;
+			if (size == 1 && buffer.limit() == 16)
+			{
+				size = buffer.getLong(8);
+				header = 16;
+			}
+			else if (size == 0) size = end - position;
+			if (size < header || position + size > end) break;
+			
+			result.add(new Atom(string(buffer, 4, 4, latin1), position + header, position + size));
+			position += size;
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the first atom of the given type.
+	 * 
+	 * @param atoms The atoms.
+	 * @param type The type.
+	 * 
+	 * @return The atom or null if there is no such atom.
+	 */
+	private static Atom find(final List<Atom> atoms, final String type)
+	{
+		for (final Atom atom : atoms) if (atom.type.equals(type)) return atom;
+		return null;
+	}
+	
+	/**
+	 * The header of an atom.
+	 * 
+	 * @author thomas
+	 */
+	private static class Atom
+	{
+		
+		/**
+		 * The type
+		 */
+		final String type;
+		
+		/**
+		 * The start of the content
+		 */
+		final long start;
+		
+		/**
+		 * The end of the atom
+		 */
+		final long end;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param type The type
+		 * @param start The start of the content
+		 * @param end The end of the atom
+		 */
+		Atom(final String type, final long start, final long end)
+		{
+			this.type = type;
+			this.start = start;
+			this.end = end;
+		}
+	}
+}
@@ -0,0 +1,226 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashes the audio payload of media files, so files with the same audio content are
+ * recognized even if their tags differ. The payload is located by the {@link AbstractTagReader}
+ * for the file extension: the audio data between the ID3 tags of mp3 files, the pages behind
+ * the header packets of ogg files, the mdat atom of m4a files, the data object of wma files and
+ * the data chunk of wav files. Files with other extensions are treated like mp3 files, files
+ * the reader does not recognize are hashed completely.
+ * 
+ * The payload is read in small chunks into a buffer that is reused per thread, so neither
+ * large files are copied into the heap nor mappings of them are kept until the next garbage
+ * collection. A partial hash only reads the beginning, the middle and the end of the payload
+ * and is used to rule out most candidates before the whole payload is hashed.
+ * 
+ * @author thomas
+ */
+public class PayloadHasher
+{
+
+	/**
+	 * The number of bytes of each of the three regions read by the partial hash.
+	 */
+	private static final int partialRegionSize = 64 * 1024;
+	
+	/**
+	 * The number of bytes that are read at once.
+	 */
+	private static final int chunkSize = 64 * 1024;
+	
+	/**
+	 * The reader used for files with unknown extensions.
+	 */
+	private static final AbstractTagReader defaultReader = new Id3TagReader();
+	
+	/**
+	 * The buffers of all threads.
+	 */
+	private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+		/** @see java.lang.ThreadLocal#initialValue() */
+		@Override protected ByteBuffer initialValue()
+		{
+			return ByteBuffer.allocate(chunkSize);
+		}
+	};
+	
+	
+	/**
+	 * Returns the position of the audio payload.
+	 * 
+	 * @param file The file.
+	 * 
+	 * @return The start and the end of the payload.
+	 * 
+	 * @throws IOException
+	 */
+	public static long[] getPayload(final File file) throws IOException
+	{
+		final FileInputStream in = new FileInputStream(file);
+		try
+		{
+			return payload(file, in.getChannel());
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Hashes the beginning, the middle and the end of the audio payload together with its size.
+	 * 
+	 * @param file The file.
+	 * 
+	 * @return The hex encoded hash.
+	 * 
+	 * @throws IOException
+	 */
+	public static String partialHash(final File file) throws IOException
+	{
+		final FileInputStream in = new FileInputStream(file);
+		try
+		{
+			final FileChannel channel = in.getChannel();
+			final long[] payload = payload(file, channel);
+			final long size = payload[1] - payload[0];
+			final MessageDigest digest = md5();
+			digest.update(Long.toString(size).getBytes("US-ASCII"));
+			
+			if (size <= 3 * partialRegionSize) update(digest, channel, payload[0], size);
+			else
+			{
+				update(digest, channel, payload[0], partialRegionSize);
+				update(digest, channel, payload[0] + (size - partialRegionSize) / 2, partialRegionSize);
+				update(digest, channel, payload[1] - partialRegionSize, partialRegionSize);
+			}
+			return hex(digest.digest());
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Hashes the whole audio payload.
+	 * 
+	 * @param file The file.
+	 * 
+	 * @return The hex encoded hash.
+	 * 
+	 * @throws IOException
+	 */
+	public static String fullHash(final File file) throws IOException
+	{
+		final FileInputStream in = new FileInputStream(file);
+		try
+		{
+			final FileChannel channel = in.getChannel();
+			final long[] payload = payload(file, channel);
+			final MessageDigest digest = md5();
+			update(digest, channel, payload[0], payload[1] - payload[0]);
+			return hex(digest.digest());
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Returns the position of the audio payload.
+	 * 
+	 * @param file The file.
+	 * @param channel The opened file.
+	 * 
+	 * @return The start and the end of the payload.
+	 * 
+	 * @throws IOException
+	 */
+	private static long[] payload(final File file, final FileChannel channel) throws IOException
+	{
+		final TagReader tagReader = FileInformationsReader.getTagReader(file);
+		final AbstractTagReader reader = tagReader == null ? defaultReader : 
+			tagReader instanceof AbstractTagReader ? (AbstractTagReader) tagReader : null;
+		
+		final long size = channel.size();
+		final long[] payload = reader != null ? reader.payload(channel) : null;
+		if (payload == null) return new long[] { 0, size };
+		
+		// Malformed files may contain positions behind the end of the file
+		final long start = Math.max(0, Math.min(payload[0], size));
+		return new long[] { start, Math.max(start, Math.min(payload[1], size)) };
+	}
+	
+	/**
+	 * Updates the digest with a region of the file. The region is read in chunks.
+	 * 
+	 * @param digest The digest.
+	 * @param channel The file.
+	 * @param position The start of the region.
+	 * @param length The length of the region.
+	 * 
+	 * @throws IOException
+	 */
+	private static void update(final MessageDigest digest, final FileChannel channel, final long position,
+			final long length) throws IOException
+	{
+		final ByteBuffer buffer = buffers.get();
+		long offset = 0;
+		while (offset < length)
+		{
+			buffer.clear();
+			buffer.limit((int) Math.min(chunkSize, length - offset));
+			final int read = channel.read(buffer, position + offset);
+			if (read < 0) throw new EOFException();
+			
+			buffer.flip();
+			digest.update(buffer);
+			offset += read;
+		}
+	}
+	
+	/**
+	 * Creates a MD5 digest.
+	 * 
+	 * @return The digest.
+	 */
+	private static MessageDigest md5()
+	{
+		try
+		{
+			return MessageDigest.getInstance("MD5");
+		}
+		catch (final NoSuchAlgorithmException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Encodes bytes as hex string.
+	 * 
+	 * @param bytes The bytes.
+	 * 
+	 * @return The hex string.
+	 */
+	private static String hex(final byte[] bytes)
+	{
+		final StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (final byte b : bytes) sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		return sb.toString();
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.senselessweb.soundcloud.domain.library.FileInformations;
+
+/**
+ * Reads the tags of wav files from the RIFF <code>LIST/INFO</code> chunk. Only the
+ * chunk headers and the INFO chunk are read, the sample data is skipped. The payload
+ * of a file is the content of its data chunk.
+ * 
+ * @author thomas
+ */
+public class RiffInfoReader extends AbstractTagReader
+{
+
+	/**
+	 * @see com.senselessweb.soundcloud.util.AbstractTagReader#read(java.nio.channels.FileChannel, java.nio.ByteBuffer)
+	 */
+	@Override
+	protected FileInformations read(final FileChannel channel, final ByteBuffer buffer) throws IOException
+	{
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (!read(channel, buffer, 0, 12) || !string(buffer, 0, 4, latin1).equals("RIFF") || 
+				!string(buffer, 8, 4, latin1).equals("WAVE"))
+			return null;
+		
+		final long end = Math.min(8 + (buffer.getInt(4) & 0xffffffffL), channel.size());
+		final Map<String, String> values = new HashMap<String, String>();
+		long byteRate = 0;
+		long dataSize = 0;
+		
+		long position = 12;
+		while (position + 8 <= end && read(channel, buffer, position, (int) Math.min(12, end - position)))
+		{
+			final String id = string(buffer, 0, 4, latin1);
+			final long size = buffer.getInt(4) & 0xffffffffL;
+			if (id.equals("LIST") && size >= 4 && buffer.limit() == 12 && string(buffer, 8, 4, latin1).equals("INFO"))
+				readInfo(channel, buffer, position + 12, Math.min(position + 8 + size, end), values);
+			else if (id.equals("fmt ") && size >= 12 && buffer.limit() == 12 && read(channel, buffer, position + 8, 12))
+				byteRate = buffer.getInt(8) & 0xffffffffL;
+			else if (id.equals("data"))
+				dataSize = Math.min(size, end - position - 8);
+			
+			// Chunks are padded to an even size
+			position += 8 + size + (size & 1);
+		}
+		
+		return new FileInformations(values.get("INAM"), values.get("IART"), values.get("IPRD"), 
+				values.containsKey("ITRK") ? values.get("ITRK") : values.get("IPRT"), values.get("IGNR"), 
+				byteRate > 0 ? Long.toString(byteRate * 8 / 1000) : null, byteRate > 0 ? dataSize / byteRate : -1);
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.util.AbstractTagReader#payload(java.nio.channels.FileChannel, java.nio.ByteBuffer)
+	 */
+	@Override
+	protected long[] payload(final FileChannel channel, final ByteBuffer buffer) throws IOException
+	{
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (!read(channel, buffer, 0, 12) || !string(buffer, 0, 4, latin1).equals("RIFF") || 
+				!string(buffer, 8, 4, latin1).equals("WAVE"))
+			return null;
+		
+		final long end = Math.min(8 + (buffer.getInt(4) & 0xffffffffL), channel.size());
+		long position = 12;
+		while (position + 8 <= end && read(channel, buffer, position, 8))
+		{
+			final long size = buffer.getInt(4) & 0xffffffffL;
+			if (string(buffer, 0, 4, latin1).equals("data")) 
+				return new long[] { position + 8, position + 8 + Math.min(size, end - position - 8) };
+			
+			position += 8 + size + (size & 1);
+		}
+		return null;
+	}
+	
+	/**
+	 * Reads the sub chunks of an INFO list.
+	 * 
+	 * @param channel The file.
+	 * @param buffer The buffer to use.
+	 * @param start The start of the first sub chunk.
+	 * @param end The end of the list.
+	 * @param values Receives the values by chunk id.
+	 * 
+	 * @throws IOException
+	 */
+	private static void readInfo(final FileChannel channel, final ByteBuffer buffer, 
+			final long start, final long end, final Map<String, String> values) throws IOException
+	{
+		long position = start;
+		while (position + 8 <= end && read(channel, buffer, position, 8))
+		{
+			final String id = string(buffer, 0, 4, latin1);
+			final long size = buffer.getInt(4) & 0xffffffffL;
+			if (position + 8 + size > end) return;
+			
+			if (!values.containsKey(id) && read(channel, buffer, position + 8, (int) Math.min(size, bufferSize)))
+				values.put(id, string(buffer, 0, buffer.limit(), latin1));
+			
+			position += 8 + size + (size & 1);
+		}
+	}
+}
@@ -0,0 +1,32 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.util;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.senselessweb.soundcloud.domain.library.FileInformations;
+
+/**
+ * Reads the tags of a single media format. Implementations only read the parts of
+ * a file that contain the tags.
+ * 
+ * @author thomas
+ */
+public interface TagReader
+{
+
+	/**
+	 * Reads the tags of a file.
+	 * 
+	 * @param input The file.
+	 * 
+	 * @return The unformatted {@link FileInformations}. All fields are null or empty if
+	 * the file has no tags. Returns null if the file uses features that are not supported
+	 * by this reader.
+	 * 
+	 * @throws IOException If the file could not be read.
+	 */
+	public FileInformations read(File input) throws IOException;
+}
@@ -0,0 +1,377 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.senselessweb.soundcloud.domain.library.FileInformations;
+
+/**
+ * Reads the Vorbis comments of ogg files. Supports Ogg Vorbis and Ogg Opus. Only the
+ * pages that contain the comment header are read, large comments like embedded pictures
+ * are skipped.
+ * 
+ * The payload of a file starts with the first page behind the header packets. The audio
+ * pages are numbered, so files only have the same payload if their comments fill the same
+ * number of pages, which is the case unless large comments like pictures are added.
+ * 
+ * @author thomas
+ */
+public class VorbisCommentReader extends AbstractTagReader
+{
+
+	/**
+	 * The start of a Vorbis identification header.
+	 */
+	private static final byte[] vorbisIdMagic = new byte[] { 1, 'v', 'o', 'r', 'b', 'i', 's' };
+	
+	/**
+	 * The start of an Opus identification header.
+	 */
+	private static final byte[] opusIdMagic = new byte[] { 'O', 'p', 'u', 's', 'H', 'e', 'a', 'd' };
+	
+	/**
+	 * The start of a Vorbis comment header.
+	 */
+	private static final byte[] vorbisMagic = new byte[] { 3, 'v', 'o', 'r', 'b', 'i', 's' };
+	
+	/**
+	 * The start of an Opus comment header.
+	 */
+	private static final byte[] opusMagic = new byte[] { 'O', 'p', 'u', 's', 'T', 'a', 'g', 's' };
+	
+	
+	/**
+	 * @see com.senselessweb.soundcloud.util.AbstractTagReader#read(java.nio.channels.FileChannel, java.nio.ByteBuffer)
+	 */
+	@Override
+	protected FileInformations read(final FileChannel channel, final ByteBuffer buffer) throws IOException
+	{
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		final OggInput in = new OggInput(channel, buffer);
+		
+		// The first page contains the identification header only, the comment header starts on the second one
+		if (!in.nextPage()) return null;
+		
+		try
+		{
+			// Opus always uses a granule rate of 48 kHz, but the first samples are skipped on playback
+			final ByteBuffer id = ByteBuffer.wrap(in.read(19)).order(ByteOrder.LITTLE_ENDIAN);
+			final long sampleRate, preskip;
+			if (Arrays.equals(Arrays.copyOf(id.array(), 7), vorbisIdMagic)) 
+			{
+				sampleRate = id.getInt(12) & 0xffffffffL;
+				preskip = 0;
+			}
+			else if (Arrays.equals(Arrays.copyOf(id.array(), 8), opusIdMagic))
+			{
+				sampleRate = 48000;
+				preskip = id.getShort(10) & 0xffff;
+			}
+			else
+			{
+				// Unknown identification header, read the comments anyway
+				sampleRate = 0;
+				preskip = 0;
+			}
+			
+			if (!in.nextPage()) return null;
+			
+			final byte[] magic = in.read(vorbisMagic.length);
+			if (!Arrays.equals(magic, vorbisMagic) && (!Arrays.equals(magic, Arrays.copyOf(opusMagic, magic.length)) || 
+					in.read(1)[0] != opusMagic[magic.length])) 
+				return null;
+			
+			in.skip(in.readInt() & 0xffffffffL); // Vendor
+			final Map<String, String> comments = new HashMap<String, String>();
+			for (long i = in.readInt() & 0xffffffffL; i > 0; i--)
+			{
+				final long length = in.readInt() & 0xffffffffL;
+				if (length > bufferSize) 
+				{
+					in.skip(length);
+					continue;
+				}
+				
+				final String comment = new String(in.read((int) length), utf8);
+				final int separator = comment.indexOf('=');
+				if (separator <= 0) continue;
+				
+				final String key = comment.substring(0, separator).toUpperCase();
+				if (!comments.containsKey(key)) comments.put(key, comment.substring(separator + 1));
+			}
+			
+			String tracknumber = comments.get("TRACKNUMBER");
+			final String total = comments.containsKey("TRACKTOTAL") ? comments.get("TRACKTOTAL") : comments.get("TOTALTRACKS");
+			if (tracknumber != null && total != null && tracknumber.indexOf('/') < 0) tracknumber += "/" + total;
+			
+			final long granule = in.lastGranule();
+			final long duration = granule > preskip && sampleRate > 0 ? (granule - preskip) / sampleRate : -1;
+			
+			return new FileInformations(comments.get("TITLE"), comments.get("ARTIST"), comments.get("ALBUM"), 
+					tracknumber, comments.get("GENRE"), bitrate(channel.size(), duration), duration);
+		}
+		catch (final EOFException e)
+		{
+			// Truncated comment header
+			return null;
+		}
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.util.AbstractTagReader#payload(java.nio.channels.FileChannel, java.nio.ByteBuffer)
+	 */
+	@Override
+	protected long[] payload(final FileChannel channel, final ByteBuffer buffer) throws IOException
+	{
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		final OggInput in = new OggInput(channel, buffer);
+		if (!in.nextPage()) return null;
+		
+		try
+		{
+			// Vorbis has a comment and a setup header behind the identification header, Opus only the comment header
+			final byte[] id = in.read(opusIdMagic.length);
+			int headers;
+			if (Arrays.equals(Arrays.copyOf(id, vorbisIdMagic.length), vorbisIdMagic)) headers = 2;
+			else if (Arrays.equals(id, opusIdMagic)) headers = 1;
+			else return null;
+			
+			// The audio data starts on the page behind the last header
+			while (headers > 0)
+			{
+				if (!in.nextPage()) return null;
+				headers -= in.packets();
+			}
+			return new long[] { in.pageEnd(), channel.size() };
+		}
+		catch (final EOFException e)
+		{
+			// Truncated identification header
+			return null;
+		}
+	}
+	
+	/**
+	 * Reads the packet data of the first logical stream of an ogg file sequentially,
+	 * across page boundaries.
+	 * 
+	 * @author thomas
+	 */
+	private static class OggInput
+	{
+		
+		/**
+		 * The "OggS" capture pattern as little endian int.
+		 */
+		private static final int capturePattern = 0x5367674f;
+		
+		/**
+		 * The number of bytes at the end of the file that are searched for the last page.
+		 */
+		private static final int maxPageSearch = 64 * 1024;
+		
+		/**
+		 * The file
+		 */
+		private final FileChannel channel;
+		
+		/**
+		 * The buffer used to read the page headers
+		 */
+		private final ByteBuffer buffer;
+		
+		/**
+		 * The current read position in the file.
+		 */
+		private long position = 0;
+		
+		/**
+		 * The end of the data of the current page.
+		 */
+		private long pageEnd = 0;
+		
+		/**
+		 * The serial number of the first logical stream or null before the first page has been read.
+		 */
+		private Integer serial = null;
+		
+		/**
+		 * The number of packets that end on the current page.
+		 */
+		private int packets = 0;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param channel The file.
+		 * @param buffer The buffer used to read the page headers.
+		 */
+		OggInput(final FileChannel channel, final ByteBuffer buffer)
+		{
+			this.channel = channel;
+			this.buffer = buffer;
+		}
+		
+		/**
+		 * Moves to the start of the next page of the first logical stream. The remaining
+		 * data of the current page is skipped.
+		 * 
+		 * @return If there is a next page.
+		 * 
+		 * @throws IOException
+		 */
+		boolean nextPage() throws IOException
+		{
+			while (true)
+			{
+				final long header = this.pageEnd;
+				if (!AbstractTagReader.read(this.channel, this.buffer, header, 27) || this.buffer.getInt(0) != capturePattern) 
+					return false;
+				
+				final int pageSerial = this.buffer.getInt(14);
+				final int segments = this.buffer.get(26) & 0xff;
+				if (!AbstractTagReader.read(this.channel, this.buffer, header + 27, segments)) return false;
+				
+				// A packet ends with the first segment that is shorter than 255 bytes
+				int size = 0;
+				this.packets = 0;
+				for (int i = 0; i < segments; i++) 
+				{
+					final int segment = this.buffer.get(i) & 0xff;
+					size += segment;
+					if (segment < 255) this.packets++;
+				}
+				this.position = header + 27 + segments;
+				this.pageEnd = this.position + size;
+				
+				if (this.serial == null) this.serial = pageSerial;
+				if (this.serial.intValue() == pageSerial) return true;
+			}
+		}
+		
+		/**
+		 * Returns the number of packets that end on the current page.
+		 * 
+		 * @return The number of packets.
+		 */
+		int packets()
+		{
+			return this.packets;
+		}
+		
+		/**
+		 * Returns the end of the data of the current page.
+		 * 
+		 * @return The position in the file.
+		 */
+		long pageEnd()
+		{
+			return this.pageEnd;
+		}
+		
+		/**
+		 * Reads a number of bytes.
+		 * 
+		 * @param length The number of bytes.
+		 * 
+		 * @return The bytes.
+		 * 
+		 * @throws IOException
+		 */
+		byte[] read(final int length) throws IOException
+		{
+			final byte[] result = new byte[length];
+			int offset = 0;
+			while (offset < length)
+			{
+				this.ensureData();
+				final int n = (int) Math.min(length - offset, this.pageEnd - this.position);
+				final ByteBuffer target = ByteBuffer.wrap(result, offset, n);
+				while (target.hasRemaining())
+					if (this.channel.read(target, this.position + target.position() - offset) < 0) throw new EOFException();
+				this.position += n;
+				offset += n;
+			}
+			return result;
+		}
+		
+		/**
+		 * Reads a little endian int.
+		 * 
+		 * @return The int.
+		 * 
+		 * @throws IOException
+		 */
+		int readInt() throws IOException
+		{
+			final byte[] bytes = this.read(4);
+			return (bytes[0] & 0xff) | (bytes[1] & 0xff) << 8 | (bytes[2] & 0xff) << 16 | (bytes[3] & 0xff) << 24;
+		}
+		
+		/**
+		 * Skips a number of bytes.
+		 * 
+		 * @param length The number of bytes.
+		 * 
+		 * @throws IOException
+		 */
+		void skip(final long length) throws IOException
+		{
+			long remaining = length;
+			while (remaining > 0)
+			{
+				this.ensureData();
+				final long n = Math.min(remaining, this.pageEnd - this.position);
+				this.position += n;
+				remaining -= n;
+			}
+		}
+		
+		/**
+		 * Returns the granule position of the last page of the first logical stream, which
+		 * is the number of samples of that stream. Only the end of the file is read.
+		 * 
+		 * @return The granule position or -1 if the last page could not be found.
+		 * 
+		 * @throws IOException
+		 */
+		long lastGranule() throws IOException
+		{
+			final long size = this.channel.size();
+			for (long end = size; end > 0 && size - end < maxPageSearch; end -= bufferSize - 27)
+			{
+				final long start = Math.max(0, end - bufferSize);
+				if (!AbstractTagReader.read(this.channel, this.buffer, start, (int) (end - start))) return -1;
+				
+				for (int i = this.buffer.limit() - 27; i >= 0; i--)
+				{
+					if (this.buffer.getInt(i) == capturePattern && this.serial != null && 
+							this.buffer.getInt(i + 14) == this.serial.intValue() && this.buffer.getLong(i + 6) >= 0)
+						return this.buffer.getLong(i + 6);
+				}
+				if (start == 0) break;
+			}
+			return -1;
+		}
+		
+		/**
+		 * Moves to the next page if all data of the current page has been read.
+		 * 
+		 * @throws IOException
+		 */
+		private void ensureData() throws IOException
+		{
+			while (this.position >= this.pageEnd)
+				if (!this.nextPage()) throw new EOFException();
+		}
+	}
+}
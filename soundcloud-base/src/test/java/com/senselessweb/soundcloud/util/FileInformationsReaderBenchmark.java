@@ -0,0 +1,81 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.senselessweb.soundcloud.util.FileInformationsReader.Implementation;
+
+/**
+ * Compares the throughput of the {@link FileInformationsReader} implementations.
+ * 
+ * Usage: <code>FileInformationsReaderBenchmark [folder] [passes]</code>. Reads all media
+ * files of the given folder and its subfolders (default: the test files) the given
+ * number of times with each implementation and prints the files per second.
+ * 
+ * @author thomas
+ */
+public class FileInformationsReaderBenchmark
+{
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args The folder and the number of passes. Both optional.
+	 */
+	public static void main(final String[] args)
+	{
+		final File folder = new File(args.length > 0 ? args[0] : "src/test/resources/filereader-testfiles");
+		final int passes = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		
+		final List<File> files = new ArrayList<File>();
+		collect(folder, files);
+		if (files.isEmpty()) throw new IllegalArgumentException("No media files in " + folder);
+		
+		// Warm up both implementations first
+		for (final Implementation implementation : Implementation.values()) run(files, implementation, Math.max(1, passes / 10));
+		
+		for (final Implementation implementation : Implementation.values())
+		{
+			final long duration = Math.max(1, run(files, implementation, passes));
+			System.out.println(implementation + ": " + (files.size() * passes) + " files in " + duration + " ms (" +
+					(files.size() * passes * 1000L / duration) + " files/s)");
+		}
+	}
+	
+	/**
+	 * Reads all files the given number of times.
+	 * 
+	 * @param files The files.
+	 * @param implementation The implementation to use.
+	 * @param passes The number of passes.
+	 * 
+	 * @return The duration in milliseconds.
+	 */
+	private static long run(final List<File> files, final Implementation implementation, final int passes)
+	{
+		final long startTime = System.currentTimeMillis();
+		for (int i = 0; i < passes; i++)
+			for (final File file : files) FileInformationsReader.read(file, implementation);
+		return System.currentTimeMillis() - startTime;
+	}
+	
+	/**
+	 * Collects all media files of a folder and its subfolders.
+	 * 
+	 * @param folder The folder.
+	 * @param files Receives the files.
+	 */
+	private static void collect(final File folder, final List<File> files)
+	{
+		final File[] mediaFiles = folder.listFiles(FileFilters.mediaFileFilter);
+		final File[] dirs = folder.listFiles(FileFilters.directoryFilter);
+		if (mediaFiles == null || dirs == null) return;
+		
+		for (final File file : mediaFiles) files.add(file);
+		for (final File dir : dirs) collect(dir, files);
+	}
+}
@@ -3,14 +3,22 @@
  */
 package com.senselessweb.soundcloud.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 
 import junit.framework.Assert;
 
+import org.apache.commons.lang3.StringUtils;
 import org.junit.Test;
 
 import com.senselessweb.soundcloud.domain.library.FileInformations;
 import com.senselessweb.soundcloud.util.FileInformationsReader;
+import com.senselessweb.soundcloud.util.FileInformationsReader.Implementation;
 
 
 /**
@@ -41,4 +49,358 @@ public class FileInformationsReaderTest
 		Assert.assertEquals("1/13", fileInformations.getTracknumber());
 	}
 
+	/**
+	 * Checks that both implementations return the same informations.
+	 */
+	@Test
+	public void testImplementationsAgree()
+	{
+		assertSame(FileInformationsReader.read(testfile, Implementation.JID3LIB), 
+				FileInformationsReader.read(testfile, Implementation.NIO));
+	}
+	
+	/**
+	 * Calculates the duration and the bitrate of a simple mp3 file from its frame headers.
+	 */
+	@Test
+	public void testReadingDuration()
+	{
+		final FileInformations fileInformations = FileInformationsReader.read(testfile, Implementation.NIO);
+		
+		Assert.assertTrue(fileInformations.getDuration() > 0);
+		Assert.assertNotNull(fileInformations.getBitrate());
+		Assert.assertTrue(Integer.parseInt(fileInformations.getBitrate()) > 0);
+	}
+	
+	/**
+	 * Reads an ID3v2.3 tag with an UTF-16 encoded frame.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testReadingId3v23() throws IOException
+	{
+		final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		writeFrame(frames, "TIT2", 0, "Amajo".getBytes("ISO-8859-1"));
+		writeFrame(frames, "TPE1", 1, "Asmara All Stars".getBytes("UTF-16"));
+		writeFrame(frames, "TRCK", 0, "1/13".getBytes("ISO-8859-1"));
+		
+		final FileInformations fileInformations = read("mp3", concat(
+				new byte[] { 'I', 'D', '3', 3, 0, 0, 0, 0, (byte) (frames.size() >> 7), (byte) (frames.size() & 0x7f) }, 
+				frames.toByteArray(), new byte[1024]));
+		
+		Assert.assertEquals("Amajo", fileInformations.getTitle());
+		Assert.assertEquals("Asmara All Stars", fileInformations.getArtist());
+		Assert.assertEquals("1/13", fileInformations.getTracknumber());
+		Assert.assertNull(fileInformations.getAlbum());
+	}
+	
+	/**
+	 * Reads an ID3v2.3 tag with an invalid extended header size.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testReadingInvalidId3v23() throws IOException
+	{
+		final FileInformations fileInformations = read("mp3", concat(
+				new byte[] { 'I', 'D', '3', 3, 0, 0x40, 0, 0, 0, 100 }, 
+				new byte[] { (byte) 0xf0, 0, 0, 0 }, new byte[1024]));
+		
+		Assert.assertNull(fileInformations.getTitle());
+		Assert.assertNull(fileInformations.getArtist());
+	}
+	
+	/**
+	 * Reads the Vorbis comments of an ogg file. The comment header spans two pages
+	 * and starts with a large comment that has to be skipped.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testReadingOgg() throws IOException
+	{
+		final byte[] comments = concat(new byte[] { 3, 'v', 'o', 'r', 'b', 'i', 's' }, 
+				le(4, 4), bytes("test"), le(5, 4),
+				comment("METADATA_BLOCK_PICTURE=" + StringUtils.repeat("x", 5000)),
+				comment("TITLE=Amajo"), comment("artist=Asmara All Stars"), comment("ALBUM=Eritrea's Got Soul"),
+				comment("TRACKNUMBER=1"), new byte[] { 1 });
+		
+		// Vorbis identification header: version, 2 channels, 44100 Hz
+		final byte[] identification = concat(new byte[] { 1, 'v', 'o', 'r', 'b', 'i', 's' }, 
+				le(0, 4), new byte[] { 2 }, le(44100, 4), new byte[15]);
+		
+		final FileInformations fileInformations = read("ogg", concat(
+				oggPage(0, 0, identification), 
+				oggPage(1, 0, Arrays.copyOf(comments, 4000)), 
+				oggPage(2, 0, Arrays.copyOfRange(comments, 4000, comments.length)),
+				oggPage(3, 5 * 44100, new byte[100])));
+		
+		Assert.assertEquals("Amajo", fileInformations.getTitle());
+		Assert.assertEquals("Asmara All Stars", fileInformations.getArtist());
+		Assert.assertEquals("Eritrea's Got Soul", fileInformations.getAlbum());
+		Assert.assertEquals("1", fileInformations.getTracknumber());
+		Assert.assertEquals(5, fileInformations.getDuration());
+	}
+	
+	/**
+	 * Reads the iTunes metadata of an m4a file with the media data in front of the metadata.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testReadingM4a() throws IOException
+	{
+		final byte[] ilst = atom("ilst", 
+				atom("\u00a9nam", atom("data", le(0, 4), le(0, 4), bytes("Amajo"))),
+				atom("\u00a9ART", atom("data", le(0, 4), le(0, 4), bytes("Asmara All Stars"))),
+				atom("gnre", atom("data", le(0, 4), le(0, 4), new byte[] { 0, 6 })),
+				atom("trkn", atom("data", le(0, 4), le(0, 4), new byte[] { 0, 0, 0, 1, 0, 13, 0, 0 })));
+		
+		final FileInformations fileInformations = read("m4a", concat(
+				atom("ftyp", bytes("M4A "), le(0, 4)), 
+				atom("mdat", new byte[10000]),
+				atom("moov", atom("mvhd", new byte[100]), atom("udta", atom("meta", le(0, 4), atom("hdlr", new byte[25]), ilst)))));
+		
+		Assert.assertEquals("Amajo", fileInformations.getTitle());
+		Assert.assertEquals("Asmara All Stars", fileInformations.getArtist());
+		Assert.assertEquals("Funk", fileInformations.getGenre());
+		Assert.assertEquals("1/13", fileInformations.getTracknumber());
+	}
+	
+	/**
+	 * Reads the content description objects of a wma file.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testReadingWma() throws IOException
+	{
+		final byte[] title = utf16("Amajo"), author = utf16("Asmara All Stars");
+		final byte[] contentDescription = concat(le(title.length, 2), le(author.length, 2), le(0, 2), le(0, 2), le(0, 2), title, author);
+		final byte[] extendedContentDescription = concat(le(2, 2), 
+				le(utf16("WM/AlbumTitle").length, 2), utf16("WM/AlbumTitle"), le(0, 2), le(utf16("Eritrea's Got Soul").length, 2), utf16("Eritrea's Got Soul"),
+				le(utf16("WM/TrackNumber").length, 2), utf16("WM/TrackNumber"), le(3, 2), le(4, 2), le(1, 4));
+		
+		final byte[] objects = concat(
+				AsfTagReader.guid("75B22633-668E-11CF-A6D9-00AA0062CE6C"), le(24 + contentDescription.length, 8), contentDescription,
+				AsfTagReader.guid("D2D0A440-E307-11D2-97F0-00A0C95EA850"), le(24 + extendedContentDescription.length, 8), extendedContentDescription);
+		
+		final FileInformations fileInformations = read("wma", concat(
+				AsfTagReader.guid("75B22630-668E-11CF-A6D9-00AA0062CE6C"), le(30 + objects.length, 8), le(2, 4), new byte[] { 1, 2 }, 
+				objects, new byte[1000]));
+		
+		Assert.assertEquals("Amajo", fileInformations.getTitle());
+		Assert.assertEquals("Asmara All Stars", fileInformations.getArtist());
+		Assert.assertEquals("Eritrea's Got Soul", fileInformations.getAlbum());
+		Assert.assertEquals("1", fileInformations.getTracknumber());
+	}
+	
+	/**
+	 * Reads the INFO chunk of a wav file that follows an odd sized data chunk.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testReadingWav() throws IOException
+	{
+		final byte[] info = concat(bytes("INFO"), 
+				bytes("INAM"), le(6, 4), bytes("Amajo\0"), 
+				bytes("IART"), le(17, 4), bytes("Asmara All Stars\0"), new byte[1],
+				bytes("ITRK"), le(2, 4), bytes("1\0"));
+		final byte[] chunks = concat(bytes("WAVE"), bytes("fmt "), le(16, 4), new byte[16], 
+				bytes("data"), le(3, 4), new byte[4], bytes("LIST"), le(info.length, 4), info);
+		
+		final FileInformations fileInformations = read("wav", concat(bytes("RIFF"), le(chunks.length, 4), chunks));
+		
+		Assert.assertEquals("Amajo", fileInformations.getTitle());
+		Assert.assertEquals("Asmara All Stars", fileInformations.getArtist());
+		Assert.assertEquals("1", fileInformations.getTracknumber());
+		Assert.assertNull(fileInformations.getAlbum());
+	}
+	
+	/**
+	 * Calculates the duration of a wav file from the byte rate and the size of the data chunk.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testReadingWavDuration() throws IOException
+	{
+		// PCM, 2 channels, 44100 Hz, 176400 bytes/s, 16 bit
+		final byte[] format = concat(le(1, 2), le(2, 2), le(44100, 4), le(176400, 4), le(4, 2), le(16, 2));
+		final byte[] chunks = concat(bytes("WAVE"), bytes("fmt "), le(format.length, 4), format, 
+				bytes("data"), le(3 * 176400, 4), new byte[3 * 176400]);
+		
+		final FileInformations fileInformations = read("wav", concat(bytes("RIFF"), le(chunks.length, 4), chunks));
+		
+		Assert.assertEquals(3, fileInformations.getDuration());
+		Assert.assertEquals("1411", fileInformations.getBitrate());
+	}
+	
+	/**
+	 * Writes the content to a temporary file and reads it.
+	 * 
+	 * @param extension The file extension.
+	 * @param content The content of the file.
+	 * 
+	 * @return The {@link FileInformations} read by the NIO implementation.
+	 * 
+	 * @throws IOException
+	 */
+	private static FileInformations read(final String extension, final byte[] content) throws IOException
+	{
+		final File file = File.createTempFile("filereader", "." + extension);
+		try
+		{
+			final OutputStream out = new FileOutputStream(file);
+			try
+			{
+				out.write(content);
+			}
+			finally
+			{
+				out.close();
+			}
+			return FileInformationsReader.read(file, Implementation.NIO);
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Creates an ogg page that contains the given data.
+	 * 
+	 * @param sequence The page sequence number.
+	 * @param granule The granule position.
+	 * @param data The data.
+	 * 
+	 * @return The page.
+	 */
+	private static byte[] oggPage(final int sequence, final long granule, final byte[] data)
+	{
+		final byte[] segments = new byte[data.length / 255 + 1];
+		Arrays.fill(segments, (byte) 255);
+		segments[segments.length - 1] = (byte) (data.length % 255);
+		
+		return concat(bytes("OggS"), new byte[] { 0, (byte) (sequence == 0 ? 2 : 0) }, le(granule, 8), le(4711, 4), 
+				le(sequence, 4), le(0, 4), new byte[] { (byte) segments.length }, segments, data);
+	}
+	
+	/**
+	 * Creates a Vorbis comment.
+	 * 
+	 * @param comment The comment.
+	 * 
+	 * @return The comment including its length.
+	 */
+	private static byte[] comment(final String comment)
+	{
+		return concat(le(comment.length(), 4), bytes(comment));
+	}
+	
+	/**
+	 * Creates an MP4 atom.
+	 * 
+	 * @param type The type.
+	 * @param content The content.
+	 * 
+	 * @return The atom.
+	 */
+	private static byte[] atom(final String type, final byte[]... content)
+	{
+		final byte[] data = concat(content);
+		final int size = data.length + 8;
+		return concat(new byte[] { (byte) (size >> 24), (byte) (size >> 16), (byte) (size >> 8), (byte) size }, bytes(type), data);
+	}
+	
+	/**
+	 * Encodes a number as little endian.
+	 * 
+	 * @param value The number.
+	 * @param length The number of bytes.
+	 * 
+	 * @return The bytes.
+	 */
+	private static byte[] le(final long value, final int length)
+	{
+		final byte[] result = new byte[length];
+		for (int i = 0; i < length; i++) result[i] = (byte) (value >> (8 * i));
+		return result;
+	}
+	
+	/**
+	 * Encodes a string as ISO-8859-1.
+	 * 
+	 * @param s The string.
+	 * 
+	 * @return The bytes.
+	 */
+	private static byte[] bytes(final String s)
+	{
+		return s.getBytes(Charset.forName("ISO-8859-1"));
+	}
+	
+	/**
+	 * Encodes a string as zero terminated UTF-16LE.
+	 * 
+	 * @param s The string.
+	 * 
+	 * @return The bytes.
+	 */
+	private static byte[] utf16(final String s)
+	{
+		return (s + "\0").getBytes(Charset.forName("UTF-16LE"));
+	}
+	
+	/**
+	 * Concatenates byte arrays.
+	 * 
+	 * @param arrays The arrays.
+	 * 
+	 * @return The concatenated array.
+	 */
+	private static byte[] concat(final byte[]... arrays)
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (final byte[] array : arrays) out.write(array, 0, array.length);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Writes an ID3v2.3 text frame.
+	 * 
+	 * @param out The stream to write to.
+	 * @param id The frame id.
+	 * @param encoding The text encoding.
+	 * @param text The encoded text.
+	 * 
+	 * @throws IOException
+	 */
+	private static void writeFrame(final ByteArrayOutputStream out, final String id, final int encoding, 
+			final byte[] text) throws IOException
+	{
+		final int size = text.length + 1;
+		out.write(id.getBytes("ISO-8859-1"));
+		out.write(new byte[] { 0, 0, (byte) (size >> 8), (byte) size, 0, 0, (byte) encoding });
+		out.write(text);
+	}
+	
+	/**
+	 * Asserts that two {@link FileInformations} contain the same values.
+	 * 
+	 * @param expected The expected informations.
+	 * @param actual The actual informations.
+	 */
+	private static void assertSame(final FileInformations expected, final FileInformations actual)
+	{
+		Assert.assertEquals(expected.getTitle(), actual.getTitle());
+		Assert.assertEquals(expected.getArtist(), actual.getArtist());
+		Assert.assertEquals(expected.getAlbum(), actual.getAlbum());
+		Assert.assertEquals(expected.getTracknumber(), actual.getTracknumber());
+		Assert.assertEquals(expected.getGenre(), actual.getGenre());
+	}
+
 }
@@ -0,0 +1,324 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Testcases for the {@link PayloadHasher}
+ * 
+ * @author thomas
+ */
+public class PayloadHasherTest
+{
+
+	/**
+	 * The audio data of the test files. Larger than the three regions of the partial hash.
+	 */
+	private static final byte[] audio = random(1, 300 * 1024);
+	
+	/**
+	 * Other audio data of the same size.
+	 */
+	private static final byte[] otherAudio = random(2, 300 * 1024);
+	
+	
+	/**
+	 * Checks that the ID3v2 and the ID3v1 tag of mp3 files are not part of the payload.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testMp3() throws IOException
+	{
+		final byte[] id3v2 = concat(new byte[] { 'I', 'D', '3', 3, 0, 0, 0, 0, 1, 0 }, new byte[128]);
+		final byte[] id3v1 = concat(bytes("TAG"), new byte[125]);
+		
+		assertPayloadHash("mp3", concat(id3v2, audio, id3v1), audio, concat(id3v2, otherAudio, id3v1));
+	}
+	
+	/**
+	 * Checks that the header packets of ogg files are not part of the payload.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testOgg() throws IOException
+	{
+		final byte[] identification = concat(new byte[] { 1, 'v', 'o', 'r', 'b', 'i', 's' },
+				le(0, 4), new byte[] { 2 }, le(44100, 4), new byte[15]);
+		final byte[] setup = concat(new byte[] { 5, 'v', 'o', 'r', 'b', 'i', 's' }, new byte[100]);
+		final byte[] audioPages = concat(oggPage(3, 44100, Arrays.copyOf(audio, 30000)),
+				oggPage(4, 2 * 44100, Arrays.copyOfRange(audio, 30000, 60000)));
+		
+		assertPayloadHash("ogg",
+				concat(oggPage(0, 0, identification), oggPage(1, 0, vorbisComment("TITLE=Amajo")), oggPage(2, 0, setup), audioPages),
+				concat(oggPage(0, 0, identification), oggPage(1, 0, vorbisComment("TITLE=Amajo", "ARTIST=Asmara All Stars")),
+						oggPage(2, 0, setup), audioPages),
+				concat(oggPage(0, 0, identification), oggPage(1, 0, vorbisComment("TITLE=Amajo")), oggPage(2, 0, setup),
+						oggPage(3, 44100, Arrays.copyOf(otherAudio, 30000))));
+	}
+	
+	/**
+	 * Checks that the moov atom of m4a files is not part of the payload, even if it is
+	 * moved behind the media data.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testM4a() throws IOException
+	{
+		final byte[] ftyp = atom("ftyp", bytes("M4A "), le(0, 4));
+		final byte[] moov = atom("moov", atom("mvhd", new byte[100]), atom("udta", atom("meta", le(0, 4),
+				atom("ilst", atom("\u00a9nam", atom("data", le(0, 4), le(0, 4), bytes("Amajo")))))));
+		
+		assertPayloadHash("m4a", concat(ftyp, moov, atom("mdat", audio)),
+				concat(ftyp, atom("mdat", audio), atom("moov", atom("mvhd", new byte[100]))),
+				concat(ftyp, moov, atom("mdat", otherAudio)));
+	}
+	
+	/**
+	 * Checks that the header object of wma files is not part of the payload.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testWma() throws IOException
+	{
+		final byte[] title = concat(le(12, 2), le(0, 2), le(0, 2), le(0, 2), le(0, 2),
+				"Amajo\0".getBytes(Charset.forName("UTF-16LE")));
+		final byte[] contentDescription = concat(
+				AsfTagReader.guid("75B22633-668E-11CF-A6D9-00AA0062CE6C"), le(24 + title.length, 8), title);
+		
+		assertPayloadHash("wma", concat(asfHeader(contentDescription), asfData(audio)),
+				concat(asfHeader(new byte[0]), asfData(audio)),
+				concat(asfHeader(contentDescription), asfData(otherAudio)));
+	}
+	
+	/**
+	 * Checks that the INFO chunk of wav files is not part of the payload.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testWav() throws IOException
+	{
+		final byte[] info = concat(bytes("LIST"), le(18, 4), bytes("INFO"), bytes("INAM"), le(6, 4), bytes("Amajo\0"));
+		
+		assertPayloadHash("wav", riff(info, audio), riff(new byte[0], audio), riff(info, otherAudio));
+	}
+	
+	/**
+	 * Asserts that two files with the same audio data have the same hashes and a file
+	 * with other audio data has another one.
+	 * 
+	 * @param extension The file extension.
+	 * @param content The content of a file.
+	 * @param retagged The content of the same file with other tags.
+	 * @param other The content of a file with other audio data.
+	 * 
+	 * @throws IOException
+	 */
+	private static void assertPayloadHash(final String extension, final byte[] content, final byte[] retagged,
+			final byte[] other) throws IOException
+	{
+		final File file = write(extension, content);
+		final File retaggedFile = write(extension, retagged);
+		final File otherFile = write(extension, other);
+		try
+		{
+			Assert.assertEquals(PayloadHasher.partialHash(file), PayloadHasher.partialHash(retaggedFile));
+			Assert.assertEquals(PayloadHasher.fullHash(file), PayloadHasher.fullHash(retaggedFile));
+			Assert.assertFalse(PayloadHasher.fullHash(file).equals(PayloadHasher.fullHash(otherFile)));
+		}
+		finally
+		{
+			file.delete();
+			retaggedFile.delete();
+			otherFile.delete();
+		}
+	}
+	
+	/**
+	 * Writes the content to a temporary file.
+	 * 
+	 * @param extension The file extension.
+	 * @param content The content of the file.
+	 * 
+	 * @return The file.
+	 * 
+	 * @throws IOException
+	 */
+	private static File write(final String extension, final byte[] content) throws IOException
+	{
+		final File file = File.createTempFile("payloadhasher", "." + extension);
+		final OutputStream out = new FileOutputStream(file);
+		try
+		{
+			out.write(content);
+		}
+		finally
+		{
+			out.close();
+		}
+		return file;
+	}
+	
+	/**
+	 * Creates random bytes.
+	 * 
+	 * @param seed The seed.
+	 * @param length The number of bytes.
+	 * 
+	 * @return The bytes.
+	 */
+	private static byte[] random(final long seed, final int length)
+	{
+		final byte[] result = new byte[length];
+		new Random(seed).nextBytes(result);
+		return result;
+	}
+	
+	/**
+	 * Creates an ogg page that contains the given data.
+	 * 
+	 * @param sequence The page sequence number.
+	 * @param granule The granule position.
+	 * @param data The data.
+	 * 
+	 * @return The page.
+	 */
+	private static byte[] oggPage(final int sequence, final long granule, final byte[] data)
+	{
+		final byte[] segments = new byte[data.length / 255 + 1];
+		Arrays.fill(segments, (byte) 255);
+		segments[segments.length - 1] = (byte) (data.length % 255);
+		
+		return concat(bytes("OggS"), new byte[] { 0, (byte) (sequence == 0 ? 2 : 0) }, le(granule, 8), le(4711, 4),
+				le(sequence, 4), le(0, 4), new byte[] { (byte) segments.length }, segments, data);
+	}
+	
+	/**
+	 * Creates a Vorbis comment header.
+	 * 
+	 * @param comments The comments.
+	 * 
+	 * @return The header.
+	 */
+	private static byte[] vorbisComment(final String... comments)
+	{
+		byte[] result = concat(new byte[] { 3, 'v', 'o', 'r', 'b', 'i', 's' }, le(4, 4), bytes("test"), le(comments.length, 4));
+		for (final String comment : comments) result = concat(result, le(comment.length(), 4), bytes(comment));
+		return concat(result, new byte[] { 1 });
+	}
+	
+	/**
+	 * Creates an MP4 atom.
+	 * 
+	 * @param type The type.
+	 * @param content The content.
+	 * 
+	 * @return The atom.
+	 */
+	private static byte[] atom(final String type, final byte[]... content)
+	{
+		final byte[] data = concat(content);
+		final int size = data.length + 8;
+		return concat(new byte[] { (byte) (size >> 24), (byte) (size >> 16), (byte) (size >> 8), (byte) size }, bytes(type), data);
+	}
+	
+	/**
+	 * Creates an ASF header object.
+	 * 
+	 * @param objects The objects of the header.
+	 * 
+	 * @return The header object.
+	 */
+	private static byte[] asfHeader(final byte[] objects)
+	{
+		return concat(AsfTagReader.guid("75B22630-668E-11CF-A6D9-00AA0062CE6C"), le(30 + objects.length, 8),
+				le(objects.length > 0 ? 1 : 0, 4), new byte[] { 1, 2 }, objects);
+	}
+	
+	/**
+	 * Creates an ASF data object.
+	 * 
+	 * @param data The data packets.
+	 * 
+	 * @return The data object.
+	 */
+	private static byte[] asfData(final byte[] data)
+	{
+		return concat(AsfTagReader.guid("75B22636-668E-11CF-A6D9-00AA0062CE6C"), le(50 + data.length, 8),
+				new byte[16], le(1, 8), new byte[] { 1, 1 }, data);
+	}
+	
+	/**
+	 * Creates a wav file.
+	 * 
+	 * @param chunks The chunks in front of the data chunk.
+	 * @param data The sample data.
+	 * 
+	 * @return The file.
+	 */
+	private static byte[] riff(final byte[] chunks, final byte[] data)
+	{
+		final byte[] content = concat(bytes("WAVE"), bytes("fmt "), le(16, 4), new byte[16], chunks,
+				bytes("data"), le(data.length, 4), data);
+		return concat(bytes("RIFF"), le(content.length, 4), content);
+	}
+	
+	/**
+	 * Encodes a number as little endian.
+	 * 
+	 * @param value The number.
+	 * @param length The number of bytes.
+	 * 
+	 * @return The bytes.
+	 */
+	private static byte[] le(final long value, final int length)
+	{
+		final byte[] result = new byte[length];
+		for (int i = 0; i < length; i++) result[i] = (byte) (value >> (8 * i));
+		return result;
+	}
+	
+	/**
+	 * Encodes a string as ISO-8859-1.
+	 * 
+	 * @param s The string.
+	 * 
+	 * @return The bytes.
+	 */
+	private static byte[] bytes(final String s)
+	{
+		return s.getBytes(Charset.forName("ISO-8859-1"));
+	}
+	
+	/**
+	 * Concatenates byte arrays.
+	 * 
+	 * @param arrays The arrays.
+	 * 
+	 * @return The concatenated array.
+	 */
+	private static byte[] concat(final byte[]... arrays)
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (final byte[] array : arrays) out.write(array, 0, array.length);
+		return out.toByteArray();
+	}
+
+}
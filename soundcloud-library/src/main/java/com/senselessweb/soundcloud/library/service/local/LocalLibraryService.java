@@ -1,10 +1,15 @@
 package com.senselessweb.soundcloud.library.service.local;
 
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 
+import com.senselessweb.soundcloud.domain.library.DuplicateGroup;
 import com.senselessweb.soundcloud.domain.library.LocalFile;
 import com.senselessweb.soundcloud.domain.library.LocalFolder;
+import com.senselessweb.soundcloud.domain.library.ResultPage;
 import com.senselessweb.soundcloud.domain.sources.MediaSource;
+import com.senselessweb.storage.library.extraction.ExtractionStatistics;
 
 /**
  * Service interface for the local music library.
@@ -23,6 +28,16 @@ public interface LocalLibraryService
 	 */
 	public LocalFolder getFolder(String folder);
 	
+	/**
+	 * Reads the content of the given folder again, even if it is cached. New and modified
+	 * files are read with background priority, so interactive requests are not delayed.
+	 * 
+	 * @param folder The folder name. Relative to the base folder.
+	 * 
+	 * @return The content of the folder.
+	 */
+	public LocalFolder scanFolder(String folder);
+	
 	/**
 	 * Returns all files in a given folder and its subdirectories
 	 * 
@@ -32,6 +47,36 @@ public interface LocalLibraryService
 	 */
 	public Collection<LocalFile> getFiles(String folder);
 	
+	/**
+	 * Returns all files in a given folder and its subdirectories in the same order as 
+	 * {@link #getFiles(String)}. The folders are read while iterating, so the first 
+	 * files are available before the whole tree has been walked.
+	 * 
+	 * @param folder The folder name. Relative to the base folder.
+	 * 
+	 * @return An iterator over all items of that folder
+	 */
+	public Iterator<LocalFile> iterateFiles(String folder);
+	
+	/**
+	 * Same as {@link #iterateFiles(String)}, but can skip duplicates, so that only the
+	 * first file of every {@link DuplicateGroup} is returned.
+	 * 
+	 * @param folder The folder name. Relative to the base folder.
+	 * @param skipDuplicates If files with the same audio content as a previous file are skipped.
+	 * 
+	 * @return An iterator over all items of that folder
+	 */
+	public Iterator<LocalFile> iterateFiles(String folder, boolean skipDuplicates);
+	
+	/**
+	 * Drops the cached content of the given folder, so that it is read again on 
+	 * the next request.
+	 * 
+	 * @param folder The folder name. Relative to the base folder.
+	 */
+	public void invalidate(String folder);
+	
 	/**
 	 * Returns a single item.
 	 * 
@@ -51,4 +96,119 @@ public interface LocalLibraryService
 	 * there is no such item. 
 	 */
 	public LocalFile getFile(MediaSource mediaSource);	
+	
+	/**
+	 * Returns the statistics of the metadata extraction.
+	 * 
+	 * @return The current statistics.
+	 */
+	public ExtractionStatistics getExtractionStatistics();
+	
+	/**
+	 * Searches the files of the library by title, keywords and path.
+	 * 
+	 * @param query The query. Query terms may be prefixes or slightly misspelled.
+	 * @param limit The maximum number of results.
+	 * 
+	 * @return The best matching files, best match first.
+	 */
+	public List<LocalFile> search(String query, int limit);
+	
+	/**
+	 * Completes a prefix to the keywords of the library, like artists, albums and titles.
+	 * 
+	 * @param prefix The prefix.
+	 * @param limit The maximum number of suggestions.
+	 * 
+	 * @return The keywords contained in most files first.
+	 */
+	public List<String> suggest(String prefix, int limit);
+	
+	/**
+	 * Returns the artists of the library in alphabetical order.
+	 * 
+	 * @param offset The number of artists to skip.
+	 * @param limit The maximum number of artists.
+	 * 
+	 * @return The page of artists.
+	 */
+	public ResultPage<String> getArtists(int offset, int limit);
+	
+	/**
+	 * Returns the albums of an artist in alphabetical order.
+	 * 
+	 * @param artist The artist. Case insensitive.
+	 * @param offset The number of albums to skip.
+	 * @param limit The maximum number of albums.
+	 * 
+	 * @return The page of albums. Empty if there is no such artist.
+	 */
+	public ResultPage<String> getAlbums(String artist, int offset, int limit);
+	
+	/**
+	 * Returns the genres of the library in alphabetical order.
+	 * 
+	 * @param offset The number of genres to skip.
+	 * @param limit The maximum number of genres.
+	 * 
+	 * @return The page of genres.
+	 */
+	public ResultPage<String> getGenres(int offset, int limit);
+	
+	/**
+	 * Returns the files of an artist or of one album of an artist, sorted by album,
+	 * track number and path.
+	 * 
+	 * @param artist The artist. Case insensitive.
+	 * @param album The album or null for all files of the artist. Case insensitive.
+	 * @param offset The number of files to skip.
+	 * @param limit The maximum number of files.
+	 * 
+	 * @return The page of files. Empty if there is no such artist or album.
+	 */
+	public ResultPage<LocalFile> getTracks(String artist, String album, int offset, int limit);
+	
+	/**
+	 * Returns the files of a genre, sorted by artist, album, track number and path.
+	 * 
+	 * @param genre The genre. Case insensitive.
+	 * @param offset The number of files to skip.
+	 * @param limit The maximum number of files.
+	 * 
+	 * @return The page of files. Empty if there is no such genre.
+	 */
+	public ResultPage<LocalFile> getGenreTracks(String genre, int offset, int limit);
+	
+	/**
+	 * Compares the audio content of all stored files and stores the groups of duplicates.
+	 * Reads the files, so this should be called in the background.
+	 * 
+	 * @return The groups of files with the same audio content.
+	 */
+	public List<DuplicateGroup> detectDuplicates();
+	
+	/**
+	 * Returns the groups of duplicates found by the last {@link #detectDuplicates()}.
+	 * 
+	 * @return The groups of files with the same audio content.
+	 */
+	public List<DuplicateGroup> getDuplicates();
+	
+	/**
+	 * Records that the given files have been seen by a complete pass over the library.
+	 * 
+	 * @param files The files of a scanned folder.
+	 * @param generation The generation of the pass. Increases with every pass.
+	 */
+	public void markLive(Collection<LocalFile> files, long generation);
+	
+	/**
+	 * Removes the stored files that have not been seen by the last complete pass and 
+	 * do not exist any more. Should be called in the background.
+	 * 
+	 * @param generation The generation of the last complete pass.
+	 * 
+	 * @return The number of removed files.
+	 */
+	public int sweep(long generation);
 }
@@ -3,7 +3,17 @@
  */
 package com.senselessweb.soundcloud.library.service.local.impl;
 
-import java.util.LinkedList;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PreDestroy;
 
@@ -18,10 +28,34 @@ import org.springframework.stereotype.Service;
 import com.senselessweb.soundcloud.domain.library.LocalFolder;
 import com.senselessweb.soundcloud.domain.library.LocalSubfolder;
 import com.senselessweb.soundcloud.library.service.local.LocalLibraryService;
+import com.senselessweb.soundcloud.util.FileFilters;
 
 /**
  * Scans the local library to keep the items up2date. 
  *
+ * A pass walks the whole library using a fixed number of worker threads. Each
+ * worker scans one folder and hands its subfolders back to the pool, so the
+ * subtrees are walked in parallel. The number of workers, the maximum number of
+ * folders per second and the pause between two passes can be configured using
+ * the system properties <code>soundcloud.scanner.threads</code>,
+ * <code>soundcloud.scanner.foldersPerSecond</code> and
+ * <code>soundcloud.scanner.interval</code>.
+ * 
+ * The progress is recorded in a {@link ScanJournal}, by default
+ * <code>~/.soundcloud/scanner.journal</code>, configurable using the system property
+ * <code>soundcloud.scanner.journal</code>. After a restart an interrupted pass is
+ * resumed with the folders that were still pending. Folders whose directory has
+ * not been modified since they were scanned last are not read again, only their
+ * subfolders are walked. Files that are modified in place without touching their
+ * directory are therefore only picked up by a full pass, which ignores the
+ * modification times and runs at most every
+ * <code>soundcloud.scanner.fullPassInterval</code> milliseconds (default: one day).
+ * 
+ * Every full pass marks the stored files it has seen with its start time. After a complete
+ * full pass the stored files that have not been marked and do not exist any more are removed, 
+ * so the storage does not keep the files that have been deleted from the disk. After every 
+ * complete pass the files with the same audio content are detected again.
+ * 
  * @author thomas
  */
 @Service
@@ -33,21 +67,105 @@ public class LocalLibraryScanner implements ApplicationListener<ContextRefreshed
 	 */
 	static final Log log = LogFactory.getLog(LocalLibraryScanner.class);
 	
+	/**
+	 * The number of folders that are scanned in parallel.
+	 */
+	private static final int threads = Integer.getInteger("soundcloud.scanner.threads", 4);
+	
+	/**
+	 * The maximum number of folders that are scanned per second. 0 means unlimited.
+	 */
+	private static final int foldersPerSecond = Integer.getInteger("soundcloud.scanner.foldersPerSecond", 0);
+	
+	/**
+	 * The pause between two passes in milliseconds.
+	 */
+	private static final long interval = Long.getLong("soundcloud.scanner.interval", 60 * 60 * 1000);
+	
+	/**
+	 * The minimum time between the start of two full passes in milliseconds.
+	 */
+	private static final long fullPassInterval = Long.getLong("soundcloud.scanner.fullPassInterval", 24 * 60 * 60 * 1000);
+	
+	/**
+	 * The default journal file.
+	 */
+	private static final File defaultJournal = new File(System.getProperty("soundcloud.scanner.journal", 
+			new File(new File(System.getProperty("user.home"), ".soundcloud"), "scanner.journal").getPath()));
+	
 	
 	/**
 	 * The localLibraryService
 	 */
 	private final LocalLibraryService localLibraryService;
 	
+	/**
+	 * The root folder of the library
+	 */
+	private final String root;
+	
+	/**
+	 * The journal of the progress
+	 */
+	private final ScanJournal journal;
+	
 	/**
 	 * Indicates if the scanner is still alive.
 	 */
-	boolean alive = true;
+	volatile boolean alive = true;
+	
+	/**
+	 * The executors of the currently running passes.
+	 */
+	private final Set<ExecutorService> executors = new CopyOnWriteArraySet<ExecutorService>();
+	
+	/**
+	 * The executor of the subtrees that are scanned on request, see {@link #scanLater(String)}.
+	 */
+	private final ExecutorService background = Executors.newSingleThreadExecutor();
+	
+	/**
+	 * The earliest time the next folder may be scanned. Used to keep the io budget.
+	 */
+	private long nextSlot = 0;
+	
+	/**
+	 * The duration of the last complete pass in milliseconds or -1 if no pass has completed yet.
+	 */
+	private volatile long lastPassDuration = -1;
 
 	@Autowired
 	public LocalLibraryScanner(final LocalLibraryService localLibraryService) 
+	{
+		this(localLibraryService, LocalLibraryServiceImpl.root, openJournal(defaultJournal));
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param localLibraryService The localLibraryService
+	 * @param root The root folder of the library
+	 * @param journal The journal of the progress
+	 */
+	LocalLibraryScanner(final LocalLibraryService localLibraryService, final String root, final ScanJournal journal) 
 	{
 		this.localLibraryService = localLibraryService;
+		this.root = root;
+		this.journal = journal;
+	}
+	
+	/**
+	 * Opens the journal file. Creates its folder if necessary.
+	 * 
+	 * @param file The journal file.
+	 * 
+	 * @return The journal.
+	 */
+	private static ScanJournal openJournal(final File file)
+	{
+		if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs())
+			log.warn("Could not create the folder of the scan journal " + file);
+		return new ScanJournal(file);
 	}
 	
 
@@ -57,19 +175,23 @@ public class LocalLibraryScanner implements ApplicationListener<ContextRefreshed
 	@Override
 	@Async public void onApplicationEvent(final ContextRefreshedEvent event)
 	{
-		final LinkedList<String> folders = new LinkedList<String>();
-		
 		while (this.alive)
 		{
-			final String next = folders.pollFirst();
-			log.debug("Scanning " + next);
-			final LocalFolder localFolder = LocalLibraryScanner.this.localLibraryService.getFolder(next);
-			for (final LocalSubfolder subfolder : localFolder.getSubfolders())
-				folders.add((next != null ? next + "/" : "") + subfolder.getName());
+			final long startTime = System.currentTimeMillis();
+			final int scanned = this.pass();
+			
+			if (!this.alive) break;
+			
+			this.lastPassDuration = System.currentTimeMillis() - startTime;
+			log.info("Scanned " + scanned + " folders in " + this.lastPassDuration + " ms (" +
+					(scanned * 1000 / Math.max(1, this.lastPassDuration)) + " folders/s), " + 
+					this.localLibraryService.getExtractionStatistics());
+			if (this.journal.isFullPass()) this.sweep(this.journal.getLastFullPass(), scanned);
+			this.detectDuplicates();
 			
 			try
 			{
-				Thread.sleep(5000);
+				Thread.sleep(interval);
 			} 
 			catch (final InterruptedException e)
 			{
@@ -78,12 +200,343 @@ public class LocalLibraryScanner implements ApplicationListener<ContextRefreshed
 		}
 	}
 	
+	/**
+	 * Removes the stored files that have not been seen by a complete full pass. Does nothing
+	 * if the library has not been available, for example because the drive is not mounted.
+	 * 
+	 * @param generation The generation of that pass.
+	 * @param scanned The number of folders scanned by that pass.
+	 */
+	private void sweep(final long generation, final int scanned)
+	{
+		final String[] children = new File(this.root).list();
+		if (scanned == 0 || children == null || children.length == 0)
+		{
+			log.warn("Not removing stale files, the library " + this.root + " is not available");
+			return;
+		}
+		
+		try
+		{
+			final long startTime = System.currentTimeMillis();
+			final int reclaimed = this.localLibraryService.sweep(generation);
+			log.info("Reclaimed " + reclaimed + " stale files (" + (System.currentTimeMillis() - startTime) + " ms)");
+		}
+		catch (final RuntimeException e)
+		{
+			log.warn("Could not remove stale files", e);
+		}
+	}
+	
+	/**
+	 * Updates the groups of duplicates after a complete pass.
+	 */
+	private void detectDuplicates()
+	{
+		try
+		{
+			this.localLibraryService.detectDuplicates();
+		}
+		catch (final RuntimeException e)
+		{
+			log.warn("Could not detect duplicates", e);
+		}
+	}
+	
+	/**
+	 * Runs a pass over the whole library. Resumes the pass that was interrupted last, 
+	 * otherwise starts a new one. Blocks until the pass is complete or the scanner has 
+	 * been stopped.
+	 * 
+	 * @return The number of scanned folders.
+	 */
+	int pass()
+	{
+		final List<String> folders;
+		if (this.journal.isPassInProgress())
+		{
+			folders = this.journal.getPending();
+			log.info("Resuming the interrupted pass with " + folders.size() + " pending folders");
+		}
+		else
+		{
+			this.journal.startPass(System.currentTimeMillis() - this.journal.getLastFullPass() >= fullPassInterval);
+			folders = Collections.singletonList(null);
+		}
+		
+		final long generation = this.journal.isFullPass() ? this.journal.getLastFullPass() : 0;
+		final int scanned = this.scan(folders, generation == 0, generation);
+		if (this.alive) this.journal.finishPass();
+		return scanned;
+	}
+	
+	/**
+	 * Scans the given folder and all of its subfolders. Blocks until the whole subtree
+	 * has been scanned or the scanner has been stopped.
+	 * 
+	 * @param folder The folder to start with. Relative to the base folder, null for the root.
+	 * 
+	 * @return The number of scanned folders.
+	 */
+	int scan(final String folder)
+	{
+		return this.scan(Collections.singletonList(folder), false, 0);
+	}
+	
+	/**
+	 * Scans the given folder and all of its subfolders in the background. Returns immediately.
+	 * 
+	 * @param folder The folder to start with. Relative to the base folder, null for the root.
+	 */
+	void scanLater(final String folder)
+	{
+		try
+		{
+			this.background.execute(new Runnable() {
+				/** @see java.lang.Runnable#run() */
+				@Override public void run() {
+					try
+					{
+						LocalLibraryScanner.this.scan(folder);
+					}
+					catch (final RuntimeException e)
+					{
+						log.warn("Could not scan " + folder, e);
+					}
+				}
+			});
+		}
+		catch (final RejectedExecutionException e)
+		{
+			// The scanner has been stopped
+		}
+	}
+	
+	/**
+	 * Scans the given folders and all of their subfolders. Blocks until the whole subtrees
+	 * have been scanned or the scanner has been stopped.
+	 * 
+	 * @param folders The folders to start with. Relative to the base folder, null for the root.
+	 * @param skipUnchanged If folders whose directory has not been modified since their
+	 * last scan are skipped.
+	 * @param generation The generation the files of the scanned folders are marked with. 0 
+	 * if they are not marked.
+	 * 
+	 * @return The number of scanned folders.
+	 */
+	private int scan(final Collection<String> folders, final boolean skipUnchanged, final long generation)
+	{
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final AtomicInteger pending = new AtomicInteger();
+		final AtomicInteger scanned = new AtomicInteger();
+		
+		this.executors.add(executor);
+		try
+		{
+			for (final String folder : folders) this.submit(executor, folder, skipUnchanged, generation, pending, scanned);
+			synchronized (pending)
+			{
+				while (pending.get() > 0 && this.alive) pending.wait(1000);
+			}
+		}
+		catch (final InterruptedException e)
+		{
+			throw new RuntimeException("Scanner was interrupted", e);
+		}
+		finally
+		{
+			executor.shutdownNow();
+			this.executors.remove(executor);
+		}
+		return scanned.get();
+	}
+	
+	/**
+	 * Submits a folder to the given executor. The subfolders of that folder
+	 * are submitted as soon as the folder has been scanned.
+	 * 
+	 * @param executor The executor of the current pass.
+	 * @param folder The folder to scan.
+	 * @param skipUnchanged If the folder is skipped if it has not been modified.
+	 * @param generation The generation the files are marked with. 0 if they are not marked.
+	 * @param pending The number of submitted but not yet scanned folders.
+	 * @param scanned The number of scanned folders.
+	 */
+	void submit(final ExecutorService executor, final String folder, final boolean skipUnchanged,
+			final long generation, final AtomicInteger pending, final AtomicInteger scanned)
+	{
+		pending.incrementAndGet();
+		try
+		{
+			executor.execute(new FolderTask(executor, folder, skipUnchanged, generation, pending, scanned));
+		}
+		catch (final RejectedExecutionException e)
+		{
+			// The pass has been stopped
+			pending.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Blocks the current thread until the next folder may be scanned without
+	 * exceeding the configured number of folders per second.
+	 * 
+	 * @throws InterruptedException
+	 */
+	void throttle() throws InterruptedException
+	{
+		if (foldersPerSecond <= 0) return;
+		
+		final long slot;
+		synchronized (this)
+		{
+			slot = Math.max(System.currentTimeMillis(), this.nextSlot);
+			this.nextSlot = slot + 1000 / foldersPerSecond;
+		}
+		final long wait = slot - System.currentTimeMillis();
+		if (wait > 0) Thread.sleep(wait);
+	}
+	
+	/**
+	 * Returns the duration of the last complete pass.
+	 * 
+	 * @return The duration of the last complete pass in milliseconds or -1 if
+	 * no pass has completed yet.
+	 */
+	public long getLastPassDuration()
+	{
+		return this.lastPassDuration;
+	}
+	
 	/**
 	 * Sends a signal to stop scanning.
 	 */
 	@PreDestroy void stopScanning()
 	{
 		this.alive = false;
+		this.background.shutdownNow();
+		for (final ExecutorService executor : this.executors) executor.shutdownNow();
+		this.journal.close();
+	}
+	
+	/**
+	 * Scans a single folder and submits its subfolders to the executor of the current pass.
+	 * 
+	 * @author thomas
+	 */
+	private class FolderTask implements Runnable
+	{
+		
+		/**
+		 * The executor of the current pass
+		 */
+		private final ExecutorService executor;
+		
+		/**
+		 * The folder to scan
+		 */
+		private final String folder;
+		
+		/**
+		 * If the folder is skipped if it has not been modified
+		 */
+		private final boolean skipUnchanged;
+		
+		/**
+		 * The generation the files are marked with. 0 if they are not marked.
+		 */
+		private final long generation;
+		
+		/**
+		 * The number of submitted but not yet scanned folders
+		 */
+		private final AtomicInteger pending;
+		
+		/**
+		 * The number of scanned folders
+		 */
+		private final AtomicInteger scanned;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param executor The executor of the current pass.
+		 * @param folder The folder to scan.
+		 * @param skipUnchanged If the folder is skipped if it has not been modified.
+		 * @param generation The generation the files are marked with. 0 if they are not marked.
+		 * @param pending The number of submitted but not yet scanned folders.
+		 * @param scanned The number of scanned folders.
+		 */
+		FolderTask(final ExecutorService executor, final String folder, final boolean skipUnchanged,
+				final long generation, final AtomicInteger pending, final AtomicInteger scanned)
+		{
+			this.executor = executor;
+			this.folder = folder;
+			this.skipUnchanged = skipUnchanged;
+			this.generation = generation;
+			this.pending = pending;
+			this.scanned = scanned;
+		}
+		
+		/**
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run()
+		{
+			try
+			{
+				if (!LocalLibraryScanner.this.alive) return;
+				
+				final ScanJournal journal = LocalLibraryScanner.this.journal;
+				final File dir = this.folder == null ? new File(LocalLibraryScanner.this.root) : 
+					new File(LocalLibraryScanner.this.root, this.folder);
+				
+				// Read the modification time first, so changes that happen while scanning are not lost.
+				final long lastModified = dir.lastModified();
+				final List<String> subfolders = new ArrayList<String>();
+				if (this.skipUnchanged && lastModified != 0 && journal.getLastModified(this.folder) == lastModified)
+				{
+					log.debug("Skipping unchanged " + this.folder);
+					final File[] dirs = dir.listFiles(FileFilters.directoryFilter);
+					if (dirs != null) for (final File subdir : dirs) subfolders.add(subdir.getName());
+				}
+				else
+				{
+					LocalLibraryScanner.this.throttle();
+					
+					log.debug("Scanning " + this.folder);
+					final LocalFolder localFolder = LocalLibraryScanner.this.localLibraryService.scanFolder(this.folder);
+					this.scanned.incrementAndGet();
+					if (this.generation != 0 && !localFolder.getFiles().isEmpty())
+						LocalLibraryScanner.this.localLibraryService.markLive(localFolder.getFiles(), this.generation);
+					for (final LocalSubfolder subfolder : localFolder.getSubfolders()) subfolders.add(subfolder.getName());
+				}
+				if (!LocalLibraryScanner.this.alive) return;
+				
+				// Queue the subfolders before this folder is done, so they are resumed after a restart
+				for (final String subfolder : subfolders)
+				{
+					final String subpath = (this.folder != null ? this.folder + "/" : "") + subfolder;
+					journal.queued(subpath);
+					LocalLibraryScanner.this.submit(this.executor, subpath, this.skipUnchanged, this.generation, this.pending, this.scanned);
+				}
+				journal.scanned(this.folder, lastModified);
+			}
+			catch (final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			catch (final RuntimeException e)
+			{
+				log.warn("Could not scan " + this.folder, e);
+			}
+			finally
+			{
+				if (this.pending.decrementAndGet() == 0)
+					synchronized (this.pending) { this.pending.notifyAll(); }
+			}
+		}
 	}
 	
 }
@@ -2,27 +2,47 @@ package com.senselessweb.soundcloud.library.service.local.impl;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.senselessweb.soundcloud.domain.library.DuplicateGroup;
 import com.senselessweb.soundcloud.domain.library.LocalFile;
 import com.senselessweb.soundcloud.domain.library.LocalFolder;
 import com.senselessweb.soundcloud.domain.library.LocalSubfolder;
+import com.senselessweb.soundcloud.domain.library.ResultPage;
 import com.senselessweb.soundcloud.domain.sources.MediaSource;
 import com.senselessweb.soundcloud.library.service.local.LocalLibraryService;
 import com.senselessweb.soundcloud.util.FileFilters;
 import com.senselessweb.storage.library.LocalLibraryStorageService;
+import com.senselessweb.storage.library.extraction.ExtractionStatistics;
 
 /**
  * Default implementation of the {@link LocalLibraryService}
+ * 
+ * The subfolders and files of the recently read folders are kept in memory. A cached folder 
+ * is reused as long as the modification time of its directory does not change and it has not 
+ * been invalidated by the watcher or read again by the scanner. The keywords and statistics
+ * of a folder are looked up on every request, as they change whenever a file of any subfolder
+ * is indexed. The maximum number of cached folders can be configured using the system property 
+ * <code>soundcloud.folderCache.size</code>.
  *
  * @author thomas
  */
@@ -37,12 +57,34 @@ public class LocalLibraryServiceImpl implements LocalLibraryService
 	 */
 	static final String root = System.getProperty("soundcloud.library");
 	
+	/**
+	 * The maximum number of cached folders.
+	 */
+	private static final int maxCachedFolders = Integer.getInteger("soundcloud.folderCache.size", 10000);
+	
 	
 	/**
 	 * The localLibraryStorageService
 	 */
 	private final LocalLibraryStorageService localLibraryStorageService;
 
+	/**
+	 * The cached folders by normalized relative path, the least recently used first. The root 
+	 * has the empty path. Guarded by itself.
+	 */
+	private final Map<String, CachedFolder> folders = new LinkedHashMap<String, CachedFolder>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		/** @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry) */
+		@Override protected boolean removeEldestEntry(final Map.Entry<String, CachedFolder> eldest) {
+			return this.size() > maxCachedFolders;
+		}
+	};
+	
+	/**
+	 * The number of invalidations so far. Guarded by the folders.
+	 */
+	private long invalidations = 0;
+	
 	@Autowired
 	public LocalLibraryServiceImpl(final LocalLibraryStorageService localLibraryStorageService) 
 	{
@@ -56,29 +98,162 @@ public class LocalLibraryServiceImpl implements LocalLibraryService
 	public LocalFolder getFolder(final String folder)
 	{
 		final File dir = StringUtils.isBlank(folder) ? new File(root) : new File(root, folder);
+		final String key = normalize(folder);
 		
-		final List<LocalSubfolder> subfolders = Lists.newArrayList(Collections2.transform(Lists.newArrayList(dir.listFiles(FileFilters.directoryFilter)), new Function<File, LocalSubfolder>() {
+		// Read the modification time first, so changes that happen while reading are not lost.
+		final long version = this.getInvalidations();
+		final long lastModified = dir.lastModified();
+		final CachedFolder cached = this.getCached(key);
+		if (cached != null && cached.lastModified == lastModified) return this.toLocalFolder(folder, dir, cached);
+		
+		final CachedFolder read = this.readFolder(dir, lastModified, false);
+		this.publish(key, cached, version, read);
+		return this.toLocalFolder(folder, dir, read);
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.library.service.local.LocalLibraryService#scanFolder(java.lang.String)
+	 */
+	@Override
+	public LocalFolder scanFolder(final String folder)
+	{
+		final File dir = StringUtils.isBlank(folder) ? new File(root) : new File(root, folder);
+		final String key = normalize(folder);
+		
+		// Only the scanned folder is replaced, so a pass does not evict the cached parents
+		final long version = this.getInvalidations();
+		final CachedFolder cached = this.getCached(key);
+		final CachedFolder read = this.readFolder(dir, dir.lastModified(), true);
+		this.publish(key, cached, version, read);
+		return this.toLocalFolder(folder, dir, read);
+	}
+	
+	/**
+	 * Returns the number of invalidations so far. 
+	 * 
+	 * @return The number of invalidations.
+	 */
+	private long getInvalidations()
+	{
+		synchronized (this.folders)
+		{
+			return this.invalidations;
+		}
+	}
+	
+	/**
+	 * Returns a cached folder.
+	 * 
+	 * @param key The normalized folder name.
+	 * 
+	 * @return The cached folder or null if it is not cached.
+	 */
+	private CachedFolder getCached(final String key)
+	{
+		synchronized (this.folders)
+		{
+			return this.folders.get(key);
+		}
+	}
+	
+	/**
+	 * Caches a folder that has just been read. Does nothing if a folder has been invalidated
+	 * while it was read, as the read content may be stale already, or if another thread has 
+	 * cached the folder in the meantime.
+	 * 
+	 * @param key The normalized folder name.
+	 * @param previous The cached folder before it was read or null.
+	 * @param version The number of invalidations before the folder was read.
+	 * @param cached The folder that has been read.
+	 */
+	private void publish(final String key, final CachedFolder previous, final long version, final CachedFolder cached)
+	{
+		synchronized (this.folders)
+		{
+			if (this.invalidations == version && this.folders.get(key) == previous) this.folders.put(key, cached);
+		}
+	}
+	
+	/**
+	 * Reads the subfolders and files of a folder from the disk and the storage.
+	 * 
+	 * @param dir The folder.
+	 * @param lastModified The modification time of the directory before it is read.
+	 * @param background If new and modified files are read with background priority.
+	 * 
+	 * @return The content of the folder.
+	 */
+	private CachedFolder readFolder(final File dir, final long lastModified, final boolean background)
+	{
+		final List<String> subfolders = Lists.newArrayList(Collections2.transform(Lists.newArrayList(dir.listFiles(FileFilters.directoryFilter)), new Function<File, String>() {
 			/** @see com.google.common.base.Function#apply(java.lang.Object) */
-			@Override public LocalSubfolder apply(final File input) 
+			@Override public String apply(final File input) 
 			{ 
-				return new LocalSubfolder(input.getName(), 
-						LocalLibraryServiceImpl.this.localLibraryStorageService.getKeywords(root, 
-								(StringUtils.isBlank(folder) ? "" : (folder + File.separator)) + input.getName())); 
+				return input.getName();
 			}
 		}));
-		Collections.sort(subfolders);
 		
-		final List<LocalFile> files = Lists.newArrayList(Collections2.transform(Lists.newArrayList(dir.listFiles(FileFilters.mediaFileFilter)), new Function<File, LocalFile>() {
+		final List<LocalFile> files = Lists.newArrayList(this.localLibraryStorageService.getOrCreateAll(
+				Arrays.asList(dir.listFiles(FileFilters.mediaFileFilter)), background));
+		Collections.sort(files);
+		
+		return new CachedFolder(lastModified, Collections.unmodifiableList(subfolders), Collections.unmodifiableList(files));
+	}
+	
+	/**
+	 * Completes a cached folder with the current keywords and statistics of the folder and its subfolders.
+	 * 
+	 * @param folder The folder name. Relative to the base folder.
+	 * @param dir The folder.
+	 * @param cached The subfolders and files of the folder.
+	 * 
+	 * @return The content of the folder.
+	 */
+	private LocalFolder toLocalFolder(final String folder, final File dir, final CachedFolder cached)
+	{
+		final List<LocalSubfolder> subfolders = Lists.newArrayList(Collections2.transform(cached.subfolders, new Function<String, LocalSubfolder>() {
 			/** @see com.google.common.base.Function#apply(java.lang.Object) */
-			@Override public LocalFile apply(final File input) 
-			{
-				return LocalLibraryServiceImpl.this.localLibraryStorageService.getOrCreate(input);
+			@Override public LocalSubfolder apply(final String input) 
+			{ 
+				final String subfolder = (StringUtils.isBlank(folder) ? "" : (folder + File.separator)) + input;
+				return new LocalSubfolder(input, 
+						LocalLibraryServiceImpl.this.localLibraryStorageService.getKeywords(root, subfolder),
+						LocalLibraryServiceImpl.this.localLibraryStorageService.getFolderStatistics(root, subfolder)); 
 			}
 		}));
-		Collections.sort(files);
+		Collections.sort(subfolders);
 		
 		return new LocalFolder(dir.getName(), StringUtils.isBlank(folder) ? "" : dir.getAbsolutePath().substring(root.length()), 
-				subfolders, files, this.localLibraryStorageService.getKeywords(root, folder));
+				Collections.unmodifiableList(subfolders), cached.files, 
+				this.localLibraryStorageService.getKeywords(root, folder),
+				this.localLibraryStorageService.getFolderStatistics(root, folder));
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.library.service.local.LocalLibraryService#invalidate(java.lang.String)
+	 */
+	@Override
+	public void invalidate(final String folder)
+	{
+		// The keywords and statistics are not cached, so the parents stay valid
+		synchronized (this.folders)
+		{
+			this.invalidations++;
+			this.folders.remove(normalize(folder));
+		}
+	}
+	
+	/**
+	 * Normalizes a relative folder name, so that different spellings of the same
+	 * folder share one cache entry.
+	 * 
+	 * @param folder The folder name. Relative to the base folder.
+	 * 
+	 * @return The normalized folder name without leading and trailing separators.
+	 */
+	static String normalize(final String folder)
+	{
+		return StringUtils.isBlank(folder) ? "" : StringUtils.strip(folder.replace('\\', '/'), "/");
 	}
 	
 	/**
@@ -87,14 +262,36 @@ public class LocalLibraryServiceImpl implements LocalLibraryService
 	@Override
 	public Collection<LocalFile> getFiles(final String folder)
 	{
-		final List<LocalFile> result = new ArrayList<LocalFile>();
-		final LocalFolder localFolder = this.getFolder(folder);
+		return Lists.newArrayList(this.iterateFiles(folder));
+	}
 		
-		result.addAll(localFolder.getFiles());
-		for (final LocalSubfolder subfolder : localFolder.getSubfolders())
-			result.addAll(this.getFiles(folder + "/" + subfolder.getName()));
+	/**
+	 * @see com.senselessweb.soundcloud.library.service.local.LocalLibraryService#iterateFiles(java.lang.String)
+	 */
+	@Override
+	public Iterator<LocalFile> iterateFiles(final String folder)
+	{
+		return this.iterateFiles(folder, false);
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.library.service.local.LocalLibraryService#iterateFiles(java.lang.String, boolean)
+	 */
+	@Override
+	public Iterator<LocalFile> iterateFiles(final String folder, final boolean skipDuplicates)
+	{
+		final Iterator<LocalFile> files = new FileIterator(folder);
+		if (!skipDuplicates) return files;
 		
-		return result;
+		final Set<String> groups = new HashSet<String>();
+		return Iterators.filter(files, new Predicate<LocalFile>() {
+			/** @see com.google.common.base.Predicate#apply(java.lang.Object) */
+			@Override public boolean apply(final LocalFile input)
+			{
+				final DuplicateGroup group = LocalLibraryServiceImpl.this.localLibraryStorageService.getDuplicateGroup(input.getId());
+				return group == null || groups.add(group.getId());
+			}
+		});
 	}
 	
 	/**
@@ -115,4 +312,234 @@ public class LocalLibraryServiceImpl implements LocalLibraryService
 		return this.localLibraryStorageService.get(mediaSource);
 	}
 	
+	/**
+	 * @see com.senselessweb.soundcloud.library.service.local.LocalLibraryService#getExtractionStatistics()
+	 */
+	@Override
+	public ExtractionStatistics getExtractionStatistics()
+	{
+		return this.localLibraryStorageService.getExtractionStatistics();
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.library.service.local.LocalLibraryService#search(java.lang.String, int)
+	 */
+	@Override
+	public List<LocalFile> search(final String query, final int limit)
+	{
+		return this.localLibraryStorageService.search(query, limit);
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.library.service.local.LocalLibraryService#suggest(java.lang.String, int)
+	 */
+	@Override
+	public List<String> suggest(final String prefix, final int limit)
+	{
+		return this.localLibraryStorageService.suggest(prefix, limit);
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.library.service.local.LocalLibraryService#getArtists(int, int)
+	 */
+	@Override
+	public ResultPage<String> getArtists(final int offset, final int limit)
+	{
+		return this.localLibraryStorageService.getArtists(offset, limit);
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.library.service.local.LocalLibraryService#getAlbums(java.lang.String, int, int)
+	 */
+	@Override
+	public ResultPage<String> getAlbums(final String artist, final int offset, final int limit)
+	{
+		return this.localLibraryStorageService.getAlbums(artist, offset, limit);
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.library.service.local.LocalLibraryService#getGenres(int, int)
+	 */
+	@Override
+	public ResultPage<String> getGenres(final int offset, final int limit)
+	{
+		return this.localLibraryStorageService.getGenres(offset, limit);
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.library.service.local.LocalLibraryService#getTracks(java.lang.String, java.lang.String, int, int)
+	 */
+	@Override
+	public ResultPage<LocalFile> getTracks(final String artist, final String album, final int offset, final int limit)
+	{
+		return this.localLibraryStorageService.getTracks(artist, album, offset, limit);
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.library.service.local.LocalLibraryService#getGenreTracks(java.lang.String, int, int)
+	 */
+	@Override
+	public ResultPage<LocalFile> getGenreTracks(final String genre, final int offset, final int limit)
+	{
+		return this.localLibraryStorageService.getGenreTracks(genre, offset, limit);
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.library.service.local.LocalLibraryService#detectDuplicates()
+	 */
+	@Override
+	public List<DuplicateGroup> detectDuplicates()
+	{
+		return this.localLibraryStorageService.detectDuplicates();
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.library.service.local.LocalLibraryService#getDuplicates()
+	 */
+	@Override
+	public List<DuplicateGroup> getDuplicates()
+	{
+		return this.localLibraryStorageService.getDuplicates();
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.library.service.local.LocalLibraryService#markLive(java.util.Collection, long)
+	 */
+	@Override
+	public void markLive(final Collection<LocalFile> files, final long generation)
+	{
+		final List<String> paths = new ArrayList<String>(files.size());
+		for (final LocalFile file : files) paths.add(file.getPath());
+		this.localLibraryStorageService.markLive(paths, generation);
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.library.service.local.LocalLibraryService#sweep(long)
+	 */
+	@Override
+	public int sweep(final long generation)
+	{
+		return this.localLibraryStorageService.sweep(generation);
+	}	
+	
+	/**
+	 * Walks a folder and all of its subfolders depth first. Every folder is read 
+	 * when the iterator reaches it, without collecting the keywords of the subfolders.
+	 * 
+	 * @author thomas
+	 */
+	private class FileIterator extends AbstractIterator<LocalFile>
+	{
+		
+		/**
+		 * The folders that have not been read yet. The next folder is on top.
+		 */
+		private final LinkedList<String> pending = new LinkedList<String>();
+		
+		/**
+		 * The remaining files of the current folder.
+		 */
+		private Iterator<LocalFile> current = Iterators.emptyIterator();
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param folder The folder to start with. Relative to the base folder.
+		 */
+		FileIterator(final String folder)
+		{
+			this.pending.push(normalize(folder));
+		}
+		
+		/**
+		 * @see com.google.common.collect.AbstractIterator#computeNext()
+		 */
+		@Override
+		protected LocalFile computeNext()
+		{
+			while (!this.current.hasNext())
+			{
+				if (this.pending.isEmpty()) return this.endOfData();
+				this.read(this.pending.pop());
+			}
+			return this.current.next();
+		}
+		
+		/**
+		 * Reads the files of a folder and schedules its subfolders. Uses the cached
+		 * folder if it is still valid.
+		 * 
+		 * @param folder The normalized folder name.
+		 */
+		private void read(final String folder)
+		{
+			final File dir = folder.length() == 0 ? new File(root) : new File(root, folder);
+			
+			final List<String> subfolders = new ArrayList<String>();
+			final CachedFolder cached = LocalLibraryServiceImpl.this.getCached(folder);
+			if (cached != null && cached.lastModified == dir.lastModified())
+			{
+				this.current = cached.files.iterator();
+				subfolders.addAll(cached.subfolders);
+				Collections.sort(subfolders);
+			}
+			else
+			{
+				final File[] mediaFiles = dir.listFiles(FileFilters.mediaFileFilter);
+				final File[] dirs = dir.listFiles(FileFilters.directoryFilter);
+				if (mediaFiles == null || dirs == null) return;
+				
+				final List<LocalFile> files = Lists.newArrayList(
+						LocalLibraryServiceImpl.this.localLibraryStorageService.getOrCreateAll(Arrays.asList(mediaFiles)));
+				Collections.sort(files);
+				this.current = files.iterator();
+				for (final File subfolder : dirs) subfolders.add(subfolder.getName());
+				Collections.sort(subfolders);
+			}
+			
+			// Push in reverse order so the first subfolder is read next
+			for (int i = subfolders.size() - 1; i >= 0; i--)
+				this.pending.push(folder.length() == 0 ? subfolders.get(i) : folder + "/" + subfolders.get(i));
+		}
+	}
+	
+	/**
+	 * The subfolders and files of a folder together with the modification time of its 
+	 * directory at the time it was read.
+	 * 
+	 * @author thomas
+	 */
+	private static class CachedFolder
+	{
+		
+		/**
+		 * The last modification time of the directory.
+		 */
+		final long lastModified;
+		
+		/**
+		 * The names of the subfolders.
+		 */
+		final List<String> subfolders;
+		
+		/**
+		 * The sorted files.
+		 */
+		final List<LocalFile> files;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param lastModified The last modification time of the directory.
+		 * @param subfolders The names of the subfolders.
+		 * @param files The sorted files.
+		 */
+		CachedFolder(final long lastModified, final List<String> subfolders, final List<LocalFile> files)
+		{
+			this.lastModified = lastModified;
+			this.subfolders = subfolders;
+			this.files = files;
+		}
+	}
+
 }
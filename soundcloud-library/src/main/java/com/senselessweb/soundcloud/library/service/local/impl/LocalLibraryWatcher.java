@@ -0,0 +1,550 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.library.service.local.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import com.senselessweb.soundcloud.library.service.local.LocalLibraryService;
+import com.senselessweb.soundcloud.util.FileFilters;
+import com.senselessweb.storage.library.LocalLibraryStorageService;
+
+/**
+ * Watches the local library for changes and updates the stored items as soon as
+ * files are created, modified or deleted.
+ * 
+ * The watcher keeps a snapshot of every folder of the library, including the last 
+ * modification times of the media files, and compares the folders with their snapshots. 
+ * Only the files that actually changed are indexed again. A folder that has changed 
+ * is hot for a while and is compared on every poll, so files that are still being copied 
+ * or edited are fresh within seconds. The other folders are compared in turns, each poll 
+ * inspects at most a fixed number of folders and files, so a large library on a slow 
+ * drive is not stat'ed completely every few seconds. Files that are modified in place 
+ * without touching their folder are picked up when their folder is compared next. Folders 
+ * that appear without a snapshot are scanned by the {@link LocalLibraryScanner} in the 
+ * background.
+ * 
+ * Nothing is removed while the root folder of the library is missing or empty, for example
+ * because the drive is not mounted. A single poll does not remove more files than the sweep
+ * of the scanner would, see the system properties <code>soundcloud.sweep.maxRatio</code> and 
+ * <code>soundcloud.sweep.minLimit</code>. Changes that would remove more files are not applied.
+ * 
+ * The poll interval, the time a changed folder stays hot and the number of folders and 
+ * files inspected per poll besides the hot folders can be configured using the system 
+ * properties <code>soundcloud.watcher.interval</code>, <code>soundcloud.watcher.hotPeriod</code> 
+ * and <code>soundcloud.watcher.entriesPerPoll</code>. An interval of 0 disables the watcher.
+ * 
+ * @author thomas
+ */
+@Service
+public class LocalLibraryWatcher implements ApplicationListener<ContextRefreshedEvent>
+{
+
+	/**
+	 * The log
+	 */
+	private static final Log log = LogFactory.getLog(LocalLibraryWatcher.class);
+	
+	/**
+	 * The poll interval in milliseconds.
+	 */
+	private static final long interval = Long.getLong("soundcloud.watcher.interval", 5000);
+	
+	/**
+	 * The time in milliseconds a changed folder is compared on every poll.
+	 */
+	private static final long hotPeriod = Long.getLong("soundcloud.watcher.hotPeriod", 10 * 60 * 1000);
+	
+	/**
+	 * The maximum number of folders and files that are inspected per poll besides the hot folders.
+	 */
+	private static final int entriesPerPoll = Integer.getInteger("soundcloud.watcher.entriesPerPoll", 2000);
+	
+	/**
+	 * The maximum share of the watched files one poll may remove. Same as for the sweep.
+	 */
+	private static final double maxRemovalRatio = Double.parseDouble(System.getProperty("soundcloud.sweep.maxRatio", "0.25"));
+	
+	/**
+	 * The number of files one poll may remove in any case, even from a small library. Same as for the sweep.
+	 */
+	private static final int minRemovalLimit = Integer.getInteger("soundcloud.sweep.minLimit", 100);
+	
+	
+	/**
+	 * The localLibraryService
+	 */
+	private final LocalLibraryService localLibraryService;
+	
+	/**
+	 * The localLibraryStorageService
+	 */
+	private final LocalLibraryStorageService localLibraryStorageService;
+	
+	/**
+	 * The localLibraryScanner
+	 */
+	private final LocalLibraryScanner localLibraryScanner;
+	
+	/**
+	 * The root folder of the library
+	 */
+	private final String root;
+	
+	/**
+	 * The snapshots of all known folders by relative path. The root has the empty path.
+	 */
+	private final TreeMap<String, FolderSnapshot> snapshots = new TreeMap<String, FolderSnapshot>();
+	
+	/**
+	 * The hot folders by relative path and the time of their last change.
+	 */
+	private final Map<String, Long> hot = new HashMap<String, Long>();
+	
+	/**
+	 * The relative path of the folder that has been compared last in turn.
+	 */
+	private String cursor;
+	
+	/**
+	 * The number of files the current poll may still remove.
+	 */
+	private int removable;
+	
+	/**
+	 * Indicates if the library has been available at the last poll.
+	 */
+	private boolean available = true;
+	
+	/**
+	 * Indicates if the watcher is still alive.
+	 */
+	volatile boolean alive = true;
+	
+	@Autowired
+	public LocalLibraryWatcher(final LocalLibraryService localLibraryService,
+			final LocalLibraryStorageService localLibraryStorageService,
+			final LocalLibraryScanner localLibraryScanner)
+	{
+		this(localLibraryService, localLibraryStorageService, localLibraryScanner, LocalLibraryServiceImpl.root);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param localLibraryService The localLibraryService
+	 * @param localLibraryStorageService The localLibraryStorageService
+	 * @param localLibraryScanner The localLibraryScanner
+	 * @param root The root folder of the library
+	 */
+	LocalLibraryWatcher(final LocalLibraryService localLibraryService,
+			final LocalLibraryStorageService localLibraryStorageService,
+			final LocalLibraryScanner localLibraryScanner, final String root)
+	{
+		this.localLibraryService = localLibraryService;
+		this.localLibraryStorageService = localLibraryStorageService;
+		this.localLibraryScanner = localLibraryScanner;
+		this.root = root;
+	}
+	
+	/**
+	 * @see org.springframework.context.ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
+	 */
+	@Override
+	@Async public void onApplicationEvent(final ContextRefreshedEvent event)
+	{
+		if (interval <= 0 || this.root == null) return;
+		
+		this.registerAll();
+		while (this.alive)
+		{
+			try
+			{
+				Thread.sleep(interval);
+			}
+			catch (final InterruptedException e)
+			{
+				throw new RuntimeException("Watcher was interrupted", e);
+			}
+			this.poll();
+		}
+	}
+	
+	/**
+	 * Creates the snapshots of all folders of the library.
+	 */
+	void registerAll()
+	{
+		final long startTime = System.currentTimeMillis();
+		this.register("", 0);
+		log.info("Watching " + this.snapshots.size() + " folders (" + (System.currentTimeMillis() - startTime) + " ms)");
+	}
+	
+	/**
+	 * Checks the hot folders and the next folders in turn for changes. Does nothing if the
+	 * library is not available.
+	 */
+	void poll()
+	{
+		final String[] children = this.toFile("").list();
+		if (children == null || children.length == 0)
+		{
+			if (this.available) log.warn("The library " + this.root + " is not available, changes are ignored until it is back");
+			this.available = false;
+			return;
+		}
+		if (!this.available) log.info("The library " + this.root + " is available again");
+		this.available = true;
+		
+		int files = 0;
+		for (final FolderSnapshot snapshot : this.snapshots.values()) files += snapshot.files.length;
+		this.removable = Math.max(minRemovalLimit, (int) (maxRemovalRatio * files));
+		
+		final long now = System.currentTimeMillis();
+		for (final String path : new ArrayList<String>(this.hot.keySet()))
+		{
+			if (!this.alive) return;
+			
+			final Long lastChange = this.hot.get(path);
+			if (lastChange == null) continue; // Removed in the meantime
+			if (now - lastChange > hotPeriod) this.hot.remove(path);
+			else this.check(path, now);
+		}
+			
+		int budget = entriesPerPoll;
+		for (int visited = this.snapshots.size(); budget > 0 && visited > 0 && this.alive; visited--)
+		{
+			final String path = this.cursor == null ? null : this.snapshots.higherKey(this.cursor);
+			this.cursor = path != null ? path : this.snapshots.isEmpty() ? null : this.snapshots.firstKey();
+			if (this.cursor == null) return;
+			if (!this.hot.containsKey(this.cursor)) budget -= this.check(this.cursor, now);
+		}
+	}
+	
+	/**
+	 * Compares a folder with its snapshot and updates the stored items if it has changed. 
+	 * A changed folder becomes hot.
+	 * 
+	 * @param path The relative path of the folder.
+	 * @param now The current time.
+	 * 
+	 * @return The number of inspected folders and files.
+	 */
+	private int check(final String path, final long now)
+	{
+		final FolderSnapshot previous = this.snapshots.get(path);
+		if (previous == null) return 0; // Removed in the meantime
+		
+		final File dir = this.toFile(path);
+		if (!dir.isDirectory()) 
+		{
+			if (this.reserveRemoval(path, this.countFiles(path))) this.unregister(path);
+			return 1;
+		}
+		
+		final FolderSnapshot current = FolderSnapshot.create(dir);
+		if (current == null) return 1;
+		if (!current.equals(previous) && this.update(path, dir, previous, current, now)) this.hot.put(path, now);
+		return 1 + current.files.length + current.subfolders.length;
+	}
+	
+	/**
+	 * Updates the snapshot and the stored items of a changed folder. Does nothing if the
+	 * change would remove more files than the current poll may remove.
+	 * 
+	 * @param path The relative path of the folder.
+	 * @param dir The folder.
+	 * @param previous The previous snapshot of that folder.
+	 * @param current The current snapshot of that folder.
+	 * @param now The current time.
+	 * 
+	 * @return True if the change has been applied.
+	 */
+	private boolean update(final String path, final File dir, final FolderSnapshot previous, 
+			final FolderSnapshot current, final long now)
+	{
+		int removed = 0;
+		for (final String file : previous.files)
+			if (Arrays.binarySearch(current.files, file) < 0) removed++;
+		for (final String subfolder : previous.subfolders)
+			if (Arrays.binarySearch(current.subfolders, subfolder) < 0) removed += this.countFiles(childPath(path, subfolder));
+		if (!this.reserveRemoval(path, removed)) return false;
+		
+		this.snapshots.put(path, current);
+		this.localLibraryService.invalidate(path);
+		
+		final List<File> changed = new ArrayList<File>();
+		for (int i = 0; i < current.files.length; i++)
+		{
+			final int j = Arrays.binarySearch(previous.files, current.files[i]);
+			if (j < 0 || previous.fileModifications[j] != current.fileModifications[i])
+			{
+				log.debug("Changed: " + current.files[i] + " in " + dir);
+				changed.add(new File(dir, current.files[i]));
+			}
+		}
+		if (!changed.isEmpty()) this.localLibraryStorageService.getOrCreateAll(changed, true);
+		for (final String file : previous.files)
+		{
+			if (Arrays.binarySearch(current.files, file) < 0)
+			{
+				log.debug("Deleted: " + file + " in " + dir);
+				this.localLibraryStorageService.remove(new File(dir, file));
+			}
+		}
+		
+		for (final String subfolder : current.subfolders)
+		{
+			if (Arrays.binarySearch(previous.subfolders, subfolder) < 0)
+			{
+				// There is no snapshot for a new folder, so rescan it completely. Files that are
+				// copied into it after the snapshot has been taken are found because it is hot.
+				final String subpath = childPath(path, subfolder);
+				log.debug("New folder: " + subpath);
+				this.register(subpath, now);
+				this.localLibraryScanner.scanLater(subpath);
+			}
+		}
+		for (final String subfolder : previous.subfolders)
+		{
+			if (Arrays.binarySearch(current.subfolders, subfolder) < 0)
+				this.unregister(childPath(path, subfolder));
+		}
+		return true;
+	}
+	
+	/**
+	 * Reserves the removal of files for the current poll. 
+	 * 
+	 * @param path The relative path of the folder that contains the files.
+	 * @param files The number of files.
+	 * 
+	 * @return True if the files may be removed.
+	 */
+	private boolean reserveRemoval(final String path, final int files)
+	{
+		if (files > this.removable)
+		{
+			log.warn("Not removing " + files + " files of '" + path + "', that many files are not deleted at once, " +
+					"rather the library is not available");
+			return false;
+		}
+		this.removable -= files;
+		return true;
+	}
+	
+	/**
+	 * Returns the number of media files of a folder and all of its subfolders according to their snapshots.
+	 * 
+	 * @param path The relative path of the folder.
+	 * 
+	 * @return The number of files.
+	 */
+	private int countFiles(final String path)
+	{
+		final FolderSnapshot snapshot = this.snapshots.get(path);
+		if (snapshot == null) return 0;
+		
+		int files = snapshot.files.length;
+		for (final String subfolder : snapshot.subfolders) files += this.countFiles(childPath(path, subfolder));
+		return files;
+	}
+	
+	/**
+	 * Creates snapshots for the given folder and all of its subfolders.
+	 * 
+	 * @param path The relative path of the folder.
+	 * @param now The current time if the folders are hot, 0 otherwise.
+	 */
+	private void register(final String path, final long now)
+	{
+		final FolderSnapshot snapshot = FolderSnapshot.create(this.toFile(path));
+		if (snapshot == null) return;
+		
+		this.snapshots.put(path, snapshot);
+		if (now != 0) this.hot.put(path, now);
+		for (final String subfolder : snapshot.subfolders)
+			this.register(childPath(path, subfolder), now);
+	}
+	
+	/**
+	 * Removes the snapshots of a deleted folder and all of its subfolders and
+	 * removes the stored items of the contained files.
+	 * 
+	 * @param path The relative path of the folder.
+	 */
+	private void unregister(final String path)
+	{
+		if (!this.snapshots.containsKey(path)) return;
+		
+		log.debug("Deleted folder: " + path);
+		this.localLibraryService.invalidate(path);
+		this.removeSnapshots(path);
+		this.localLibraryStorageService.removeFolder(this.toFile(path));
+	}
+	
+	/**
+	 * Removes the snapshots of a folder and all of its subfolders.
+	 * 
+	 * @param path The relative path of the folder.
+	 */
+	private void removeSnapshots(final String path)
+	{
+		final FolderSnapshot snapshot = this.snapshots.remove(path);
+		this.hot.remove(path);
+		if (snapshot == null) return;
+		
+		for (final String subfolder : snapshot.subfolders)
+			this.removeSnapshots(childPath(path, subfolder));
+	}
+	
+	/**
+	 * Returns the folder for a relative path.
+	 * 
+	 * @param path The relative path.
+	 * 
+	 * @return The folder.
+	 */
+	private File toFile(final String path)
+	{
+		return StringUtils.isEmpty(path) ? new File(this.root) : new File(this.root, path);
+	}
+	
+	/**
+	 * Returns the relative path of a subfolder.
+	 * 
+	 * @param path The relative path of the parent folder.
+	 * @param name The name of the subfolder.
+	 * 
+	 * @return The relative path of the subfolder.
+	 */
+	private static String childPath(final String path, final String name)
+	{
+		return StringUtils.isEmpty(path) ? name : path + "/" + name;
+	}
+	
+	/**
+	 * Sends a signal to stop watching.
+	 */
+	@PreDestroy void stopWatching()
+	{
+		this.alive = false;
+	}
+	
+	
+	/**
+	 * The state of a folder at a given time. Contains the sorted names of the
+	 * media files and subfolders of that folder.
+	 * 
+	 * @author thomas
+	 */
+	private static class FolderSnapshot
+	{
+		
+		/**
+		 * The last modification time of the folder.
+		 */
+		final long lastModified;
+		
+		/**
+		 * The sorted names of the media files.
+		 */
+		final String[] files;
+		
+		/**
+		 * The last modification times of the media files, in the same order as the names.
+		 */
+		final long[] fileModifications;
+		
+		/**
+		 * The sorted names of the subfolders.
+		 */
+		final String[] subfolders;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param lastModified The last modification time of the folder.
+		 * @param files The sorted names of the media files.
+		 * @param fileModifications The last modification times of the media files.
+		 * @param subfolders The sorted names of the subfolders.
+		 */
+		private FolderSnapshot(final long lastModified, final String[] files,
+				final long[] fileModifications, final String[] subfolders)
+		{
+			this.lastModified = lastModified;
+			this.files = files;
+			this.fileModifications = fileModifications;
+			this.subfolders = subfolders;
+		}
+		
+		/**
+		 * Creates a snapshot of the given folder.
+		 * 
+		 * @param dir The folder.
+		 * 
+		 * @return The snapshot or null if the folder could not be read.
+		 */
+		static FolderSnapshot create(final File dir)
+		{
+			// Read the modification time first, so changes that happen while listing are not lost.
+			final long lastModified = dir.lastModified();
+			final File[] mediaFiles = dir.listFiles(FileFilters.mediaFileFilter);
+			final File[] dirs = dir.listFiles(FileFilters.directoryFilter);
+			if (mediaFiles == null || dirs == null) return null;
+			
+			final SortedMap<String, Long> sortedFiles = new TreeMap<String, Long>();
+			for (final File file : mediaFiles) sortedFiles.put(file.getName(), file.lastModified());
+			
+			final String[] files = sortedFiles.keySet().toArray(new String[sortedFiles.size()]);
+			final long[] fileModifications = new long[files.length];
+			for (int i = 0; i < files.length; i++) fileModifications[i] = sortedFiles.get(files[i]);
+			
+			final String[] subfolders = new String[dirs.length];
+			for (int i = 0; i < dirs.length; i++) subfolders[i] = dirs[i].getName();
+			Arrays.sort(subfolders);
+			
+			return new FolderSnapshot(lastModified, files, fileModifications, subfolders);
+		}
+		
+		/**
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(final Object obj)
+		{
+			if (!(obj instanceof FolderSnapshot)) return false;
+			
+			final FolderSnapshot other = (FolderSnapshot) obj;
+			return this.lastModified == other.lastModified && Arrays.equals(this.files, other.files) &&
+					Arrays.equals(this.fileModifications, other.fileModifications) && Arrays.equals(this.subfolders, other.subfolders);
+		}
+		
+		/**
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode()
+		{
+			return Arrays.hashCode(this.files) ^ (int) this.lastModified;
+		}
+	}
+}
@@ -0,0 +1,401 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.library.service.local.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Append-only journal of the progress of the {@link LocalLibraryScanner}.
+ * 
+ * The journal records when a pass starts and ends, every folder that is queued and
+ * every folder that has been scanned together with the modification time of its
+ * directory. Replaying the journal after a restart returns the folders that were still
+ * pending when the scanner stopped, so an interrupted pass can be resumed, and the
+ * modification times, so unchanged folders can be skipped. The journal is compacted
+ * to its current state when it is opened and after every complete pass, so it stays
+ * proportional to the number of folders.
+ * 
+ * Every record is one line. A line that has been cut off by a crash is ignored.
+ * Writing the journal is best effort: if it fails, the scanner keeps working and
+ * only loses the ability to resume.
+ * 
+ * @author thomas
+ */
+public class ScanJournal
+{
+
+	/**
+	 * The log
+	 */
+	private static final Log log = LogFactory.getLog(ScanJournal.class);
+	
+	/**
+	 * The minimum number of records before the journal is compacted.
+	 */
+	private static final int minCompactionRecords = 1000;
+	
+	
+	/**
+	 * The journal file.
+	 */
+	private final File file;
+	
+	/**
+	 * The modification times of the scanned folders by relative path. The root has the empty path.
+	 */
+	private final Map<String, Long> lastModified = new HashMap<String, Long>();
+	
+	/**
+	 * The folders of the current pass that have been queued but not scanned yet, in queue order.
+	 */
+	private final Set<String> pending = new LinkedHashSet<String>();
+	
+	/**
+	 * Indicates if a pass has been started and not finished yet.
+	 */
+	private boolean passInProgress = false;
+	
+	/**
+	 * Indicates if the current pass scans all folders, even the unchanged ones.
+	 */
+	private boolean fullPass = false;
+	
+	/**
+	 * The start time of the last full pass or 0 if there has been none.
+	 */
+	private long lastFullPass = 0;
+	
+	/**
+	 * The writer or null if the journal could not be written.
+	 */
+	private Writer writer;
+	
+	/**
+	 * The number of records in the journal file.
+	 */
+	private int records;
+	
+	/**
+	 * Constructor. Replays and compacts the given journal file.
+	 * 
+	 * @param file The journal file. Created if it does not exist.
+	 */
+	public ScanJournal(final File file)
+	{
+		this.file = file;
+		
+		// A crash while the journal was replaced by its compacted copy may have left only the copy
+		final File tmp = this.getCompactedFile();
+		if (!file.exists() && tmp.isFile() && !tmp.renameTo(file))
+			log.warn("Could not restore the scan journal " + file + " from " + tmp);
+		
+		this.records = this.replay();
+		this.open();
+	}
+	
+	/**
+	 * Compacts the journal file if it has grown too large and opens it for appending.
+	 */
+	private void open()
+	{
+		if (this.needsCompaction())
+		{
+			try
+			{
+				this.compact();
+			}
+			catch (final IOException e)
+			{
+				log.warn("Could not compact the scan journal " + this.file, e);
+			}
+		}
+		
+		try
+		{
+			this.writer = new OutputStreamWriter(new FileOutputStream(this.file, true), "UTF-8");
+		}
+		catch (final IOException e)
+		{
+			log.warn("Could not open the scan journal " + this.file + ", scans will not be resumed", e);
+		}
+	}
+	
+	/**
+	 * Returns if a pass has been started and not finished yet.
+	 * 
+	 * @return True if the last pass has been interrupted.
+	 */
+	public synchronized boolean isPassInProgress()
+	{
+		return this.passInProgress;
+	}
+	
+	/**
+	 * Returns if the current pass scans all folders.
+	 * 
+	 * @return True if unchanged folders are scanned, too.
+	 */
+	public synchronized boolean isFullPass()
+	{
+		return this.fullPass;
+	}
+	
+	/**
+	 * Returns the start time of the last full pass.
+	 * 
+	 * @return The start time in milliseconds or 0 if there has been no full pass.
+	 */
+	public synchronized long getLastFullPass()
+	{
+		return this.lastFullPass;
+	}
+	
+	/**
+	 * Returns the folders of the current pass that have not been scanned yet.
+	 * 
+	 * @return The relative paths in queue order. The root is null.
+	 */
+	public synchronized List<String> getPending()
+	{
+		final List<String> result = new ArrayList<String>(this.pending.size());
+		for (final String folder : this.pending) result.add(StringUtils.isEmpty(folder) ? null : folder);
+		return result;
+	}
+	
+	/**
+	 * Returns the modification time of a folder when it has been scanned last.
+	 * 
+	 * @param folder The relative path. Null for the root.
+	 * 
+	 * @return The modification time or -1 if the folder has not been scanned yet.
+	 */
+	public synchronized long getLastModified(final String folder)
+	{
+		final Long result = this.lastModified.get(StringUtils.defaultString(folder));
+		return result != null ? result : -1;
+	}
+	
+	/**
+	 * Records the start of a pass. The root is the only pending folder afterwards.
+	 * 
+	 * @param full If all folders are scanned, even the unchanged ones.
+	 */
+	public synchronized void startPass(final boolean full)
+	{
+		final long now = System.currentTimeMillis();
+		this.apply("S\t" + (full ? "F" : "I") + "\t" + now);
+	}
+	
+	/**
+	 * Records that a folder has been queued.
+	 * 
+	 * @param folder The relative path. Null for the root.
+	 */
+	public synchronized void queued(final String folder)
+	{
+		this.apply("Q\t" + StringUtils.defaultString(folder));
+	}
+	
+	/**
+	 * Records that a folder has been scanned.
+	 * 
+	 * @param folder The relative path. Null for the root.
+	 * @param modified The modification time of the directory before it has been scanned.
+	 */
+	public synchronized void scanned(final String folder, final long modified)
+	{
+		this.apply("D\t" + modified + "\t" + StringUtils.defaultString(folder));
+	}
+	
+	/**
+	 * Records the end of a complete pass.
+	 */
+	public synchronized void finishPass()
+	{
+		this.apply("E");
+		if (this.writer == null || !this.needsCompaction()) return;
+		
+		// Every pass appends a record per folder, so keep the journal from growing without bound
+		this.close();
+		this.open();
+	}
+	
+	/**
+	 * Closes the journal. Records are not written any more afterwards.
+	 */
+	public synchronized void close()
+	{
+		IOUtils.closeQuietly(this.writer);
+		this.writer = null;
+	}
+	
+	/**
+	 * Applies a record to the state and appends it to the journal.
+	 * 
+	 * @param record The record.
+	 */
+	private void apply(final String record)
+	{
+		this.replay(record);
+		if (this.writer == null) return;
+		
+		try
+		{
+			this.writer.write(record);
+			this.writer.write('\n');
+			this.writer.flush();
+			this.records++;
+		}
+		catch (final IOException e)
+		{
+			log.warn("Could not write the scan journal " + this.file + ", scans will not be resumed", e);
+			this.close();
+		}
+	}
+	
+	/**
+	 * Reads the state from the journal file.
+	 * 
+	 * @return The number of records.
+	 */
+	private int replay()
+	{
+		if (!this.file.isFile()) return 0;
+		
+		int records = 0;
+		BufferedReader reader = null;
+		try
+		{
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), "UTF-8"));
+			for (String line = reader.readLine(); line != null; line = reader.readLine())
+			{
+				this.replay(line);
+				records++;
+			}
+		}
+		catch (final IOException e)
+		{
+			log.warn("Could not read the scan journal " + this.file + ", starting from scratch", e);
+		}
+		finally
+		{
+			IOUtils.closeQuietly(reader);
+		}
+		return records;
+	}
+	
+	/**
+	 * Applies a single record to the state. Ignores malformed records.
+	 * 
+	 * @param record The record.
+	 */
+	private void replay(final String record)
+	{
+		final String[] fields = record.split("\t", 3);
+		try
+		{
+			if (fields[0].equals("S") && fields.length == 3)
+			{
+				this.passInProgress = true;
+				this.fullPass = fields[1].equals("F");
+				if (this.fullPass) this.lastFullPass = Long.parseLong(fields[2]);
+				this.pending.clear();
+				this.pending.add("");
+			}
+			else if (fields[0].equals("Q") && fields.length == 2) this.pending.add(fields[1]);
+			else if (fields[0].equals("D") && fields.length == 3)
+			{
+				this.lastModified.put(fields[2], Long.parseLong(fields[1]));
+				this.pending.remove(fields[2]);
+			}
+			else if (fields[0].equals("E"))
+			{
+				this.passInProgress = false;
+				this.pending.clear();
+			}
+		}
+		catch (final NumberFormatException e)
+		{
+			log.debug("Ignoring malformed journal record " + record);
+		}
+	}
+	
+	/**
+	 * Returns if the journal file contains much more records than the current state.
+	 * 
+	 * @return True if the journal should be compacted.
+	 */
+	private boolean needsCompaction()
+	{
+		return this.records > minCompactionRecords && this.records > 2 * (this.lastModified.size() + this.pending.size() + 1);
+	}
+	
+	/**
+	 * Replaces the journal file by the records of the current state.
+	 * 
+	 * @throws IOException
+	 */
+	private void compact() throws IOException
+	{
+		final File tmp = this.getCompactedFile();
+		final Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+		int written = this.lastModified.size();
+		try
+		{
+			// The start of a pass resets the pending folders, so the scanned folders follow it
+			if (this.lastFullPass > 0) 
+			{
+				out.write("S\tF\t" + this.lastFullPass + "\nE\n");
+				written += 2;
+			}
+			if (this.passInProgress) 
+			{
+				out.write("S\t" + (this.fullPass ? "F" : "I") + "\t" +
+						(this.fullPass ? this.lastFullPass : System.currentTimeMillis()) + "\n");
+				written += 1 + this.pending.size();
+			}
+			for (final Map.Entry<String, Long> entry : this.lastModified.entrySet())
+				out.write("D\t" + entry.getValue() + "\t" + entry.getKey() + "\n");
+			if (this.passInProgress)
+				for (final String folder : this.pending) out.write("Q\t" + folder + "\n");
+		}
+		finally
+		{
+			out.close();
+		}
+		
+		// Renaming replaces the journal atomically where the platform allows it
+		if (!tmp.renameTo(this.file) && !(this.file.delete() && tmp.renameTo(this.file)))
+			throw new IOException("Could not replace " + this.file + " by " + tmp);
+		this.records = written;
+	}
+	
+	/**
+	 * Returns the file the compacted journal is written to before it replaces the journal.
+	 * 
+	 * @return The file.
+	 */
+	private File getCompactedFile()
+	{
+		return new File(this.file.getPath() + ".tmp");
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.library.service.local.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.senselessweb.soundcloud.domain.library.FolderStatistics;
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+import com.senselessweb.soundcloud.domain.library.LocalFolder;
+import com.senselessweb.soundcloud.domain.library.LocalSubfolder;
+import com.senselessweb.soundcloud.library.service.local.LocalLibraryService;
+import com.senselessweb.soundcloud.util.FileFilters;
+
+/**
+ * Testcases for the {@link LocalLibraryScanner} and its {@link ScanJournal}
+ * 
+ * @author thomas
+ */
+public class LocalLibraryScannerTest
+{
+
+	/**
+	 * The root folder of the test library
+	 */
+	private File root;
+	
+	/**
+	 * The journal file
+	 */
+	private File journalFile;
+	
+	/**
+	 * All folders of the test library. The root is null.
+	 */
+	private final Set<String> folders = new HashSet<String>();
+	
+	/**
+	 * Creates a library with 5 folders with 4 subfolders each.
+	 * 
+	 * @throws IOException
+	 */
+	@Before
+	public void createLibrary() throws IOException
+	{
+		this.root = File.createTempFile("library", "");
+		Assert.assertTrue(this.root.delete());
+		this.journalFile = new File(this.root.getPath() + ".journal");
+		
+		this.folders.add(null);
+		for (int i = 0; i < 5; i++)
+		{
+			this.folders.add("artist" + i);
+			for (int k = 0; k < 4; k++)
+			{
+				Assert.assertTrue(new File(this.root, "artist" + i + "/album" + k).mkdirs());
+				this.folders.add("artist" + i + "/album" + k);
+			}
+		}
+	}
+	
+	/**
+	 * Deletes the library and the journal.
+	 * 
+	 * @throws IOException
+	 */
+	@After
+	public void deleteLibrary() throws IOException
+	{
+		FileUtils.deleteDirectory(this.root);
+		this.journalFile.delete();
+	}
+	
+	/**
+	 * Interrupts a pass midway and checks that a restarted scanner resumes it and
+	 * skips unchanged folders afterwards.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testResume() throws IOException
+	{
+		// Stop the first scanner after some folders
+		final List<String> firstRun = Collections.synchronizedList(new ArrayList<String>());
+		final LocalLibraryScanner[] first = new LocalLibraryScanner[1];
+		final ScanJournal firstJournal = new ScanJournal(this.journalFile);
+		first[0] = new LocalLibraryScanner(this.createService(firstRun, first, firstJournal, 8),
+				this.root.getPath(), firstJournal);
+		first[0].pass();
+		Assert.assertTrue(firstRun.size() < this.folders.size());
+		
+		// The journal knows what is left
+		final ScanJournal journal = new ScanJournal(this.journalFile);
+		final Set<String> done = new HashSet<String>();
+		for (final String folder : this.folders) if (journal.getLastModified(folder) >= 0) done.add(folder);
+		Assert.assertTrue(journal.isPassInProgress());
+		Assert.assertFalse(journal.getPending().isEmpty());
+		Assert.assertTrue(firstRun.containsAll(done));
+		journal.close();
+		
+		// The second scanner only scans the remaining folders
+		final List<String> secondRun = Collections.synchronizedList(new ArrayList<String>());
+		final LocalLibraryScanner second = new LocalLibraryScanner(this.createService(secondRun, null, null, 0),
+				this.root.getPath(), new ScanJournal(this.journalFile));
+		final int scanned = second.pass();
+		Assert.assertEquals(secondRun.size(), scanned);
+		Assert.assertTrue(secondRun.size() < this.folders.size());
+		
+		final Set<String> all = new HashSet<String>(done);
+		all.addAll(secondRun);
+		Assert.assertEquals(this.folders, all);
+		
+		// Unchanged folders are skipped by the next pass, modified ones are scanned again
+		secondRun.clear();
+		Assert.assertEquals(0, second.pass());
+		
+		final File modified = new File(this.root, "artist3/album1");
+		Assert.assertTrue(modified.setLastModified(modified.lastModified() + 10000));
+		Assert.assertEquals(1, second.pass());
+		Assert.assertEquals(Collections.singletonList("artist3/album1"), secondRun);
+		second.stopScanning();
+	}
+	
+	/**
+	 * Runs enough passes to exceed the compaction threshold and checks that the journal
+	 * is compacted while the scanner is running and keeps its state.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCompaction() throws IOException
+	{
+		final LocalLibraryScanner scanner = new LocalLibraryScanner(this.createService(new ArrayList<String>(), null, null, 0),
+				this.root.getPath(), new ScanJournal(this.journalFile));
+		for (int i = 0; i < 40; i++) scanner.pass();
+		scanner.stopScanning();
+		
+		// Every pass appends two records per folder
+		Assert.assertTrue(FileUtils.readLines(this.journalFile).size() < 1000);
+		final ScanJournal journal = new ScanJournal(this.journalFile);
+		Assert.assertFalse(journal.isPassInProgress());
+		for (final String folder : this.folders) Assert.assertTrue(journal.getLastModified(folder) >= 0);
+		journal.close();
+	}
+	
+	/**
+	 * Creates a library service that only lists the folders.
+	 * 
+	 * @param scanned Receives the scanned folders.
+	 * @param scanner Holds the scanner that is stopped after the given number of folders.
+	 * @param journal The journal of that scanner. The scanner is not stopped before the root 
+	 * has been recorded, as the whole pass would be repeated otherwise.
+	 * @param stopAfter The number of folders after which the scanner is stopped. 0 to never stop.
+	 * 
+	 * @return The service.
+	 */
+	private LocalLibraryService createService(final List<String> scanned, final LocalLibraryScanner[] scanner, 
+			final ScanJournal journal, final int stopAfter)
+	{
+		return (LocalLibraryService) Proxy.newProxyInstance(this.getClass().getClassLoader(),
+				new Class<?>[] { LocalLibraryService.class }, new InvocationHandler() {
+			/** @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[]) */
+			@Override public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				if (!method.getName().equals("scanFolder")) return null;
+				
+				final String folder = (String) args[0];
+				final File dir = folder == null ? LocalLibraryScannerTest.this.root : new File(LocalLibraryScannerTest.this.root, folder);
+				final List<LocalSubfolder> subfolders = new ArrayList<LocalSubfolder>();
+				for (final File subdir : dir.listFiles(FileFilters.directoryFilter))
+					subfolders.add(new LocalSubfolder(subdir.getName(), Collections.<String>emptySet(), FolderStatistics.empty));
+				
+				scanned.add(folder);
+				if (stopAfter > 0 && scanned.size() >= stopAfter && scanner[0].alive && journal.getLastModified(null) >= 0)
+					scanner[0].stopScanning();
+				return new LocalFolder(dir.getName(), folder == null ? "" : folder, subfolders,
+						Collections.<LocalFile>emptyList(), Collections.<String>emptySet(), FolderStatistics.empty);
+			}
+		});
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.library.service.local.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+import com.senselessweb.soundcloud.library.service.local.LocalLibraryService;
+import com.senselessweb.storage.library.LocalLibraryStorageService;
+import com.senselessweb.storage.memory.MemoryLocalLibraryStorageService;
+
+/**
+ * Testcases for the {@link LocalLibraryWatcher}
+ * 
+ * @author thomas
+ */
+public class LocalLibraryWatcherTest
+{
+
+	/**
+	 * The root folder of the test library
+	 */
+	private File root;
+	
+	/**
+	 * The storage of the test library
+	 */
+	private LocalLibraryStorageService storage;
+	
+	/**
+	 * The stored files of the folder album
+	 */
+	private List<LocalFile> album;
+	
+	/**
+	 * The stored file of the folder single
+	 */
+	private LocalFile single;
+	
+	/**
+	 * The tested watcher
+	 */
+	private LocalLibraryWatcher watcher;
+	
+	/**
+	 * Creates and stores a library with an album of 200 files and a single, and starts watching it.
+	 * 
+	 * @throws IOException
+	 */
+	@Before
+	public void createLibrary() throws IOException
+	{
+		this.root = File.createTempFile("library", "");
+		Assert.assertTrue(this.root.delete());
+		
+		final List<File> files = new ArrayList<File>();
+		for (int i = 0; i < 200; i++) files.add(new File(this.root, "album/" + i + ".mp3"));
+		files.add(new File(this.root, "single/01.mp3"));
+		for (final File file : files) FileUtils.touch(file);
+		
+		this.storage = new MemoryLocalLibraryStorageService();
+		final List<LocalFile> localFiles = this.storage.getOrCreateAll(files);
+		this.album = localFiles.subList(0, 200);
+		this.single = localFiles.get(200);
+		
+		// The watcher only invalidates the cached folders and does not find new folders
+		final LocalLibraryService service = (LocalLibraryService) Proxy.newProxyInstance(this.getClass().getClassLoader(),
+				new Class<?>[] { LocalLibraryService.class }, new InvocationHandler() {
+			/** @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[]) */
+			@Override public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				return null;
+			}
+		});
+		this.watcher = new LocalLibraryWatcher(service, this.storage, null, this.root.getPath());
+		this.watcher.registerAll();
+	}
+	
+	/**
+	 * Deletes the library.
+	 * 
+	 * @throws IOException
+	 */
+	@After
+	public void deleteLibrary() throws IOException
+	{
+		FileUtils.deleteDirectory(this.root);
+	}
+	
+	/**
+	 * Checks that nothing is removed while the root folder is missing or empty.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testUnavailableLibrary() throws IOException
+	{
+		FileUtils.deleteDirectory(this.root);
+		this.watcher.poll();
+		Assert.assertTrue(this.root.mkdirs());
+		this.watcher.poll();
+		
+		Assert.assertNotNull(this.storage.get(this.single.getId()));
+		for (final LocalFile localFile : this.album) Assert.assertNotNull(this.storage.get(localFile.getId()));
+	}
+	
+	/**
+	 * Checks that a poll does not remove most of the files at once, but still removes single files.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRemovalLimit() throws IOException
+	{
+		FileUtils.deleteDirectory(new File(this.root, "album"));
+		Assert.assertTrue(new File(this.root, "single/01.mp3").delete());
+		this.watcher.poll();
+		
+		Assert.assertNull(this.storage.get(this.single.getId()));
+		for (final LocalFile localFile : this.album) Assert.assertNotNull(this.storage.get(localFile.getId()));
+	}
+}
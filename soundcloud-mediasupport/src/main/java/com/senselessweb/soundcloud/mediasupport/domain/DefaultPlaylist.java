@@ -1,5 +1,6 @@
 package com.senselessweb.soundcloud.mediasupport.domain;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -199,11 +200,13 @@ public class DefaultPlaylist implements Playlist
 	}
 	
 	/**
-	 * Stores the current setting of the playlist to the persistency service.
+	 * Stores the current setting of the playlist to the persistency service. Stores a copy
+	 * of the playlist, as the value is written later on.
 	 */
 	private void store()
 	{
-		this.persistencyService.put("defaultPlaylist", "playlistContainer", new PlayListContainer(this.current, this.playlist));
+		this.persistencyService.put("defaultPlaylist", "playlistContainer", 
+				new PlayListContainer(this.current, new ArrayList<MediaSource>(this.playlist)));
 	}
 	
 	/**
@@ -242,8 +245,13 @@ public class DefaultPlaylist implements Playlist
  *
  * @author thomas
  */
-class PlayListContainer
+class PlayListContainer implements Serializable
 {
+	/**
+	 * The serialVersionUID
+	 */
+	private static final long serialVersionUID = -8120938716470525573L;
+	
 	/**
 	 * The current
 	 */
@@ -64,7 +64,7 @@ public class PipelineBuilder
 	{
 		if (mediaSource instanceof FileSource)
 		{
-			return new FileSrcPipeline(((FileSource) mediaSource).getFile(), 
+			return new FileSrcPipeline(((FileSource) mediaSource).getFile(), ((FileSource) mediaSource).getDuration(), 
 					this.volume, this.equalizer, this.panoramaBridge, this.messageMediator);
 		}
 		else if (mediaSource instanceof StreamSource)
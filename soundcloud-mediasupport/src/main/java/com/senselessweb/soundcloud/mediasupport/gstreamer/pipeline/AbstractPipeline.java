@@ -136,7 +136,11 @@ public abstract class AbstractPipeline implements PipelineBridge
 		log.debug("Playing " + this);
 		this.pipeline.play();
 		
-		if (previousState != org.gstreamer.State.PAUSED) this.queryDuration();
+		if (previousState == org.gstreamer.State.PAUSED) return;
+		
+		// Use the duration known in advance, if any, instead of polling the pipeline
+		if (this.duration > 0) this.messageListener.durationChanged(this.duration);
+		else this.queryDuration();
 	}
 
 	/**
@@ -193,6 +197,16 @@ public abstract class AbstractPipeline implements PipelineBridge
 	}
 	
 	
+	/**
+	 * Sets the duration if it is known before the pipeline is played.
+	 * 
+	 * @param duration The duration in seconds. Values <= 0 are ignored.
+	 */
+	protected void setKnownDuration(final long duration)
+	{
+		if (duration > 0) this.duration = duration;
+	}
+	
 	/**
 	 * @see com.senselessweb.soundcloud.mediasupport.gstreamer.PipelineBridge#getDuration()
 	 */
@@ -20,16 +20,18 @@ public class FileSrcPipeline extends AbstractPipeline
 	 * Constructor
 	 * 
 	 * @param file The file that is used as source.
+	 * @param duration The duration of the file in seconds or -1 if it is unknown.
 	 * @param volume The {@link VolumeControl}.
 	 * @param equalizer The current {@link EqualizerBridge}.
 	 * @param panoramaBridge The {@link PanoramaBridge}. 
 	 * @param messageListener The {@link MessageListenerService}.
 	 */
-	public FileSrcPipeline(final File file, final VolumeBridge volume, final EqualizerBridge equalizer, 
+	public FileSrcPipeline(final File file, final long duration, final VolumeBridge volume, final EqualizerBridge equalizer, 
 			final PanoramaBridge panoramaBridge, final MessageListenerService messageListener)
 	{
 		super(createDefaultPipeline("filesrc name=src"), volume, equalizer, panoramaBridge, messageListener);
 		this.pipeline.getElementByName("src").set("location", file.getAbsolutePath());
+		this.setKnownDuration(duration);
 	}
 	
 	
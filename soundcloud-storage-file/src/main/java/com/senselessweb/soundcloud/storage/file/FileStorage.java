@@ -0,0 +1,93 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.storage.file;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Opens the {@link LogStore}s of the storage services in one directory and closes them
+ * on shutdown.
+ * 
+ * The directory is <code>~/.soundcloud/storage</code> by default, configurable using the
+ * system property <code>soundcloud.storage.dir</code>. Values are read from memory mapped
+ * files if the system property <code>soundcloud.storage.mmap</code> is true.
+ * 
+ * @author thomas
+ */
+@Component
+public class FileStorage
+{
+
+	/**
+	 * Indicates if values are read from memory mapped files.
+	 */
+	private static final boolean mapped = Boolean.getBoolean("soundcloud.storage.mmap");
+	
+	
+	/**
+	 * The directory of the log files.
+	 */
+	private final File directory;
+	
+	/**
+	 * The open stores by name.
+	 */
+	private final Map<String, LogStore<?>> stores = new HashMap<String, LogStore<?>>();
+	
+	/**
+	 * Constructor that uses the configured directory.
+	 */
+	public FileStorage()
+	{
+		this(new File(System.getProperty("soundcloud.storage.dir",
+				System.getProperty("user.home") + File.separator + ".soundcloud" + File.separator + "storage")));
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param directory The directory of the log files. Created if it does not exist.
+	 */
+	public FileStorage(final File directory)
+	{
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IllegalArgumentException("Could not create " + directory);
+		this.directory = directory;
+	}
+	
+	/**
+	 * Returns the store with the given name. Opens it on first use.
+	 * 
+	 * @param name The name of the store.
+	 * 
+	 * @return The store.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <V extends Serializable> LogStore<V> open(final String name)
+	{
+		LogStore<?> store = this.stores.get(name);
+		if (store == null)
+		{
+			store = new LogStore<V>(new File(this.directory, name + ".log"), mapped);
+			this.stores.put(name, store);
+		}
+		return (LogStore<V>) store;
+	}
+	
+	/**
+	 * Closes all stores.
+	 */
+	@PreDestroy public synchronized void close()
+	{
+		for (final LogStore<?> store : this.stores.values()) store.close();
+		this.stores.clear();
+	}
+}
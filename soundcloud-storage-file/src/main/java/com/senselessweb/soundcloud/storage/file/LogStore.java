@@ -0,0 +1,680 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.storage.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A key value store that appends every change to a log file and keeps the position of
+ * the current value of every key in memory.
+ * 
+ * Every record consists of the length and the checksum of its payload, the operation, the
+ * key and the serialized value. Reading a value costs a single read at a known position,
+ * optionally from a memory mapped file. When the store is opened, the log is read once
+ * to rebuild the positions. A record that has not been written completely at the end of
+ * the log, for example after a crash, is cut off. A corrupt record that is followed by
+ * valid records is skipped with a warning, the following records are kept.
+ * 
+ * Replaced and removed values stay in the log until it is compacted. The log is compacted
+ * when the replaced and removed records take more than half of the log and at least one
+ * megabyte, configurable using the system properties <code>soundcloud.storage.compactionRatio</code>
+ * and <code>soundcloud.storage.compactionMinSize</code>. Compaction copies the current
+ * records to a new file that replaces the log. If the log is missing when the store is
+ * opened, a completed copy is moved into its place.
+ * 
+ * Values are read from a memory mapped file if requested and the log is smaller than 2 GB.
+ * 
+ * @author thomas
+ * 
+ * @param <V> The type of the values.
+ */
+public class LogStore<V extends Serializable>
+{
+
+	/**
+	 * The log
+	 */
+	private static final Log log = LogFactory.getLog(LogStore.class);
+	
+	/**
+	 * The share of replaced and removed records at which the log is compacted.
+	 */
+	private static final double compactionRatio = Double.parseDouble(System.getProperty("soundcloud.storage.compactionRatio", "0.5"));
+	
+	/**
+	 * The minimum size of the replaced and removed records in bytes at which the log is compacted.
+	 */
+	private static final long compactionMinSize = Long.getLong("soundcloud.storage.compactionMinSize", 1024 * 1024);
+	
+	/**
+	 * The size of the length and the checksum in front of every payload.
+	 */
+	private static final int headerSize = 8;
+	
+	/**
+	 * The operation of a record that stores a value.
+	 */
+	private static final byte put = 1;
+	
+	/**
+	 * The operation of a record that removes a value.
+	 */
+	private static final byte remove = 0;
+	
+	
+	/**
+	 * The log file.
+	 */
+	private final File file;
+	
+	/**
+	 * Indicates if values are read from a memory mapped file.
+	 */
+	private final boolean mapped;
+	
+	/**
+	 * The records of the current values by key.
+	 */
+	private final Map<String, Record> records = new HashMap<String, Record>();
+	
+	/**
+	 * The open log file.
+	 */
+	private RandomAccessFile randomAccessFile;
+	
+	/**
+	 * The channel of the open log file.
+	 */
+	private FileChannel channel;
+	
+	/**
+	 * The mapped part of the log file. Null if nothing has been mapped yet. Mapped again
+	 * when a value behind the mapped part is read.
+	 */
+	private MappedByteBuffer buffer;
+	
+	/**
+	 * The size of the log in bytes.
+	 */
+	private long size;
+	
+	/**
+	 * The size of the records of the current values in bytes.
+	 */
+	private long liveSize;
+	
+	/**
+	 * Constructor. Opens the log file and reads the positions of the current values.
+	 * 
+	 * @param file The log file. Created if it does not exist.
+	 * @param mapped True to read values from a memory mapped file.
+	 */
+	public LogStore(final File file, final boolean mapped)
+	{
+		this.file = file;
+		this.mapped = mapped;
+		
+		try
+		{
+			this.recover();
+			this.open();
+			this.replay();
+		}
+		catch (final IOException e)
+		{
+			throw new RuntimeException("Could not open " + file, e);
+		}
+	}
+	
+	/**
+	 * Returns the current value of a key.
+	 * 
+	 * @param key The key.
+	 * 
+	 * @return The value or null if there is no value for the key.
+	 */
+	public synchronized V get(final String key)
+	{
+		final Record record = this.records.get(key);
+		return record != null ? this.read(record) : null;
+	}
+	
+	/**
+	 * Checks if there is a value for a key.
+	 * 
+	 * @param key The key.
+	 * 
+	 * @return True if there is a value for the key.
+	 */
+	public synchronized boolean contains(final String key)
+	{
+		return this.records.containsKey(key);
+	}
+	
+	/**
+	 * Returns all keys.
+	 * 
+	 * @return The keys.
+	 */
+	public synchronized List<String> keys()
+	{
+		return new ArrayList<String>(this.records.keySet());
+	}
+	
+	/**
+	 * Returns the number of values.
+	 * 
+	 * @return The number of values.
+	 */
+	public synchronized int size()
+	{
+		return this.records.size();
+	}
+	
+	/**
+	 * Returns all current values. Reads the log in the order of the records.
+	 * 
+	 * @return The values by key.
+	 */
+	public synchronized Map<String, V> getAll()
+	{
+		final Map<String, V> result = new LinkedHashMap<String, V>();
+		for (final Map.Entry<String, Record> entry : this.sortedRecords())
+			result.put(entry.getKey(), this.read(entry.getValue()));
+		return result;
+	}
+	
+	/**
+	 * Stores a value. Replaces the value with the same key.
+	 * 
+	 * @param key The key.
+	 * @param value The value.
+	 */
+	public void put(final String key, final V value)
+	{
+		this.putAll(Collections.singletonMap(key, value));
+	}
+	
+	/**
+	 * Stores values with a single write. Replaces the values with the same keys.
+	 * 
+	 * @param values The values by key.
+	 */
+	public synchronized void putAll(final Map<String, ? extends V> values)
+	{
+		if (values.isEmpty()) return;
+		
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final Map<String, Record> appended = new LinkedHashMap<String, Record>();
+		for (final Map.Entry<String, ? extends V> entry : values.entrySet())
+			appended.put(entry.getKey(), this.encode(bytes, put, entry.getKey(), entry.getValue()));
+		this.append(bytes.toByteArray(), appended);
+	}
+	
+	/**
+	 * Removes a value. Does nothing if there is no value for the key.
+	 * 
+	 * @param key The key.
+	 */
+	public void remove(final String key)
+	{
+		this.removeAll(Collections.singletonList(key));
+	}
+	
+	/**
+	 * Removes values with a single write. Keys without a value are ignored.
+	 * 
+	 * @param keys The keys.
+	 */
+	public synchronized void removeAll(final Collection<String> keys)
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final Map<String, Record> appended = new LinkedHashMap<String, Record>();
+		for (final String key : keys)
+			if (this.records.containsKey(key)) appended.put(key, this.encode(bytes, remove, key, null));
+		if (!appended.isEmpty()) this.append(bytes.toByteArray(), appended);
+	}
+	
+	/**
+	 * Copies the records of the current values to a new log file that replaces the log.
+	 */
+	public synchronized void compact()
+	{
+		final long startTime = System.currentTimeMillis();
+		final long previousSize = this.size;
+		final File compacted = this.getCompactedFile();
+		final Map<String, Record> moved = new HashMap<String, Record>();
+		try
+		{
+			final RandomAccessFile target = new RandomAccessFile(compacted, "rw");
+			try
+			{
+				target.setLength(0);
+				long position = 0;
+				for (final Map.Entry<String, Record> entry : this.sortedRecords())
+				{
+					final Record record = entry.getValue();
+					for (long copied = 0; copied < record.length;)
+						copied += this.channel.transferTo(record.offset + copied, record.length - copied, target.getChannel());
+					moved.put(entry.getKey(), record.moveTo(position));
+					position += record.length;
+				}
+				target.getChannel().force(true);
+			}
+			finally
+			{
+				target.close();
+			}
+			
+			this.close();
+			if (!compacted.renameTo(this.file) && !(this.file.delete() && compacted.renameTo(this.file)))
+			{
+				// The records may not match the log any more
+				this.reload();
+				throw new IOException("Could not replace " + this.file + " by " + compacted);
+			}
+			this.open();
+		}
+		catch (final IOException e)
+		{
+			throw new RuntimeException("Could not compact " + this.file, e);
+		}
+		
+		this.records.clear();
+		this.records.putAll(moved);
+		this.size = this.liveSize;
+		log.debug("Compacted " + this.file + " from " + previousSize + " to " + this.size + " bytes (" +
+				(System.currentTimeMillis() - startTime) + " ms)");
+	}
+	
+	/**
+	 * Writes all changes to the disk and closes the log file.
+	 */
+	public synchronized void close()
+	{
+		if (this.channel == null) return;
+		try
+		{
+			this.channel.force(true);
+			this.randomAccessFile.close();
+		}
+		catch (final IOException e)
+		{
+			log.warn("Could not close " + this.file, e);
+		}
+		this.channel = null;
+		this.randomAccessFile = null;
+		this.buffer = null;
+	}
+	
+	/**
+	 * Opens the log file.
+	 * 
+	 * @throws IOException
+	 */
+	private void open() throws IOException
+	{
+		this.randomAccessFile = new RandomAccessFile(this.file, "rw");
+		this.channel = this.randomAccessFile.getChannel();
+		this.buffer = null;
+	}
+	
+	/**
+	 * Finishes an interrupted compaction. Deletes the copy if the log still exists, because
+	 * the log is only deleted after the copy is complete. Moves the copy into the place of
+	 * the log otherwise.
+	 * 
+	 * @throws IOException If the copy could not be moved.
+	 */
+	private void recover() throws IOException
+	{
+		final File compacted = this.getCompactedFile();
+		if (!compacted.exists()) return;
+		
+		if (this.file.exists())
+		{
+			if (!compacted.delete()) log.warn("Could not delete " + compacted);
+		}
+		else if (compacted.renameTo(this.file)) log.warn("Restored " + this.file + " from " + compacted);
+		else throw new IOException("Could not restore " + this.file + " from " + compacted);
+	}
+	
+	/**
+	 * Drops the records and reads them again from the log.
+	 * 
+	 * @throws IOException
+	 */
+	private void reload() throws IOException
+	{
+		this.records.clear();
+		this.size = 0;
+		this.liveSize = 0;
+		this.recover();
+		this.open();
+		this.replay();
+	}
+	
+	/**
+	 * Reads the log and rebuilds the records of the current values. Cuts off a record at
+	 * the end of the log that has not been written completely and skips corrupt records
+	 * that are followed by valid ones.
+	 * 
+	 * @throws IOException
+	 */
+	private void replay() throws IOException
+	{
+		final long fileSize = this.channel.size();
+		long position = 0;
+		while (position < fileSize)
+		{
+			final long next = this.readRecord(position, fileSize, true);
+			if (next >= 0)
+			{
+				position = next;
+				continue;
+			}
+			
+			// Only the last record can be incomplete, a valid record behind it means corruption
+			long valid = position + 1;
+			while (valid < fileSize && this.readRecord(valid, fileSize, false) < 0) valid++;
+			if (valid >= fileSize)
+			{
+				log.warn("Cutting off " + (fileSize - position) + " bytes of an incomplete record from " + this.file);
+				this.channel.truncate(position);
+				break;
+			}
+			log.warn("Skipping " + (valid - position) + " corrupt bytes at " + position + " in " + this.file);
+			position = valid;
+		}
+			
+		this.size = position;
+		log.debug("Read " + this.records.size() + " values from " + this.file);
+	}
+	
+	/**
+	 * Reads the record at a position of the log.
+	 * 
+	 * @param position The position.
+	 * @param fileSize The size of the log file.
+	 * @param apply True to replace the record of the current value of the key.
+	 * 
+	 * @return The position behind the record or -1 if there is no valid record at the position.
+	 * 
+	 * @throws IOException
+	 */
+	private long readRecord(final long position, final long fileSize, final boolean apply) throws IOException
+	{
+		// Check the length, the operation and the length of the key before reading the payload
+		if (position + headerSize + 3 > fileSize) return -1;
+		final ByteBuffer header = ByteBuffer.allocate(headerSize + 3);
+		this.readFully(header, position);
+		header.flip();
+		final int length = header.getInt();
+		final long checksum = header.getInt() & 0xffffffffL;
+		final byte operation = header.get();
+		final int keyLength = header.getShort() & 0xffff;
+		if (length < 3 + keyLength || position + headerSize + length > fileSize || (operation != put && operation != remove))
+			return -1;
+		
+		final byte[] payload = new byte[length];
+		this.readFully(ByteBuffer.wrap(payload), position + headerSize);
+		if (checksum(payload) != checksum) return -1;
+		
+		if (apply)
+		{
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, 1, length - 1));
+			final String key = in.readUTF();
+			final int valueOffset = headerSize + length - in.available();
+			this.apply(key, operation == put ? new Record(position, headerSize + length, valueOffset) : null);
+		}
+		return position + headerSize + length;
+	}
+	
+	/**
+	 * Appends records to the log and updates the records of the current values.
+	 * 
+	 * @param bytes The records.
+	 * @param appended The appended records by key. Null for removed values.
+	 */
+	private void append(final byte[] bytes, final Map<String, Record> appended)
+	{
+		final ByteBuffer source = ByteBuffer.wrap(bytes);
+		try
+		{
+			while (source.hasRemaining()) this.channel.write(source, this.size + source.position());
+		}
+		catch (final IOException e)
+		{
+			throw new RuntimeException("Could not write to " + this.file, e);
+		}
+		
+		for (final Map.Entry<String, Record> entry : appended.entrySet())
+			this.apply(entry.getKey(), entry.getValue() != null ? entry.getValue().moveTo(this.size + entry.getValue().offset) : null);
+		this.size += bytes.length;
+		
+		final long garbage = this.size - this.liveSize;
+		if (garbage >= compactionMinSize && garbage > compactionRatio * this.size) this.compact();
+	}
+	
+	/**
+	 * Replaces the record of the current value of a key.
+	 * 
+	 * @param key The key.
+	 * @param record The new record or null if the value has been removed.
+	 */
+	private void apply(final String key, final Record record)
+	{
+		final Record previous = record != null ? this.records.put(key, record) : this.records.remove(key);
+		if (previous != null) this.liveSize -= previous.length;
+		if (record != null) this.liveSize += record.length;
+	}
+	
+	/**
+	 * Writes a record.
+	 * 
+	 * @param bytes The stream to write to.
+	 * @param operation The operation.
+	 * @param key The key.
+	 * @param value The value. Ignored if the value is removed.
+	 * 
+	 * @return The written record. Its offset is relative to the stream. Null if the value is removed.
+	 */
+	private Record encode(final ByteArrayOutputStream bytes, final byte operation, final String key, final V value)
+	{
+		try
+		{
+			final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(payload);
+			out.writeByte(operation);
+			out.writeUTF(key);
+			final int valueOffset = headerSize + out.size();
+			if (operation == put)
+			{
+				final ObjectOutputStream objectOut = new ObjectOutputStream(out);
+				objectOut.writeObject(value);
+				objectOut.flush();
+			}
+			
+			final byte[] data = payload.toByteArray();
+			final long offset = bytes.size();
+			final DataOutputStream header = new DataOutputStream(bytes);
+			header.writeInt(data.length);
+			header.writeInt((int) checksum(data));
+			bytes.write(data);
+			return operation == put ? new Record(offset, headerSize + data.length, valueOffset) : null;
+		}
+		catch (final IOException e)
+		{
+			throw new RuntimeException("Could not serialize the value of " + key, e);
+		}
+	}
+	
+	/**
+	 * Reads the value of a record.
+	 * 
+	 * @param record The record.
+	 * 
+	 * @return The value.
+	 */
+	@SuppressWarnings("unchecked")
+	private V read(final Record record)
+	{
+		final byte[] value = new byte[record.length - record.valueOffset];
+		final long position = record.offset + record.valueOffset;
+		try
+		{
+			if (this.mapped && this.size <= Integer.MAX_VALUE)
+			{
+				if (this.buffer == null || this.buffer.capacity() < position + value.length)
+					this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.size);
+				final ByteBuffer view = this.buffer.duplicate();
+				view.position((int) position);
+				view.get(value);
+			}
+			else this.readFully(ByteBuffer.wrap(value), position);
+			
+			final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(value));
+			return (V) in.readObject();
+		}
+		catch (final IOException e)
+		{
+			throw new RuntimeException("Could not read " + this.file + " at " + record.offset, e);
+		}
+		catch (final ClassNotFoundException e)
+		{
+			throw new RuntimeException("Could not read " + this.file + " at " + record.offset, e);
+		}
+	}
+	
+	/**
+	 * Reads until the buffer is full.
+	 * 
+	 * @param target The buffer.
+	 * @param position The position in the log file.
+	 * 
+	 * @throws IOException If the end of the log file has been reached.
+	 */
+	private void readFully(final ByteBuffer target, final long position) throws IOException
+	{
+		final int start = target.position();
+		while (target.hasRemaining())
+			if (this.channel.read(target, position + target.position() - start) < 0)
+				throw new IOException("Unexpected end of " + this.file);
+	}
+	
+	/**
+	 * Returns the records of the current values in the order of the log.
+	 * 
+	 * @return The records by key.
+	 */
+	private List<Map.Entry<String, Record>> sortedRecords()
+	{
+		final List<Map.Entry<String, Record>> sorted = new ArrayList<Map.Entry<String, Record>>(this.records.entrySet());
+		Collections.sort(sorted, new Comparator<Map.Entry<String, Record>>() {
+			/** @see java.util.Comparator#compare(java.lang.Object, java.lang.Object) */
+			@Override public int compare(final Map.Entry<String, Record> o1, final Map.Entry<String, Record> o2) {
+				return o1.getValue().offset < o2.getValue().offset ? -1 : o1.getValue().offset == o2.getValue().offset ? 0 : 1;
+			}
+		});
+		return sorted;
+	}
+	
+	/**
+	 * Returns the file the log is copied to while it is compacted.
+	 * 
+	 * @return The file.
+	 */
+	private File getCompactedFile()
+	{
+		return new File(this.file.getPath() + ".compact");
+	}
+	
+	/**
+	 * Calculates the checksum of a payload.
+	 * 
+	 * @param payload The payload.
+	 * 
+	 * @return The CRC32 checksum.
+	 */
+	private static long checksum(final byte[] payload)
+	{
+		final CRC32 crc = new CRC32();
+		crc.update(payload);
+		return crc.getValue();
+	}
+	
+	/**
+	 * The position of a record in the log.
+	 * 
+	 * @author thomas
+	 */
+	private static class Record
+	{
+		
+		/**
+		 * The position of the record.
+		 */
+		final long offset;
+		
+		/**
+		 * The length of the record including the header.
+		 */
+		final int length;
+		
+		/**
+		 * The position of the serialized value relative to the record.
+		 */
+		final int valueOffset;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param offset The position of the record.
+		 * @param length The length of the record including the header.
+		 * @param valueOffset The position of the serialized value relative to the record.
+		 */
+		Record(final long offset, final int length, final int valueOffset)
+		{
+			this.offset = offset;
+			this.length = length;
+			this.valueOffset = valueOffset;
+		}
+		
+		/**
+		 * Returns the same record at another position.
+		 * 
+		 * @param position The new position.
+		 * 
+		 * @return The moved record.
+		 */
+		Record moveTo(final long position)
+		{
+			return new Record(position, this.length, this.valueOffset);
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.storage.file.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.senselessweb.soundcloud.domain.library.DuplicateGroup;
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+import com.senselessweb.soundcloud.storage.file.FileStorage;
+import com.senselessweb.soundcloud.storage.file.LogStore;
+import com.senselessweb.storage.library.AbstractLocalLibraryStorageService;
+import com.senselessweb.storage.library.LocalLibraryStorageService;
+
+/**
+ * Implementation of the {@link LocalLibraryStorageService} that stores the files in a {@link LogStore}.
+ * 
+ * The files are stored by path. The generations of the last passes that have seen the files
+ * are stored separately and kept in memory, so a sweep never reads the files.
+ * 
+ * @author thomas
+ */
+@Service
+public class FileLocalLibraryStorageService extends AbstractLocalLibraryStorageService
+{
+
+	/**
+	 * The key of the duplicate groups.
+	 */
+	private static final String duplicatesKey = "duplicateGroups";
+	
+	/**
+	 * The files by path.
+	 */
+	private final LogStore<LocalFile> files;
+	
+	/**
+	 * The generations the files have been marked with by path.
+	 */
+	private final LogStore<Long> generations;
+	
+	/**
+	 * The duplicate groups.
+	 */
+	private final LogStore<ArrayList<DuplicateGroup>> duplicates;
+	
+	/**
+	 * The generations the files have been marked with by path. Files that have not been
+	 * marked yet are missing.
+	 */
+	private final Map<String, Long> marks = new ConcurrentHashMap<String, Long>();
+	
+	@Autowired
+	public FileLocalLibraryStorageService(final FileStorage fileStorage)
+	{
+		this.files = fileStorage.open("localFiles");
+		this.generations = fileStorage.open("generations");
+		this.duplicates = fileStorage.open("duplicateGroups");
+		this.marks.putAll(this.generations.getAll());
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#store(java.util.List, java.util.Collection)
+	 */
+	@Override
+	protected void store(final List<LocalFile> localFiles, final Collection<String> obsoletePaths)
+	{
+		final Map<String, LocalFile> values = new LinkedHashMap<String, LocalFile>();
+		for (final LocalFile localFile : localFiles) values.put(localFile.getPath(), localFile);
+		this.files.putAll(values);
+		
+		// Stored files have not been seen by a pass yet
+		final List<String> paths = new ArrayList<String>(values.keySet());
+		paths.addAll(obsoletePaths);
+		this.unmark(paths);
+		
+		final List<String> removedPaths = new ArrayList<String>(obsoletePaths);
+		removedPaths.removeAll(values.keySet());
+		this.files.removeAll(removedPaths);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#findByPaths(java.util.Collection)
+	 */
+	@Override
+	protected Map<String, LocalFile> findByPaths(final Collection<String> paths)
+	{
+		final Map<String, LocalFile> result = new HashMap<String, LocalFile>();
+		for (final String path : paths)
+		{
+			final LocalFile localFile = this.files.get(path);
+			if (localFile != null) result.put(path, localFile);
+		}
+		return result;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#findAll()
+	 */
+	@Override
+	protected Collection<LocalFile> findAll()
+	{
+		return this.files.getAll().values();
+	}
+	
+	/**
+	 * All stored files are indexed, so there is no other file with the given id.
+	 * 
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#findById(java.lang.String)
+	 */
+	@Override
+	protected LocalFile findById(final String id)
+	{
+		return null;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#delete(java.util.Collection)
+	 */
+	@Override
+	protected void delete(final Collection<String> paths)
+	{
+		this.files.removeAll(paths);
+		this.unmark(paths);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#markLive(java.util.Collection, long)
+	 */
+	@Override
+	public void markLive(final Collection<String> paths, final long generation)
+	{
+		final Map<String, Long> values = new HashMap<String, Long>();
+		for (final String path : paths)
+			if (this.files.contains(path)) values.put(path, generation);
+		this.generations.putAll(values);
+		this.marks.putAll(values);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#findUnmarked(long, int)
+	 */
+	@Override
+	protected List<String> findUnmarked(final long generation, final int limit)
+	{
+		final List<String> paths = new ArrayList<String>();
+		for (final String path : this.files.keys())
+		{
+			if (paths.size() >= limit) break;
+			final Long mark = this.marks.get(path);
+			if (mark == null || mark.longValue() != generation) paths.add(path);
+		}
+		return paths;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#findDuplicates()
+	 */
+	@Override
+	protected List<DuplicateGroup> findDuplicates()
+	{
+		final List<DuplicateGroup> groups = this.duplicates.get(duplicatesKey);
+		return groups != null ? groups : Collections.<DuplicateGroup>emptyList();
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#storeDuplicates(java.util.List)
+	 */
+	@Override
+	protected void storeDuplicates(final List<DuplicateGroup> groups)
+	{
+		this.duplicates.put(duplicatesKey, new ArrayList<DuplicateGroup>(groups));
+	}
+	
+	/**
+	 * Removes the generations of the given files.
+	 * 
+	 * @param paths The paths of the files.
+	 */
+	private void unmark(final Collection<String> paths)
+	{
+		this.generations.removeAll(paths);
+		this.marks.keySet().removeAll(paths);
+	}
+
+}
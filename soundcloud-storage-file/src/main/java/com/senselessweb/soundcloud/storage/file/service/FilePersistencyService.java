@@ -0,0 +1,83 @@
+package com.senselessweb.soundcloud.storage.file.service;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.senselessweb.soundcloud.storage.file.FileStorage;
+import com.senselessweb.soundcloud.storage.file.LogStore;
+import com.senselessweb.storage.CachingPersistencyService;
+import com.senselessweb.storage.PersistencyService;
+
+/**
+ * Implementation of the {@link PersistencyService} that stores the values in a {@link LogStore}.
+ * Writes are coalesced by the {@link CachingPersistencyService} that is registered as
+ * <code>persistencyService</code> in front of this service.
+ * 
+ * @author thomas
+ */
+@Service("filePersistencyService")
+public class FilePersistencyService implements PersistencyService
+{
+
+	/**
+	 * The separator between the prefix and the key.
+	 */
+	private static final String separator = "\t";
+	
+	/**
+	 * The values by prefix and key.
+	 */
+	private final LogStore<Serializable> store;
+	
+	@Autowired
+	public FilePersistencyService(final FileStorage fileStorage)
+	{
+		this.store = fileStorage.open("persistencyService");
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.PersistencyService#put(java.lang.String, java.lang.String, java.lang.Object)
+	 */
+	@Override
+	public void put(final String prefix, final String key, final Object value)
+	{
+		if (value == null) this.store.remove(prefix + separator + key);
+		else if (value instanceof Serializable) this.store.put(prefix + separator + key, (Serializable) value);
+		else throw new IllegalArgumentException("Value of " + prefix + "/" + key + " is not serializable: " + value);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.PersistencyService#get(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public Object get(final String prefix, final String key)
+	{
+		return this.store.get(prefix + separator + key);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.PersistencyService#contains(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean contains(final String prefix, final String key)
+	{
+		return this.store.contains(prefix + separator + key);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.PersistencyService#getAll(java.lang.String)
+	 */
+	@Override
+	public Map<String, Object> getAll(final String prefix)
+	{
+		final Map<String, Object> result = new HashMap<String, Object>();
+		for (final String key : this.store.keys())
+			if (key.startsWith(prefix + separator)) result.put(key.substring(prefix.length() + separator.length()), this.store.get(key));
+		return result;
+	}
+
+}
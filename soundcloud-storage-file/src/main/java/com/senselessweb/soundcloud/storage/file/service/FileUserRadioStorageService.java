@@ -0,0 +1,73 @@
+package com.senselessweb.soundcloud.storage.file.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.senselessweb.soundcloud.domain.library.RadioLibraryItem;
+import com.senselessweb.soundcloud.storage.file.FileStorage;
+import com.senselessweb.soundcloud.storage.file.LogStore;
+import com.senselessweb.storage.library.UserRadioStorageService;
+
+/**
+ * Implementation of the {@link UserRadioStorageService} that stores the stations in a {@link LogStore}.
+ * 
+ * @author thomas
+ */
+@Service
+public class FileUserRadioStorageService implements UserRadioStorageService
+{
+
+	/**
+	 * The stations by id.
+	 */
+	private final LogStore<RadioLibraryItem> store;
+	
+	@Autowired
+	public FileUserRadioStorageService(final FileStorage fileStorage)
+	{
+		this.store = fileStorage.open("radioStations");
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.UserRadioStorageService#createRadioStation(com.senselessweb.soundcloud.domain.library.RadioLibraryItem)
+	 */
+	@Override
+	public RadioLibraryItem createRadioStation(final RadioLibraryItem streamSource)
+	{
+		// The id is derived from the name, so the station with the same name is replaced
+		final RadioLibraryItem station = streamSource.withTitleId();
+		this.store.put(station.getId(), station);
+		return station;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.UserRadioStorageService#getAllRadioStations()
+	 */
+	@Override
+	public Collection<RadioLibraryItem> getAllRadioStations()
+	{
+		return new ArrayList<RadioLibraryItem>(this.store.getAll().values());
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.UserRadioStorageService#getRadioStation(java.lang.String)
+	 */
+	@Override
+	public RadioLibraryItem getRadioStation(final String id)
+	{
+		return this.store.get(id);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.UserRadioStorageService#deleteRadioStation(java.lang.String)
+	 */
+	@Override
+	public void deleteRadioStation(final String id)
+	{
+		this.store.remove(id);
+	}
+
+}
@@ -0,0 +1,49 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
+import com.senselessweb.soundcloud.storage.file.service.FileLocalLibraryStorageService;
+import com.senselessweb.soundcloud.storage.file.service.FilePersistencyService;
+import com.senselessweb.storage.StorageBenchmark;
+
+/**
+ * Runs the {@link StorageBenchmark} against the file backend in a temporary directory.
+ * 
+ * Usage: <code>FileStorageBenchmark [files] [operations]</code>. Set
+ * <code>-Dsoundcloud.storage.mmap=true</code> to measure memory mapped reads.
+ * 
+ * @author thomas
+ */
+public class FileStorageBenchmark
+{
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args The number of files and the number of operations. Both optional.
+	 * 
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException
+	{
+		final File directory = File.createTempFile("soundcloud", "");
+		if (!directory.delete()) throw new IOException("Could not delete " + directory);
+		
+		final FileStorage fileStorage = new FileStorage(directory);
+		try
+		{
+			StorageBenchmark.run(new FilePersistencyService(fileStorage), new FileLocalLibraryStorageService(fileStorage), args);
+		}
+		finally
+		{
+			fileStorage.close();
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+}
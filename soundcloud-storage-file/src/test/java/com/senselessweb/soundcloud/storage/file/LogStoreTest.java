@@ -0,0 +1,187 @@
+package com.senselessweb.soundcloud.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testcases for the {@link LogStore}
+ * 
+ * @author thomas
+ */
+public class LogStoreTest
+{
+
+	/**
+	 * The log file
+	 */
+	private File file;
+	
+	
+	/**
+	 * Creates an empty log file.
+	 * 
+	 * @throws IOException
+	 */
+	@Before
+	public void createFile() throws IOException
+	{
+		this.file = File.createTempFile("soundcloud", ".log");
+	}
+	
+	/**
+	 * Deletes the log file.
+	 */
+	@After
+	public void deleteFile()
+	{
+		this.file.delete();
+	}
+	
+	/**
+	 * Checks that replaced and removed values are gone after the log has been read again.
+	 */
+	@Test
+	public void testReplay()
+	{
+		final LogStore<String> store = new LogStore<String>(this.file, false);
+		store.put("a", "1");
+		store.put("b", "2");
+		store.put("a", "3");
+		store.remove("b");
+		store.put("c", "4");
+		Assert.assertEquals("3", store.get("a"));
+		Assert.assertNull(store.get("b"));
+		store.close();
+		
+		final LogStore<String> reopened = new LogStore<String>(this.file, false);
+		Assert.assertEquals(2, reopened.size());
+		Assert.assertEquals("3", reopened.get("a"));
+		Assert.assertFalse(reopened.contains("b"));
+		Assert.assertEquals("4", reopened.get("c"));
+		reopened.close();
+	}
+	
+	/**
+	 * Checks that compaction shrinks the log and keeps the current values.
+	 */
+	@Test
+	public void testCompaction()
+	{
+		final LogStore<Integer> store = new LogStore<Integer>(this.file, true);
+		for (int i = 0; i < 100; i++) store.put("key" + (i % 10), i);
+		store.removeAll(Arrays.asList("key0", "key1"));
+		final long size = this.file.length();
+		
+		store.compact();
+		Assert.assertTrue(this.file.length() < size / 5);
+		Assert.assertEquals(8, store.size());
+		Assert.assertEquals(99, store.get("key9").intValue());
+		
+		// The compacted log is appended to
+		store.put("key0", 100);
+		store.close();
+		
+		final LogStore<Integer> reopened = new LogStore<Integer>(this.file, true);
+		Assert.assertEquals(9, reopened.size());
+		Assert.assertEquals(100, reopened.get("key0").intValue());
+		Assert.assertNull(reopened.get("key1"));
+		Assert.assertEquals(92, reopened.get("key2").intValue());
+		reopened.close();
+	}
+	
+	/**
+	 * Checks that a record that has not been written completely is cut off.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testIncompleteRecord() throws IOException
+	{
+		final LogStore<String> store = new LogStore<String>(this.file, false);
+		store.put("a", "1");
+		store.putAll(Collections.singletonMap("b", "2"));
+		store.close();
+		
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "rw");
+		randomAccessFile.setLength(this.file.length() - 3);
+		randomAccessFile.close();
+		
+		final LogStore<String> reopened = new LogStore<String>(this.file, false);
+		Assert.assertEquals("1", reopened.get("a"));
+		Assert.assertFalse(reopened.contains("b"));
+		reopened.put("b", "3");
+		reopened.close();
+		
+		final LogStore<String> repaired = new LogStore<String>(this.file, false);
+		Assert.assertEquals("3", repaired.get("b"));
+		repaired.close();
+	}
+	
+	/**
+	 * Checks that a corrupt record in the middle of the log does not cost the following records.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCorruptRecord() throws IOException
+	{
+		final LogStore<String> store = new LogStore<String>(this.file, false);
+		store.put("a", "1");
+		final long start = this.file.length();
+		store.put("b", "2");
+		store.put("c", "3");
+		store.close();
+		
+		// Damage the payload of the second record
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "rw");
+		randomAccessFile.seek(start + 10);
+		randomAccessFile.write(randomAccessFile.read() ^ 0xff);
+		randomAccessFile.close();
+		final long size = this.file.length();
+		
+		final LogStore<String> reopened = new LogStore<String>(this.file, false);
+		Assert.assertEquals("1", reopened.get("a"));
+		Assert.assertFalse(reopened.contains("b"));
+		Assert.assertEquals("3", reopened.get("c"));
+		Assert.assertEquals(size, this.file.length());
+		reopened.close();
+	}
+	
+	/**
+	 * Checks that a compacted copy replaces a missing log and is dropped if the log exists.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testInterruptedCompaction() throws IOException
+	{
+		final File compacted = new File(this.file.getPath() + ".compact");
+		final LogStore<String> store = new LogStore<String>(this.file, false);
+		store.put("a", "1");
+		store.close();
+		
+		// The log has been deleted, but the copy has not been renamed yet
+		Assert.assertTrue(this.file.renameTo(compacted));
+		final LogStore<String> restored = new LogStore<String>(this.file, false);
+		Assert.assertEquals("1", restored.get("a"));
+		Assert.assertFalse(compacted.exists());
+		restored.close();
+		
+		// The copy has not been completed
+		FileUtils.writeStringToFile(compacted, "incomplete");
+		final LogStore<String> reopened = new LogStore<String>(this.file, false);
+		Assert.assertEquals("1", reopened.get("a"));
+		Assert.assertFalse(compacted.exists());
+		reopened.close();
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.storage.file.service;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import com.senselessweb.soundcloud.storage.file.FileStorage;
+import com.senselessweb.storage.PersistencyService;
+import com.senselessweb.storage.PersistencyServiceConformanceTest;
+
+/**
+ * Runs the {@link PersistencyServiceConformanceTest} against the {@link FilePersistencyService}.
+ * 
+ * @author thomas
+ */
+public class FilePersistencyServiceTest extends PersistencyServiceConformanceTest
+{
+
+	/**
+	 * The directory of the log files
+	 */
+	private File directory;
+	
+	/**
+	 * The storage
+	 */
+	private FileStorage fileStorage;
+	
+	
+	/**
+	 * @see com.senselessweb.storage.PersistencyServiceConformanceTest#createService()
+	 */
+	@Override
+	protected PersistencyService createService()
+	{
+		try
+		{
+			this.directory = File.createTempFile("soundcloud", "");
+		}
+		catch (final IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+		Assert.assertTrue(this.directory.delete());
+		this.fileStorage = new FileStorage(this.directory);
+		return new FilePersistencyService(this.fileStorage);
+	}
+	
+	/**
+	 * Closes the storage and deletes the log files.
+	 * 
+	 * @throws IOException
+	 */
+	@After
+	public void deleteStorage() throws IOException
+	{
+		this.fileStorage.close();
+		FileUtils.deleteDirectory(this.directory);
+	}
+	
+	/**
+	 * Checks that the values survive a restart and that removed values stay removed.
+	 */
+	@Test
+	public void testReopen()
+	{
+		this.service.put("test", "kept", "hello world");
+		this.service.put("test", "removed", 42);
+		this.service.put("test", "removed", null);
+		this.fileStorage.close();
+		
+		this.fileStorage = new FileStorage(this.directory);
+		final FilePersistencyService reopened = new FilePersistencyService(this.fileStorage);
+		Assert.assertEquals("hello world", reopened.get("test", "kept"));
+		Assert.assertFalse(reopened.contains("test", "removed"));
+		Assert.assertEquals(1, reopened.getAll("test").size());
+	}
+
+}
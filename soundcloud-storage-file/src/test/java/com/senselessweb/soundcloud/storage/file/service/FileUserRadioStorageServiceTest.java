@@ -0,0 +1,68 @@
+/**
+ * 
+ */
+package com.senselessweb.soundcloud.storage.file.service;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+
+import com.senselessweb.soundcloud.storage.file.FileStorage;
+import com.senselessweb.storage.library.UserRadioStorageService;
+import com.senselessweb.storage.library.UserRadioStorageServiceConformanceTest;
+
+/**
+ * Runs the {@link UserRadioStorageServiceConformanceTest} against the {@link FileUserRadioStorageService}.
+ * 
+ * @author thomas
+ */
+public class FileUserRadioStorageServiceTest extends UserRadioStorageServiceConformanceTest
+{
+
+	/**
+	 * The directory of the log files
+	 */
+	private File directory;
+	
+	/**
+	 * The storage
+	 */
+	private FileStorage fileStorage;
+	
+	
+	/**
+	 * @see com.senselessweb.storage.library.UserRadioStorageServiceConformanceTest#createService()
+	 */
+	@Override
+	protected UserRadioStorageService createService()
+	{
+		try
+		{
+			this.directory = File.createTempFile("soundcloud", "");
+		}
+		catch (final IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+		Assert.assertTrue(this.directory.delete());
+		this.fileStorage = new FileStorage(this.directory);
+		return new FileUserRadioStorageService(this.fileStorage);
+	}
+	
+	/**
+	 * Closes the storage and deletes the log files.
+	 * 
+	 * @throws IOException
+	 */
+	@After
+	public void deleteStorage() throws IOException
+	{
+		this.fileStorage.close();
+		FileUtils.deleteDirectory(this.directory);
+	}
+
+}
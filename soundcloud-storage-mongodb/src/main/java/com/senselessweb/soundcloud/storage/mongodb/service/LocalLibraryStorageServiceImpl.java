@@ -3,47 +3,53 @@
  */
 package com.senselessweb.soundcloud.storage.mongodb.service;
 
-import java.io.File;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.StringTokenizer;
-import java.util.regex.Pattern;
 
-import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.lang3.StringUtils;
+import javax.annotation.PostConstruct;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.senselessweb.soundcloud.domain.library.DuplicateGroup;
 import com.senselessweb.soundcloud.domain.library.LocalFile;
-import com.senselessweb.soundcloud.domain.sources.MediaSource;
-import com.senselessweb.soundcloud.util.FileInformationsReader;
+import com.senselessweb.storage.library.AbstractLocalLibraryStorageService;
 import com.senselessweb.storage.library.LocalLibraryStorageService;
 
 /**
- * Default implementation of the LocalLibraryStorageService.
+ * Implementation of the {@link LocalLibraryStorageService} that is based on mongoDB.
  *
  * @author thomas
  */
 @Service
-public class LocalLibraryStorageServiceImpl implements LocalLibraryStorageService
+public class LocalLibraryStorageServiceImpl extends AbstractLocalLibraryStorageService
 {
 	
 	/**
 	 * The collection used by this service.
 	 */
-	private static final String collectionName = "localLibraryCacheCollection";
+	static final String collectionName = "localLibraryCacheCollection";
+	
+	/**
+	 * The collection of the duplicate groups.
+	 */
+	private static final String duplicatesCollectionName = "duplicateGroupsCollection";
 	
 	/**
 	 * The mongoTemplate
 	 */
 	private final MongoTemplate mongoTemplate;
-
+	
 	@Autowired
 	public LocalLibraryStorageServiceImpl(final MongoTemplate mongoTemplate) 
 	{
@@ -51,100 +57,161 @@ public class LocalLibraryStorageServiceImpl implements LocalLibraryStorageServic
 	}
 	
 	/**
-	 * Caches the keywords 
-	 * 
-	 * TODO Move cache to db
+	 * Creates the indexes of the stored files if they do not exist yet. Files are looked
+	 * up by path, the files of a folder or subtree by folder or ancestor and the files not 
+	 * marked by the last pass by generation.
 	 */
-	private final Map<String, Set<String>> cachedKeywords = Collections.synchronizedMap(new HashMap<String, Set<String>>());
+	@PostConstruct void createIndexes()
+	{
+		final DBCollection collection = this.mongoTemplate.getCollection(collectionName);
+		for (final String key : new String[] { "path", "folder", "ancestors", "generation" })
+			collection.ensureIndex(new BasicDBObject(key, 1));
+	}
 
 	/**
-	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#getOrCreate(java.io.File)
+	 * Every file is replaced by a single upsert on the id derived from its path.
+	 * 
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#store(java.util.List, java.util.Collection)
 	 */
 	@Override
-	public synchronized LocalFile getOrCreate(final File input)
+	protected void store(final List<LocalFile> localFiles, final Collection<String> obsoletePaths)
 	{
-		final LocalFile localFile = this.mongoTemplate.findOne(
-				new Query(Criteria.where("path").is(input.getAbsolutePath())), LocalFile.class, collectionName);
-
-		if (localFile != null && input.lastModified() <= localFile.getLastModified())
-			return localFile;
+		final List<String> paths = new ArrayList<String>(localFiles.size() + obsoletePaths.size());
+		final List<String> ids = new ArrayList<String>(localFiles.size());
+		for (final LocalFile localFile : localFiles)
+		{
+			this.mongoTemplate.save(localFile, collectionName);
+			paths.add(localFile.getPath());
+			ids.add(localFile.getId());
+		}
 		
-		final LocalFile newLocalFile = LocalFile.create(input.getAbsolutePath(), FileInformationsReader.read(input));
-		this.mongoTemplate.remove(new Query(Criteria.where("path").is(input.getAbsolutePath())), collectionName);
-		this.mongoTemplate.insert(newLocalFile, collectionName);
-		this.cachedKeywords.clear();
-		return this.mongoTemplate.findOne(
-				new Query(Criteria.where("path").is(input.getAbsolutePath())), LocalFile.class, collectionName);
+		// Remove the old locations and the files stored before the ids were derived from the paths
+		paths.addAll(obsoletePaths);
+		this.mongoTemplate.remove(new Query(Criteria.where("path").in(paths).and("_id").nin(ids)), collectionName);
 	}
 	
 	/**
-	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#getKeywords(java.lang.String, java.lang.String)
+	 * Uses a single query. Files stored before the duration, the artist, the album, the size
+	 * and the folder were indexed or before the ids were derived from the paths are ignored.
+	 * 
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#findByPaths(java.util.Collection)
 	 */
 	@Override
-	public synchronized Set<String> getKeywords(final String basePath, final String path)
+	protected Map<String, LocalFile> findByPaths(final Collection<String> paths)
 	{
-		// Return an empty set if keywords for the root path are requested as they are way too many
-		if (StringUtils.isBlank(path)) return Collections.emptySet();
-		
-		if (this.cachedKeywords.containsKey(path)) return this.cachedKeywords.get(path);
-		
-		final Set<String> keywords = new HashSet<String>();
-		keywords.addAll(parseKeywords(path));
-		
-		final String regex = Pattern.quote(FilenameUtils.normalize(basePath + File.separator + path)) + "*";
-		for (final LocalFile localFile : this.mongoTemplate.find(new Query(
-				Criteria.where("path").regex(regex)), LocalFile.class, collectionName))
-		{
-			for (final String keyword : localFile.getKeywords()) keywords.addAll(parseKeywords(keyword));
-			keywords.addAll(parseKeywords(localFile.getLongTitle()));
-			keywords.addAll(parseKeywords(localFile.getShortTitle()));
-			keywords.addAll(parseKeywords(localFile.getLongTitle().trim().toLowerCase()));
-		}
-		
-		this.cachedKeywords.put(path, keywords);
-		return keywords;
+		final Map<String, LocalFile> result = new HashMap<String, LocalFile>();
+		for (final LocalFile localFile : this.mongoTemplate.find(
+				new Query(Criteria.where("path").in(paths).and("duration").exists(true).and("artist").exists(true)
+						.and("size").exists(true).and("folder").exists(true)), 
+				LocalFile.class, collectionName))
+			if (LocalFile.createId(localFile.getPath()).equals(localFile.getId())) result.put(localFile.getPath(), localFile);
+		return result;
 	}
-
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#findAll()
+	 */
+	@Override
+	protected Collection<LocalFile> findAll()
+	{
+		return this.mongoTemplate.find(
+				new Query(Criteria.where("duration").exists(true).and("size").exists(true)), LocalFile.class, collectionName);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#findById(java.lang.String)
+	 */
+	@Override
+	protected LocalFile findById(final String id)
+	{
+		return this.mongoTemplate.findById(id, LocalFile.class, collectionName);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#delete(java.util.Collection)
+	 */
+	@Override
+	protected void delete(final Collection<String> paths)
+	{
+		this.mongoTemplate.remove(new Query(Criteria.where("path").in(paths)), collectionName);
+	}
+	
 	/**
-	 * Parses the keywords out of a string
+	 * Uses the index of the ancestors.
 	 * 
-	 * @param string The string to parse.
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#findPathsInFolder(java.lang.String)
+	 */
+	@Override
+	protected Collection<String> findPathsInFolder(final String folder)
+	{
+		final List<String> paths = new ArrayList<String>();
+		for (final DBObject document : this.mongoTemplate.getCollection(collectionName).find(
+				new BasicDBObject("ancestors", folder), new BasicDBObject("path", 1)))
+			paths.add((String) document.get("path"));
+		return paths;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#markLive(java.util.Collection, long)
+	 */
+	@Override
+	public void markLive(final Collection<String> paths, final long generation)
+	{
+		if (paths.isEmpty()) return;
+		this.mongoTemplate.updateMulti(new Query(Criteria.where("path").in(paths)), 
+				new Update().set("generation", generation), collectionName);
+	}
+	
+	/**
+	 * Only reads the paths, so files stored in an outdated format are found as well.
+	 * Documents without a path are skipped, they are removed by {@link #deleteUnreadable(long)}.
 	 * 
-	 * @return The keywords for that string.
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#findUnmarked(long, int)
 	 */
-	private static Set<String> parseKeywords(final String string)
+	@Override
+	protected List<String> findUnmarked(final long generation, final int limit)
 	{
-		final Set<String> result = new HashSet<String>();
-		final StringTokenizer st = new StringTokenizer(string, "-_./()");
-		while (st.hasMoreTokens())
+		final Query query = new Query(Criteria.where("generation").ne(generation));
+		final List<String> paths = new ArrayList<String>();
+		for (final DBObject document : this.mongoTemplate.getCollection(collectionName).find(
+				query.getQueryObject(), new BasicDBObject("path", 1)).limit(limit))
 		{
-			final String s = st.nextToken();
-			
-			// Do not add string that only contain of numbers
-			try { Double.parseDouble(s); } catch (NumberFormatException e) { 
-				if (s.trim().length() >= 3) result.add(s.trim().toLowerCase()); 
-			}
+			final Object path = document.get("path");
+			if (path instanceof String) paths.add((String) path);
 		}
-		return result;
+		return paths;
+	}
+		
+	/**
+	 * Removes the unmarked documents whose path is missing or not a string.
+	 * 
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#deleteUnreadable(long)
+	 */
+	@Override
+	protected void deleteUnreadable(final long generation)
+	{
+		this.mongoTemplate.getCollection(collectionName).remove(
+				new BasicDBObject("generation", new BasicDBObject("$ne", generation))
+						.append("path", new BasicDBObject("$not", new BasicDBObject("$type", 2))));
 	}
 	
 	/**
-	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#get(java.lang.String)
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#findDuplicates()
 	 */
 	@Override
-	public LocalFile get(final String id)
+	protected List<DuplicateGroup> findDuplicates()
 	{
-		return this.mongoTemplate.findById(id, LocalFile.class, collectionName);
+		return this.mongoTemplate.findAll(DuplicateGroup.class, duplicatesCollectionName);
 	}
-
+	
 	/**
-	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#get(com.senselessweb.soundcloud.domain.sources.MediaSource)
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#storeDuplicates(java.util.List)
 	 */
 	@Override
-	public LocalFile get(final MediaSource mediaSource)
+	protected void storeDuplicates(final List<DuplicateGroup> groups)
 	{
-		// TODO Auto-generated method stub
-		return null;
+		this.mongoTemplate.remove(new Query(), duplicatesCollectionName);
+		if (!groups.isEmpty()) this.mongoTemplate.insert(groups, duplicatesCollectionName);
 	}
 
 }
@@ -3,19 +3,27 @@ package com.senselessweb.soundcloud.storage.mongodb.service;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.annotation.PostConstruct;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Service;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
 import com.senselessweb.soundcloud.storage.mongodb.support.SimpleEntry;
+import com.senselessweb.storage.CachingPersistencyService;
 import com.senselessweb.storage.PersistencyService;
 
 /**
  * Implementation of the {@link PersistencyService} that uses mongodb as storage backend.
+ * Writes are coalesced by the {@link CachingPersistencyService} that is registered as 
+ * <code>persistencyService</code> in front of this service.
  * 
  * @author thomas
  */
-@Service("persistencyService")
+@Service("mongoPersistencyService")
 public class PersistencyServiceImpl implements PersistencyService
 {
 
@@ -35,14 +43,29 @@ public class PersistencyServiceImpl implements PersistencyService
 		this.mongoTemplate = mongoTemplate;
 	}
 	
+	/**
+	 * Moves the values that were stored before the ids were derived from the prefix and
+	 * the key to their derived id.
+	 */
+	@PostConstruct void migrate()
+	{
+		final DBCollection collection = this.mongoTemplate.getCollection(collectionName);
+		for (final DBObject document : collection.find(new BasicDBObject("_id", new BasicDBObject("$type", 7))).toArray())
+		{
+			final Object id = document.get("_id");
+			document.put("_id", SimpleEntry.createId((String) document.get("prefix"), (String) document.get("key")));
+			collection.save(document);
+			collection.remove(new BasicDBObject("_id", id));
+		}
+	}
+	
 	/**
 	 * @see com.senselessweb.storage.PersistencyService#put(String, String, Object)
 	 */
 	@Override
 	public void put(final String prefix, final String key, final Object value)
 	{
-		this.mongoTemplate.remove(SimpleEntry.createQuery(prefix, key), collectionName);
-		this.mongoTemplate.insert(new SimpleEntry(prefix, key, value), collectionName);
+		this.mongoTemplate.save(new SimpleEntry(prefix, key, value), collectionName);
 	}
 
 	
@@ -52,8 +75,8 @@ public class PersistencyServiceImpl implements PersistencyService
 	@Override
 	public Object get(final String prefix, final String key)
 	{
-		final SimpleEntry tuple = this.mongoTemplate.findOne(
-				SimpleEntry.createQuery(prefix, key), SimpleEntry.class, collectionName);
+		final SimpleEntry tuple = this.mongoTemplate.findById(
+				SimpleEntry.createId(prefix, key), SimpleEntry.class, collectionName);
 		return tuple != null ? tuple.getValue() : null;
 	}
 	
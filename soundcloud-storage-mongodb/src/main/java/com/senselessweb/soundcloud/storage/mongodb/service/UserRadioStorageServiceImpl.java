@@ -43,15 +43,16 @@ public class UserRadioStorageServiceImpl implements UserRadioStorageService
 	@Override
 	public RadioLibraryItem createRadioStation(final RadioLibraryItem streamSource)
 	{
-		// Remove stations with the same name and location
-		this.mongoTemplate.remove(new Query(
-				Criteria.where("shortTitle").is(streamSource.getLongTitle())), collectionName);
+		// Replace the station with the same name in a single upsert
+		final RadioLibraryItem station = streamSource.withTitleId();
+		this.mongoTemplate.save(station, collectionName);
 		
-		// Store the new station
-		this.mongoTemplate.insert(streamSource, collectionName);
+		// Remove stations with the same name that were stored before the ids were derived from the names
+		this.mongoTemplate.remove(new Query(Criteria.where("shortTitle").is(station.getShortTitle())
+				.and("_id").ne(station.getId())), collectionName);
 		
 		// Return the new entity with id.
-		return streamSource;
+		return station;
 	}
 
 	
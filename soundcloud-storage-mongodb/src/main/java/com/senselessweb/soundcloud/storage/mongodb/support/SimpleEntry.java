@@ -11,6 +11,12 @@ import org.springframework.data.mongodb.core.query.Query;
 public class SimpleEntry
 {
 
+	/**
+	 * The id. Derived from the prefix and the key, so storing a value replaces the
+	 * previous value.
+	 */
+	private final String id;
+
 	/**
 	 * The prefix
 	 */
@@ -35,11 +41,22 @@ public class SimpleEntry
 	 */
 	public SimpleEntry(final String prefix, final String key, final Object value)
 	{
+		this.id = createId(prefix, key);
 		this.prefix = prefix;
 		this.key = key;
 		this.value = value;
 	}
 	
+	/**
+	 * Returns the id
+	 * 
+	 * @return The id
+	 */
+	public String getId()
+	{
+		return this.id;
+	}
+	
 	/**
 	 * Returns the prefix
 	 *
@@ -70,6 +87,19 @@ public class SimpleEntry
 		return this.value;
 	}
 	
+	/**
+	 * Creates the id of an entry.
+	 * 
+	 * @param prefix The prefix
+	 * @param key The key
+	 * 
+	 * @return The id
+	 */
+	public static String createId(final String prefix, final String key)
+	{
+		return prefix + "/" + key;
+	}
+	
 	/**
 	 * Creates a simple {@link Query} to search for objects of this class.
 	 *  
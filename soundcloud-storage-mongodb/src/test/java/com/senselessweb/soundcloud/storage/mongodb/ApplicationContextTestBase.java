@@ -2,9 +2,12 @@ package com.senselessweb.soundcloud.storage.mongodb;
 
 import org.junit.Before;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.data.mongodb.core.MongoTemplate;
 
+import com.mongodb.Mongo;
+
 /**
  * Abstract test class for test cases that need a spring {@link ApplicationContext}.
  * 
@@ -13,6 +16,11 @@ import org.springframework.data.mongodb.core.MongoTemplate;
 public class ApplicationContextTestBase
 {
 
+	/**
+	 * The configuration of the tested {@link ApplicationContext}.
+	 */
+	private static final String[] configLocations = { "test-spring-datasource.xml", "soundcloud-storage-mongodb-applicationcontext.xml" };
+	
 	/**
 	 * The {@link ApplicationContext}.
 	 */
@@ -25,8 +33,23 @@ public class ApplicationContextTestBase
 	@Before
 	public final void setupSpringApplicationContext()
 	{
-		 this.context = new ClassPathXmlApplicationContext(
-				 "test-spring-datasource.xml", "soundcloud-storage-applicationcontext.xml");
-		 this.context.getBean(MongoTemplate.class).getDb().dropDatabase();
+		 this.context = createContext();
+	}
+	
+	/**
+	 * Creates an {@link ApplicationContext} on an empty test database. 
+	 * 
+	 * @return The {@link ApplicationContext}.
+	 */
+	public static ApplicationContext createContext()
+	{
+		 // Drop the database before the tested context starts, so the indexes created on
+		 // startup are not dropped with it
+		 final ConfigurableApplicationContext cleanup = new ClassPathXmlApplicationContext(configLocations);
+		 cleanup.getBean(MongoTemplate.class).getDb().dropDatabase();
+		 cleanup.getBean(Mongo.class).close();
+		 cleanup.close();
+		
+		 return new ClassPathXmlApplicationContext(configLocations);
 	}
 }
@@ -0,0 +1,35 @@
+package com.senselessweb.soundcloud.storage.mongodb;
+
+import java.io.IOException;
+
+import org.springframework.context.ApplicationContext;
+
+import com.senselessweb.storage.PersistencyService;
+import com.senselessweb.storage.StorageBenchmark;
+import com.senselessweb.storage.library.LocalLibraryStorageService;
+
+/**
+ * Runs the {@link StorageBenchmark} against the mongodb backend. Drops the test database
+ * first, like the tests do.
+ * 
+ * Usage: <code>MongoStorageBenchmark [files] [operations]</code>.
+ * 
+ * @author thomas
+ */
+public class MongoStorageBenchmark
+{
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args The number of files and the number of operations. Both optional.
+	 * 
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException
+	{
+		final ApplicationContext context = ApplicationContextTestBase.createContext();
+		StorageBenchmark.run((PersistencyService) context.getBean("mongoPersistencyService"),
+				context.getBean(LocalLibraryStorageService.class), args);
+	}
+}
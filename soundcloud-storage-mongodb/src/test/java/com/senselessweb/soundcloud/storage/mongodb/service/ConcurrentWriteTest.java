@@ -0,0 +1,172 @@
+package com.senselessweb.soundcloud.storage.mongodb.service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.google.common.collect.Lists;
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+import com.senselessweb.soundcloud.domain.library.RadioLibraryItem;
+import com.senselessweb.soundcloud.storage.mongodb.ApplicationContextTestBase;
+import com.senselessweb.storage.PersistencyService;
+import com.senselessweb.storage.library.UserRadioStorageService;
+
+/**
+ * Runs parallel readers and writers against the storage services and checks that
+ * readers never miss a value while it is replaced.
+ * 
+ * @author thomas
+ */
+public class ConcurrentWriteTest extends ApplicationContextTestBase
+{
+
+	/**
+	 * The number of reader and of writer threads.
+	 */
+	private static final int threads = 4;
+	
+	/**
+	 * The number of writes per writer thread.
+	 */
+	private static final int writes = 200;
+	
+	
+	/**
+	 * Replaces a setting while other threads read it.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testPersistencyService() throws Exception
+	{
+		final PersistencyService service = (PersistencyService) this.context.getBean("mongoPersistencyService");
+		service.put("test", "key", -1);
+		
+		this.run(new Callable<Void>() {
+			/** @see java.util.concurrent.Callable#call() */
+			@Override public Void call() {
+				for (int i = 0; i < writes; i++) service.put("test", "key", i);
+				return null;
+			}
+		}, new Callable<Boolean>() {
+			/** @see java.util.concurrent.Callable#call() */
+			@Override public Boolean call() {
+				return service.get("test", "key") != null && service.getAll("test").size() == 1;
+			}
+		});
+		Assert.assertEquals(writes - 1, service.get("test", "key"));
+	}
+	
+	/**
+	 * Replaces a stored file while other threads read it.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testLocalLibraryStorageService() throws Exception
+	{
+		final LocalLibraryStorageServiceImpl service = this.context.getBean(LocalLibraryStorageServiceImpl.class);
+		final MongoTemplate mongoTemplate = this.context.getBean(MongoTemplate.class);
+		final File input = File.createTempFile("soundcloud", ".mp3");
+		input.deleteOnExit();
+		final LocalFile localFile = service.getOrCreate(input);
+		
+		this.run(new Callable<Void>() {
+			/** @see java.util.concurrent.Callable#call() */
+			@Override public Void call() {
+				for (int i = 0; i < writes; i++) service.store(Collections.singletonList(localFile), Collections.<String>emptyList());
+				return null;
+			}
+		}, new Callable<Boolean>() {
+			/** @see java.util.concurrent.Callable#call() */
+			@Override public Boolean call() {
+				return mongoTemplate.findById(localFile.getId(), LocalFile.class, LocalLibraryStorageServiceImpl.collectionName) != null;
+			}
+		});
+		Assert.assertEquals(1, mongoTemplate.findAll(LocalFile.class, LocalLibraryStorageServiceImpl.collectionName).size());
+	}
+	
+	/**
+	 * Replaces a radio station while other threads read all stations.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testUserRadioStorageService() throws Exception
+	{
+		final UserRadioStorageService service = this.context.getBean(UserRadioStorageService.class);
+		final RadioLibraryItem station = new RadioLibraryItem(null, "WDR 2",
+				Collections.singleton("https://www.wdr2-radio.de"), Lists.newArrayList("pop"));
+		final String id = service.createRadioStation(station).getId();
+		
+		this.run(new Callable<Void>() {
+			/** @see java.util.concurrent.Callable#call() */
+			@Override public Void call() {
+				for (int i = 0; i < writes; i++) Assert.assertEquals(id, service.createRadioStation(station).getId());
+				return null;
+			}
+		}, new Callable<Boolean>() {
+			/** @see java.util.concurrent.Callable#call() */
+			@Override public Boolean call() {
+				return service.getAllRadioStations().size() == 1 && service.getRadioStation(id) != null;
+			}
+		});
+	}
+	
+	/**
+	 * Runs the writer in several threads and the reader in several other threads until all
+	 * writers are done.
+	 * 
+	 * @param writer The writer.
+	 * @param reader The reader. Returns false if it has missed a value.
+	 * 
+	 * @throws Exception If a writer failed or a reader missed a value.
+	 */
+	private void run(final Callable<Void> writer, final Callable<Boolean> reader) throws Exception
+	{
+		final ExecutorService executor = Executors.newFixedThreadPool(2 * threads);
+		final AtomicBoolean writing = new AtomicBoolean(true);
+		try
+		{
+			final List<Future<Void>> writers = new ArrayList<Future<Void>>();
+			final List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < threads; i++)
+			{
+				writers.add(executor.submit(writer));
+				readers.add(executor.submit(new Callable<Integer>() {
+					/** @see java.util.concurrent.Callable#call() */
+					@Override public Integer call() throws Exception {
+						int misses = 0;
+						while (writing.get()) if (!reader.call()) misses++;
+						return misses;
+					}
+				}));
+			}
+			
+			try
+			{
+				for (final Future<Void> future : writers) future.get();
+			}
+			finally
+			{
+				writing.set(false);
+			}
+			for (final Future<Integer> future : readers) Assert.assertEquals(0, future.get().intValue());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.senselessweb.soundcloud.storage.mongodb.service;
+
+import com.senselessweb.soundcloud.storage.mongodb.ApplicationContextTestBase;
+import com.senselessweb.storage.library.LocalLibraryStorageService;
+import com.senselessweb.storage.library.LocalLibraryStorageServiceConformanceTest;
+
+/**
+ * Runs the {@link LocalLibraryStorageServiceConformanceTest} against the {@link LocalLibraryStorageServiceImpl}.
+ * 
+ * @author thomas
+ */
+public class LocalLibraryStorageServiceImplConformanceTest extends LocalLibraryStorageServiceConformanceTest
+{
+
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageServiceConformanceTest#createService()
+	 */
+	@Override
+	protected LocalLibraryStorageService createService()
+	{
+		return ApplicationContextTestBase.createContext().getBean(LocalLibraryStorageService.class);
+	}
+}
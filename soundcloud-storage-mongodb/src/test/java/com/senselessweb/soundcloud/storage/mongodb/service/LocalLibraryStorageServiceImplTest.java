@@ -0,0 +1,95 @@
+package com.senselessweb.soundcloud.storage.mongodb.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+import com.senselessweb.soundcloud.domain.sources.FileSource;
+import com.senselessweb.soundcloud.storage.mongodb.ApplicationContextTestBase;
+import com.senselessweb.storage.library.LocalLibraryStorageService;
+
+/**
+ * Testcases for the {@link LocalLibraryStorageServiceImpl}
+ * 
+ * @author thomas
+ */
+public class LocalLibraryStorageServiceImplTest extends ApplicationContextTestBase
+{
+
+	/**
+	 * Checks that the ids are derived from the paths and that files are found by media source.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testStableIds() throws IOException
+	{
+		final LocalLibraryStorageService service = this.context.getBean(LocalLibraryStorageService.class);
+		final File input = File.createTempFile("soundcloud", ".mp3");
+		input.deleteOnExit();
+		
+		final LocalFile localFile = service.getOrCreate(input);
+		Assert.assertEquals(LocalFile.createId(input.getAbsolutePath()), localFile.getId());
+		Assert.assertEquals(localFile.getId(), service.getOrCreate(input).getId());
+		
+		// Reverse lookup by media source
+		Assert.assertEquals(input.getAbsolutePath(), service.get(localFile.getId()).getPath());
+		Assert.assertEquals(localFile.getId(), service.get(new FileSource("Title", input)).getId());
+		
+		// Reading a modified file again keeps the id
+		Assert.assertTrue(input.setLastModified(localFile.getLastModified() + 10000));
+		Assert.assertEquals(localFile.getId(), service.getOrCreate(input).getId());
+		
+		service.remove(input);
+		Assert.assertNull(service.get(new FileSource("Title", input)));
+		Assert.assertNull(service.get(localFile.getId()));
+	}
+	
+	/**
+	 * Checks that the files of a subtree are removed using the index on the ancestors.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRemoveFolder() throws IOException
+	{
+		final LocalLibraryStorageService service = this.context.getBean(LocalLibraryStorageService.class);
+		final File root = File.createTempFile("soundcloud", "");
+		Assert.assertTrue(root.delete());
+		final File album = new File(root, "artist/album");
+		Assert.assertTrue(album.mkdirs());
+		try
+		{
+			final File first = new File(album, "01.mp3");
+			final File second = new File(root, "02.mp3");
+			FileUtils.touch(first);
+			FileUtils.touch(second);
+			final LocalFile localFile = service.getOrCreateAll(Arrays.asList(first, second)).get(0);
+			Assert.assertEquals(album.getAbsolutePath(), localFile.getFolder());
+			Assert.assertTrue(localFile.getAncestors().contains(root.getAbsolutePath()));
+			
+			// The subtree query uses the index instead of scanning the collection
+			final String plan = this.context.getBean(MongoTemplate.class).getCollection(LocalLibraryStorageServiceImpl.collectionName)
+					.find(new Query(Criteria.where("ancestors").is(root.getAbsolutePath())).getQueryObject()).explain().toString();
+			Assert.assertTrue(plan, plan.contains("ancestors_1"));
+			Assert.assertFalse(plan, plan.contains("BasicCursor") || plan.contains("COLLSCAN"));
+			
+			service.removeFolder(new File(root, "artist"));
+			Assert.assertNull(service.get(localFile.getId()));
+			Assert.assertNotNull(service.get(LocalFile.createId(second.getAbsolutePath())));
+		}
+		finally
+		{
+			FileUtils.deleteDirectory(root);
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.senselessweb.soundcloud.storage.mongodb.service;
+
+import com.senselessweb.soundcloud.storage.mongodb.ApplicationContextTestBase;
+import com.senselessweb.storage.PersistencyService;
+import com.senselessweb.storage.PersistencyServiceConformanceTest;
+
+/**
+ * Runs the {@link PersistencyServiceConformanceTest} against the {@link PersistencyServiceImpl}.
+ * 
+ * @author thomas
+ */
+public class PersistencyServiceImplConformanceTest extends PersistencyServiceConformanceTest
+{
+
+	/**
+	 * @see com.senselessweb.storage.PersistencyServiceConformanceTest#createService()
+	 */
+	@Override
+	protected PersistencyService createService()
+	{
+		return (PersistencyService) ApplicationContextTestBase.createContext().getBean("mongoPersistencyService");
+	}
+}
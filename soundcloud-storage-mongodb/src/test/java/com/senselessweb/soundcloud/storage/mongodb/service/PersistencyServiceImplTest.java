@@ -29,7 +29,7 @@ public class PersistencyServiceImplTest extends ApplicationContextTestBase
 	@Test
 	public void storeAndRestoreAProperty()
 	{
-		final PersistencyService persistencyService = (PersistencyService) this.context.getBean("persistencyService");
+		final PersistencyService persistencyService = (PersistencyService) this.context.getBean("mongoPersistencyService");
 		
 		final String prefix = "test";
 		final String key = "myFirstProperty";
@@ -47,7 +47,7 @@ public class PersistencyServiceImplTest extends ApplicationContextTestBase
 	@Test
 	public void testComplexBean()
 	{
-		final PersistencyService persistencyService = (PersistencyService) this.context.getBean("persistencyService");
+		final PersistencyService persistencyService = (PersistencyService) this.context.getBean("mongoPersistencyService");
 		
 		final MediaSource fileMediaSource = new FileSource("file source", new File("src/test/resources/empty"));
 		final MediaSource urlMediaSource = new StreamSource("radio source", "http://wdr.de");
@@ -0,0 +1,23 @@
+package com.senselessweb.soundcloud.storage.mongodb.service;
+
+import com.senselessweb.soundcloud.storage.mongodb.ApplicationContextTestBase;
+import com.senselessweb.storage.library.UserRadioStorageService;
+import com.senselessweb.storage.library.UserRadioStorageServiceConformanceTest;
+
+/**
+ * Runs the {@link UserRadioStorageServiceConformanceTest} against the {@link UserRadioStorageServiceImpl}.
+ * 
+ * @author thomas
+ */
+public class UserRadioStorageServiceImplConformanceTest extends UserRadioStorageServiceConformanceTest
+{
+
+	/**
+	 * @see com.senselessweb.storage.library.UserRadioStorageServiceConformanceTest#createService()
+	 */
+	@Override
+	protected UserRadioStorageService createService()
+	{
+		return ApplicationContextTestBase.createContext().getBean(UserRadioStorageService.class);
+	}
+}
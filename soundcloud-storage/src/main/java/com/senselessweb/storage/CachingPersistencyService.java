@@ -0,0 +1,308 @@
+/**
+ * 
+ */
+package com.senselessweb.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A {@link PersistencyService} that keeps the values of another {@link PersistencyService}
+ * in memory and writes them in the background.
+ * 
+ * The values of a prefix are read with a single {@link PersistencyService#getAll(String)} 
+ * when the prefix is used for the first time, all further reads of that prefix are answered
+ * from memory. This service has to be the only writer of the other service, so the values
+ * in memory stay the same as the stored ones. The number of reads answered from memory and
+ * the number of prefixes that had to be read are counted and logged on shutdown.
+ * 
+ * Values are collected per prefix and key and written by a background thread in a configurable
+ * interval, by default every second, configurable using the system property
+ * <code>soundcloud.persistency.flushInterval</code>. A value that is put several times
+ * within one interval, like the volume while a slider is dragged, is only written once.
+ * Values that have not been written yet are returned by all read methods, and all of them
+ * are written when the service is shut down. As values are written by another thread and
+ * the same instances are returned to all readers, a value must not be modified after it
+ * has been put.
+ * 
+ * @author thomas
+ */
+public class CachingPersistencyService implements PersistencyService
+{
+
+	/**
+	 * The log
+	 */
+	private static final Log log = LogFactory.getLog(CachingPersistencyService.class);
+	
+	/**
+	 * The default interval between two flushes in milliseconds.
+	 */
+	private static final long defaultFlushInterval = Long.getLong("soundcloud.persistency.flushInterval", 1000);
+	
+	
+	/**
+	 * The service the values are written to.
+	 */
+	private final PersistencyService delegate;
+	
+	/**
+	 * The values that have not been written yet by prefix and key. Guarded by itself.
+	 */
+	private final Map<String, Map<String, Object>> pending = new HashMap<String, Map<String, Object>>();
+	
+	/**
+	 * All values of the prefixes that have been read by prefix and key. Guarded by the pending values.
+	 */
+	private final Map<String, Map<String, Object>> cache = new HashMap<String, Map<String, Object>>();
+	
+	/**
+	 * The number of reads answered from memory.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+	
+	/**
+	 * The number of reads that had to read a prefix from the other service.
+	 */
+	private final AtomicLong misses = new AtomicLong();
+	
+	/**
+	 * The thread that flushes the values.
+	 */
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		/** @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable) */
+		@Override public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "persistency-writer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	/**
+	 * Constructor that uses the configured flush interval.
+	 * 
+	 * @param delegate The service the values are written to.
+	 */
+	public CachingPersistencyService(final PersistencyService delegate)
+	{
+		this(delegate, defaultFlushInterval);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param delegate The service the values are written to.
+	 * @param flushInterval The interval between two flushes in milliseconds.
+	 */
+	public CachingPersistencyService(final PersistencyService delegate, final long flushInterval)
+	{
+		this.delegate = delegate;
+		this.executor.scheduleWithFixedDelay(new Runnable() {
+			/** @see java.lang.Runnable#run() */
+			@Override public void run() {
+				CachingPersistencyService.this.flush();
+			}
+		}, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.PersistencyService#put(java.lang.String, java.lang.String, java.lang.Object)
+	 */
+	@Override
+	public void put(final String prefix, final String key, final Object value)
+	{
+		synchronized (this.pending)
+		{
+			Map<String, Object> values = this.pending.get(prefix);
+			if (values == null)
+			{
+				values = new HashMap<String, Object>();
+				this.pending.put(prefix, values);
+			}
+			values.put(key, value);
+			
+			final Map<String, Object> cached = this.cache.get(prefix);
+			if (cached != null) cached.put(key, value);
+		}
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.PersistencyService#get(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public Object get(final String prefix, final String key)
+	{
+		final Map<String, Object> values = this.load(prefix);
+		synchronized (this.pending)
+		{
+			return values.get(key);
+		}
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.PersistencyService#contains(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean contains(final String prefix, final String key)
+	{
+		return this.get(prefix, key) != null;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.PersistencyService#getAll(java.lang.String)
+	 */
+	@Override
+	public Map<String, Object> getAll(final String prefix)
+	{
+		final Map<String, Object> values = this.load(prefix);
+		synchronized (this.pending)
+		{
+			return new HashMap<String, Object>(values);
+		}
+	}
+	
+	/**
+	 * Returns the values of a prefix in memory. Reads them from the other service if the
+	 * prefix is used for the first time. Holds the flush lock while reading, so values 
+	 * written in the meantime are not lost.
+	 * 
+	 * @param prefix The prefix.
+	 * 
+	 * @return The values by key. Guarded by the pending values.
+	 */
+	private Map<String, Object> load(final String prefix)
+	{
+		synchronized (this.pending)
+		{
+			final Map<String, Object> cached = this.cache.get(prefix);
+			if (cached != null)
+			{
+				this.hits.incrementAndGet();
+				return cached;
+			}
+		}
+		
+		synchronized (this)
+		{
+			final Map<String, Object> stored = this.delegate.getAll(prefix);
+			synchronized (this.pending)
+			{
+				Map<String, Object> cached = this.cache.get(prefix);
+				if (cached == null)
+				{
+					this.misses.incrementAndGet();
+					cached = new HashMap<String, Object>(stored);
+					final Map<String, Object> values = this.pending.get(prefix);
+					if (values != null) cached.putAll(values);
+					this.cache.put(prefix, cached);
+				}
+				else this.hits.incrementAndGet();
+				return cached;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of reads answered from memory.
+	 * 
+	 * @return The number of hits.
+	 */
+	public long getHits()
+	{
+		return this.hits.get();
+	}
+	
+	/**
+	 * Returns the number of reads that had to read a prefix from the other service.
+	 * 
+	 * @return The number of misses.
+	 */
+	public long getMisses()
+	{
+		return this.misses.get();
+	}
+	
+	/**
+	 * Returns the share of the reads answered from memory.
+	 * 
+	 * @return The hit rate between 0 and 1. 0 if nothing has been read yet.
+	 */
+	public double getHitRate()
+	{
+		final long hits = this.hits.get();
+		final long total = hits + this.misses.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+	
+	/**
+	 * Writes all values that have not been written yet. A value that is put again in the meantime is written by the
+	 * next flush. Values that could not be written are retried by the next flush.
+	 */
+	public synchronized void flush()
+	{
+		final Map<String, Map<String, Object>> snapshot = new HashMap<String, Map<String, Object>>();
+		synchronized (this.pending)
+		{
+			for (final Map.Entry<String, Map<String, Object>> entry : this.pending.entrySet())
+				snapshot.put(entry.getKey(), new HashMap<String, Object>(entry.getValue()));
+		}
+		
+		for (final Map.Entry<String, Map<String, Object>> prefix : snapshot.entrySet())
+		{
+			for (final Map.Entry<String, Object> entry : prefix.getValue().entrySet())
+			{
+				try
+				{
+					this.delegate.put(prefix.getKey(), entry.getKey(), entry.getValue());
+				}
+				catch (final RuntimeException e)
+				{
+					log.warn("Could not write " + prefix.getKey() + "/" + entry.getKey(), e);
+					continue;
+				}
+				
+				synchronized (this.pending)
+				{
+					final Map<String, Object> values = this.pending.get(prefix.getKey());
+					if (values == null || values.get(entry.getKey()) != entry.getValue()) continue;
+					
+					values.remove(entry.getKey());
+					if (values.isEmpty()) this.pending.remove(prefix.getKey());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Stops the background thread, writes all values that have not been written yet and
+	 * logs the hit rate.
+	 */
+	@PreDestroy public void shutdown()
+	{
+		this.executor.shutdown();
+		try
+		{
+			this.executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch (final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		this.flush();
+		
+		final long hits = this.hits.get();
+		final long misses = this.misses.get();
+		log.info("Answered " + hits + " of " + (hits + misses) + " reads from memory (" + 
+				(hits + misses > 0 ? hits * 100 / (hits + misses) : 0) + "%), " + misses + " prefixes had to be read");
+	}
+}
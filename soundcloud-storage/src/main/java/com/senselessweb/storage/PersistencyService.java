@@ -13,7 +13,8 @@ public interface PersistencyService
 {
 
 	/**
-	 * Stores a value in the {@link PersistencyService}.
+	 * Stores a value in the {@link PersistencyService}. The value must not be modified
+	 * afterwards, as it may be written later on and is returned to readers as it is.
 	 * 
 	 * @param prefix The prefix for the key. 
 	 * @param key The key under which the value is stored.
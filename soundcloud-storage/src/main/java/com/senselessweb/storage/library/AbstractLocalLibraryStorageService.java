@@ -0,0 +1,671 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.senselessweb.soundcloud.domain.library.DuplicateGroup;
+import com.senselessweb.soundcloud.domain.library.FolderStatistics;
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+import com.senselessweb.soundcloud.domain.library.ResultPage;
+import com.senselessweb.soundcloud.domain.sources.FileSource;
+import com.senselessweb.soundcloud.domain.sources.MediaSource;
+import com.senselessweb.storage.library.duplicates.DuplicateDetector;
+import com.senselessweb.storage.library.extraction.ExtractionStatistics;
+import com.senselessweb.storage.library.extraction.FileIdentityCache;
+import com.senselessweb.storage.library.extraction.MetadataExtractor;
+import com.senselessweb.storage.library.index.BrowseIndex;
+import com.senselessweb.storage.library.index.FolderStatisticsIndex;
+import com.senselessweb.storage.library.index.KeywordIndex;
+import com.senselessweb.storage.library.index.SearchIndex;
+import com.senselessweb.storage.library.index.SuggestionIndex;
+
+/**
+ * Base class for {@link LocalLibraryStorageService}s. Reads the metadata of new files,
+ * keeps the indexes of the stored files in memory and removes stale files. Subclasses
+ * only store and find the files and the duplicate groups in their storage backend.
+ * 
+ * @author thomas
+ */
+public abstract class AbstractLocalLibraryStorageService implements LocalLibraryStorageService
+{
+
+	/**
+	 * The log
+	 */
+	private static final Log log = LogFactory.getLog(AbstractLocalLibraryStorageService.class);
+	
+	/**
+	 * The maximum number of stored files that are checked at once by a sweep.
+	 */
+	private static final int sweepBatchSize = Integer.getInteger("soundcloud.sweep.batchSize", 500);
+	
+	/**
+	 * The pause between two batches of a sweep in milliseconds.
+	 */
+	private static final long sweepPause = Long.getLong("soundcloud.sweep.pause", 200);
+	
+	/**
+	 * The maximum share of the stored files a sweep may remove.
+	 */
+	private static final double sweepMaxRatio = Double.parseDouble(System.getProperty("soundcloud.sweep.maxRatio", "0.25"));
+	
+	/**
+	 * The number of files a sweep may remove in any case, even from a small library.
+	 */
+	private static final int sweepMinLimit = Integer.getInteger("soundcloud.sweep.minLimit", 100);
+	
+	/**
+	 * Reads the metadata of new and modified files and stores them in batches.
+	 */
+	private final MetadataExtractor metadataExtractor;
+	
+	/**
+	 * Constructor
+	 */
+	protected AbstractLocalLibraryStorageService()
+	{
+		this.metadataExtractor = new MetadataExtractor(new MetadataExtractor.BatchWriter() {
+			/** @see com.senselessweb.storage.library.extraction.MetadataExtractor.BatchWriter#write(java.util.List) */
+			@Override public void write(final List<LocalFile> localFiles) {
+				AbstractLocalLibraryStorageService.this.write(localFiles, Collections.<String>emptyList());
+			}
+		});
+	}
+	
+	/**
+	 * The keywords of the stored files by folder. Updated whenever files are stored or removed.
+	 */
+	private final KeywordIndex keywordIndex = new KeywordIndex(System.getProperty("soundcloud.library"));
+	
+	/**
+	 * The full text index of the stored files. Updated whenever files are stored or removed.
+	 */
+	private final SearchIndex searchIndex = new SearchIndex(System.getProperty("soundcloud.library"));
+	
+	/**
+	 * The artists, albums and genres of the stored files. Updated whenever files are stored or removed.
+	 */
+	private final BrowseIndex browseIndex = new BrowseIndex();
+	
+	/**
+	 * The totals of the stored files by folder. Updated whenever files are stored or removed.
+	 */
+	private final FolderStatisticsIndex folderStatisticsIndex = new FolderStatisticsIndex(System.getProperty("soundcloud.library"));
+	
+	/**
+	 * The stored files by the id derived from their path. Updated whenever files are stored or removed.
+	 */
+	private final Map<String, LocalFile> filesById = new ConcurrentHashMap<String, LocalFile>();
+	
+	/**
+	 * The stored and recently removed files by the identity of their content. Updated whenever
+	 * files are stored or removed.
+	 */
+	private final FileIdentityCache identityCache = new FileIdentityCache();
+	
+	/**
+	 * Finds the stored files with the same audio content.
+	 */
+	private final DuplicateDetector duplicateDetector = new DuplicateDetector();
+	
+	/**
+	 * The duplicate groups by the ids of their files. Replaced whenever duplicates are detected.
+	 */
+	private volatile Map<String, DuplicateGroup> duplicatesByFileId = Collections.emptyMap();
+	
+	/**
+	 * The duplicate groups. Replaced whenever duplicates are detected.
+	 */
+	private volatile List<DuplicateGroup> duplicates = Collections.emptyList();
+	
+	/**
+	 * The keyword suggestions. Rebuilt in the background whenever the keyword index changes.
+	 */
+	private final SuggestionIndex suggestionIndex = new SuggestionIndex(this.keywordIndex);
+	
+	/**
+	 * Indicates if the indexes have been built from the stored files. Guarded by the keyword index.
+	 */
+	private boolean indexesLoaded = false;
+	
+	/**
+	 * Returns the stored local files for the given paths. Files stored in an outdated format
+	 * are ignored, so they are read again.
+	 * 
+	 * @param paths The absolute paths.
+	 * 
+	 * @return The stored local files by path. Paths without a stored file are missing.
+	 */
+	protected abstract Map<String, LocalFile> findByPaths(Collection<String> paths);
+	
+	/**
+	 * Returns all stored local files that can be indexed.
+	 * 
+	 * @return The stored local files.
+	 */
+	protected abstract Collection<LocalFile> findAll();
+	
+	/**
+	 * Returns the stored local file with the given id.
+	 * 
+	 * @param id The id.
+	 * 
+	 * @return The stored local file or null if there is no such file.
+	 */
+	protected abstract LocalFile findById(String id);
+	
+	/**
+	 * Replaces the stored files with the same paths by the given files. Concurrent readers
+	 * must always see either the old or the new file.
+	 * 
+	 * @param localFiles The files to store.
+	 * @param obsoletePaths The paths of further stored files to remove.
+	 */
+	protected abstract void store(List<LocalFile> localFiles, Collection<String> obsoletePaths);
+	
+	/**
+	 * Removes the stored files with the given paths.
+	 * 
+	 * @param paths The paths.
+	 */
+	protected abstract void delete(Collection<String> paths);
+	
+	/**
+	 * Returns the paths of up to limit stored files that have not been marked with the
+	 * given generation.
+	 * 
+	 * @param generation The generation.
+	 * @param limit The maximum number of paths.
+	 * 
+	 * @return The paths.
+	 */
+	protected abstract List<String> findUnmarked(long generation, int limit);
+	
+	/**
+	 * Removes the stored files that have not been marked with the given generation and
+	 * cannot be returned by {@link #findUnmarked(long, int)}, like files stored without a path.
+	 * Called by the sweep before each batch. Does nothing by default.
+	 * 
+	 * @param generation The generation.
+	 */
+	protected void deleteUnreadable(final long generation)
+	{
+		// Every stored file has a path
+	}
+	
+	/**
+	 * Returns the stored duplicate groups.
+	 * 
+	 * @return The duplicate groups.
+	 */
+	protected abstract List<DuplicateGroup> findDuplicates();
+	
+	/**
+	 * Replaces the stored duplicate groups.
+	 * 
+	 * @param groups The new duplicate groups.
+	 */
+	protected abstract void storeDuplicates(List<DuplicateGroup> groups);
+	
+	/**
+	 * Returns the paths of the stored files in a folder and all of its subfolders. Uses
+	 * the indexed files, subclasses may look them up in their storage backend instead.
+	 * 
+	 * @param folder The normalized path of the folder.
+	 * 
+	 * @return The paths.
+	 */
+	protected Collection<String> findPathsInFolder(final String folder)
+	{
+		this.loadIndexes();
+		final List<String> paths = new ArrayList<String>();
+		for (final LocalFile localFile : this.filesById.values())
+			if (localFile.getAncestors().contains(folder)) paths.add(localFile.getPath());
+		return paths;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#getOrCreate(java.io.File)
+	 */
+	@Override
+	public LocalFile getOrCreate(final File input)
+	{
+		return this.getOrCreateAll(Collections.singletonList(input)).get(0);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#getOrCreateAll(java.util.Collection)
+	 */
+	@Override
+	public List<LocalFile> getOrCreateAll(final Collection<File> inputs)
+	{
+		return this.getOrCreateAll(inputs, false);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#getOrCreateAll(java.util.Collection, boolean)
+	 */
+	@Override
+	public List<LocalFile> getOrCreateAll(final Collection<File> inputs, final boolean background)
+	{
+		final List<String> paths = new ArrayList<String>(inputs.size());
+		for (final File input : inputs) paths.add(input.getAbsolutePath());
+		
+		final Map<String, LocalFile> localFiles = this.findByPaths(paths);
+		
+		final List<File> staleInputs = new ArrayList<File>();
+		for (final File input : inputs)
+		{
+			final LocalFile localFile = localFiles.get(input.getAbsolutePath());
+			if (localFile == null || input.lastModified() > localFile.getLastModified()) staleInputs.add(input);
+		}
+		
+		// Moved files keep the metadata of their old location, the others are read by the extractor
+		if (!staleInputs.isEmpty())
+		{
+			this.loadIndexes();
+			final List<LocalFile> movedFiles = new ArrayList<LocalFile>();
+			final List<String> oldPaths = new ArrayList<String>();
+			for (final Iterator<File> iterator = staleInputs.iterator(); iterator.hasNext();)
+			{
+				final File input = iterator.next();
+				final LocalFile previous = this.identityCache.find(input);
+				if (previous == null) continue;
+				
+				movedFiles.add(previous.moveTo(input.getAbsolutePath()));
+				if (!new File(previous.getPath()).exists()) oldPaths.add(previous.getPath());
+				iterator.remove();
+			}
+			
+			if (!movedFiles.isEmpty())
+			{
+				log.debug("Recognized " + movedFiles.size() + " moved files");
+				this.write(movedFiles, oldPaths);
+				for (final LocalFile movedFile : movedFiles) localFiles.put(movedFile.getPath(), movedFile);
+			}
+		}
+		
+		if (!staleInputs.isEmpty())
+			for (final LocalFile staleFile : this.metadataExtractor.extract(staleInputs, background))
+				localFiles.put(staleFile.getPath(), staleFile);
+		
+		final List<LocalFile> result = new ArrayList<LocalFile>(paths.size());
+		for (final String path : paths) result.add(localFiles.get(path));
+		return result;
+	}
+	
+	/**
+	 * Stores the given files and updates the indexes.
+	 * 
+	 * @param localFiles The files to store.
+	 * @param obsoletePaths The paths of further stored files to remove, for example the
+	 * old locations of moved files.
+	 */
+	private synchronized void write(final List<LocalFile> localFiles, final Collection<String> obsoletePaths)
+	{
+		this.store(localFiles, obsoletePaths);
+		
+		this.loadIndexes();
+		for (final String obsoletePath : obsoletePaths) this.unindex(obsoletePath);
+		for (final LocalFile localFile : localFiles) this.index(localFile);
+		this.suggestionIndex.invalidate();
+	}
+	
+	/**
+	 * Adds a stored file to all indexes. Replaces a file with the same path.
+	 * 
+	 * @param localFile The stored file.
+	 */
+	private void index(final LocalFile localFile)
+	{
+		this.keywordIndex.add(localFile);
+		this.searchIndex.add(localFile);
+		this.browseIndex.add(localFile);
+		this.folderStatisticsIndex.add(localFile);
+		
+		final LocalFile previous = this.filesById.put(LocalFile.createId(localFile.getPath()), localFile);
+		if (previous != null) this.identityCache.remove(previous);
+		this.identityCache.add(localFile);
+	}
+	
+	/**
+	 * Removes a file from all indexes. Does nothing if the file is not indexed.
+	 * 
+	 * @param path The path of the file.
+	 */
+	private void unindex(final String path)
+	{
+		this.keywordIndex.remove(path);
+		this.searchIndex.remove(path);
+		this.browseIndex.remove(path);
+		this.folderStatisticsIndex.remove(path);
+		
+		final LocalFile previous = this.filesById.remove(LocalFile.createId(path));
+		if (previous != null) this.identityCache.remove(previous);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#remove(java.io.File)
+	 */
+	@Override
+	public synchronized void remove(final File input)
+	{
+		this.delete(Collections.singletonList(input.getAbsolutePath()));
+		this.loadIndexes();
+		this.unindex(input.getAbsolutePath());
+		this.suggestionIndex.invalidate();
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#removeFolder(java.io.File)
+	 */
+	@Override
+	public synchronized void removeFolder(final File folder)
+	{
+		final String normalized = FilenameUtils.normalizeNoEndSeparator(folder.getAbsolutePath());
+		final Collection<String> paths = this.findPathsInFolder(normalized != null ? normalized : folder.getAbsolutePath());
+		if (paths.isEmpty()) return;
+		
+		this.delete(paths);
+		this.loadIndexes();
+		for (final String path : paths) this.unindex(path);
+		this.suggestionIndex.invalidate();
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#sweep(long)
+	 */
+	@Override
+	public int sweep(final long generation)
+	{
+		this.loadIndexes();
+		
+		// That many files are not deleted at once, rather the library has not been available during the pass
+		final int limit = Math.max(sweepMinLimit, (int) (sweepMaxRatio * this.filesById.size()));
+		final int unmarked = this.findUnmarked(generation, limit + 1).size();
+		if (unmarked > limit)
+		{
+			log.warn("Not removing stale files, more than " + limit + " of " + this.filesById.size() + 
+					" files have not been seen by the last full pass");
+			return 0;
+		}
+		
+		int reclaimed = 0;
+		while (true)
+		{
+			final int[] result = this.sweepBatch(generation);
+			reclaimed += result[1];
+			if (result[0] < sweepBatchSize) break;
+			
+			try
+			{
+				Thread.sleep(sweepPause);
+			}
+			catch (final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return reclaimed;
+	}
+	
+	/**
+	 * Checks one batch of stored files that have not been marked with the given generation.
+	 * Files that still exist are marked, the others are removed. Every checked file is
+	 * either marked or removed, so the next batch continues with the next files.
+	 * 
+	 * @param generation The generation of the last complete pass.
+	 * 
+	 * @return The number of checked and the number of removed files.
+	 */
+	private synchronized int[] sweepBatch(final long generation)
+	{
+		this.deleteUnreadable(generation);
+		final List<String> paths = this.findUnmarked(generation, sweepBatchSize);
+		final List<String> livePaths = new ArrayList<String>();
+		final List<String> stalePaths = new ArrayList<String>();
+		for (final String path : paths)
+		{
+			if (new File(path).exists()) livePaths.add(path);
+			else stalePaths.add(path);
+		}
+		
+		this.markLive(livePaths, generation);
+		if (!stalePaths.isEmpty())
+		{
+			this.delete(stalePaths);
+			for (final String stalePath : stalePaths) this.unindex(stalePath);
+			this.suggestionIndex.invalidate();
+		}
+		return new int[] { paths.size(), stalePaths.size() };
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#getKeywords(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public Set<String> getKeywords(final String basePath, final String path)
+	{
+		// Return an empty set if keywords for the root path are requested as they are way too many
+		if (StringUtils.isBlank(path)) return Collections.emptySet();
+		
+		final Set<String> keywords = new HashSet<String>(KeywordIndex.parseKeywords(path));
+		this.loadIndexes();
+		keywords.addAll(this.keywordIndex.getKeywords(basePath + File.separator + path));
+		return keywords;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#getFolderStatistics(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public FolderStatistics getFolderStatistics(final String basePath, final String path)
+	{
+		this.loadIndexes();
+		return this.folderStatisticsIndex.getStatistics(StringUtils.isBlank(path) ? basePath : basePath + File.separator + path);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#search(java.lang.String, int)
+	 */
+	@Override
+	public List<LocalFile> search(final String query, final int limit)
+	{
+		this.loadIndexes();
+		return this.searchIndex.search(query, limit);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#suggest(java.lang.String, int)
+	 */
+	@Override
+	public List<String> suggest(final String prefix, final int limit)
+	{
+		this.loadIndexes();
+		return this.suggestionIndex.suggest(prefix, limit);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#getArtists(int, int)
+	 */
+	@Override
+	public ResultPage<String> getArtists(final int offset, final int limit)
+	{
+		this.loadIndexes();
+		return this.browseIndex.getArtists(offset, limit);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#getAlbums(java.lang.String, int, int)
+	 */
+	@Override
+	public ResultPage<String> getAlbums(final String artist, final int offset, final int limit)
+	{
+		this.loadIndexes();
+		return this.browseIndex.getAlbums(artist, offset, limit);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#getGenres(int, int)
+	 */
+	@Override
+	public ResultPage<String> getGenres(final int offset, final int limit)
+	{
+		this.loadIndexes();
+		return this.browseIndex.getGenres(offset, limit);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#getTracks(java.lang.String, java.lang.String, int, int)
+	 */
+	@Override
+	public ResultPage<LocalFile> getTracks(final String artist, final String album, final int offset, final int limit)
+	{
+		this.loadIndexes();
+		return this.browseIndex.getTracks(artist, album, offset, limit);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#getGenreTracks(java.lang.String, int, int)
+	 */
+	@Override
+	public ResultPage<LocalFile> getGenreTracks(final String genre, final int offset, final int limit)
+	{
+		this.loadIndexes();
+		return this.browseIndex.getGenreTracks(genre, offset, limit);
+	}
+	
+	/**
+	 * Builds the indexes from the stored files on first use.
+	 */
+	private void loadIndexes()
+	{
+		synchronized (this.keywordIndex)
+		{
+			if (!this.indexesLoaded)
+			{
+				final long startTime = System.currentTimeMillis();
+				for (final LocalFile localFile : this.findAll()) this.index(localFile);
+				this.suggestionIndex.rebuild();
+				this.setDuplicates(this.findDuplicates());
+				this.indexesLoaded = true;
+				log.info("Indexed " + this.keywordIndex.size() + " files (" +
+						(System.currentTimeMillis() - startTime) + " ms)");
+			}
+		}
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#detectDuplicates()
+	 */
+	@Override
+	public List<DuplicateGroup> detectDuplicates()
+	{
+		this.loadIndexes();
+		final List<DuplicateGroup> groups = this.duplicateDetector.detect(new ArrayList<LocalFile>(this.filesById.values()));
+		
+		synchronized (this.duplicateDetector)
+		{
+			this.storeDuplicates(groups);
+			this.setDuplicates(groups);
+		}
+		return groups;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#getDuplicates()
+	 */
+	@Override
+	public List<DuplicateGroup> getDuplicates()
+	{
+		this.loadIndexes();
+		return this.duplicates;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#getDuplicateGroup(java.lang.String)
+	 */
+	@Override
+	public DuplicateGroup getDuplicateGroup(final String id)
+	{
+		this.loadIndexes();
+		return this.duplicatesByFileId.get(id);
+	}
+	
+	/**
+	 * Replaces the duplicate groups.
+	 * 
+	 * @param groups The new duplicate groups.
+	 */
+	private void setDuplicates(final List<DuplicateGroup> groups)
+	{
+		final Map<String, DuplicateGroup> byFileId = new HashMap<String, DuplicateGroup>();
+		for (final DuplicateGroup group : groups)
+			for (final String path : group.getPaths()) byFileId.put(LocalFile.createId(path), group);
+		
+		this.duplicatesByFileId = byFileId;
+		this.duplicates = Collections.unmodifiableList(new ArrayList<DuplicateGroup>(groups));
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#getExtractionStatistics()
+	 */
+	@Override
+	public ExtractionStatistics getExtractionStatistics()
+	{
+		return this.metadataExtractor.getStatistics();
+	}
+	
+	/**
+	 * Stops the threads of the metadata extractor.
+	 */
+	@PreDestroy protected void shutdown()
+	{
+		this.metadataExtractor.shutdown();
+		this.suggestionIndex.shutdown();
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#get(java.lang.String)
+	 */
+	@Override
+	public LocalFile get(final String id)
+	{
+		this.loadIndexes();
+		final LocalFile localFile = this.filesById.get(id);
+		return localFile != null ? localFile : this.findById(id);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#get(com.senselessweb.soundcloud.domain.sources.MediaSource)
+	 */
+	@Override
+	public LocalFile get(final MediaSource mediaSource)
+	{
+		if (!(mediaSource instanceof FileSource)) return null;
+		
+		this.loadIndexes();
+		return this.filesById.get(LocalFile.createId(((FileSource) mediaSource).getFile().getPath()));
+	}
+
+}
@@ -4,10 +4,16 @@
 package com.senselessweb.storage.library;
 
 import java.io.File;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
+import com.senselessweb.soundcloud.domain.library.DuplicateGroup;
+import com.senselessweb.soundcloud.domain.library.FolderStatistics;
 import com.senselessweb.soundcloud.domain.library.LocalFile;
+import com.senselessweb.soundcloud.domain.library.ResultPage;
 import com.senselessweb.soundcloud.domain.sources.MediaSource;
+import com.senselessweb.storage.library.extraction.ExtractionStatistics;
 
 /**
  * 
@@ -26,6 +32,67 @@ public interface LocalLibraryStorageService
 	 */
 	public LocalFile getOrCreate(File input);
 	
+	/**
+	 * Returns the stored localfiles for a number of input files, typically the files
+	 * of one folder. Files that are not stored yet or that have been modified since
+	 * they were stored are read again and stored in one batch.
+	 * 
+	 * @param inputs The input files.
+	 * 
+	 * @return The local files in the same order as the input files.
+	 */
+	public List<LocalFile> getOrCreateAll(Collection<File> inputs);
+	
+	/**
+	 * Same as {@link #getOrCreateAll(Collection)}, but the files can be read with background
+	 * priority. Background callers are blocked while too many files are waiting to be read
+	 * and have to wait for the files of interactive callers.
+	 * 
+	 * @param inputs The input files.
+	 * @param background If the files are read with background priority.
+	 * 
+	 * @return The local files in the same order as the input files.
+	 */
+	public List<LocalFile> getOrCreateAll(Collection<File> inputs, boolean background);
+	
+	/**
+	 * Removes the stored local file for the given input file. Does nothing if 
+	 * there is no such file.
+	 * 
+	 * @param input The input file.
+	 */
+	public void remove(File input);
+	
+	/**
+	 * Removes the stored local files of a folder and all of its subfolders. 
+	 * 
+	 * @param folder The folder.
+	 */
+	public void removeFolder(File folder);
+	
+	/**
+	 * Records that the stored files with the given paths have been seen by a complete 
+	 * pass over the library. 
+	 * 
+	 * @param paths The paths of the files.
+	 * @param generation The generation of the pass. Increases with every pass.
+	 */
+	public void markLive(Collection<String> paths, long generation);
+	
+	/**
+	 * Removes all stored files that have not been marked with the given generation and
+	 * do not exist any more. Stored files that still exist are marked instead. The files 
+	 * are removed in batches with a pause in between, so this should be called in the 
+	 * background. Nothing is removed if more than a quarter of the stored files have not 
+	 * been marked, as the library has probably not been available during the pass. The 
+	 * share can be configured using the system property <code>soundcloud.sweep.maxRatio</code>.
+	 * 
+	 * @param generation The generation of the last complete pass.
+	 * 
+	 * @return The number of removed files.
+	 */
+	public int sweep(long generation);
+	
 	/**
 	 * Returns the local file by id.
 	 * 
@@ -36,7 +103,8 @@ public interface LocalLibraryStorageService
 	public LocalFile get(String id);
 
 	/**
-	 * Returns a local file by media source.
+	 * Returns a local file by media source. Only file sources are resolved, using the id
+	 * derived from their path.
 	 * 
 	 * @param mediaSource The {@link MediaSource}.
 	 * 
@@ -53,5 +121,124 @@ public interface LocalLibraryStorageService
 	 * @return All keywords for that path
 	 */
 	public Set<String> getKeywords(final String basePath, final String path);
+	
+	/**
+	 * Returns the number of tracks, the size and the duration of all stored files in a 
+	 * folder and its subfolders.
+	 * 
+	 * @param basePath The base path
+	 * @param path The actual path
+	 * 
+	 * @return The totals for that path
+	 */
+	public FolderStatistics getFolderStatistics(String basePath, String path);
+
+	/**
+	 * Searches the stored files by title, keywords and path. Query terms may be prefixes
+	 * or slightly misspelled, but all of them have to match.
+	 * 
+	 * @param query The query.
+	 * @param limit The maximum number of results.
+	 * 
+	 * @return The best matching files, best match first.
+	 */
+	public List<LocalFile> search(String query, int limit);
+	
+	/**
+	 * Returns the keywords of the stored files that start with the given prefix. The
+	 * suggestions follow changes of the stored files with a short delay.
+	 * 
+	 * @param prefix The prefix.
+	 * @param limit The maximum number of suggestions.
+	 * 
+	 * @return The keywords contained in most files first.
+	 */
+	public List<String> suggest(String prefix, int limit);
+	
+	/**
+	 * Returns the artists of the stored files in alphabetical order.
+	 * 
+	 * @param offset The number of artists to skip.
+	 * @param limit The maximum number of artists.
+	 * 
+	 * @return The page of artists.
+	 */
+	public ResultPage<String> getArtists(int offset, int limit);
+	
+	/**
+	 * Returns the albums of an artist in alphabetical order.
+	 * 
+	 * @param artist The artist. Case insensitive.
+	 * @param offset The number of albums to skip.
+	 * @param limit The maximum number of albums.
+	 * 
+	 * @return The page of albums. Empty if there is no such artist.
+	 */
+	public ResultPage<String> getAlbums(String artist, int offset, int limit);
+	
+	/**
+	 * Returns the genres of the stored files in alphabetical order.
+	 * 
+	 * @param offset The number of genres to skip.
+	 * @param limit The maximum number of genres.
+	 * 
+	 * @return The page of genres.
+	 */
+	public ResultPage<String> getGenres(int offset, int limit);
+	
+	/**
+	 * Returns the files of an artist or of one album of an artist, sorted by album,
+	 * track number and path.
+	 * 
+	 * @param artist The artist. Case insensitive.
+	 * @param album The album or null for all files of the artist. Case insensitive.
+	 * @param offset The number of files to skip.
+	 * @param limit The maximum number of files.
+	 * 
+	 * @return The page of files. Empty if there is no such artist or album.
+	 */
+	public ResultPage<LocalFile> getTracks(String artist, String album, int offset, int limit);
+	
+	/**
+	 * Returns the files of a genre, sorted by artist, album, track number and path.
+	 * 
+	 * @param genre The genre. Case insensitive.
+	 * @param offset The number of files to skip.
+	 * @param limit The maximum number of files.
+	 * 
+	 * @return The page of files. Empty if there is no such genre.
+	 */
+	public ResultPage<LocalFile> getGenreTracks(String genre, int offset, int limit);
+	
+	/**
+	 * Compares the audio content of all stored files and replaces the stored duplicate 
+	 * groups by the result. Reads the files, so this should be called in the background.
+	 * 
+	 * @return The groups of files with the same audio content.
+	 */
+	public List<DuplicateGroup> detectDuplicates();
+	
+	/**
+	 * Returns the duplicate groups found by the last {@link #detectDuplicates()}.
+	 * 
+	 * @return The groups of files with the same audio content.
+	 */
+	public List<DuplicateGroup> getDuplicates();
+	
+	/**
+	 * Returns the duplicate group of a file.
+	 * 
+	 * @param id The id of the file.
+	 * 
+	 * @return The group or null if the file has no known duplicates.
+	 */
+	public DuplicateGroup getDuplicateGroup(String id);
+	
+	/**
+	 * Returns the statistics of the metadata extraction.
+	 * 
+	 * @return The current statistics.
+	 */
+	public ExtractionStatistics getExtractionStatistics();
 
 }
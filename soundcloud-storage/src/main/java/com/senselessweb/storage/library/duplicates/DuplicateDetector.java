@@ -0,0 +1,251 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.duplicates;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.senselessweb.soundcloud.domain.library.DuplicateGroup;
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+import com.senselessweb.soundcloud.util.PayloadHasher;
+
+/**
+ * Finds the local files with the same audio content.
+ * 
+ * The files are compared in steps of increasing cost and every step only looks at the
+ * candidates that are left by the previous one: the duration, which is known without
+ * reading the file, the size of the audio payload, which only needs the tag headers, a
+ * partial hash of the payload and finally the hash of the whole payload. Most files have
+ * a unique duration and payload size, so their content is never read.
+ * 
+ * The payload sizes and hashes are kept between two runs as long as the size and the
+ * modification time of a file do not change, so only new and modified candidates are
+ * read again.
+ * 
+ * @author thomas
+ */
+public class DuplicateDetector
+{
+
+	/**
+	 * The log
+	 */
+	private static final Log log = LogFactory.getLog(DuplicateDetector.class);
+	
+	
+	/**
+	 * The payload sizes and hashes of the files of the last run by path.
+	 */
+	private Map<String, Fingerprint> fingerprints = new HashMap<String, Fingerprint>();
+	
+	/**
+	 * Finds the files with the same audio content.
+	 * 
+	 * @param localFiles The files to compare.
+	 * 
+	 * @return The groups of files with the same content, each with at least two files.
+	 */
+	public synchronized List<DuplicateGroup> detect(final Collection<LocalFile> localFiles)
+	{
+		final long startTime = System.currentTimeMillis();
+		final Map<String, Fingerprint> previous = this.fingerprints;
+		this.fingerprints = new HashMap<String, Fingerprint>();
+		
+		// Group by duration
+		final Map<Long, List<Fingerprint>> byDuration = new HashMap<Long, List<Fingerprint>>();
+		for (final LocalFile localFile : localFiles)
+		{
+			final File file = new File(localFile.getPath());
+			if (!file.isFile()) continue;
+			
+			Fingerprint fingerprint = previous.get(localFile.getPath());
+			if (fingerprint == null || fingerprint.size != file.length() || fingerprint.lastModified != file.lastModified())
+				fingerprint = new Fingerprint(file);
+			this.fingerprints.put(localFile.getPath(), fingerprint);
+			add(byDuration, localFile.getDuration(), fingerprint);
+		}
+		
+		// Narrow down the candidates by payload size, partial hash and full hash
+		List<List<Fingerprint>> candidates = candidates(byDuration);
+		for (final Step step : Step.values())
+		{
+			final List<List<Fingerprint>> next = new ArrayList<List<Fingerprint>>();
+			for (final List<Fingerprint> group : candidates)
+			{
+				final Map<Object, List<Fingerprint>> byKey = new HashMap<Object, List<Fingerprint>>();
+				for (final Fingerprint fingerprint : group)
+				{
+					final Object key = fingerprint.key(step);
+					if (key != null) add(byKey, key, fingerprint);
+				}
+				next.addAll(candidates(byKey));
+			}
+			candidates = next;
+		}
+		
+		final List<DuplicateGroup> result = new ArrayList<DuplicateGroup>(candidates.size());
+		final Set<String> paths = new HashSet<String>();
+		for (final List<Fingerprint> group : candidates)
+		{
+			final List<String> groupPaths = new ArrayList<String>(group.size());
+			for (final Fingerprint fingerprint : group) groupPaths.add(fingerprint.file.getAbsolutePath());
+			result.add(new DuplicateGroup(group.get(0).fullHash, groupPaths));
+			paths.addAll(groupPaths);
+		}
+		
+		log.info("Found " + result.size() + " groups with " + paths.size() + " duplicates among " + localFiles.size() +
+				" files (" + (System.currentTimeMillis() - startTime) + " ms)");
+		return result;
+	}
+	
+	/**
+	 * Adds a fingerprint to the group with the given key.
+	 * 
+	 * @param groups The groups by key.
+	 * @param key The key.
+	 * @param fingerprint The fingerprint.
+	 */
+	private static <K> void add(final Map<K, List<Fingerprint>> groups, final K key, final Fingerprint fingerprint)
+	{
+		List<Fingerprint> group = groups.get(key);
+		if (group == null)
+		{
+			group = new ArrayList<Fingerprint>(2);
+			groups.put(key, group);
+		}
+		group.add(fingerprint);
+	}
+	
+	/**
+	 * Returns the groups with more than one fingerprint.
+	 * 
+	 * @param groups The groups by key.
+	 * 
+	 * @return The groups with candidates for duplicates.
+	 */
+	private static List<List<Fingerprint>> candidates(final Map<?, List<Fingerprint>> groups)
+	{
+		final List<List<Fingerprint>> result = new ArrayList<List<Fingerprint>>();
+		for (final List<Fingerprint> group : groups.values()) if (group.size() > 1) result.add(group);
+		return result;
+	}
+	
+	/**
+	 * The steps that narrow down the candidates, cheapest first.
+	 */
+	private enum Step
+	{
+		/** Compares the size of the payload */
+		PAYLOAD_SIZE,
+		
+		/** Compares the partial hash of the payload */
+		PARTIAL_HASH,
+		
+		/** Compares the hash of the whole payload */
+		FULL_HASH
+	}
+	
+	/**
+	 * The payload size and the hashes of a file. Calculated on demand.
+	 * 
+	 * @author thomas
+	 */
+	private static class Fingerprint
+	{
+		
+		/**
+		 * The file
+		 */
+		final File file;
+		
+		/**
+		 * The size of the file when it was read
+		 */
+		final long size;
+		
+		/**
+		 * The modification time of the file when it was read
+		 */
+		final long lastModified;
+		
+		/**
+		 * The size of the payload or -1 if it has not been read yet
+		 */
+		long payloadSize = -1;
+		
+		/**
+		 * The partial hash or null if it has not been calculated yet
+		 */
+		String partialHash;
+		
+		/**
+		 * The full hash or null if it has not been calculated yet
+		 */
+		String fullHash;
+		
+		/**
+		 * Indicates that the file could not be read. It is not a duplicate then.
+		 */
+		boolean failed = false;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param file The file.
+		 */
+		Fingerprint(final File file)
+		{
+			this.file = file;
+			this.size = file.length();
+			this.lastModified = file.lastModified();
+		}
+		
+		/**
+		 * Returns the key of this file for a step. Reads the file if necessary.
+		 * 
+		 * @param step The step.
+		 * 
+		 * @return The key or null if the file could not be read or has no payload.
+		 */
+		Object key(final Step step)
+		{
+			if (this.failed) return null;
+			try
+			{
+				switch (step)
+				{
+					case PAYLOAD_SIZE:
+						if (this.payloadSize < 0)
+						{
+							final long[] payload = PayloadHasher.getPayload(this.file);
+							this.payloadSize = payload[1] - payload[0];
+						}
+						return this.payloadSize > 0 ? this.payloadSize : null;
+					case PARTIAL_HASH:
+						if (this.partialHash == null) this.partialHash = PayloadHasher.partialHash(this.file);
+						return this.partialHash;
+					default:
+						if (this.fullHash == null) this.fullHash = PayloadHasher.fullHash(this.file);
+						return this.fullHash;
+				}
+			}
+			catch (final IOException e)
+			{
+				log.debug("Could not read " + this.file, e);
+				this.failed = true;
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.extraction;
+
+/**
+ * A snapshot of the statistics of the {@link MetadataExtractor}.
+ * 
+ * @author thomas
+ */
+public class ExtractionStatistics
+{
+
+	/**
+	 * The number of files that wait for extraction.
+	 */
+	private final int queueDepth;
+	
+	/**
+	 * The number of extracted files that wait to be stored.
+	 */
+	private final int writeQueueDepth;
+	
+	/**
+	 * The number of extracted and stored files.
+	 */
+	private final long extracted;
+	
+	/**
+	 * The number of files whose metadata could not be read.
+	 */
+	private final long failures;
+	
+	/**
+	 * The number of files that have been read, but have no metadata.
+	 */
+	private final long untagged;
+	
+	/**
+	 * The number of stored batches.
+	 */
+	private final long batches;
+	
+	/**
+	 * The number of stored files per second.
+	 */
+	private final double filesPerSecond;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param queueDepth The number of files that wait for extraction.
+	 * @param writeQueueDepth The number of extracted files that wait to be stored.
+	 * @param extracted The number of extracted and stored files.
+	 * @param failures The number of files whose metadata could not be read.
+	 * @param untagged The number of files that have been read, but have no metadata.
+	 * @param batches The number of stored batches.
+	 * @param filesPerSecond The number of stored files per second.
+	 */
+	public ExtractionStatistics(final int queueDepth, final int writeQueueDepth, final long extracted,
+			final long failures, final long untagged, final long batches, final double filesPerSecond)
+	{
+		this.queueDepth = queueDepth;
+		this.writeQueueDepth = writeQueueDepth;
+		this.extracted = extracted;
+		this.failures = failures;
+		this.untagged = untagged;
+		this.batches = batches;
+		this.filesPerSecond = filesPerSecond;
+	}
+	
+	/**
+	 * Returns the queueDepth
+	 * 
+	 * @return The number of files that wait for extraction
+	 */
+	public int getQueueDepth()
+	{
+		return this.queueDepth;
+	}
+	
+	/**
+	 * Returns the writeQueueDepth
+	 * 
+	 * @return The number of extracted files that wait to be stored
+	 */
+	public int getWriteQueueDepth()
+	{
+		return this.writeQueueDepth;
+	}
+	
+	/**
+	 * Returns the extracted
+	 * 
+	 * @return The number of extracted and stored files
+	 */
+	public long getExtracted()
+	{
+		return this.extracted;
+	}
+	
+	/**
+	 * Returns the failures
+	 * 
+	 * @return The number of files whose metadata could not be read
+	 */
+	public long getFailures()
+	{
+		return this.failures;
+	}
+	
+	/**
+	 * Returns the untagged
+	 * 
+	 * @return The number of files that have been read, but have no metadata
+	 */
+	public long getUntagged()
+	{
+		return this.untagged;
+	}
+	
+	/**
+	 * Returns the batches
+	 * 
+	 * @return The number of stored batches
+	 */
+	public long getBatches()
+	{
+		return this.batches;
+	}
+	
+	/**
+	 * Returns the filesPerSecond
+	 * 
+	 * @return The number of stored files per second, measured over the last interval 
+	 * of at least ten seconds
+	 */
+	public double getFilesPerSecond()
+	{
+		return this.filesPerSecond;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return "ExtractionStatistics[queue=" + this.queueDepth + ", writeQueue=" + this.writeQueueDepth +
+				", extracted=" + this.extracted + ", failures=" + this.failures + ", untagged=" + this.untagged +
+				", batches=" + this.batches +
+				", filesPerSecond=" + String.format("%.1f", this.filesPerSecond) + "]";
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.extraction;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FilenameUtils;
+
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+
+/**
+ * Second level cache of the stored local files keyed by the identity of their content
+ * instead of their path, so files that have been moved or renamed together with their
+ * folder are recognized and their metadata can be carried over without reading the tags
+ * again.
+ * 
+ * The identity of a file is its name, its size and its modification time. Moving a file
+ * keeps all of them. The files are looked up among the stored files and among the
+ * recently removed files, because the old location of a moved folder may be removed
+ * before its new location is scanned. The number of recently removed files can be
+ * configured using the system property <code>soundcloud.identityCache.removed</code>.
+ * 
+ * @author thomas
+ */
+public class FileIdentityCache
+{
+
+	/**
+	 * The default maximum number of recently removed files.
+	 */
+	private static final int defaultMaxRemoved = Integer.getInteger("soundcloud.identityCache.removed", 10000);
+	
+	
+	/**
+	 * The stored files by identity.
+	 */
+	private final Map<String, LocalFile> stored = new HashMap<String, LocalFile>();
+	
+	/**
+	 * The recently removed files by identity, the eldest first.
+	 */
+	private final Map<String, LocalFile> removed;
+	
+	/**
+	 * Constructor that uses the configured number of recently removed files.
+	 */
+	public FileIdentityCache()
+	{
+		this(defaultMaxRemoved);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param maxRemoved The maximum number of recently removed files.
+	 */
+	public FileIdentityCache(final int maxRemoved)
+	{
+		if (maxRemoved < 0) throw new IllegalArgumentException("Param maxRemoved must not be negative");
+		
+		this.removed = new LinkedHashMap<String, LocalFile>() {
+			private static final long serialVersionUID = 1L;
+			/** @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry) */
+			@Override protected boolean removeEldestEntry(final Map.Entry<String, LocalFile> eldest) {
+				return this.size() > maxRemoved;
+			}
+		};
+	}
+	
+	/**
+	 * Adds a stored file. Files of unknown size are ignored.
+	 * 
+	 * @param localFile The stored file.
+	 */
+	public synchronized void add(final LocalFile localFile)
+	{
+		if (localFile.getSize() < 0) return;
+		
+		final String identity = identity(localFile.getPath(), localFile.getSize(), localFile.getLastModified());
+		this.stored.put(identity, localFile);
+		this.removed.remove(identity);
+	}
+	
+	/**
+	 * Removes a stored file. It is kept among the recently removed files.
+	 * 
+	 * @param localFile The removed file.
+	 */
+	public synchronized void remove(final LocalFile localFile)
+	{
+		final String identity = identity(localFile.getPath(), localFile.getSize(), localFile.getLastModified());
+		if (this.stored.get(identity) != localFile) return;
+		
+		this.stored.remove(identity);
+		this.removed.put(identity, localFile);
+	}
+	
+	/**
+	 * Returns a stored or recently removed file with the same identity as the given file
+	 * at another path.
+	 * 
+	 * @param file The file.
+	 * 
+	 * @return The stored file or null if there is none.
+	 */
+	public synchronized LocalFile find(final File file)
+	{
+		final String identity = identity(file.getPath(), file.length(), file.lastModified());
+		LocalFile localFile = this.stored.get(identity);
+		if (localFile == null) localFile = this.removed.get(identity);
+		
+		if (localFile == null || localFile.getPath().equals(file.getAbsolutePath())) return null;
+		return localFile;
+	}
+	
+	/**
+	 * Returns the number of stored files.
+	 * 
+	 * @return The number of stored files.
+	 */
+	public synchronized int size()
+	{
+		return this.stored.size();
+	}
+	
+	/**
+	 * Returns the identity of a file.
+	 * 
+	 * @param path The path.
+	 * @param size The size in bytes.
+	 * @param lastModified The modification time.
+	 * 
+	 * @return The identity.
+	 */
+	private static String identity(final String path, final long size, final long lastModified)
+	{
+		return size + "/" + lastModified + "/" + FilenameUtils.getName(path);
+	}
+}
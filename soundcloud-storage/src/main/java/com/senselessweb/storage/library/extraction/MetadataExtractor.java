@@ -0,0 +1,524 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.extraction;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.senselessweb.soundcloud.domain.library.FileInformations;
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+import com.senselessweb.soundcloud.util.FileInformationsReader;
+
+/**
+ * Reads the metadata of media files using a fixed number of worker threads and hands
+ * the created {@link LocalFile}s to a single writer thread that stores them in batches.
+ * 
+ * Files of background callers like the scanner are queued in a bounded queue. When the
+ * queue is full, background callers block until the workers have caught up. Files of
+ * interactive callers bypass that limit and are extracted before all queued background
+ * files.
+ * 
+ * When the extractor is shut down, all files that have not been stored yet fail, so no
+ * caller keeps waiting for them.
+ * 
+ * The number of workers, the maximum number of queued background files and the maximum
+ * batch size can be configured using the system properties
+ * <code>soundcloud.extractor.threads</code>, <code>soundcloud.extractor.queueSize</code>
+ * and <code>soundcloud.extractor.batchSize</code>.
+ * 
+ * @author thomas
+ */
+public class MetadataExtractor
+{
+
+	/**
+	 * The log
+	 */
+	private static final Log log = LogFactory.getLog(MetadataExtractor.class);
+	
+	/**
+	 * The default number of worker threads.
+	 */
+	private static final int defaultThreads = Integer.getInteger("soundcloud.extractor.threads", 2);
+	
+	/**
+	 * The default maximum number of queued background files.
+	 */
+	private static final int defaultQueueSize = Integer.getInteger("soundcloud.extractor.queueSize", 256);
+	
+	/**
+	 * The default maximum number of files that are stored in one batch.
+	 */
+	private static final int defaultBatchSize = Integer.getInteger("soundcloud.extractor.batchSize", 50);
+	
+	/**
+	 * The interval used to calculate the number of files per second in milliseconds.
+	 */
+	private static final long rateInterval = 10 * 1000;
+	
+	
+	/**
+	 * The writer that stores the extracted files.
+	 */
+	private final BatchWriter writer;
+	
+	/**
+	 * The maximum number of files that are stored in one batch.
+	 */
+	private final int batchSize;
+	
+	/**
+	 * The files that wait for extraction. Interactive files come first.
+	 */
+	private final BlockingQueue<Job> extractionQueue = new PriorityBlockingQueue<Job>();
+	
+	/**
+	 * The extracted files that wait to be stored.
+	 */
+	private final BlockingQueue<Job> writeQueue = new LinkedBlockingQueue<Job>();
+	
+	/**
+	 * The free slots of the extraction queue for background files.
+	 */
+	private final Semaphore backgroundSlots;
+	
+	/**
+	 * The worker and writer threads.
+	 */
+	private final List<Thread> threads = new ArrayList<Thread>();
+	
+	/**
+	 * The sequence number of the next job. Keeps the order of jobs with the same priority.
+	 */
+	private final AtomicLong sequence = new AtomicLong();
+	
+	/**
+	 * The number of extracted and stored files.
+	 */
+	private final AtomicLong extracted = new AtomicLong();
+	
+	/**
+	 * The number of files whose metadata could not be read.
+	 */
+	private final AtomicLong failures = new AtomicLong();
+	
+	/**
+	 * The number of files that have been read, but have no metadata.
+	 */
+	private final AtomicLong untagged = new AtomicLong();
+	
+	/**
+	 * The number of stored batches.
+	 */
+	private final AtomicLong batches = new AtomicLong();
+	
+	/**
+	 * The start of the current rate interval. Only modified by the writer thread.
+	 */
+	private long rateStart = 0;
+	
+	/**
+	 * The number of files stored in the current rate interval. Only modified by the writer thread.
+	 */
+	private long rateCount = 0;
+	
+	/**
+	 * The number of files per second of the last complete rate interval.
+	 */
+	private volatile double filesPerSecond = 0;
+	
+	/**
+	 * Indicates if the extractor is still alive.
+	 */
+	volatile boolean alive = true;
+	
+	
+	/**
+	 * Constructor that uses the configured number of workers, queue size and batch size.
+	 * 
+	 * @param writer The writer that stores the extracted files.
+	 */
+	public MetadataExtractor(final BatchWriter writer)
+	{
+		this(writer, defaultThreads, defaultQueueSize, defaultBatchSize);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param writer The writer that stores the extracted files.
+	 * @param threads The number of worker threads.
+	 * @param queueSize The maximum number of queued background files.
+	 * @param batchSize The maximum number of files that are stored in one batch.
+	 */
+	public MetadataExtractor(final BatchWriter writer, final int threads, final int queueSize, final int batchSize)
+	{
+		if (threads < 1 || queueSize < 1 || batchSize < 1)
+			throw new IllegalArgumentException("Threads, queue size and batch size must be positive");
+		
+		this.writer = writer;
+		this.batchSize = batchSize;
+		this.backgroundSlots = new Semaphore(queueSize);
+		
+		for (int i = 0; i < threads; i++) this.start(new Worker(), "metadata-extractor-" + i);
+		this.start(new Writer(), "metadata-writer");
+	}
+	
+	/**
+	 * Starts a daemon thread.
+	 * 
+	 * @param runnable The code to run.
+	 * @param name The name of the thread.
+	 */
+	private void start(final Runnable runnable, final String name)
+	{
+		final Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+		this.threads.add(thread);
+	}
+	
+	/**
+	 * Reads the metadata of the given files and stores them. Blocks until all files
+	 * have been stored.
+	 * 
+	 * @param files The files.
+	 * @param background If the files are extracted with background priority. Background
+	 * callers are blocked while the queue is full.
+	 * 
+	 * @return The stored local files in the same order as the input files.
+	 * 
+	 * @throws IllegalStateException If the extractor has been shut down.
+	 */
+	public List<LocalFile> extract(final Collection<File> files, final boolean background)
+	{
+		if (files.isEmpty()) return new ArrayList<LocalFile>();
+		if (!this.alive) throw new IllegalStateException("The metadata extractor has been shut down");
+		
+		final CountDownLatch done = new CountDownLatch(files.size());
+		final List<Job> jobs = new ArrayList<Job>(files.size());
+		try
+		{
+			for (final File file : files)
+			{
+				if (background) this.backgroundSlots.acquire();
+				final Job job = new Job(file, background, this.sequence.getAndIncrement(), done);
+				jobs.add(job);
+				this.extractionQueue.add(job);
+				
+				// The job may have been queued after the queue has been drained by the shutdown
+				if (!this.alive) this.failPending();
+			}
+			done.await();
+		}
+		catch (final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while extracting " + files.size() + " files", e);
+		}
+		
+		final List<LocalFile> result = new ArrayList<LocalFile>(jobs.size());
+		for (final Job job : jobs)
+		{
+			if (job.error != null) throw new RuntimeException("Could not store " + job.file, job.error);
+			result.add(job.localFile);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the current statistics.
+	 * 
+	 * @return The statistics.
+	 */
+	public ExtractionStatistics getStatistics()
+	{
+		return new ExtractionStatistics(this.extractionQueue.size(), this.writeQueue.size(),
+				this.extracted.get(), this.failures.get(), this.untagged.get(), this.batches.get(), this.filesPerSecond);
+	}
+	
+	/**
+	 * Stops all threads. Files that are still queued are not stored, their callers fail.
+	 */
+	public void shutdown()
+	{
+		this.alive = false;
+		for (final Thread thread : this.threads) thread.interrupt();
+		this.failPending();
+	}
+	
+	/**
+	 * Fails all queued files and releases their callers. Called by every thread that may
+	 * have queued a file after the shutdown.
+	 */
+	void failPending()
+	{
+		final List<Job> pending = new ArrayList<Job>();
+		this.extractionQueue.drainTo(pending);
+		for (final Job job : pending) if (job.background) this.backgroundSlots.release();
+		this.writeQueue.drainTo(pending);
+		
+		for (final Job job : pending) fail(job, new IllegalStateException("The metadata extractor has been shut down"));
+	}
+	
+	/**
+	 * Fails a job that is not stored and releases its caller.
+	 * 
+	 * @param job The job.
+	 * @param error The reason.
+	 */
+	private static void fail(final Job job, final Throwable error)
+	{
+		job.error = error;
+		job.done.countDown();
+	}
+	
+	/**
+	 * Reads the metadata of a single file. A file that cannot be read is stored without 
+	 * metadata, unless the reader throws an {@link Error}. Then the job fails.
+	 * 
+	 * @param job The job.
+	 * 
+	 * @return True if the file is to be stored, false if the job has failed.
+	 */
+	boolean extract(final Job job)
+	{
+		try
+		{
+			final FileInformations fileInformations = this.read(job.file);
+			if (fileInformations.getTitle() == null && fileInformations.getArtist() == null &&
+					fileInformations.getAlbum() == null && fileInformations.getDuration() < 0)
+				this.untagged.incrementAndGet();
+			
+			job.localFile = LocalFile.create(job.file.getAbsolutePath(), fileInformations);
+		}
+		catch (final RuntimeException e)
+		{
+			log.warn("Could not read " + job.file, e);
+			this.failures.incrementAndGet();
+			job.localFile = LocalFile.create(job.file.getAbsolutePath(),
+					new FileInformations(null, null, null, null, null, null));
+		}
+		catch (final Throwable e)
+		{
+			// Errors like a stack overflow on a corrupt frame must not kill the worker
+			log.error("Could not read " + job.file, e);
+			this.failures.incrementAndGet();
+			fail(job, e);
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Reads the metadata of a file.
+	 * 
+	 * @param file The file.
+	 * 
+	 * @return The metadata.
+	 */
+	FileInformations read(final File file)
+	{
+		return FileInformationsReader.read(file);
+	}
+	
+	/**
+	 * Stores a batch of extracted files and releases the waiting callers. The callers are
+	 * released whatever the writer throws, so the writer thread keeps running.
+	 * 
+	 * @param batch The batch.
+	 */
+	void write(final List<Job> batch)
+	{
+		// An interval starts with a batch, so idle times between two intervals are not counted
+		if (this.rateCount == 0) this.rateStart = System.currentTimeMillis();
+		
+		final List<LocalFile> localFiles = new ArrayList<LocalFile>(batch.size());
+		for (final Job job : batch) localFiles.add(job.localFile);
+		
+		try
+		{
+			this.writer.write(localFiles);
+			this.extracted.addAndGet(batch.size());
+			this.batches.incrementAndGet();
+			
+			final long now = System.currentTimeMillis();
+			this.rateCount += batch.size();
+			if (now - this.rateStart >= rateInterval)
+			{
+				this.filesPerSecond = this.rateCount * 1000d / (now - this.rateStart);
+				this.rateStart = now;
+				this.rateCount = 0;
+			}
+		}
+		catch (final Throwable e)
+		{
+			log.error("Could not store " + batch.size() + " files", e);
+			for (final Job job : batch) job.error = e;
+		}
+		finally
+		{
+			for (final Job job : batch) job.done.countDown();
+		}
+	}
+	
+	
+	/**
+	 * Stores the extracted files.
+	 * 
+	 * @author thomas
+	 */
+	public interface BatchWriter
+	{
+		
+		/**
+		 * Stores a batch of files. Replaces stored files with the same path.
+		 * 
+		 * @param localFiles The files to store.
+		 */
+		public void write(List<LocalFile> localFiles);
+	}
+	
+	/**
+	 * A single file to extract.
+	 * 
+	 * @author thomas
+	 */
+	private static class Job implements Comparable<Job>
+	{
+		
+		/**
+		 * The file
+		 */
+		final File file;
+		
+		/**
+		 * If the file has background priority
+		 */
+		final boolean background;
+		
+		/**
+		 * The sequence number
+		 */
+		final long sequence;
+		
+		/**
+		 * Counted down when the file has been stored
+		 */
+		final CountDownLatch done;
+		
+		/**
+		 * The extracted file
+		 */
+		volatile LocalFile localFile;
+		
+		/**
+		 * The error that occurred while storing the file
+		 */
+		volatile Throwable error;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param file The file.
+		 * @param background If the file has background priority.
+		 * @param sequence The sequence number.
+		 * @param done Counted down when the file has been stored.
+		 */
+		Job(final File file, final boolean background, final long sequence, final CountDownLatch done)
+		{
+			this.file = file;
+			this.background = background;
+			this.sequence = sequence;
+			this.done = done;
+		}
+		
+		/**
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		@Override
+		public int compareTo(final Job o)
+		{
+			if (this.background != o.background) return this.background ? 1 : -1;
+			return this.sequence < o.sequence ? -1 : this.sequence == o.sequence ? 0 : 1;
+		}
+	}
+	
+	/**
+	 * Takes files from the extraction queue and hands them to the writer.
+	 * 
+	 * @author thomas
+	 */
+	private class Worker implements Runnable
+	{
+		
+		/**
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run()
+		{
+			while (MetadataExtractor.this.alive)
+			{
+				try
+				{
+					final Job job = MetadataExtractor.this.extractionQueue.take();
+					if (job.background) MetadataExtractor.this.backgroundSlots.release();
+					
+					if (MetadataExtractor.this.extract(job)) MetadataExtractor.this.writeQueue.add(job);
+				}
+				catch (final InterruptedException e)
+				{
+					break;
+				}
+			}
+			MetadataExtractor.this.failPending();
+		}
+	}
+	
+	/**
+	 * Stores the extracted files in batches. Takes all files that are extracted while
+	 * the previous batch is stored, up to the batch size.
+	 * 
+	 * @author thomas
+	 */
+	private class Writer implements Runnable
+	{
+		
+		/**
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run()
+		{
+			final List<Job> batch = new ArrayList<Job>(MetadataExtractor.this.batchSize);
+			while (MetadataExtractor.this.alive)
+			{
+				try
+				{
+					batch.add(MetadataExtractor.this.writeQueue.take());
+					MetadataExtractor.this.writeQueue.drainTo(batch, MetadataExtractor.this.batchSize - 1);
+					MetadataExtractor.this.write(batch);
+					batch.clear();
+				}
+				catch (final InterruptedException e)
+				{
+					break;
+				}
+			}
+			MetadataExtractor.this.failPending();
+		}
+	}
+}
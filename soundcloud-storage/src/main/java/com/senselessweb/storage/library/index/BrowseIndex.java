@@ -0,0 +1,358 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.index;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+import com.senselessweb.soundcloud.domain.library.ResultPage;
+
+/**
+ * Secondary indexes over the artists, albums and genres of the stored local files.
+ * 
+ * Artists, albums and genres are compared case insensitive and keep the spelling of the
+ * first file that used them. Albums belong to an artist, so all albums of an artist are a
+ * single lookup. The files of an artist or genre are sorted by artist, album, track number
+ * and path. Files without artist or album are not listed by artist or album.
+ * 
+ * @author thomas
+ */
+public class BrowseIndex
+{
+
+	/**
+	 * The indexed files by path.
+	 */
+	private final Map<String, LocalFile> files = new HashMap<String, LocalFile>();
+	
+	/**
+	 * The artists by key.
+	 */
+	private final TreeMap<String, Group> artists = new TreeMap<String, Group>();
+	
+	/**
+	 * The albums of every artist by artist key and album key.
+	 */
+	private final Map<String, TreeMap<String, Group>> albums = new HashMap<String, TreeMap<String, Group>>();
+	
+	/**
+	 * The genres by key.
+	 */
+	private final TreeMap<String, Group> genres = new TreeMap<String, Group>();
+	
+	/**
+	 * Adds a file to the index. Replaces a file with the same path.
+	 * 
+	 * @param localFile The file.
+	 */
+	public synchronized void add(final LocalFile localFile)
+	{
+		final String path = normalize(localFile.getPath());
+		this.remove(path);
+		this.files.put(path, localFile);
+		
+		final String sortKey = sortKey(path, localFile);
+		final String artist = key(localFile.getArtist());
+		if (!artist.isEmpty())
+		{
+			group(this.artists, localFile.getArtist()).files.put(sortKey, localFile);
+			
+			if (!key(localFile.getAlbum()).isEmpty())
+			{
+				TreeMap<String, Group> artistAlbums = this.albums.get(artist);
+				if (artistAlbums == null)
+				{
+					artistAlbums = new TreeMap<String, Group>();
+					this.albums.put(artist, artistAlbums);
+				}
+				group(artistAlbums, localFile.getAlbum()).files.put(sortKey, localFile);
+			}
+		}
+		
+		for (final String genre : genres(localFile)) group(this.genres, genre).files.put(sortKey, localFile);
+	}
+	
+	/**
+	 * Removes a file from the index. Does nothing if the file is not indexed.
+	 * 
+	 * @param path The path of the file.
+	 */
+	public synchronized void remove(final String path)
+	{
+		final String normalizedPath = normalize(path);
+		final LocalFile localFile = this.files.remove(normalizedPath);
+		if (localFile == null) return;
+		
+		final String sortKey = sortKey(normalizedPath, localFile);
+		final String artist = key(localFile.getArtist());
+		ungroup(this.artists, artist, sortKey);
+		
+		final TreeMap<String, Group> artistAlbums = this.albums.get(artist);
+		if (artistAlbums != null)
+		{
+			ungroup(artistAlbums, key(localFile.getAlbum()), sortKey);
+			if (artistAlbums.isEmpty()) this.albums.remove(artist);
+		}
+		
+		for (final String genre : genres(localFile)) ungroup(this.genres, key(genre), sortKey);
+	}
+	
+	/**
+	 * Returns the artists in alphabetical order.
+	 * 
+	 * @param offset The number of artists to skip.
+	 * @param limit The maximum number of artists.
+	 * 
+	 * @return The artists.
+	 */
+	public synchronized ResultPage<String> getArtists(final int offset, final int limit)
+	{
+		return names(this.artists.values(), offset, limit);
+	}
+	
+	/**
+	 * Returns the albums of an artist in alphabetical order.
+	 * 
+	 * @param artist The artist. Case insensitive.
+	 * @param offset The number of albums to skip.
+	 * @param limit The maximum number of albums.
+	 * 
+	 * @return The albums. Empty if there is no such artist.
+	 */
+	public synchronized ResultPage<String> getAlbums(final String artist, final int offset, final int limit)
+	{
+		final TreeMap<String, Group> artistAlbums = this.albums.get(key(artist));
+		return names(artistAlbums != null ? artistAlbums.values() : new ArrayList<Group>(0), offset, limit);
+	}
+	
+	/**
+	 * Returns the genres in alphabetical order.
+	 * 
+	 * @param offset The number of genres to skip.
+	 * @param limit The maximum number of genres.
+	 * 
+	 * @return The genres.
+	 */
+	public synchronized ResultPage<String> getGenres(final int offset, final int limit)
+	{
+		return names(this.genres.values(), offset, limit);
+	}
+	
+	/**
+	 * Returns the files of an artist or of one album of an artist, sorted by album, track
+	 * number and path.
+	 * 
+	 * @param artist The artist. Case insensitive.
+	 * @param album The album or null for all files of the artist. Case insensitive.
+	 * @param offset The number of files to skip.
+	 * @param limit The maximum number of files.
+	 * 
+	 * @return The files. Empty if there is no such artist or album.
+	 */
+	public synchronized ResultPage<LocalFile> getTracks(final String artist, final String album, final int offset, final int limit)
+	{
+		final Group group;
+		if (StringUtils.isBlank(album)) group = this.artists.get(key(artist));
+		else
+		{
+			final TreeMap<String, Group> artistAlbums = this.albums.get(key(artist));
+			group = artistAlbums != null ? artistAlbums.get(key(album)) : null;
+		}
+		return page(group != null ? group.files.values() : new ArrayList<LocalFile>(0), offset, limit);
+	}
+	
+	/**
+	 * Returns the files of a genre, sorted by artist, album, track number and path.
+	 * 
+	 * @param genre The genre. Case insensitive.
+	 * @param offset The number of files to skip.
+	 * @param limit The maximum number of files.
+	 * 
+	 * @return The files. Empty if there is no such genre.
+	 */
+	public synchronized ResultPage<LocalFile> getGenreTracks(final String genre, final int offset, final int limit)
+	{
+		final Group group = this.genres.get(key(genre));
+		return page(group != null ? group.files.values() : new ArrayList<LocalFile>(0), offset, limit);
+	}
+	
+	/**
+	 * Returns the number of indexed files.
+	 * 
+	 * @return The number of indexed files.
+	 */
+	public synchronized int size()
+	{
+		return this.files.size();
+	}
+	
+	/**
+	 * Returns the group for a name. Creates it if there is no such group.
+	 * 
+	 * @param groups The groups by key.
+	 * @param name The name.
+	 * 
+	 * @return The group.
+	 */
+	private static Group group(final Map<String, Group> groups, final String name)
+	{
+		final String key = key(name);
+		Group group = groups.get(key);
+		if (group == null)
+		{
+			group = new Group(name.trim());
+			groups.put(key, group);
+		}
+		return group;
+	}
+	
+	/**
+	 * Removes a file from a group. Drops the group if it is empty afterwards.
+	 * 
+	 * @param groups The groups by key.
+	 * @param key The key of the group.
+	 * @param sortKey The sort key of the file.
+	 */
+	private static void ungroup(final Map<String, Group> groups, final String key, final String sortKey)
+	{
+		final Group group = groups.get(key);
+		if (group == null) return;
+		
+		group.files.remove(sortKey);
+		if (group.files.isEmpty()) groups.remove(key);
+	}
+	
+	/**
+	 * Returns the names of a page of groups.
+	 * 
+	 * @param groups The groups in order.
+	 * @param offset The number of groups to skip.
+	 * @param limit The maximum number of groups.
+	 * 
+	 * @return The names.
+	 */
+	private static ResultPage<String> names(final Collection<Group> groups, final int offset, final int limit)
+	{
+		final ResultPage<Group> page = page(groups, offset, limit);
+		final List<String> names = new ArrayList<String>(page.getItems().size());
+		for (final Group group : page.getItems()) names.add(group.name);
+		return new ResultPage<String>(names, page.getOffset(), page.getTotal());
+	}
+	
+	/**
+	 * Returns a page of items.
+	 * 
+	 * @param items The items in order.
+	 * @param offset The number of items to skip.
+	 * @param limit The maximum number of items.
+	 * 
+	 * @return The page.
+	 */
+	private static <T> ResultPage<T> page(final Collection<T> items, final int offset, final int limit)
+	{
+		if (offset < 0 || limit < 0) throw new IllegalArgumentException("Offset and limit must not be negative");
+		
+		final List<T> result = new ArrayList<T>(Math.max(0, Math.min(limit, items.size() - offset)));
+		final Iterator<T> iterator = items.iterator();
+		for (int i = 0; i < offset && iterator.hasNext(); i++) iterator.next();
+		while (iterator.hasNext() && result.size() < limit) result.add(iterator.next());
+		return new ResultPage<T>(result, offset, items.size());
+	}
+	
+	/**
+	 * Returns the genres of a file that are not blank.
+	 * 
+	 * @param localFile The file.
+	 * 
+	 * @return The genres.
+	 */
+	private static List<String> genres(final LocalFile localFile)
+	{
+		final List<String> genres = new ArrayList<String>();
+		if (localFile.getGenres() != null)
+			for (final String genre : localFile.getGenres()) if (!key(genre).isEmpty()) genres.add(genre);
+		return genres;
+	}
+	
+	/**
+	 * Creates the key that sorts a file by artist, album, track number and path. Unknown
+	 * artists, albums and track numbers sort last.
+	 * 
+	 * @param path The normalized path of the file.
+	 * @param localFile The file.
+	 * 
+	 * @return The sort key.
+	 */
+	private static String sortKey(final String path, final LocalFile localFile)
+	{
+		final String artist = key(localFile.getArtist());
+		final String album = key(localFile.getAlbum());
+		final int tracknumber = localFile.getTracknumber() >= 0 ? localFile.getTracknumber() : Integer.MAX_VALUE;
+		return (artist.isEmpty() ? "\uffff" : artist) + '\0' + (album.isEmpty() ? "\uffff" : album) + '\0' +
+				String.format("%010d", tracknumber) + '\0' + path;
+	}
+	
+	/**
+	 * Returns the key of an artist, album or genre.
+	 * 
+	 * @param name The name. May be null.
+	 * 
+	 * @return The key. Empty if the name is blank.
+	 */
+	private static String key(final String name)
+	{
+		return StringUtils.trimToEmpty(name).toLowerCase();
+	}
+	
+	/**
+	 * Normalizes a path, so that different spellings of the same file share one entry.
+	 * 
+	 * @param path The absolute path.
+	 * 
+	 * @return The normalized path without a trailing separator.
+	 */
+	private static String normalize(final String path)
+	{
+		final String normalized = FilenameUtils.normalizeNoEndSeparator(path);
+		return normalized != null ? normalized : path;
+	}
+	
+	/**
+	 * An artist, album or genre with its files.
+	 * 
+	 * @author thomas
+	 */
+	private static class Group
+	{
+		
+		/**
+		 * The name.
+		 */
+		final String name;
+		
+		/**
+		 * The files by sort key.
+		 */
+		final TreeMap<String, LocalFile> files = new TreeMap<String, LocalFile>();
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param name The name.
+		 */
+		Group(final String name)
+		{
+			this.name = name;
+		}
+	}
+}
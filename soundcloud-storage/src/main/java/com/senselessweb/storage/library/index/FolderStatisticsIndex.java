@@ -0,0 +1,158 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.index;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import com.senselessweb.soundcloud.domain.library.FolderStatistics;
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+
+/**
+ * Rolls up the number of tracks, the size and the duration of the stored local files to
+ * all of their folders.
+ * 
+ * Every folder holds the totals of all files in that folder and its subfolders. Adding,
+ * replacing or removing a file only updates the folders between the file and the root,
+ * so reading the totals of a folder never touches its files. Folders above the root are
+ * not indexed.
+ * 
+ * @author thomas
+ */
+public class FolderStatisticsIndex
+{
+
+	/**
+	 * The root folder or null to index all parent folders.
+	 */
+	private final String root;
+	
+	/**
+	 * The counted size and duration of every indexed file by path.
+	 */
+	private final Map<String, long[]> files = new HashMap<String, long[]>();
+	
+	/**
+	 * The number of tracks, the size and the duration of every folder by folder.
+	 */
+	private final Map<String, long[]> folders = new HashMap<String, long[]>();
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param root The root folder of the library or null to index all parent folders.
+	 */
+	public FolderStatisticsIndex(final String root)
+	{
+		this.root = StringUtils.isBlank(root) ? null : normalize(root);
+	}
+	
+	/**
+	 * Adds a file to the index. Replaces a file with the same path.
+	 * 
+	 * @param localFile The file.
+	 */
+	public synchronized void add(final LocalFile localFile)
+	{
+		final String path = normalize(localFile.getPath());
+		this.remove(path);
+		
+		final long[] counted = new long[] { 1, Math.max(0, localFile.getSize()), Math.max(0, localFile.getDuration()) };
+		this.files.put(path, counted);
+		for (final String folder : this.folders(path))
+		{
+			long[] totals = this.folders.get(folder);
+			if (totals == null)
+			{
+				totals = new long[3];
+				this.folders.put(folder, totals);
+			}
+			for (int i = 0; i < totals.length; i++) totals[i] += counted[i];
+		}
+	}
+	
+	/**
+	 * Removes a file from the index. Does nothing if the file is not indexed.
+	 * 
+	 * @param path The path of the file.
+	 */
+	public synchronized void remove(final String path)
+	{
+		final String normalizedPath = normalize(path);
+		final long[] counted = this.files.remove(normalizedPath);
+		if (counted == null) return;
+		
+		for (final String folder : this.folders(normalizedPath))
+		{
+			final long[] totals = this.folders.get(folder);
+			if (totals == null) continue;
+			
+			for (int i = 0; i < totals.length; i++) totals[i] -= counted[i];
+			if (totals[0] <= 0) this.folders.remove(folder);
+		}
+	}
+	
+	/**
+	 * Returns the totals of all files in the given folder and its subfolders.
+	 * 
+	 * @param folder The absolute path of the folder.
+	 * 
+	 * @return The statistics. Never null.
+	 */
+	public synchronized FolderStatistics getStatistics(final String folder)
+	{
+		final long[] totals = this.folders.get(normalize(folder));
+		return totals == null ? FolderStatistics.empty : new FolderStatistics((int) totals[0], totals[1], totals[2]);
+	}
+	
+	/**
+	 * Returns the number of indexed files.
+	 * 
+	 * @return The number of indexed files.
+	 */
+	public synchronized int size()
+	{
+		return this.files.size();
+	}
+	
+	/**
+	 * Returns the folders of a file up to the root, starting with the folder that
+	 * contains the file.
+	 * 
+	 * @param path The normalized path of the file.
+	 * 
+	 * @return The folders.
+	 */
+	private List<String> folders(final String path)
+	{
+		final List<String> folders = new ArrayList<String>();
+		if (this.root != null && !path.startsWith(this.root + File.separator)) return folders;
+		
+		for (File folder = new File(path).getParentFile(); folder != null; folder = folder.getParentFile())
+		{
+			folders.add(folder.getPath());
+			if (folder.getPath().equals(this.root)) break;
+		}
+		return folders;
+	}
+	
+	/**
+	 * Normalizes a path, so that different spellings of the same file share one entry.
+	 * 
+	 * @param path The absolute path.
+	 * 
+	 * @return The normalized path without a trailing separator.
+	 */
+	private static String normalize(final String path)
+	{
+		final String normalized = FilenameUtils.normalizeNoEndSeparator(path);
+		return normalized != null ? normalized : path;
+	}
+}
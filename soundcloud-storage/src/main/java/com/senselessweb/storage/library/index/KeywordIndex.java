@@ -0,0 +1,271 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.index;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+
+/**
+ * Inverted keyword index over the stored local files.
+ * 
+ * Every folder holds the keywords of all files in that folder and its subfolders, counted
+ * by the number of files that contain them. Adding or removing a file only updates the
+ * folders between the file and the root, and reading the keywords of a folder never
+ * touches the stored files. Folders above the root are not indexed.
+ * 
+ * @author thomas
+ */
+public class KeywordIndex
+{
+
+	/**
+	 * The root folder or null to index all parent folders.
+	 */
+	private final String root;
+	
+	/**
+	 * The keywords of every indexed file by path.
+	 */
+	private final Map<String, Set<String>> fileKeywords = new HashMap<String, Set<String>>();
+	
+	/**
+	 * The keywords of the files of every folder and its subfolders by folder.
+	 */
+	private final Map<String, Multiset<String>> folderKeywords = new HashMap<String, Multiset<String>>();
+	
+	/**
+	 * The folders that contain a keyword, by keyword.
+	 */
+	private final Map<String, Set<String>> keywordFolders = new HashMap<String, Set<String>>();
+	
+	/**
+	 * The keyword sets returned by {@link #getKeywords(String)}, by folder. Dropped when the
+	 * keywords of that folder change.
+	 */
+	private final Map<String, Set<String>> snapshots = new HashMap<String, Set<String>>();
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param root The root folder of the library or null to index all parent folders.
+	 */
+	public KeywordIndex(final String root)
+	{
+		this.root = StringUtils.isBlank(root) ? null : normalize(root);
+	}
+	
+	/**
+	 * Adds a file to the index. Replaces a file with the same path.
+	 * 
+	 * @param localFile The file.
+	 */
+	public synchronized void add(final LocalFile localFile)
+	{
+		final String path = normalize(localFile.getPath());
+		this.remove(path);
+		
+		final Set<String> keywords = createKeywords(localFile);
+		this.fileKeywords.put(path, keywords);
+		for (final String folder : this.folders(path))
+		{
+			Multiset<String> counts = this.folderKeywords.get(folder);
+			if (counts == null)
+			{
+				counts = HashMultiset.create();
+				this.folderKeywords.put(folder, counts);
+			}
+			
+			for (final String keyword : keywords)
+			{
+				if (counts.add(keyword, 1) > 0) continue;
+				
+				// New keyword for that folder
+				this.snapshots.remove(folder);
+				Set<String> folders = this.keywordFolders.get(keyword);
+				if (folders == null)
+				{
+					folders = new HashSet<String>();
+					this.keywordFolders.put(keyword, folders);
+				}
+				folders.add(folder);
+			}
+		}
+	}
+	
+	/**
+	 * Removes a file from the index. Does nothing if the file is not indexed.
+	 * 
+	 * @param path The path of the file.
+	 */
+	public synchronized void remove(final String path)
+	{
+		final String normalizedPath = normalize(path);
+		final Set<String> keywords = this.fileKeywords.remove(normalizedPath);
+		if (keywords == null) return;
+		
+		for (final String folder : this.folders(normalizedPath))
+		{
+			final Multiset<String> counts = this.folderKeywords.get(folder);
+			if (counts == null) continue;
+			
+			for (final String keyword : keywords)
+			{
+				if (counts.remove(keyword, 1) != 1) continue;
+				
+				// Last file of that folder with that keyword
+				this.snapshots.remove(folder);
+				final Set<String> folders = this.keywordFolders.get(keyword);
+				if (folders != null && folders.remove(folder) && folders.isEmpty()) this.keywordFolders.remove(keyword);
+			}
+			if (counts.isEmpty()) this.folderKeywords.remove(folder);
+		}
+	}
+	
+	/**
+	 * Returns the keywords of all files in the given folder and its subfolders.
+	 * 
+	 * @param folder The absolute path of the folder.
+	 * 
+	 * @return The keywords. Never null.
+	 */
+	public synchronized Set<String> getKeywords(final String folder)
+	{
+		final String key = normalize(folder);
+		Set<String> snapshot = this.snapshots.get(key);
+		if (snapshot == null)
+		{
+			final Multiset<String> counts = this.folderKeywords.get(key);
+			snapshot = counts == null ? Collections.<String>emptySet() : ImmutableSet.copyOf(counts.elementSet());
+			this.snapshots.put(key, snapshot);
+		}
+		return snapshot;
+	}
+	
+	/**
+	 * Returns the folders that contain files with the given keyword.
+	 * 
+	 * @param keyword The keyword.
+	 * 
+	 * @return The absolute paths of the folders. Never null.
+	 */
+	public synchronized Set<String> getFolders(final String keyword)
+	{
+		final Set<String> folders = this.keywordFolders.get(StringUtils.trimToEmpty(keyword).toLowerCase());
+		return folders == null ? Collections.<String>emptySet() : ImmutableSet.copyOf(folders);
+	}
+	
+	/**
+	 * Returns every keyword with the number of indexed files that contain it.
+	 * 
+	 * @return The number of files by keyword.
+	 */
+	public synchronized Map<String, Integer> getKeywordCounts()
+	{
+		final Multiset<String> counts = HashMultiset.create();
+		for (final Set<String> keywords : this.fileKeywords.values()) counts.addAll(keywords);
+		
+		final Map<String, Integer> result = new HashMap<String, Integer>(counts.elementSet().size());
+		for (final Multiset.Entry<String> entry : counts.entrySet()) result.put(entry.getElement(), entry.getCount());
+		return result;
+	}
+	
+	/**
+	 * Returns the number of indexed files.
+	 * 
+	 * @return The number of indexed files.
+	 */
+	public synchronized int size()
+	{
+		return this.fileKeywords.size();
+	}
+	
+	/**
+	 * Returns the folders of a file up to the root, starting with the folder that
+	 * contains the file.
+	 * 
+	 * @param path The normalized path of the file.
+	 * 
+	 * @return The folders.
+	 */
+	private List<String> folders(final String path)
+	{
+		final List<String> folders = new ArrayList<String>();
+		if (this.root != null && !path.startsWith(this.root + File.separator)) return folders;
+		
+		for (File folder = new File(path).getParentFile(); folder != null; folder = folder.getParentFile())
+		{
+			folders.add(folder.getPath());
+			if (folder.getPath().equals(this.root)) break;
+		}
+		return folders;
+	}
+	
+	/**
+	 * Creates the keywords of a file from its keywords and titles.
+	 * 
+	 * @param localFile The file.
+	 * 
+	 * @return The keywords.
+	 */
+	public static Set<String> createKeywords(final LocalFile localFile)
+	{
+		final Set<String> keywords = new HashSet<String>();
+		if (localFile.getKeywords() != null)
+			for (final String keyword : localFile.getKeywords()) keywords.addAll(parseKeywords(keyword));
+		keywords.addAll(parseKeywords(localFile.getLongTitle()));
+		keywords.addAll(parseKeywords(localFile.getShortTitle()));
+		return keywords;
+	}
+	
+	/**
+	 * Parses the keywords out of a string. Numbers and tokens with less than three
+	 * characters are ignored.
+	 * 
+	 * @param string The string to parse. May be null.
+	 * 
+	 * @return The keywords for that string in lower case.
+	 */
+	public static Set<String> parseKeywords(final String string)
+	{
+		final Set<String> result = new HashSet<String>();
+		if (string == null) return result;
+		
+		final StringTokenizer st = new StringTokenizer(string, "-_./()");
+		while (st.hasMoreTokens())
+		{
+			final String s = st.nextToken().trim();
+			if (s.length() >= 3 && !NumberUtils.isNumber(s)) result.add(s.toLowerCase());
+		}
+		return result;
+	}
+	
+	/**
+	 * Normalizes a path, so that different spellings of the same file share one entry.
+	 * 
+	 * @param path The absolute path.
+	 * 
+	 * @return The normalized path without a trailing separator.
+	 */
+	private static String normalize(final String path)
+	{
+		final String normalized = FilenameUtils.normalizeNoEndSeparator(path);
+		return normalized != null ? normalized : path;
+	}
+}
@@ -0,0 +1,606 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.index;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+
+/**
+ * In-memory full text index over the stored local files.
+ * 
+ * The titles, the keywords (artist, album, genre) and the path segments below the root
+ * of every file are split into lower case terms. A query term matches an indexed term
+ * if both are equal or if the indexed term starts with the query term. Query terms with at
+ * least three characters that match no term that way match the terms that share enough
+ * trigrams with them, which finds misspelled terms. Equal terms rank
+ * before prefixes and prefixes before similar terms, and terms of the title rank before
+ * the other terms. A file has to match all query terms.
+ * 
+ * The candidates are taken from the most selective query term and checked against the
+ * terms of each file, so the other query terms never have to be expanded to files.
+ * Removed files leave gaps in the postings that are compacted once they make up half of the
+ * index. Terms that are left without files are dropped right away, so they neither count
+ * toward the prefix expansions nor toward the selectivity of a query term.
+ * 
+ * @author thomas
+ */
+public class SearchIndex
+{
+
+	/**
+	 * The maximum number of indexed terms a query term is expanded to by prefix.
+	 */
+	private static final int maxPrefixExpansions = 1000;
+	
+	/**
+	 * The minimum trigram similarity of two terms.
+	 */
+	private static final float minSimilarity = 0.4f;
+	
+	/**
+	 * The boost of terms of the title.
+	 */
+	private static final float titleBoost = 1.25f;
+	
+	
+	/**
+	 * The root folder or null if the whole path is indexed.
+	 */
+	private final String root;
+	
+	/**
+	 * The lock. Searches share the read lock.
+	 */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	/**
+	 * The indexed documents by document id. Removed documents are null.
+	 */
+	private final List<Document> documents = new ArrayList<Document>();
+	
+	/**
+	 * The document ids by path.
+	 */
+	private final Map<String, Integer> documentIds = new HashMap<String, Integer>();
+	
+	/**
+	 * The terms, sorted for the prefix lookup.
+	 */
+	private final TreeMap<String, Term> terms = new TreeMap<String, Term>();
+	
+	/**
+	 * The terms with at least three characters by trigram.
+	 */
+	private final Map<String, List<Term>> trigrams = new HashMap<String, List<Term>>();
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param root The root folder of the library or null to index the whole path.
+	 */
+	public SearchIndex(final String root)
+	{
+		this.root = StringUtils.isBlank(root) ? null : FilenameUtils.normalizeNoEndSeparator(root);
+	}
+	
+	/**
+	 * Adds a file to the index. Replaces a file with the same path.
+	 * 
+	 * @param localFile The file.
+	 */
+	public void add(final LocalFile localFile)
+	{
+		final Set<String> titleTerms = tokenize(localFile.getShortTitle());
+		final Set<String> otherTerms = new HashSet<String>();
+		if (localFile.getKeywords() != null)
+			for (final String keyword : localFile.getKeywords()) otherTerms.addAll(tokenize(keyword));
+		otherTerms.addAll(tokenize(this.relativePath(localFile.getPath())));
+		otherTerms.removeAll(titleTerms);
+		
+		final Document document = new Document(localFile,
+				titleTerms.toArray(new String[titleTerms.size()]), otherTerms.toArray(new String[otherTerms.size()]));
+		
+		this.lock.writeLock().lock();
+		try
+		{
+			this.removeDocument(localFile.getPath());
+			
+			final int id = this.documents.size();
+			this.documents.add(document);
+			this.documentIds.put(localFile.getPath(), id);
+			for (final String term : document.titleTerms) this.term(term).add(id);
+			for (final String term : document.otherTerms) this.term(term).add(id);
+		}
+		finally
+		{
+			this.lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Removes a file from the index. Does nothing if the file is not indexed.
+	 * 
+	 * @param path The path of the file.
+	 */
+	public void remove(final String path)
+	{
+		this.lock.writeLock().lock();
+		try
+		{
+			this.removeDocument(path);
+		}
+		finally
+		{
+			this.lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Returns the number of indexed files.
+	 * 
+	 * @return The number of indexed files.
+	 */
+	public int size()
+	{
+		this.lock.readLock().lock();
+		try
+		{
+			return this.documentIds.size();
+		}
+		finally
+		{
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Searches the index.
+	 * 
+	 * @param query The query. Split into terms like the indexed texts.
+	 * @param limit The maximum number of results.
+	 * 
+	 * @return The best matching files, best match first. Empty if the query contains no terms.
+	 */
+	public List<LocalFile> search(final String query, final int limit)
+	{
+		final Set<String> queryTerms = tokenize(query);
+		if (queryTerms.isEmpty() || limit <= 0) return Collections.emptyList();
+		
+		this.lock.readLock().lock();
+		try
+		{
+			// Expand every query term to the matching indexed terms and find the most selective one
+			final List<Map<String, Float>> expansions = new ArrayList<Map<String, Float>>(queryTerms.size());
+			Map<String, Float> mostSelective = null;
+			int fewestPostings = Integer.MAX_VALUE;
+			for (final String queryTerm : queryTerms)
+			{
+				final Map<String, Float> expansion = this.expand(queryTerm);
+				if (expansion.isEmpty()) return Collections.emptyList();
+				expansions.add(expansion);
+				
+				int postings = 0;
+				for (final String term : expansion.keySet()) postings += this.terms.get(term).live;
+				if (postings < fewestPostings)
+				{
+					fewestPostings = postings;
+					mostSelective = expansion;
+				}
+			}
+			
+			final BitSet candidates = new BitSet(this.documents.size());
+			for (final String term : mostSelective.keySet())
+			{
+				final Term indexed = this.terms.get(term);
+				for (int i = 0; i < indexed.size; i++) candidates.set(indexed.postings[i]);
+			}
+			
+			// Keep the best results in a heap with the worst result on top
+			final PriorityQueue<Hit> hits = new PriorityQueue<Hit>(Math.min(limit, candidates.cardinality()) + 1);
+			for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1))
+			{
+				final Document document = this.documents.get(id);
+				if (document == null) continue;
+				
+				final float score = document.score(expansions);
+				if (score <= 0) continue;
+				
+				hits.add(new Hit(document.localFile, score));
+				if (hits.size() > limit) hits.poll();
+			}
+			
+			final List<LocalFile> result = new ArrayList<LocalFile>(hits.size());
+			while (!hits.isEmpty()) result.add(hits.poll().localFile);
+			Collections.reverse(result);
+			return result;
+		}
+		finally
+		{
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Returns the indexed terms that match a query term.
+	 * 
+	 * @param queryTerm The query term.
+	 * 
+	 * @return The weight of the matching terms by term.
+	 */
+	private Map<String, Float> expand(final String queryTerm)
+	{
+		final Map<String, Float> expansion = new HashMap<String, Float>();
+		
+		// Equal terms and prefixes
+		int expansions = 0;
+		for (final String term : this.terms.tailMap(queryTerm).keySet())
+		{
+			if (!term.startsWith(queryTerm) || expansions++ >= maxPrefixExpansions) break;
+			expansion.put(term, term.length() == queryTerm.length() ? 1f :
+				0.5f + 0.25f * queryTerm.length() / term.length());
+		}
+		
+		// Similar terms, only if there is no equal term or prefix
+		if (expansion.isEmpty() && queryTerm.length() >= 3)
+		{
+			final Set<String> queryTrigrams = trigrams(queryTerm);
+			final Map<Term, Integer> shared = new HashMap<Term, Integer>();
+			for (final String trigram : queryTrigrams)
+			{
+				final List<Term> matches = this.trigrams.get(trigram);
+				if (matches == null) continue;
+				for (final Term term : matches)
+				{
+					final Integer count = shared.get(term);
+					shared.put(term, count == null ? 1 : count + 1);
+				}
+			}
+			
+			for (final Map.Entry<Term, Integer> entry : shared.entrySet())
+			{
+				final Term term = entry.getKey();
+				final int termTrigrams = term.text.length() - 2;
+				final float similarity = entry.getValue() / (float) (queryTrigrams.size() + termTrigrams - entry.getValue());
+				if (similarity >= minSimilarity) expansion.put(term.text, 0.5f * similarity);
+			}
+		}
+		
+		return expansion;
+	}
+	
+	/**
+	 * Returns an indexed term. Creates it if it does not exist yet.
+	 * 
+	 * @param text The text of the term.
+	 * 
+	 * @return The term.
+	 */
+	private Term term(final String text)
+	{
+		Term term = this.terms.get(text);
+		if (term == null)
+		{
+			term = new Term(text);
+			this.terms.put(text, term);
+			if (text.length() >= 3)
+			{
+				for (final String trigram : trigrams(text))
+				{
+					List<Term> terms = this.trigrams.get(trigram);
+					if (terms == null)
+					{
+						terms = new ArrayList<Term>(2);
+						this.trigrams.put(trigram, terms);
+					}
+					terms.add(term);
+				}
+			}
+		}
+		return term;
+	}
+	
+	/**
+	 * Removes a document. The postings are left in place and skipped until the next compaction,
+	 * the terms that are not contained in other documents are dropped. Must be called with the 
+	 * write lock held.
+	 * 
+	 * @param path The path of the file.
+	 */
+	private void removeDocument(final String path)
+	{
+		final Integer id = this.documentIds.remove(path);
+		if (id == null) return;
+		
+		final Document document = this.documents.set(id, null);
+		for (final String term : document.titleTerms) this.release(term);
+		for (final String term : document.otherTerms) this.release(term);
+		if (this.documents.size() > 1024 && this.documentIds.size() < this.documents.size() / 2) this.compact();
+	}
+	
+	/**
+	 * Releases a term of a removed document. Drops the term if no other document contains it.
+	 * 
+	 * @param text The text of the term.
+	 */
+	private void release(final String text)
+	{
+		final Term term = this.terms.get(text);
+		if (--term.live == 0) this.dropTerm(term);
+	}
+	
+	/**
+	 * Drops a term and its trigrams.
+	 * 
+	 * @param term The term.
+	 */
+	private void dropTerm(final Term term)
+	{
+		this.terms.remove(term.text);
+		if (term.text.length() < 3) return;
+		
+		for (final String trigram : trigrams(term.text))
+		{
+			final List<Term> terms = this.trigrams.get(trigram);
+			terms.remove(term);
+			if (terms.isEmpty()) this.trigrams.remove(trigram);
+		}
+	}
+	
+	/**
+	 * Rebuilds the index without the removed documents. Must be called with the write lock held.
+	 */
+	private void compact()
+	{
+		final List<Document> live = new ArrayList<Document>(this.documentIds.size());
+		for (final Document document : this.documents) if (document != null) live.add(document);
+		
+		this.documents.clear();
+		this.documentIds.clear();
+		this.terms.clear();
+		this.trigrams.clear();
+		
+		for (final Document document : live)
+		{
+			final int id = this.documents.size();
+			this.documents.add(document);
+			this.documentIds.put(document.localFile.getPath(), id);
+			for (final String term : document.titleTerms) this.term(term).add(id);
+			for (final String term : document.otherTerms) this.term(term).add(id);
+		}
+	}
+	
+	/**
+	 * Returns the path of a file relative to the root.
+	 * 
+	 * @param path The absolute path.
+	 * 
+	 * @return The relative path or the whole path if the file is not below the root.
+	 */
+	private String relativePath(final String path)
+	{
+		return this.root != null && path.startsWith(this.root + File.separator) ? path.substring(this.root.length()) : path;
+	}
+	
+	/**
+	 * Splits a text into lower case terms. Everything that is not a letter or a digit
+	 * separates two terms.
+	 * 
+	 * @param text The text. May be null.
+	 * 
+	 * @return The terms in the order of their first occurrence.
+	 */
+	public static Set<String> tokenize(final String text)
+	{
+		final Set<String> terms = new LinkedHashSet<String>();
+		if (text == null) return terms;
+		
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++)
+		{
+			final boolean letterOrDigit = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (letterOrDigit && start < 0) start = i;
+			else if (!letterOrDigit && start >= 0)
+			{
+				terms.add(text.substring(start, i).toLowerCase());
+				start = -1;
+			}
+		}
+		return terms;
+	}
+	
+	/**
+	 * Returns the trigrams of a term.
+	 * 
+	 * @param term The term. Must have at least three characters.
+	 * 
+	 * @return The trigrams.
+	 */
+	private static Set<String> trigrams(final String term)
+	{
+		final Set<String> trigrams = new HashSet<String>();
+		for (int i = 0; i + 3 <= term.length(); i++) trigrams.add(term.substring(i, i + 3));
+		return trigrams;
+	}
+	
+	
+	/**
+	 * An indexed file and its terms.
+	 * 
+	 * @author thomas
+	 */
+	private static class Document
+	{
+		
+		/**
+		 * The file
+		 */
+		final LocalFile localFile;
+		
+		/**
+		 * The terms of the title
+		 */
+		final String[] titleTerms;
+		
+		/**
+		 * The terms of the keywords and the path that are not part of the title
+		 */
+		final String[] otherTerms;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param localFile The file.
+		 * @param titleTerms The terms of the title.
+		 * @param otherTerms The other terms.
+		 */
+		Document(final LocalFile localFile, final String[] titleTerms, final String[] otherTerms)
+		{
+			this.localFile = localFile;
+			this.titleTerms = titleTerms;
+			this.otherTerms = otherTerms;
+		}
+		
+		/**
+		 * Scores this document.
+		 * 
+		 * @param expansions The matching terms of every query term with their weights.
+		 * 
+		 * @return The score or 0 if a query term does not match.
+		 */
+		float score(final List<Map<String, Float>> expansions)
+		{
+			float score = 0;
+			for (final Map<String, Float> expansion : expansions)
+			{
+				float best = 0;
+				for (final String term : this.titleTerms)
+				{
+					final Float weight = expansion.get(term);
+					if (weight != null) best = Math.max(best, weight * titleBoost);
+				}
+				for (final String term : this.otherTerms)
+				{
+					final Float weight = expansion.get(term);
+					if (weight != null) best = Math.max(best, weight);
+				}
+				
+				if (best == 0) return 0;
+				score += best;
+			}
+			return score;
+		}
+	}
+	
+	/**
+	 * An indexed term and the ids of the documents that contain it.
+	 * 
+	 * @author thomas
+	 */
+	private static class Term
+	{
+		
+		/**
+		 * The text
+		 */
+		final String text;
+		
+		/**
+		 * The document ids. Only the first {@link #size} entries are used.
+		 */
+		int[] postings = new int[2];
+		
+		/**
+		 * The number of document ids
+		 */
+		int size = 0;
+		
+		/**
+		 * The number of document ids of documents that have not been removed
+		 */
+		int live = 0;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param text The text.
+		 */
+		Term(final String text)
+		{
+			this.text = text;
+		}
+		
+		/**
+		 * Adds a document id.
+		 * 
+		 * @param id The document id.
+		 */
+		void add(final int id)
+		{
+			if (this.size == this.postings.length) this.postings = Arrays.copyOf(this.postings, this.size * 2);
+			this.postings[this.size++] = id;
+			this.live++;
+		}
+	}
+	
+	/**
+	 * A search result.
+	 * 
+	 * @author thomas
+	 */
+	private static class Hit implements Comparable<Hit>
+	{
+		
+		/**
+		 * The file
+		 */
+		final LocalFile localFile;
+		
+		/**
+		 * The score
+		 */
+		final float score;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param localFile The file.
+		 * @param score The score.
+		 */
+		Hit(final LocalFile localFile, final float score)
+		{
+			this.localFile = localFile;
+			this.score = score;
+		}
+		
+		/**
+		 * Orders the worse hit first. Equal scores are ordered by path, the larger path first.
+		 * 
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		@Override
+		public int compareTo(final Hit o)
+		{
+			if (this.score != o.score) return this.score < o.score ? -1 : 1;
+			return o.localFile.getPath().compareTo(this.localFile.getPath());
+		}
+	}
+}
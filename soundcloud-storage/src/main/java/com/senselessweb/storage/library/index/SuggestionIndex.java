@@ -0,0 +1,148 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.index;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Suggests keywords of the library for a prefix, typically while the user is typing.
+ * 
+ * The suggestions are answered by a {@link SuggestionTrie} over the keywords of a
+ * {@link KeywordIndex}. The trie is immutable, so it is rebuilt by a background thread
+ * after the keywords have changed. Changes within the rebuild delay share one rebuild,
+ * and the previous trie answers the suggestions until the new one is ready.
+ * 
+ * @author thomas
+ */
+public class SuggestionIndex
+{
+
+	/**
+	 * The log
+	 */
+	private static final Log log = LogFactory.getLog(SuggestionIndex.class);
+	
+	/**
+	 * The default delay between a change of the keywords and the rebuild of the trie in milliseconds.
+	 */
+	private static final long defaultDelay = Long.getLong("soundcloud.suggestions.delay", 2000);
+	
+	
+	/**
+	 * The keyword index the trie is built from.
+	 */
+	private final KeywordIndex keywordIndex;
+	
+	/**
+	 * The delay between a change and the rebuild in milliseconds.
+	 */
+	private final long delay;
+	
+	/**
+	 * The thread that rebuilds the trie.
+	 */
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		/** @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable) */
+		@Override public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "suggestion-builder");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	/**
+	 * Indicates if a rebuild is scheduled and has not started yet.
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	
+	/**
+	 * The current trie.
+	 */
+	private volatile SuggestionTrie trie = SuggestionTrie.empty();
+	
+	/**
+	 * Constructor that uses the configured rebuild delay.
+	 * 
+	 * @param keywordIndex The keyword index the suggestions are taken from.
+	 */
+	public SuggestionIndex(final KeywordIndex keywordIndex)
+	{
+		this(keywordIndex, defaultDelay);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param keywordIndex The keyword index the suggestions are taken from.
+	 * @param delay The delay between a change and the rebuild in milliseconds.
+	 */
+	public SuggestionIndex(final KeywordIndex keywordIndex, final long delay)
+	{
+		this.keywordIndex = keywordIndex;
+		this.delay = delay;
+	}
+	
+	/**
+	 * Returns the best completions of a prefix.
+	 * 
+	 * @param prefix The prefix. Case insensitive.
+	 * @param limit The maximum number of completions. At most {@link SuggestionTrie#maxSuggestions}.
+	 * 
+	 * @return The completions, the keywords contained in most files first. Never null.
+	 */
+	public List<String> suggest(final String prefix, final int limit)
+	{
+		return this.trie.suggest(prefix, limit);
+	}
+	
+	/**
+	 * Schedules a rebuild of the trie. Does nothing if a rebuild is already scheduled.
+	 */
+	public void invalidate()
+	{
+		if (!this.scheduled.compareAndSet(false, true)) return;
+		
+		this.executor.schedule(new Runnable() {
+			/** @see java.lang.Runnable#run() */
+			@Override public void run() {
+				SuggestionIndex.this.scheduled.set(false);
+				try
+				{
+					SuggestionIndex.this.rebuild();
+				}
+				catch (final RuntimeException e)
+				{
+					log.error("Could not rebuild the suggestions", e);
+				}
+			}
+		}, this.delay, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Rebuilds the trie immediately in the calling thread.
+	 */
+	public void rebuild()
+	{
+		final long startTime = System.currentTimeMillis();
+		this.trie = SuggestionTrie.build(this.keywordIndex.getKeywordCounts());
+		log.debug("Built the suggestions for " + this.trie.size() + " keywords (" +
+				(System.currentTimeMillis() - startTime) + " ms)");
+	}
+	
+	/**
+	 * Stops the background thread. Scheduled rebuilds are dropped.
+	 */
+	public void shutdown()
+	{
+		this.executor.shutdownNow();
+	}
+}
@@ -0,0 +1,314 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Immutable trie over the keywords of the library that completes prefixes to the keywords
+ * contained in most files.
+ * 
+ * The trie is stored in a few flat arrays. The nodes are numbered in breadth first order,
+ * so the children of a node are consecutive and sorted by their label, and every node
+ * covers a range of the sorted keywords. Nodes that cover more keywords than the maximum
+ * number of suggestions hold their best completions, smaller nodes select them from their
+ * range. Looking up a prefix allocates nothing but the result.
+ * 
+ * @author thomas
+ */
+public class SuggestionTrie
+{
+
+	/**
+	 * The maximum number of suggestions per prefix.
+	 */
+	public static final int maxSuggestions = 10;
+	
+	/**
+	 * An empty trie.
+	 */
+	private static final SuggestionTrie empty = build(Collections.<String, Integer>emptyMap());
+	
+	
+	/**
+	 * The keywords in alphabetical order.
+	 */
+	private final String[] keywords;
+	
+	/**
+	 * The rank of every keyword. Keywords contained in more files rank first.
+	 */
+	private final int[] ranks;
+	
+	/**
+	 * The character that leads to a node by node.
+	 */
+	private final char[] labels;
+	
+	/**
+	 * The first child of every node. The children of a node end where the children of the
+	 * next node begin, the last entry is the number of nodes.
+	 */
+	private final int[] children;
+	
+	/**
+	 * The first keyword covered by every node.
+	 */
+	private final int[] from;
+	
+	/**
+	 * The end of the keywords covered by every node, exclusive.
+	 */
+	private final int[] to;
+	
+	/**
+	 * The start of the best completions of every node in {@link #top}. The last entry is
+	 * the length of {@link #top}.
+	 */
+	private final int[] topStart;
+	
+	/**
+	 * The best completions of the large nodes as keyword indexes, best first.
+	 */
+	private final int[] top;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param keywords The keywords in alphabetical order.
+	 * @param ranks The rank of every keyword.
+	 * @param labels The label of every node.
+	 * @param children The first child of every node.
+	 * @param from The first keyword of every node.
+	 * @param to The end of the keywords of every node.
+	 * @param topStart The start of the best completions of every node.
+	 * @param top The best completions.
+	 */
+	private SuggestionTrie(final String[] keywords, final int[] ranks, final char[] labels, final int[] children,
+			final int[] from, final int[] to, final int[] topStart, final int[] top)
+	{
+		this.keywords = keywords;
+		this.ranks = ranks;
+		this.labels = labels;
+		this.children = children;
+		this.from = from;
+		this.to = to;
+		this.topStart = topStart;
+		this.top = top;
+	}
+	
+	/**
+	 * Returns an empty trie.
+	 * 
+	 * @return The empty trie.
+	 */
+	public static SuggestionTrie empty()
+	{
+		return empty;
+	}
+	
+	/**
+	 * Builds a trie.
+	 * 
+	 * @param counts The number of files that contain a keyword, by keyword. The keywords
+	 * are expected to be normalized like {@link KeywordIndex#parseKeywords(String)} does.
+	 * 
+	 * @return The trie.
+	 */
+	public static SuggestionTrie build(final Map<String, Integer> counts)
+	{
+		final TreeMap<String, Integer> sorted = new TreeMap<String, Integer>(counts);
+		final String[] keywords = sorted.keySet().toArray(new String[sorted.size()]);
+		final int[] ranks = ranks(keywords, sorted);
+		
+		// Every node but the root adds at least one character
+		int maxNodes = 1;
+		for (final String keyword : keywords) maxNodes += keyword.length();
+		
+		char[] labels = new char[maxNodes];
+		int[] children = new int[maxNodes + 1];
+		int[] from = new int[maxNodes];
+		int[] to = new int[maxNodes];
+		final int[] depths = new int[maxNodes];
+		to[0] = keywords.length;
+		
+		// Breadth first, so the children of a node are appended right after the children of the previous node
+		int nodes = 1;
+		for (int node = 0; node < nodes; node++)
+		{
+			children[node] = nodes;
+			final int depth = depths[node];
+			
+			// A keyword that ends at this node sorts before the longer ones
+			int start = from[node];
+			if (start < to[node] && keywords[start].length() == depth) start++;
+			
+			while (start < to[node])
+			{
+				final char label = keywords[start].charAt(depth);
+				int end = start + 1;
+				while (end < to[node] && keywords[end].charAt(depth) == label) end++;
+				
+				labels[nodes] = label;
+				from[nodes] = start;
+				to[nodes] = end;
+				depths[nodes] = depth + 1;
+				nodes++;
+				start = end;
+			}
+		}
+		children[nodes] = nodes;
+		
+		labels = Arrays.copyOf(labels, nodes);
+		children = Arrays.copyOf(children, nodes + 1);
+		from = Arrays.copyOf(from, nodes);
+		to = Arrays.copyOf(to, nodes);
+		
+		// The best completions of the nodes that cover more keywords than can be suggested
+		int largeNodes = 0;
+		for (int node = 0; node < nodes; node++) if (to[node] - from[node] > maxSuggestions) largeNodes++;
+		
+		final int[] topStart = new int[nodes + 1];
+		final int[] top = new int[largeNodes * maxSuggestions];
+		int size = 0;
+		for (int node = 0; node < nodes; node++)
+		{
+			topStart[node] = size;
+			if (to[node] - from[node] > maxSuggestions) size += select(ranks, from[node], to[node], top, size);
+		}
+		topStart[nodes] = size;
+		
+		return new SuggestionTrie(keywords, ranks, labels, children, from, to, topStart, top);
+	}
+	
+	/**
+	 * Returns the best completions of a prefix.
+	 * 
+	 * @param prefix The prefix. Case insensitive.
+	 * @param limit The maximum number of completions. At most {@link #maxSuggestions}.
+	 * 
+	 * @return The completions, the keywords contained in most files first. Never null.
+	 */
+	public List<String> suggest(final String prefix, final int limit)
+	{
+		final String normalized = StringUtils.trimToEmpty(prefix).toLowerCase();
+		if (normalized.isEmpty() || limit < 1) return new ArrayList<String>(0);
+		
+		int node = 0;
+		for (int i = 0; i < normalized.length() && node >= 0; i++) node = this.child(node, normalized.charAt(i));
+		if (node < 0) return new ArrayList<String>(0);
+		
+		final int size = Math.min(Math.min(limit, maxSuggestions), this.to[node] - this.from[node]);
+		final List<String> result = new ArrayList<String>(size);
+		if (this.topStart[node] < this.topStart[node + 1])
+		{
+			for (int i = 0; i < size; i++) result.add(this.keywords[this.top[this.topStart[node] + i]]);
+			return result;
+		}
+		
+		// Few keywords, select the best ones by rank
+		int lastRank = -1;
+		for (int i = 0; i < size; i++)
+		{
+			int best = -1;
+			for (int k = this.from[node]; k < this.to[node]; k++)
+				if (this.ranks[k] > lastRank && (best < 0 || this.ranks[k] < this.ranks[best])) best = k;
+			result.add(this.keywords[best]);
+			lastRank = this.ranks[best];
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the number of keywords.
+	 * 
+	 * @return The number of keywords.
+	 */
+	public int size()
+	{
+		return this.keywords.length;
+	}
+	
+	/**
+	 * Returns the child of a node with the given label.
+	 * 
+	 * @param node The node.
+	 * @param label The label.
+	 * 
+	 * @return The child or -1 if there is no such child.
+	 */
+	private int child(final int node, final char label)
+	{
+		int low = this.children[node];
+		int high = this.children[node + 1] - 1;
+		while (low <= high)
+		{
+			final int mid = (low + high) >>> 1;
+			if (this.labels[mid] < label) low = mid + 1;
+			else if (this.labels[mid] > label) high = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Ranks the keywords. Keywords contained in more files rank first, keywords
+	 * contained in the same number of files in alphabetical order.
+	 * 
+	 * @param keywords The keywords in alphabetical order.
+	 * @param counts The number of files per keyword.
+	 * 
+	 * @return The rank of every keyword.
+	 */
+	private static int[] ranks(final String[] keywords, final Map<String, Integer> counts)
+	{
+		final Integer[] order = new Integer[keywords.length];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		
+		// The sort is stable, so equal counts stay in alphabetical order
+		Arrays.sort(order, new Comparator<Integer>() {
+			/** @see java.util.Comparator#compare(java.lang.Object, java.lang.Object) */
+			@Override public int compare(final Integer o1, final Integer o2) {
+				return counts.get(keywords[o2]).compareTo(counts.get(keywords[o1]));
+			}
+		});
+		
+		final int[] ranks = new int[keywords.length];
+		for (int rank = 0; rank < order.length; rank++) ranks[order[rank]] = rank;
+		return ranks;
+	}
+	
+	/**
+	 * Selects the {@link #maxSuggestions} best ranked keywords of a range.
+	 * 
+	 * @param ranks The ranks.
+	 * @param from The first keyword.
+	 * @param to The end of the keywords, exclusive.
+	 * @param buffer Receives the best keywords, best first.
+	 * @param offset The position of the first keyword in the buffer.
+	 * 
+	 * @return The number of selected keywords.
+	 */
+	private static int select(final int[] ranks, final int from, final int to, final int[] buffer, final int offset)
+	{
+		int size = 0;
+		for (int k = from; k < to; k++)
+		{
+			if (size == maxSuggestions && ranks[k] > ranks[buffer[offset + size - 1]]) continue;
+			
+			int i = size < maxSuggestions ? size++ : size - 1;
+			for (; i > 0 && ranks[buffer[offset + i - 1]] > ranks[k]; i--) buffer[offset + i] = buffer[offset + i - 1];
+			buffer[offset + i] = k;
+		}
+		return size;
+	}
+}
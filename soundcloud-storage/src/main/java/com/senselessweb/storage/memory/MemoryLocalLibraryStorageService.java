@@ -0,0 +1,155 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.memory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.senselessweb.soundcloud.domain.library.DuplicateGroup;
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+import com.senselessweb.storage.library.AbstractLocalLibraryStorageService;
+import com.senselessweb.storage.library.LocalLibraryStorageService;
+
+/**
+ * Implementation of the {@link LocalLibraryStorageService} that keeps the files in memory.
+ * The files are lost on shutdown, so every file is read again after a restart.
+ * 
+ * @author thomas
+ */
+public class MemoryLocalLibraryStorageService extends AbstractLocalLibraryStorageService
+{
+
+	/**
+	 * The files by path.
+	 */
+	private final Map<String, LocalFile> files = new ConcurrentHashMap<String, LocalFile>();
+	
+	/**
+	 * The generations the files have been marked with by path. Files that have not been
+	 * marked yet are missing.
+	 */
+	private final Map<String, Long> marks = new ConcurrentHashMap<String, Long>();
+	
+	/**
+	 * The duplicate groups.
+	 */
+	private volatile List<DuplicateGroup> duplicates = Collections.emptyList();
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#store(java.util.List, java.util.Collection)
+	 */
+	@Override
+	protected void store(final List<LocalFile> localFiles, final Collection<String> obsoletePaths)
+	{
+		final List<String> paths = new ArrayList<String>();
+		for (final LocalFile localFile : localFiles)
+		{
+			this.files.put(localFile.getPath(), localFile);
+			paths.add(localFile.getPath());
+		}
+		
+		// Stored files have not been seen by a pass yet
+		this.marks.keySet().removeAll(paths);
+		this.marks.keySet().removeAll(obsoletePaths);
+		
+		final List<String> removedPaths = new ArrayList<String>(obsoletePaths);
+		removedPaths.removeAll(paths);
+		this.files.keySet().removeAll(removedPaths);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#findByPaths(java.util.Collection)
+	 */
+	@Override
+	protected Map<String, LocalFile> findByPaths(final Collection<String> paths)
+	{
+		final Map<String, LocalFile> result = new HashMap<String, LocalFile>();
+		for (final String path : paths)
+		{
+			final LocalFile localFile = this.files.get(path);
+			if (localFile != null) result.put(path, localFile);
+		}
+		return result;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#findAll()
+	 */
+	@Override
+	protected Collection<LocalFile> findAll()
+	{
+		return new ArrayList<LocalFile>(this.files.values());
+	}
+	
+	/**
+	 * All stored files are indexed, so there is no other file with the given id.
+	 * 
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#findById(java.lang.String)
+	 */
+	@Override
+	protected LocalFile findById(final String id)
+	{
+		return null;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#delete(java.util.Collection)
+	 */
+	@Override
+	protected void delete(final Collection<String> paths)
+	{
+		this.files.keySet().removeAll(paths);
+		this.marks.keySet().removeAll(paths);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageService#markLive(java.util.Collection, long)
+	 */
+	@Override
+	public void markLive(final Collection<String> paths, final long generation)
+	{
+		for (final String path : paths)
+			if (this.files.containsKey(path)) this.marks.put(path, generation);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#findUnmarked(long, int)
+	 */
+	@Override
+	protected List<String> findUnmarked(final long generation, final int limit)
+	{
+		final List<String> paths = new ArrayList<String>();
+		for (final String path : this.files.keySet())
+		{
+			if (paths.size() >= limit) break;
+			final Long mark = this.marks.get(path);
+			if (mark == null || mark.longValue() != generation) paths.add(path);
+		}
+		return paths;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#findDuplicates()
+	 */
+	@Override
+	protected List<DuplicateGroup> findDuplicates()
+	{
+		return this.duplicates;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.AbstractLocalLibraryStorageService#storeDuplicates(java.util.List)
+	 */
+	@Override
+	protected void storeDuplicates(final List<DuplicateGroup> groups)
+	{
+		this.duplicates = new ArrayList<DuplicateGroup>(groups);
+	}
+
+}
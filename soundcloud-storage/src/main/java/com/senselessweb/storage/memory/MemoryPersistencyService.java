@@ -0,0 +1,73 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.memory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.senselessweb.storage.PersistencyService;
+
+/**
+ * Implementation of the {@link PersistencyService} that keeps the values in memory. The
+ * values are lost on shutdown.
+ * 
+ * @author thomas
+ */
+public class MemoryPersistencyService implements PersistencyService
+{
+
+	/**
+	 * The values by prefix and key.
+	 */
+	private final ConcurrentMap<String, ConcurrentMap<String, Object>> values = new ConcurrentHashMap<String, ConcurrentMap<String, Object>>();
+	
+	/**
+	 * @see com.senselessweb.storage.PersistencyService#put(java.lang.String, java.lang.String, java.lang.Object)
+	 */
+	@Override
+	public void put(final String prefix, final String key, final Object value)
+	{
+		ConcurrentMap<String, Object> values = this.values.get(prefix);
+		if (values == null)
+		{
+			this.values.putIfAbsent(prefix, new ConcurrentHashMap<String, Object>());
+			values = this.values.get(prefix);
+		}
+		
+		if (value != null) values.put(key, value);
+		else values.remove(key);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.PersistencyService#get(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public Object get(final String prefix, final String key)
+	{
+		final Map<String, Object> values = this.values.get(prefix);
+		return values != null ? values.get(key) : null;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.PersistencyService#contains(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean contains(final String prefix, final String key)
+	{
+		return this.get(prefix, key) != null;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.PersistencyService#getAll(java.lang.String)
+	 */
+	@Override
+	public Map<String, Object> getAll(final String prefix)
+	{
+		final Map<String, Object> values = this.values.get(prefix);
+		return values != null ? new HashMap<String, Object>(values) : new HashMap<String, Object>();
+	}
+
+}
@@ -0,0 +1,67 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.memory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.senselessweb.soundcloud.domain.library.RadioLibraryItem;
+import com.senselessweb.storage.library.UserRadioStorageService;
+
+/**
+ * Implementation of the {@link UserRadioStorageService} that keeps the stations in memory.
+ * The stations are lost on shutdown.
+ * 
+ * @author thomas
+ */
+public class MemoryUserRadioStorageService implements UserRadioStorageService
+{
+
+	/**
+	 * The stations by id.
+	 */
+	private final Map<String, RadioLibraryItem> stations = new ConcurrentHashMap<String, RadioLibraryItem>();
+	
+	/**
+	 * @see com.senselessweb.storage.library.UserRadioStorageService#createRadioStation(com.senselessweb.soundcloud.domain.library.RadioLibraryItem)
+	 */
+	@Override
+	public RadioLibraryItem createRadioStation(final RadioLibraryItem streamSource)
+	{
+		// The id is derived from the name, so the station with the same name is replaced
+		final RadioLibraryItem station = streamSource.withTitleId();
+		this.stations.put(station.getId(), station);
+		return station;
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.UserRadioStorageService#getAllRadioStations()
+	 */
+	@Override
+	public Collection<RadioLibraryItem> getAllRadioStations()
+	{
+		return new ArrayList<RadioLibraryItem>(this.stations.values());
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.UserRadioStorageService#getRadioStation(java.lang.String)
+	 */
+	@Override
+	public RadioLibraryItem getRadioStation(final String id)
+	{
+		return this.stations.get(id);
+	}
+	
+	/**
+	 * @see com.senselessweb.storage.library.UserRadioStorageService#deleteRadioStation(java.lang.String)
+	 */
+	@Override
+	public void deleteRadioStation(final String id)
+	{
+		this.stations.remove(id);
+	}
+
+}
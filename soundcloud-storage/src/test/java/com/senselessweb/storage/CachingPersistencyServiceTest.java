@@ -0,0 +1,175 @@
+/**
+ * 
+ */
+package com.senselessweb.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Testcases for the {@link CachingPersistencyService}
+ * 
+ * @author thomas
+ */
+public class CachingPersistencyServiceTest
+{
+
+	/**
+	 * Checks that values put several times between two flushes are only written once
+	 * with the last value, and that they are visible before they are written.
+	 */
+	@Test
+	public void testCoalescing()
+	{
+		final RecordingPersistencyService delegate = new RecordingPersistencyService();
+		final CachingPersistencyService service = new CachingPersistencyService(delegate, 60 * 60 * 1000);
+		
+		for (int i = 0; i <= 100; i++) service.put("volume", "volume", i);
+		service.put("equalizer", "band0", 1.5);
+		Assert.assertTrue(delegate.writes.isEmpty());
+		Assert.assertEquals(100, service.get("volume", "volume"));
+		Assert.assertTrue(service.contains("equalizer", "band0"));
+		Assert.assertEquals(Collections.singletonMap("band0", 1.5), service.getAll("equalizer"));
+		
+		service.flush();
+		Assert.assertEquals(2, delegate.writes.size());
+		Assert.assertEquals(100, delegate.get("volume", "volume"));
+		Assert.assertEquals(1.5, delegate.get("equalizer", "band0"));
+		
+		// Nothing is written again
+		service.flush();
+		Assert.assertEquals(2, delegate.writes.size());
+		service.shutdown();
+	}
+	
+	/**
+	 * Checks that the values are written in the background and that no value is lost
+	 * on shutdown.
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testShutdown() throws InterruptedException
+	{
+		final RecordingPersistencyService delegate = new RecordingPersistencyService();
+		final CachingPersistencyService service = new CachingPersistencyService(delegate, 50);
+		
+		service.put("panorama", "panorama", 0.5);
+		for (int i = 0; i < 100 && delegate.get("panorama", "panorama") == null; i++) Thread.sleep(50);
+		Assert.assertEquals(0.5, delegate.get("panorama", "panorama"));
+		
+		for (int i = 0; i < 1000; i++) service.put("playlist", "item" + (i % 10), i);
+		service.shutdown();
+		for (int i = 0; i < 10; i++) Assert.assertEquals(990 + i, delegate.get("playlist", "item" + i));
+	}
+	
+	/**
+	 * Checks that each prefix is read once and that all further reads are answered from memory.
+	 */
+	@Test
+	public void testReadThrough()
+	{
+		final RecordingPersistencyService delegate = new RecordingPersistencyService();
+		delegate.put("equalizer", "band0", 1.0);
+		delegate.put("equalizer", "band1", 2.0);
+		delegate.put("volume", "volume", 50);
+		final CachingPersistencyService service = new CachingPersistencyService(delegate, 60 * 60 * 1000);
+		
+		for (int i = 0; i < 10; i++) Assert.assertEquals(1.0, service.get("equalizer", "band0"));
+		Assert.assertEquals(2.0, service.get("equalizer", "band1"));
+		Assert.assertFalse(service.contains("equalizer", "band2"));
+		Assert.assertEquals(50, service.get("volume", "volume"));
+		Assert.assertEquals(Collections.singletonList("equalizer"), delegate.reads.subList(0, 1));
+		Assert.assertEquals(2, delegate.reads.size());
+		
+		// Writes are visible immediately and do not read again
+		service.put("equalizer", "band1", 3.0);
+		service.put("panorama", "panorama", 0.5);
+		Assert.assertEquals(3.0, service.get("equalizer", "band1"));
+		Assert.assertEquals(0.5, service.get("panorama", "panorama"));
+		Assert.assertEquals(2, service.getAll("equalizer").size());
+		Assert.assertEquals(3, delegate.reads.size());
+		
+		Assert.assertEquals(3, service.getMisses());
+		Assert.assertEquals(13, service.getHits());
+		Assert.assertEquals(13.0 / 16, service.getHitRate(), 0.0001);
+		service.shutdown();
+	}
+	
+	/**
+	 * A {@link PersistencyService} that keeps the values in memory and records all writes
+	 * and reads.
+	 * 
+	 * @author thomas
+	 */
+	private static class RecordingPersistencyService implements PersistencyService
+	{
+		
+		/**
+		 * The values by prefix and key
+		 */
+		private final Map<String, Object> values = Collections.synchronizedMap(new HashMap<String, Object>());
+		
+		/**
+		 * The prefixes and keys of all writes
+		 */
+		final List<String> writes = Collections.synchronizedList(new ArrayList<String>());
+		
+		/**
+		 * The prefixes of all reads
+		 */
+		final List<String> reads = Collections.synchronizedList(new ArrayList<String>());
+		
+		/**
+		 * @see com.senselessweb.storage.PersistencyService#put(java.lang.String, java.lang.String, java.lang.Object)
+		 */
+		@Override
+		public void put(final String prefix, final String key, final Object value)
+		{
+			this.writes.add(prefix + "/" + key);
+			this.values.put(prefix + "/" + key, value);
+		}
+		
+		/**
+		 * @see com.senselessweb.storage.PersistencyService#get(java.lang.String, java.lang.String)
+		 */
+		@Override
+		public Object get(final String prefix, final String key)
+		{
+			this.reads.add(prefix);
+			return this.values.get(prefix + "/" + key);
+		}
+		
+		/**
+		 * @see com.senselessweb.storage.PersistencyService#contains(java.lang.String, java.lang.String)
+		 */
+		@Override
+		public boolean contains(final String prefix, final String key)
+		{
+			return this.get(prefix, key) != null;
+		}
+		
+		/**
+		 * @see com.senselessweb.storage.PersistencyService#getAll(java.lang.String)
+		 */
+		@Override
+		public Map<String, Object> getAll(final String prefix)
+		{
+			this.reads.add(prefix);
+			final Map<String, Object> result = new HashMap<String, Object>();
+			synchronized (this.values)
+			{
+				for (final Map.Entry<String, Object> entry : this.values.entrySet())
+					if (entry.getKey().startsWith(prefix + "/")) result.put(entry.getKey().substring(prefix.length() + 1), entry.getValue());
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * 
+ */
+package com.senselessweb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.senselessweb.soundcloud.domain.sources.FileSource;
+import com.senselessweb.soundcloud.domain.sources.MediaSource;
+import com.senselessweb.soundcloud.domain.sources.StreamSource;
+
+/**
+ * Testcases every {@link PersistencyService} has to pass. Extended by the tests of the
+ * storage backends.
+ * 
+ * @author thomas
+ */
+public abstract class PersistencyServiceConformanceTest
+{
+
+	/**
+	 * The tested service
+	 */
+	protected PersistencyService service;
+	
+	
+	/**
+	 * Creates the tested service.
+	 */
+	@Before
+	public final void setupService()
+	{
+		this.service = this.createService();
+	}
+	
+	/**
+	 * Creates an empty service.
+	 * 
+	 * @return The service.
+	 */
+	protected abstract PersistencyService createService();
+	
+	/**
+	 * Stores and restores simple values.
+	 */
+	@Test
+	public void testPutAndGet()
+	{
+		Assert.assertNull(this.service.get("test", "missing"));
+		Assert.assertFalse(this.service.contains("test", "missing"));
+		
+		this.service.put("test", "string", "hello world");
+		this.service.put("test", "integer", 42);
+		this.service.put("test", "double", 0.5);
+		Assert.assertEquals("hello world", this.service.get("test", "string"));
+		Assert.assertEquals(42, this.service.get("test", "integer"));
+		Assert.assertEquals(0.5, this.service.get("test", "double"));
+		Assert.assertTrue(this.service.contains("test", "string"));
+	}
+	
+	/**
+	 * Replaces a value several times.
+	 */
+	@Test
+	public void testReplace()
+	{
+		for (int i = 0; i <= 100; i++) this.service.put("volume", "volume", i);
+		Assert.assertEquals(100, this.service.get("volume", "volume"));
+		Assert.assertEquals(1, this.service.getAll("volume").size());
+	}
+	
+	/**
+	 * Checks that the values of different prefixes are kept apart.
+	 */
+	@Test
+	public void testGetAll()
+	{
+		Assert.assertTrue(this.service.getAll("equalizer").isEmpty());
+		
+		this.service.put("equalizer", "band0", 1.5);
+		this.service.put("equalizer", "band1", -2.0);
+		this.service.put("equalizerPreset", "band0", 3.0);
+		this.service.put("panorama", "panorama", 0.0);
+		
+		final Map<String, Object> expected = new HashMap<String, Object>();
+		expected.put("band0", 1.5);
+		expected.put("band1", -2.0);
+		Assert.assertEquals(expected, this.service.getAll("equalizer"));
+		Assert.assertEquals(3.0, this.service.get("equalizerPreset", "band0"));
+		Assert.assertNull(this.service.get("panorama", "band0"));
+	}
+	
+	/**
+	 * Stores and restores a list of media sources like the playlist.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testMediaSources() throws IOException
+	{
+		final File file = File.createTempFile("soundcloud", ".mp3");
+		file.deleteOnExit();
+		final List<MediaSource> playlist = new ArrayList<MediaSource>(Arrays.asList(
+				new FileSource("file source", file),
+				new StreamSource("radio source", "http://wdr.de"),
+				new StreamSource("stream source", "http://radio.de")));
+		
+		this.service.put("defaultPlaylist", "playlist", playlist);
+		Assert.assertEquals(playlist, this.service.get("defaultPlaylist", "playlist"));
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * 
+ */
+package com.senselessweb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+import com.senselessweb.storage.library.LocalLibraryStorageService;
+import com.senselessweb.storage.memory.MemoryLocalLibraryStorageService;
+import com.senselessweb.storage.memory.MemoryPersistencyService;
+
+/**
+ * Measures the throughput of a storage backend on a generated library. The backends run
+ * it from their own benchmarks, this class runs it against the in-memory backend.
+ * 
+ * Usage: <code>StorageBenchmark [files] [operations]</code>. Reads the given number of
+ * generated empty files (default: 10000) and prints the time of the given number of
+ * random operations (default: 10000) of each kind.
+ * 
+ * @author thomas
+ */
+public class StorageBenchmark
+{
+
+	/**
+	 * Runs the benchmark against the in-memory backend.
+	 * 
+	 * @param args The number of files and the number of operations. Both optional.
+	 * 
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException
+	{
+		run(new MemoryPersistencyService(), new MemoryLocalLibraryStorageService(), args);
+	}
+	
+	/**
+	 * Runs the benchmark with the numbers given on the command line.
+	 * 
+	 * @param persistencyService The tested {@link PersistencyService}. Should be empty.
+	 * @param libraryService The tested {@link LocalLibraryStorageService}. Should be empty.
+	 * @param args The number of files and the number of operations. Both optional.
+	 * 
+	 * @throws IOException
+	 */
+	public static void run(final PersistencyService persistencyService, final LocalLibraryStorageService libraryService,
+			final String[] args) throws IOException
+	{
+		run(persistencyService, libraryService, args.length > 0 ? Integer.parseInt(args[0]) : 10000,
+				args.length > 1 ? Integer.parseInt(args[1]) : 10000);
+	}
+	
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param persistencyService The tested {@link PersistencyService}. Should be empty.
+	 * @param libraryService The tested {@link LocalLibraryStorageService}. Should be empty.
+	 * @param files The number of generated files.
+	 * @param operations The number of operations of each kind.
+	 * 
+	 * @throws IOException
+	 */
+	public static void run(final PersistencyService persistencyService, final LocalLibraryStorageService libraryService,
+			final int files, final int operations) throws IOException
+	{
+		final Random random = new Random(4711);
+		final File root = File.createTempFile("soundcloud", "");
+		if (!root.delete()) throw new IOException("Could not delete " + root);
+		
+		try
+		{
+			// 20 tracks per album, 5 albums per artist
+			final List<List<File>> albums = new ArrayList<List<File>>();
+			final List<String> folders = new ArrayList<String>();
+			for (int i = 0; i < files; i++)
+			{
+				if (i % 20 == 0)
+				{
+					folders.add("Artist " + (i / 100) + File.separator + "Album " + (i / 20));
+					albums.add(new ArrayList<File>(20));
+				}
+				final File file = new File(root, folders.get(folders.size() - 1) + File.separator + (i % 20 + 1) + " - Track " + i + ".mp3");
+				FileUtils.touch(file);
+				albums.get(albums.size() - 1).add(file);
+			}
+			
+			long startTime = System.currentTimeMillis();
+			for (final List<File> album : albums) libraryService.getOrCreateAll(album);
+			System.out.println("getOrCreateAll: read " + files + " files in " + (System.currentTimeMillis() - startTime) + " ms");
+			
+			// Warm up first
+			for (int pass = 0; pass < 2; pass++)
+			{
+				startTime = System.nanoTime();
+				for (int i = 0; i < operations; i++)
+				{
+					final List<File> album = albums.get(random.nextInt(albums.size()));
+					libraryService.getOrCreate(album.get(random.nextInt(album.size())));
+				}
+				if (pass == 1) print("getOrCreate", startTime, operations);
+			}
+			
+			for (int pass = 0; pass < 2; pass++)
+			{
+				startTime = System.nanoTime();
+				int keywords = 0;
+				for (int i = 0; i < operations; i++)
+					keywords += libraryService.getKeywords(root.getAbsolutePath(), folders.get(random.nextInt(folders.size()))).size();
+				if (pass == 1) print("getKeywords (" + (keywords / operations) + " keywords)", startTime, operations);
+			}
+			
+			for (int pass = 0; pass < 2; pass++)
+			{
+				startTime = System.nanoTime();
+				for (int i = 0; i < operations; i++) persistencyService.put("benchmark", "key" + random.nextInt(100), i);
+				if (pass == 1) print("put", startTime, operations);
+				
+				startTime = System.nanoTime();
+				for (int i = 0; i < operations; i++) persistencyService.get("benchmark", "key" + random.nextInt(100));
+				if (pass == 1) print("get", startTime, operations);
+			}
+		}
+		finally
+		{
+			FileUtils.deleteDirectory(root);
+		}
+	}
+	
+	/**
+	 * Prints the time per operation and the throughput.
+	 * 
+	 * @param kind The kind of the operations.
+	 * @param startTime The start time in nanoseconds.
+	 * @param operations The number of operations.
+	 */
+	private static void print(final String kind, final long startTime, final int operations)
+	{
+		final long time = System.nanoTime() - startTime;
+		System.out.println(kind + ": " + String.format("%.2f", time / 1e3 / operations) + " us per operation, " +
+				String.format("%.0f", operations * 1e9 / time) + " operations per second");
+	}
+}
@@ -0,0 +1,191 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+import com.senselessweb.soundcloud.domain.sources.FileSource;
+
+/**
+ * Testcases every {@link LocalLibraryStorageService} has to pass. Extended by the tests
+ * of the storage backends.
+ * 
+ * @author thomas
+ */
+public abstract class LocalLibraryStorageServiceConformanceTest
+{
+
+	/**
+	 * The tested service
+	 */
+	protected LocalLibraryStorageService service;
+	
+	/**
+	 * The root folder of the test library
+	 */
+	private File root;
+	
+	
+	/**
+	 * Creates the tested service and an empty library.
+	 * 
+	 * @throws IOException
+	 */
+	@Before
+	public final void setupService() throws IOException
+	{
+		this.service = this.createService();
+		this.root = File.createTempFile("soundcloud", "");
+		Assert.assertTrue(this.root.delete());
+		Assert.assertTrue(this.root.mkdirs());
+	}
+	
+	/**
+	 * Deletes the library.
+	 * 
+	 * @throws IOException
+	 */
+	@After
+	public final void deleteLibrary() throws IOException
+	{
+		FileUtils.deleteDirectory(this.root);
+	}
+	
+	/**
+	 * Creates an empty service.
+	 * 
+	 * @return The service.
+	 */
+	protected abstract LocalLibraryStorageService createService();
+	
+	/**
+	 * Creates empty files in the library.
+	 * 
+	 * @param paths The paths relative to the root folder.
+	 * 
+	 * @return The files.
+	 * 
+	 * @throws IOException
+	 */
+	private List<File> touch(final String... paths) throws IOException
+	{
+		final File[] files = new File[paths.length];
+		for (int i = 0; i < paths.length; i++)
+		{
+			files[i] = new File(this.root, paths[i]);
+			FileUtils.touch(files[i]);
+		}
+		return Arrays.asList(files);
+	}
+	
+	/**
+	 * Checks that the ids are derived from the paths and that files are found by id and
+	 * by media source.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testStableIds() throws IOException
+	{
+		final File input = this.touch("01 - Amajo.mp3").get(0);
+		
+		final LocalFile localFile = this.service.getOrCreate(input);
+		Assert.assertEquals(LocalFile.createId(input.getAbsolutePath()), localFile.getId());
+		Assert.assertEquals(localFile.getId(), this.service.getOrCreate(input).getId());
+		Assert.assertEquals(input.getAbsolutePath(), this.service.get(localFile.getId()).getPath());
+		Assert.assertEquals(localFile.getId(), this.service.get(new FileSource("Title", input)).getId());
+		
+		// Reading a modified file again keeps the id
+		Assert.assertTrue(input.setLastModified(localFile.getLastModified() + 10000));
+		Assert.assertEquals(localFile.getId(), this.service.getOrCreate(input).getId());
+		
+		this.service.remove(input);
+		Assert.assertNull(this.service.get(new FileSource("Title", input)));
+		Assert.assertNull(this.service.get(localFile.getId()));
+	}
+	
+	/**
+	 * Checks that the keywords and the statistics of a folder contain its files.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testFolders() throws IOException
+	{
+		this.service.getOrCreateAll(this.touch("Soul/01 - Amajo.mp3", "Soul/02 - Bazay.mp3", "Jazz/01 - Yekatit.mp3"));
+		
+		Assert.assertTrue(this.service.getKeywords(this.root.getAbsolutePath(), "Soul").contains("amajo"));
+		Assert.assertFalse(this.service.getKeywords(this.root.getAbsolutePath(), "Soul").contains("yekatit"));
+		Assert.assertEquals(2, this.service.getFolderStatistics(this.root.getAbsolutePath(), "Soul").getTracks());
+		Assert.assertEquals(3, this.service.getFolderStatistics(this.root.getAbsolutePath(), "").getTracks());
+	}
+	
+	/**
+	 * Checks that the files of a subtree are removed and the others are kept.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRemoveFolder() throws IOException
+	{
+		final List<LocalFile> localFiles = this.service.getOrCreateAll(this.touch("artist/album/01.mp3", "02.mp3"));
+		Assert.assertEquals(new File(this.root, "artist/album").getAbsolutePath(), localFiles.get(0).getFolder());
+		Assert.assertTrue(localFiles.get(0).getAncestors().contains(this.root.getAbsolutePath()));
+		
+		this.service.removeFolder(new File(this.root, "artist"));
+		Assert.assertNull(this.service.get(localFiles.get(0).getId()));
+		Assert.assertNotNull(this.service.get(localFiles.get(1).getId()));
+	}
+	
+	/**
+	 * Checks that a sweep only removes the files that do not exist any more.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testSweep() throws IOException
+	{
+		final List<File> inputs = this.touch("01.mp3", "02.mp3", "03.mp3");
+		final List<LocalFile> localFiles = this.service.getOrCreateAll(inputs);
+		this.service.markLive(Arrays.asList(inputs.get(0).getAbsolutePath(), inputs.get(1).getAbsolutePath()), 1);
+		
+		// Unmarked files that still exist are kept
+		Assert.assertEquals(0, this.service.sweep(1));
+		Assert.assertNotNull(this.service.get(localFiles.get(2).getId()));
+		
+		Assert.assertTrue(inputs.get(1).delete());
+		Assert.assertEquals(1, this.service.sweep(2));
+		Assert.assertNotNull(this.service.get(localFiles.get(0).getId()));
+		Assert.assertNull(this.service.get(localFiles.get(1).getId()));
+		Assert.assertEquals(0, this.service.sweep(2));
+	}
+	
+	/**
+	 * Checks that nothing is removed if most of the files are missing at once.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testSweepUnavailableLibrary() throws IOException
+	{
+		final String[] paths = new String[200];
+		for (int i = 0; i < paths.length; i++) paths[i] = "album/" + i + ".mp3";
+		final List<LocalFile> localFiles = this.service.getOrCreateAll(this.touch(paths));
+		
+		FileUtils.deleteDirectory(new File(this.root, "album"));
+		Assert.assertEquals(0, this.service.sweep(1));
+		Assert.assertNotNull(this.service.get(localFiles.get(0).getId()));
+	}
+}
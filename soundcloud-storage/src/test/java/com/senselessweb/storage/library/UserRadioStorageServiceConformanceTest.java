@@ -0,0 +1,85 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.senselessweb.soundcloud.domain.library.RadioLibraryItem;
+
+/**
+ * Testcases every {@link UserRadioStorageService} has to pass. Extended by the tests of
+ * the storage backends.
+ * 
+ * @author thomas
+ */
+public abstract class UserRadioStorageServiceConformanceTest
+{
+
+	/**
+	 * The tested service
+	 */
+	protected UserRadioStorageService service;
+	
+	
+	/**
+	 * Creates the tested service.
+	 */
+	@Before
+	public final void setupService()
+	{
+		this.service = this.createService();
+	}
+	
+	/**
+	 * Creates an empty service.
+	 * 
+	 * @return The service.
+	 */
+	protected abstract UserRadioStorageService createService();
+	
+	/**
+	 * Stores stations and replaces a station with the same name.
+	 */
+	@Test
+	public void testCreate()
+	{
+		Assert.assertTrue(this.service.getAllRadioStations().isEmpty());
+		
+		final RadioLibraryItem radio1 = this.service.createRadioStation(new RadioLibraryItem(null, "WDR 2",
+				Collections.singleton("https://www.wdr2-radio.de"), Arrays.asList("pop", "gelaber")));
+		final RadioLibraryItem radio2 = this.service.createRadioStation(new RadioLibraryItem(null, "WDR 4",
+				Collections.singleton("https://www.wdr4-radio.de"), Arrays.asList("volksmusik")));
+		Assert.assertNotNull(radio1.getId());
+		Assert.assertFalse(radio1.getId().equals(radio2.getId()));
+		Assert.assertEquals(2, this.service.getAllRadioStations().size());
+		
+		final RadioLibraryItem radio2Clone = this.service.createRadioStation(new RadioLibraryItem(null, "WDR 4",
+				Collections.singleton("https://www.wdr4-radio.de"), Arrays.asList("volksmusik", "unsinn")));
+		Assert.assertEquals(radio2.getId(), radio2Clone.getId());
+		Assert.assertEquals(2, this.service.getAllRadioStations().size());
+		Assert.assertTrue(this.service.getAllRadioStations().containsAll(Arrays.asList(radio1, radio2Clone)));
+		Assert.assertEquals(radio2Clone.getGenres(), this.service.getRadioStation(radio2.getId()).getGenres());
+	}
+	
+	/**
+	 * Deletes a station.
+	 */
+	@Test
+	public void testDelete()
+	{
+		final RadioLibraryItem radio = this.service.createRadioStation(new RadioLibraryItem(null, "WDR 2",
+				Collections.singleton("https://www.wdr2-radio.de"), Arrays.asList("pop")));
+		Assert.assertEquals(radio, this.service.getRadioStation(radio.getId()));
+		
+		this.service.deleteRadioStation(radio.getId());
+		Assert.assertNull(this.service.getRadioStation(radio.getId()));
+		Assert.assertTrue(this.service.getAllRadioStations().isEmpty());
+	}
+}
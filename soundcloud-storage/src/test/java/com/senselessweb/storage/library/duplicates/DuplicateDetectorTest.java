@@ -0,0 +1,190 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.duplicates;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.senselessweb.soundcloud.domain.library.DuplicateGroup;
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+
+/**
+ * Testcases for the {@link DuplicateDetector}
+ * 
+ * @author thomas
+ */
+public class DuplicateDetectorTest
+{
+
+	/**
+	 * The root folder of the test library
+	 */
+	private File root;
+	
+	/**
+	 * Creates the root folder.
+	 * 
+	 * @throws IOException
+	 */
+	@Before
+	public void createRoot() throws IOException
+	{
+		this.root = File.createTempFile("library", "");
+		Assert.assertTrue(this.root.delete());
+		Assert.assertTrue(this.root.mkdir());
+	}
+	
+	/**
+	 * Deletes the root folder.
+	 * 
+	 * @throws IOException
+	 */
+	@After
+	public void deleteRoot() throws IOException
+	{
+		FileUtils.deleteDirectory(this.root);
+	}
+	
+	/**
+	 * Checks that files with the same payload are found even if their tags differ.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testDetect() throws IOException
+	{
+		final byte[] payload = payload(1, 1024 * 1024);
+		final List<LocalFile> localFiles = Arrays.asList(
+				this.createFile("a/track.mp3", "Title", payload, false, 200),
+				this.createFile("b/track.mp3", "Another title", payload, true, 200),
+				this.createFile("c/track.mp3", null, payload, true, 200),
+				this.createFile("d/other.mp3", "Title", payload(2, 1024 * 1024), false, 200),
+				this.createFile("e/shorter.mp3", "Title", payload, false, 100));
+		
+		final List<DuplicateGroup> groups = new DuplicateDetector().detect(localFiles);
+		Assert.assertEquals(1, groups.size());
+		Assert.assertEquals(Arrays.asList(localFiles.get(0).getPath(), localFiles.get(1).getPath(), localFiles.get(2).getPath()),
+				groups.get(0).getPaths());
+	}
+	
+	/**
+	 * Checks that payloads that only differ outside the regions of the partial hash are
+	 * not reported as duplicates.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testPartialHashCollision() throws IOException
+	{
+		final byte[] payload = payload(1, 1024 * 1024);
+		final byte[] modified = payload.clone();
+		modified[300 * 1024]++;
+		
+		final List<LocalFile> localFiles = Arrays.asList(
+				this.createFile("a/track.mp3", "Title", payload, false, 200),
+				this.createFile("b/track.mp3", "Title", modified, false, 200));
+		Assert.assertTrue(new DuplicateDetector().detect(localFiles).isEmpty());
+	}
+	
+	/**
+	 * Checks that modified and removed files are read again by the next run.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRepeatedRuns() throws IOException
+	{
+		final byte[] payload = payload(1, 100 * 1024);
+		final List<LocalFile> localFiles = new ArrayList<LocalFile>(Arrays.asList(
+				this.createFile("a/track.mp3", "Title", payload, false, 200),
+				this.createFile("b/track.mp3", "Title", payload, false, 200)));
+		
+		final DuplicateDetector detector = new DuplicateDetector();
+		Assert.assertEquals(1, detector.detect(localFiles).size());
+		
+		// Modify the second file
+		final File second = new File(localFiles.get(1).getPath());
+		FileUtils.writeByteArrayToFile(second, payload(2, 100 * 1024));
+		Assert.assertTrue(second.setLastModified(second.lastModified() + 10000));
+		Assert.assertTrue(detector.detect(localFiles).isEmpty());
+		
+		// Copy the first file again
+		localFiles.add(this.createFile("c/track.mp3", "Title", payload, false, 200));
+		Assert.assertEquals(1, detector.detect(localFiles).size());
+		
+		// Remove the first file
+		Assert.assertTrue(new File(localFiles.get(0).getPath()).delete());
+		Assert.assertTrue(detector.detect(localFiles).isEmpty());
+	}
+	
+	/**
+	 * Creates a media file with an ID3v2 tag and an optional ID3v1 tag.
+	 * 
+	 * @param path The path relative to the root.
+	 * @param title The title of the ID3v2 tag or null to omit the tag.
+	 * @param payload The payload.
+	 * @param id3v1 If an ID3v1 tag is appended.
+	 * @param duration The duration of the local file.
+	 * 
+	 * @return The local file.
+	 * 
+	 * @throws IOException
+	 */
+	private LocalFile createFile(final String path, final String title, final byte[] payload, final boolean id3v1,
+			final long duration) throws IOException
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		if (title != null)
+		{
+			// ID3v2.3 tag with a TIT2 frame and some padding
+			final byte[] text = title.getBytes("ISO-8859-1");
+			final int size = 10 + 1 + text.length + 32;
+			bytes.write(new byte[] { 'I', 'D', '3', 3, 0, 0, 0, 0, (byte) (size >> 7), (byte) (size & 0x7f) });
+			bytes.write(new byte[] { 'T', 'I', 'T', '2', 0, 0, 0, (byte) (text.length + 1), 0, 0, 0 });
+			bytes.write(text);
+			bytes.write(new byte[32]);
+		}
+		bytes.write(payload);
+		if (id3v1)
+		{
+			final byte[] tag = new byte[128];
+			tag[0] = 'T'; tag[1] = 'A'; tag[2] = 'G';
+			bytes.write(tag);
+		}
+		
+		final File file = new File(this.root, path);
+		FileUtils.writeByteArrayToFile(file, bytes.toByteArray());
+		
+		return new LocalFile(null, file.getName(), Collections.<String>emptySet(), Collections.<String>emptySet(),
+				file.getAbsolutePath(), file.getName(), -1, file.lastModified(), duration, 128, null, null, file.length());
+	}
+	
+	/**
+	 * Creates a random payload.
+	 * 
+	 * @param seed The seed. The same seed creates the same payload.
+	 * @param size The size in bytes.
+	 * 
+	 * @return The payload.
+	 */
+	private static byte[] payload(final long seed, final int size)
+	{
+		final byte[] payload = new byte[size];
+		new Random(seed).nextBytes(payload);
+		return payload;
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.extraction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.senselessweb.soundcloud.domain.library.FileInformations;
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+
+/**
+ * Testcases for the {@link FileIdentityCache}
+ * 
+ * @author thomas
+ */
+public class FileIdentityCacheTest
+{
+
+	/**
+	 * The root folder of the test library
+	 */
+	private File root;
+	
+	/**
+	 * Creates the root folder.
+	 * 
+	 * @throws IOException
+	 */
+	@Before
+	public void createRoot() throws IOException
+	{
+		this.root = File.createTempFile("library", "");
+		Assert.assertTrue(this.root.delete());
+		Assert.assertTrue(this.root.mkdir());
+	}
+	
+	/**
+	 * Deletes the root folder.
+	 * 
+	 * @throws IOException
+	 */
+	@After
+	public void deleteRoot() throws IOException
+	{
+		FileUtils.deleteDirectory(this.root);
+	}
+	
+	/**
+	 * Checks that moved files are recognized and keep their metadata.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testMove() throws IOException
+	{
+		final FileIdentityCache cache = new FileIdentityCache();
+		final File file = this.createFile("Mulatu Astatke/Ethiopiques 4/01 - Yekatit.mp3", "Yekatit");
+		final LocalFile localFile = LocalFile.create(file.getAbsolutePath(),
+				new FileInformations("Yekatit", "Mulatu Astatke", "Ethiopiques 4", "1", "Ethio Jazz", null));
+		cache.add(localFile);
+		Assert.assertEquals(1, cache.size());
+		
+		// The stored file itself is not a moved file
+		Assert.assertNull(cache.find(file));
+		
+		// Move the album folder
+		final File movedDir = new File(this.root, "Ethiopiques/Volume 4");
+		move(file.getParentFile(), movedDir);
+		final File moved = new File(movedDir, file.getName());
+		Assert.assertSame(localFile, cache.find(moved));
+		
+		final LocalFile movedFile = localFile.moveTo(moved.getAbsolutePath());
+		Assert.assertEquals(LocalFile.createId(moved.getAbsolutePath()), movedFile.getId());
+		Assert.assertEquals(localFile.getLongTitle(), movedFile.getLongTitle());
+		Assert.assertEquals(new HashSet<String>(localFile.getKeywords()), new HashSet<String>(movedFile.getKeywords()));
+		Assert.assertEquals(localFile.getArtist(), movedFile.getArtist());
+		Assert.assertEquals(localFile.getSize(), movedFile.getSize());
+		
+		// Renamed and modified files are new
+		final File renamed = new File(movedDir, "Yekatit.mp3");
+		Assert.assertTrue(moved.renameTo(renamed));
+		Assert.assertNull(cache.find(renamed));
+		
+		Assert.assertTrue(renamed.renameTo(moved));
+		Assert.assertTrue(moved.setLastModified(moved.lastModified() + 10000));
+		Assert.assertNull(cache.find(moved));
+	}
+	
+	/**
+	 * Checks that removed files are still recognized until they are evicted.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRemoved() throws IOException
+	{
+		final FileIdentityCache cache = new FileIdentityCache(1);
+		final File first = this.createFile("a/first.mp3", "first");
+		final File second = this.createFile("a/second.mp3", "second");
+		final LocalFile firstFile = localFile(first);
+		final LocalFile secondFile = localFile(second);
+		cache.add(firstFile);
+		cache.add(secondFile);
+		
+		move(first.getParentFile(), new File(this.root, "b"));
+		cache.remove(firstFile);
+		Assert.assertEquals(1, cache.size());
+		Assert.assertSame(firstFile, cache.find(new File(this.root, "b/first.mp3")));
+		
+		// Only one removed file is kept
+		cache.remove(secondFile);
+		Assert.assertEquals(0, cache.size());
+		Assert.assertNull(cache.find(new File(this.root, "b/first.mp3")));
+		Assert.assertSame(secondFile, cache.find(new File(this.root, "b/second.mp3")));
+		
+		// Storing the moved file ends its removal
+		cache.add(secondFile.moveTo(new File(this.root, "b/second.mp3").getAbsolutePath()));
+		Assert.assertNull(cache.find(new File(this.root, "b/second.mp3")));
+	}
+	
+	/**
+	 * Creates a file in the test library.
+	 * 
+	 * @param path The path relative to the root.
+	 * @param content The content.
+	 * 
+	 * @return The file.
+	 * 
+	 * @throws IOException
+	 */
+	private File createFile(final String path, final String content) throws IOException
+	{
+		final File file = new File(this.root, path);
+		FileUtils.writeStringToFile(file, content);
+		return file;
+	}
+	
+	/**
+	 * Moves a file or folder.
+	 * 
+	 * @param from The file or folder.
+	 * @param to The new location. Missing parent folders are created.
+	 */
+	private static void move(final File from, final File to)
+	{
+		to.getParentFile().mkdirs();
+		Assert.assertTrue(from.renameTo(to));
+	}
+	
+	/**
+	 * Creates a local file without metadata.
+	 * 
+	 * @param file The file.
+	 * 
+	 * @return The local file.
+	 */
+	private static LocalFile localFile(final File file)
+	{
+		return LocalFile.create(file.getAbsolutePath(), new FileInformations(null, null, null, null, null, null));
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.extraction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.senselessweb.soundcloud.domain.library.FileInformations;
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+
+/**
+ * Testcases for the {@link MetadataExtractor}
+ * 
+ * @author thomas
+ */
+public class MetadataExtractorTest
+{
+
+	/**
+	 * An empty media file
+	 */
+	private File file;
+	
+	/**
+	 * Creates the media file.
+	 * 
+	 * @throws IOException
+	 */
+	@Before
+	public void createFile() throws IOException
+	{
+		this.file = File.createTempFile("soundcloud", ".mp3");
+	}
+	
+	/**
+	 * Deletes the media file.
+	 */
+	@After
+	public void deleteFile()
+	{
+		this.file.delete();
+	}
+	
+	/**
+	 * Checks that an error of the writer fails the batch and the writer keeps running, and
+	 * that a file without metadata is not counted as a failure.
+	 */
+	@Test
+	public void testWriterError()
+	{
+		final AtomicBoolean fail = new AtomicBoolean(true);
+		final MetadataExtractor extractor = new MetadataExtractor(new MetadataExtractor.BatchWriter() {
+			/** @see com.senselessweb.storage.library.extraction.MetadataExtractor.BatchWriter#write(java.util.List) */
+			@Override public void write(final List<LocalFile> localFiles) {
+				if (fail.getAndSet(false)) throw new AssertionError("Disk on fire");
+			}
+		}, 1, 10, 10);
+		
+		try
+		{
+			extractor.extract(Collections.singletonList(this.file), false);
+			Assert.fail("The error of the writer has not been passed to the caller");
+		}
+		catch (final RuntimeException e)
+		{
+			Assert.assertTrue(e.getCause() instanceof AssertionError);
+		}
+		
+		Assert.assertEquals(1, extractor.extract(Collections.singletonList(this.file), false).size());
+		Assert.assertEquals(0, extractor.getStatistics().getFailures());
+		Assert.assertEquals(2, extractor.getStatistics().getUntagged());
+		extractor.shutdown();
+	}
+	
+	/**
+	 * Checks that an error of the tag reader fails the file and the worker keeps running.
+	 */
+	@Test
+	public void testReaderError()
+	{
+		final AtomicBoolean fail = new AtomicBoolean(true);
+		final MetadataExtractor extractor = new MetadataExtractor(new MetadataExtractor.BatchWriter() {
+			/** @see com.senselessweb.storage.library.extraction.MetadataExtractor.BatchWriter#write(java.util.List) */
+			@Override public void write(final List<LocalFile> localFiles) {
+				// Nothing to store
+			}
+		}, 1, 10, 10) {
+			/** @see com.senselessweb.storage.library.extraction.MetadataExtractor#read(java.io.File) */
+			@Override FileInformations read(final File file) {
+				if (fail.getAndSet(false)) throw new StackOverflowError("Corrupt frame");
+				return super.read(file);
+			}
+		};
+		
+		try
+		{
+			extractor.extract(Collections.singletonList(this.file), false);
+			Assert.fail("The error of the reader has not been passed to the caller");
+		}
+		catch (final RuntimeException e)
+		{
+			Assert.assertTrue(e.getCause() instanceof StackOverflowError);
+		}
+		
+		Assert.assertEquals(1, extractor.extract(Collections.singletonList(this.file), false).size());
+		Assert.assertEquals(1, extractor.getStatistics().getFailures());
+		extractor.shutdown();
+	}
+	
+	/**
+	 * Checks that callers waiting for queued files are released when the extractor is shut down.
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testShutdown() throws InterruptedException
+	{
+		final CountDownLatch writing = new CountDownLatch(1);
+		final MetadataExtractor extractor = new MetadataExtractor(new MetadataExtractor.BatchWriter() {
+			/** @see com.senselessweb.storage.library.extraction.MetadataExtractor.BatchWriter#write(java.util.List) */
+			@Override public void write(final List<LocalFile> localFiles) {
+				writing.countDown();
+				try
+				{
+					new CountDownLatch(1).await();
+				}
+				catch (final InterruptedException e)
+				{
+					throw new RuntimeException(e);
+				}
+			}
+		}, 1, 1, 1);
+		
+		// The first file blocks the writer, the others wait in the queues
+		final ExecutorService callers = Executors.newFixedThreadPool(3);
+		final Callable<List<LocalFile>> caller = new Callable<List<LocalFile>>() {
+			/** @see java.util.concurrent.Callable#call() */
+			@Override public List<LocalFile> call() {
+				return extractor.extract(Collections.singletonList(MetadataExtractorTest.this.file), true);
+			}
+		};
+		final Future<List<LocalFile>> first = callers.submit(caller);
+		Assert.assertTrue(writing.await(5, TimeUnit.SECONDS));
+		final Future<List<LocalFile>> second = callers.submit(caller);
+		final Future<List<LocalFile>> third = callers.submit(caller);
+		Thread.sleep(100);
+		
+		extractor.shutdown();
+		for (final Future<List<LocalFile>> future : Arrays.asList(first, second, third))
+		{
+			try
+			{
+				future.get(5, TimeUnit.SECONDS);
+				Assert.fail("A file has been stored after the shutdown");
+			}
+			catch (final ExecutionException e)
+			{
+				Assert.assertTrue(e.getCause() instanceof RuntimeException);
+			}
+			catch (final TimeoutException e)
+			{
+				Assert.fail("A caller is still waiting after the shutdown");
+			}
+		}
+		callers.shutdown();
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.index;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+import com.senselessweb.soundcloud.domain.library.ResultPage;
+
+/**
+ * Testcases for the {@link BrowseIndex}
+ * 
+ * @author thomas
+ */
+public class BrowseIndexTest
+{
+
+	/**
+	 * The root folder of the test library.
+	 */
+	private static final String root = new File("/music").getAbsolutePath();
+	
+	/**
+	 * Checks the artists, albums and genres and their order.
+	 */
+	@Test
+	public void testBrowse()
+	{
+		final BrowseIndex index = createIndex();
+		
+		Assert.assertEquals(Arrays.asList("Asmara All Stars", "Mulatu Astatke"), index.getArtists(0, 10).getItems());
+		Assert.assertEquals(Arrays.asList("Eritrea's Got Soul"), index.getAlbums("ASMARA ALL STARS", 0, 10).getItems());
+		Assert.assertEquals(Arrays.asList("Ethiopiques 4", "Mulatu of Ethiopia"), index.getAlbums("Mulatu Astatke", 0, 10).getItems());
+		Assert.assertTrue(index.getAlbums("Unknown", 0, 10).getItems().isEmpty());
+		Assert.assertEquals(Arrays.asList("Ethio Jazz", "Soul"), index.getGenres(0, 10).getItems());
+		
+		// Sorted by album and track number, files without track number last
+		Assert.assertEquals(Arrays.asList("Yekatit", "Tezeta", "Mulatu"),
+				titles(index.getTracks("mulatu astatke", null, 0, 10)));
+		Assert.assertEquals(Arrays.asList("Tezeta", "Mulatu"), titles(index.getTracks("mulatu astatke", "mulatu of ethiopia", 0, 10)));
+		Assert.assertEquals(Arrays.asList("Amajo", "Bazay"), titles(index.getGenreTracks("soul", 0, 10)));
+		
+		// Files without artist are only listed by genre
+		Assert.assertEquals(4, index.getGenreTracks("ethio jazz", 0, 10).getTotal());
+	}
+	
+	/**
+	 * Checks the pages.
+	 */
+	@Test
+	public void testPaging()
+	{
+		final BrowseIndex index = createIndex();
+		
+		final ResultPage<LocalFile> page = index.getGenreTracks("ethio jazz", 1, 2);
+		Assert.assertEquals(Arrays.asList("Tezeta", "Mulatu"), titles(page));
+		Assert.assertEquals(1, page.getOffset());
+		Assert.assertEquals(4, page.getTotal());
+		
+		Assert.assertTrue(index.getArtists(5, 10).getItems().isEmpty());
+		Assert.assertEquals(2, index.getArtists(5, 10).getTotal());
+		Assert.assertEquals(Arrays.asList("Mulatu Astatke"), index.getArtists(1, 1).getItems());
+	}
+	
+	/**
+	 * Checks that removed and replaced files are not listed any more.
+	 */
+	@Test
+	public void testRemove()
+	{
+		final BrowseIndex index = createIndex();
+		
+		index.remove(path("Soul/01 - Amajo.mp3"));
+		index.remove(path("Soul/02 - Bazay.mp3"));
+		Assert.assertEquals(Arrays.asList("Mulatu Astatke"), index.getArtists(0, 10).getItems());
+		Assert.assertEquals(Arrays.asList("Ethio Jazz"), index.getGenres(0, 10).getItems());
+		Assert.assertTrue(index.getAlbums("Asmara All Stars", 0, 10).getItems().isEmpty());
+		
+		// Replacing a file moves it to its new album
+		index.add(file("Jazz/02 - Tezeta.mp3", "Mulatu Astatke", "Ethiopiques 4", "Ethio Jazz", 2));
+		Assert.assertEquals(Arrays.asList("Yekatit", "Tezeta"), titles(index.getTracks("Mulatu Astatke", "Ethiopiques 4", 0, 10)));
+		Assert.assertEquals(Arrays.asList("Mulatu"), titles(index.getTracks("Mulatu Astatke", "Mulatu of Ethiopia", 0, 10)));
+		Assert.assertEquals(4, index.size());
+	}
+	
+	/**
+	 * Creates an index with some files.
+	 * 
+	 * @return The index.
+	 */
+	private static BrowseIndex createIndex()
+	{
+		final BrowseIndex index = new BrowseIndex();
+		index.add(file("Soul/02 - Bazay.mp3", "Asmara All Stars", "Eritrea's Got Soul", "Soul", 2));
+		index.add(file("Soul/01 - Amajo.mp3", "asmara all stars", "eritrea's got soul", "soul", 1));
+		index.add(file("Jazz/Mulatu.mp3", "Mulatu Astatke", "Mulatu of Ethiopia", "Ethio Jazz", -1));
+		index.add(file("Jazz/02 - Tezeta.mp3", "Mulatu Astatke", "Mulatu of Ethiopia", "Ethio Jazz", 2));
+		index.add(file("Jazz/01 - Yekatit.mp3", "Mulatu Astatke", "Ethiopiques 4", "Ethio Jazz", 1));
+		index.add(file("Jazz/Unknown.mp3", null, null, "Ethio Jazz", -1));
+		return index;
+	}
+	
+	/**
+	 * Creates a local file. The title is the base name without the track number.
+	 * 
+	 * @param path The path relative to the root.
+	 * @param artist The artist.
+	 * @param album The album.
+	 * @param genre The genre.
+	 * @param tracknumber The track number.
+	 * 
+	 * @return The local file.
+	 */
+	private static LocalFile file(final String path, final String artist, final String album, final String genre,
+			final int tracknumber)
+	{
+		final String name = new File(path).getName().replaceAll("^\\d+ - ", "").replaceAll("\\.mp3$", "");
+		return new LocalFile(null, name, Collections.singleton(genre), Collections.<String>emptySet(),
+				path(path), name, tracknumber, 0, -1, -1, artist, album, -1);
+	}
+	
+	/**
+	 * Returns the absolute path of a file.
+	 * 
+	 * @param path The path relative to the root.
+	 * 
+	 * @return The absolute path.
+	 */
+	private static String path(final String path)
+	{
+		return new File(root, path).getAbsolutePath();
+	}
+	
+	/**
+	 * Returns the titles of the files of a page.
+	 * 
+	 * @param page The page.
+	 * 
+	 * @return The short titles.
+	 */
+	private static List<String> titles(final ResultPage<LocalFile> page)
+	{
+		final List<String> titles = new ArrayList<String>();
+		for (final LocalFile localFile : page.getItems()) titles.add(localFile.getShortTitle());
+		return titles;
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.index;
+
+import java.io.File;
+import java.util.Collections;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.senselessweb.soundcloud.domain.library.FolderStatistics;
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+
+/**
+ * Testcases for the {@link FolderStatisticsIndex}
+ * 
+ * @author thomas
+ */
+public class FolderStatisticsIndexTest
+{
+
+	/**
+	 * The root folder of the test library.
+	 */
+	private static final String root = new File("/music").getAbsolutePath();
+	
+	/**
+	 * Checks that the totals of a file are rolled up to all folders up to the root.
+	 */
+	@Test
+	public void testRollup()
+	{
+		final FolderStatisticsIndex index = new FolderStatisticsIndex(root);
+		index.add(file("Soul/Asmara All Stars/01 - Amajo.mp3", 1000, 200));
+		index.add(file("Soul/Asmara All Stars/02 - Bazay.mp3", 2000, 300));
+		index.add(file("Jazz/Mulatu/01 - Yekatit.mp3", 4000, -1));
+		
+		assertStatistics(2, 3000, 500, index.getStatistics(path("Soul/Asmara All Stars")));
+		assertStatistics(2, 3000, 500, index.getStatistics(path("Soul")));
+		assertStatistics(1, 4000, 0, index.getStatistics(path("Jazz")));
+		assertStatistics(3, 7000, 500, index.getStatistics(root));
+		Assert.assertEquals(3, index.size());
+		
+		// Folders above the root and unknown folders are not indexed
+		Assert.assertSame(FolderStatistics.empty, index.getStatistics(new File(root).getParent()));
+		Assert.assertSame(FolderStatistics.empty, index.getStatistics(path("Pop")));
+	}
+	
+	/**
+	 * Checks that replaced and removed files are subtracted again.
+	 */
+	@Test
+	public void testRemove()
+	{
+		final FolderStatisticsIndex index = new FolderStatisticsIndex(root);
+		index.add(file("Soul/01 - Amajo.mp3", 1000, 200));
+		index.add(file("Soul/02 - Bazay.mp3", 2000, 300));
+		
+		// Replacing a file only counts its new values
+		index.add(file("Soul/02 - Bazay.mp3", 2500, 310));
+		assertStatistics(2, 3500, 510, index.getStatistics(path("Soul")));
+		
+		index.remove(path("Soul/01 - Amajo.mp3"));
+		index.remove(path("Soul/unknown.mp3"));
+		assertStatistics(1, 2500, 310, index.getStatistics(root));
+		
+		index.remove(path("Soul/02 - Bazay.mp3"));
+		Assert.assertSame(FolderStatistics.empty, index.getStatistics(path("Soul")));
+		Assert.assertEquals(0, index.size());
+	}
+	
+	/**
+	 * Checks the totals of a folder.
+	 * 
+	 * @param tracks The expected number of tracks.
+	 * @param size The expected size.
+	 * @param duration The expected duration.
+	 * @param statistics The statistics to check.
+	 */
+	private static void assertStatistics(final int tracks, final long size, final long duration, final FolderStatistics statistics)
+	{
+		Assert.assertEquals(tracks, statistics.getTracks());
+		Assert.assertEquals(size, statistics.getSize());
+		Assert.assertEquals(duration, statistics.getDuration());
+	}
+	
+	/**
+	 * Creates a local file.
+	 * 
+	 * @param path The path relative to the root.
+	 * @param size The size in bytes.
+	 * @param duration The duration in seconds.
+	 * 
+	 * @return The local file.
+	 */
+	private static LocalFile file(final String path, final long size, final long duration)
+	{
+		final String name = new File(path).getName();
+		return new LocalFile(null, name, Collections.<String>emptySet(), Collections.<String>emptySet(),
+				path(path), name, -1, 0, duration, -1, null, null, size);
+	}
+	
+	/**
+	 * Returns the absolute path of a file.
+	 * 
+	 * @param path The path relative to the root.
+	 * 
+	 * @return The absolute path.
+	 */
+	private static String path(final String path)
+	{
+		return new File(root, path).getAbsolutePath();
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.index;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+
+/**
+ * Testcases for the {@link KeywordIndex}
+ * 
+ * @author thomas
+ */
+public class KeywordIndexTest
+{
+
+	/**
+	 * The root folder of the test library.
+	 */
+	private static final String root = new File("/music").getAbsolutePath();
+	
+	/**
+	 * Checks that the keywords of a file are rolled up to all folders up to the root.
+	 */
+	@Test
+	public void testRollup()
+	{
+		final KeywordIndex index = new KeywordIndex(root);
+		index.add(file("Soul/Asmara All Stars/01 - Amajo.mp3", "Asmara All Stars", "Eritrea's Got Soul"));
+		index.add(file("Jazz/Mulatu/02 - Yekatit.mp3", "Mulatu Astatke"));
+		
+		Assert.assertTrue(index.getKeywords(path("Soul/Asmara All Stars")).contains("amajo"));
+		Assert.assertTrue(index.getKeywords(path("Soul")).contains("asmara all stars"));
+		Assert.assertFalse(index.getKeywords(path("Soul")).contains("yekatit"));
+		Assert.assertTrue(index.getKeywords(root).contains("yekatit"));
+		Assert.assertTrue(index.getKeywords(root).contains("amajo"));
+		
+		// Folders above the root are not indexed
+		Assert.assertTrue(index.getKeywords(new File(root).getParent()).isEmpty());
+		
+		Assert.assertEquals(3, index.getFolders("Yekatit").size());
+		Assert.assertTrue(index.getFolders("yekatit").contains(path("Jazz")));
+	}
+	
+	/**
+	 * Checks that removing and replacing files only drops keywords that no other file contains.
+	 */
+	@Test
+	public void testRemove()
+	{
+		final KeywordIndex index = new KeywordIndex(root);
+		index.add(file("Soul/01 - Amajo.mp3", "Asmara All Stars"));
+		index.add(file("Soul/02 - Bazay.mp3", "Asmara All Stars"));
+		
+		index.remove(path("Soul/01 - Amajo.mp3"));
+		Assert.assertFalse(index.getKeywords(path("Soul")).contains("amajo"));
+		Assert.assertTrue(index.getKeywords(path("Soul")).contains("asmara all stars"));
+		Assert.assertTrue(index.getFolders("amajo").isEmpty());
+		
+		// Replacing a file removes its old keywords
+		index.add(file("Soul/02 - Bazay.mp3", "Faytinga"));
+		Assert.assertFalse(index.getKeywords(path("Soul")).contains("asmara all stars"));
+		Assert.assertTrue(index.getKeywords(path("Soul")).contains("faytinga"));
+		Assert.assertEquals(1, index.size());
+		
+		index.remove(path("Soul/02 - Bazay.mp3"));
+		Assert.assertTrue(index.getKeywords(root).isEmpty());
+		Assert.assertEquals(0, index.size());
+	}
+	
+	/**
+	 * Checks that numbers and short tokens are no keywords.
+	 */
+	@Test
+	public void testParseKeywords()
+	{
+		Assert.assertEquals(Collections.singleton("amajo"), KeywordIndex.parseKeywords("01 - Amajo (2.5)"));
+		Assert.assertTrue(KeywordIndex.parseKeywords(null).isEmpty());
+	}
+	
+	/**
+	 * Creates a local file.
+	 * 
+	 * @param path The path relative to the root.
+	 * @param keywords The keywords.
+	 * 
+	 * @return The local file.
+	 */
+	private static LocalFile file(final String path, final String... keywords)
+	{
+		final String name = new File(path).getName();
+		return new LocalFile(null, name, Collections.<String>emptySet(), Arrays.asList(keywords),
+				path(path), name, -1, 0, -1, -1, null, null, -1);
+	}
+	
+	/**
+	 * Returns the absolute path of a file.
+	 * 
+	 * @param path The path relative to the root.
+	 * 
+	 * @return The absolute path.
+	 */
+	private static String path(final String path)
+	{
+		return new File(root, path).getAbsolutePath();
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.index;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+
+/**
+ * Measures the query times of the {@link SearchIndex} on a generated library.
+ * 
+ * Usage: <code>SearchIndexBenchmark [files] [queries]</code>. Indexes the given number
+ * of generated files (default: 500000) and prints the average time of the given number
+ * of random queries of each kind.
+ * 
+ * @author thomas
+ */
+public class SearchIndexBenchmark
+{
+
+	/**
+	 * The syllables the generated words are made of.
+	 */
+	private static final String[] syllables = new String[] {
+		"ka", "lo", "mi", "ra", "su", "te", "vo", "zen", "bar", "dul", "fin", "gor", "hal", "jin", "mar", "nor" };
+	
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args The number of files and the number of queries. Both optional.
+	 */
+	public static void main(final String[] args)
+	{
+		final int files = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+		final int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		final Random random = new Random(4711);
+		
+		// 20 tracks per album, 5 albums per artist
+		final String[] artists = new String[files / 100 + 1];
+		for (int i = 0; i < artists.length; i++) artists[i] = word(random) + " " + word(random);
+		final String[] words = new String[files / 5];
+		for (int i = 0; i < words.length; i++) words[i] = word(random);
+		
+		final SearchIndex index = new SearchIndex("/music");
+		long startTime = System.currentTimeMillis();
+		for (int i = 0; i < files; i++)
+		{
+			final String artist = artists[i / 100];
+			final String album = words[(i / 20) % words.length] + " " + words[(i / 20 + 7) % words.length];
+			final String title = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)];
+			final String path = "/music/" + artist + "/" + album + "/" + (i % 20 + 1) + " - " + title + ".mp3";
+			index.add(new LocalFile(null, title, Collections.<String>emptySet(), Arrays.asList(artist, album, title),
+					new File(path).getPath(), title, i % 20 + 1, 0, 200, 192, artist, album, -1));
+		}
+		System.out.println("Indexed " + files + " files in " + (System.currentTimeMillis() - startTime) + " ms");
+		
+		for (final String kind : new String[] { "exact", "prefix", "two terms", "typo" })
+		{
+			// Warm up first
+			for (int pass = 0; pass < 2; pass++)
+			{
+				startTime = System.nanoTime();
+				int results = 0;
+				for (int i = 0; i < queries; i++)
+				{
+					final String word = words[random.nextInt(words.length)];
+					final String query = kind.equals("exact") ? word :
+						kind.equals("prefix") ? word.substring(0, Math.min(word.length(), 4)) :
+						kind.equals("two terms") ? artists[random.nextInt(artists.length)] :
+						word.substring(0, word.length() - 1) + "x";
+					results += index.search(query, 20).size();
+				}
+				if (pass == 1) System.out.println(kind + ": " + String.format("%.2f", (System.nanoTime() - startTime) / 1e6 / queries) +
+						" ms per query, " + (results / queries) + " results per query");
+			}
+		}
+	}
+	
+	/**
+	 * Generates a word.
+	 * 
+	 * @param random The random number generator.
+	 * 
+	 * @return The word.
+	 */
+	private static String word(final Random random)
+	{
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 2 + random.nextInt(3); i > 0; i--) sb.append(syllables[random.nextInt(syllables.length)]);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.index;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+
+/**
+ * Testcases for the {@link SearchIndex}
+ * 
+ * @author thomas
+ */
+public class SearchIndexTest
+{
+
+	/**
+	 * The root folder of the test library.
+	 */
+	private static final String root = new File("/music").getAbsolutePath();
+	
+	/**
+	 * Checks equal, prefix and similar terms and the ranking.
+	 */
+	@Test
+	public void testSearch()
+	{
+		final SearchIndex index = createIndex();
+		
+		Assert.assertEquals(Arrays.asList("Amajo"), titles(index.search("amajo", 10)));
+		Assert.assertEquals(Arrays.asList("Amajo"), titles(index.search("AMAJ", 10)));
+		
+		// Titles rank before artists, all query terms have to match
+		Assert.assertEquals(Arrays.asList("Asmara", "Amajo", "Bazay"), titles(index.search("asmara", 10)));
+		Assert.assertEquals(Arrays.asList("Bazay"), titles(index.search("asmara baz", 10)));
+		
+		// Similar terms, found by trigrams
+		Assert.assertEquals(Arrays.asList("Yekatit"), titles(index.search("yekattit", 10)));
+		
+		// Path segments below the root
+		Assert.assertEquals(3, index.search("soul", 10).size());
+		Assert.assertTrue(index.search("music", 10).isEmpty());
+		
+		Assert.assertEquals(2, index.search("asmara", 2).size());
+		Assert.assertEquals(3, index.search("asmara", Integer.MAX_VALUE).size());
+		Assert.assertTrue(index.search(" - ", 10).isEmpty());
+	}
+	
+	/**
+	 * Checks that removed and replaced files are not found any more.
+	 */
+	@Test
+	public void testRemove()
+	{
+		final SearchIndex index = createIndex();
+		
+		index.remove(path("Soul/01 - Amajo.mp3"));
+		Assert.assertTrue(index.search("amajo", 10).isEmpty());
+		Assert.assertEquals(3, index.size());
+		
+		index.add(file("Soul/02 - Bazay.mp3", "Faytinga"));
+		Assert.assertEquals(Arrays.asList("Bazay"), titles(index.search("faytinga", 10)));
+		Assert.assertEquals(Arrays.asList("Asmara"), titles(index.search("asmara", 10)));
+		Assert.assertEquals(3, index.size());
+	}
+	
+	/**
+	 * Checks that the terms of removed files do not use up the prefix expansions.
+	 */
+	@Test
+	public void testRemovedTerms()
+	{
+		final SearchIndex index = new SearchIndex(root);
+		for (int i = 0; i < 1000; i++) index.add(file("Various/a" + (1000 + i) + ".mp3"));
+		index.add(file("Various/azz.mp3"));
+		for (int i = 0; i < 1000; i++) index.remove(path("Various/a" + (1000 + i) + ".mp3"));
+		
+		Assert.assertEquals(Arrays.asList("azz"), titles(index.search("a", 10)));
+		Assert.assertTrue(index.search("a1000", 10).isEmpty());
+		Assert.assertEquals(1, index.size());
+	}
+	
+	/**
+	 * Checks that the index stays consistent when removed files are compacted.
+	 */
+	@Test
+	public void testCompaction()
+	{
+		final SearchIndex index = new SearchIndex(root);
+		for (int i = 0; i < 3000; i++) index.add(file("Various/Track " + i + ".mp3", "Artist " + (i % 10)));
+		for (int i = 0; i < 2000; i++) index.remove(path("Various/Track " + i + ".mp3"));
+		
+		Assert.assertEquals(1000, index.size());
+		Assert.assertEquals(Arrays.asList("Track 2500"), titles(index.search("track 2500", 1)));
+		Assert.assertTrue(index.search("track 1500", 10).isEmpty());
+		Assert.assertEquals(100, index.search("artist 7", 1000).size());
+	}
+	
+	/**
+	 * Creates an index with some files.
+	 * 
+	 * @return The index.
+	 */
+	private static SearchIndex createIndex()
+	{
+		final SearchIndex index = new SearchIndex(root);
+		index.add(file("Soul/01 - Amajo.mp3", "Asmara All Stars", "Eritrea's Got Soul"));
+		index.add(file("Soul/02 - Bazay.mp3", "Asmara All Stars", "Eritrea's Got Soul"));
+		index.add(file("Soul/Asmara.mp3", "Various"));
+		index.add(file("Jazz/Yekatit.mp3", "Mulatu Astatke"));
+		return index;
+	}
+	
+	/**
+	 * Creates a local file. The title is the base name without the track number.
+	 * 
+	 * @param path The path relative to the root.
+	 * @param keywords The keywords.
+	 * 
+	 * @return The local file.
+	 */
+	private static LocalFile file(final String path, final String... keywords)
+	{
+		final String name = new File(path).getName().replaceAll("^\\d+ - ", "").replaceAll("\\.mp3$", "");
+		return new LocalFile(null, name, Collections.<String>emptySet(), Arrays.asList(keywords),
+				path(path), name, -1, 0, -1, -1, null, null, -1);
+	}
+	
+	/**
+	 * Returns the absolute path of a file.
+	 * 
+	 * @param path The path relative to the root.
+	 * 
+	 * @return The absolute path.
+	 */
+	private static String path(final String path)
+	{
+		return new File(root, path).getAbsolutePath();
+	}
+	
+	/**
+	 * Returns the titles of the given files.
+	 * 
+	 * @param localFiles The files.
+	 * 
+	 * @return The short titles.
+	 */
+	private static List<String> titles(final List<LocalFile> localFiles)
+	{
+		final List<String> titles = new ArrayList<String>();
+		for (final LocalFile localFile : localFiles) titles.add(localFile.getShortTitle());
+		return titles;
+	}
+}
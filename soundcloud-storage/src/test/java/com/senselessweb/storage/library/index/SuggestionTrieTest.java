@@ -0,0 +1,126 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.library.index;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.senselessweb.soundcloud.domain.library.LocalFile;
+
+/**
+ * Testcases for the {@link SuggestionTrie} and the {@link SuggestionIndex}
+ * 
+ * @author thomas
+ */
+public class SuggestionTrieTest
+{
+
+	/**
+	 * Checks the completions and their order.
+	 */
+	@Test
+	public void testSuggest()
+	{
+		final Map<String, Integer> counts = new HashMap<String, Integer>();
+		counts.put("asmara all stars", 12);
+		counts.put("asmara", 3);
+		counts.put("astatke", 12);
+		counts.put("amajo", 1);
+		counts.put("bazay", 1);
+		final SuggestionTrie trie = SuggestionTrie.build(counts);
+		
+		Assert.assertEquals(Arrays.asList("asmara all stars", "astatke", "asmara", "amajo"), trie.suggest("a", 10));
+		Assert.assertEquals(Arrays.asList("asmara all stars", "asmara"), trie.suggest(" ASM ", 10));
+		Assert.assertEquals(Arrays.asList("asmara all stars"), trie.suggest("asmara a", 10));
+		Assert.assertEquals(Arrays.asList("asmara all stars", "astatke"), trie.suggest("a", 2));
+		Assert.assertEquals(Arrays.asList("bazay"), trie.suggest("bazay", 10));
+		
+		Assert.assertTrue(trie.suggest("bazayx", 10).isEmpty());
+		Assert.assertTrue(trie.suggest("x", 10).isEmpty());
+		Assert.assertTrue(trie.suggest("", 10).isEmpty());
+		Assert.assertTrue(SuggestionTrie.empty().suggest("a", 10).isEmpty());
+	}
+	
+	/**
+	 * Checks the precomputed completions of large nodes against a linear scan.
+	 */
+	@Test
+	public void testManyKeywords()
+	{
+		final Random random = new Random(4711);
+		final Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (int i = 0; i < 5000; i++)
+		{
+			final StringBuilder sb = new StringBuilder();
+			for (int k = 3 + random.nextInt(5); k > 0; k--) sb.append((char) ('a' + random.nextInt(4)));
+			counts.put(sb.toString(), 1 + random.nextInt(100));
+		}
+		final SuggestionTrie trie = SuggestionTrie.build(counts);
+		Assert.assertEquals(counts.size(), trie.size());
+		
+		for (final String prefix : new String[] { "a", "ab", "abc", "dddd", "cabda", "bbbbbbb" })
+			Assert.assertEquals(expected(counts, prefix), trie.suggest(prefix, SuggestionTrie.maxSuggestions));
+	}
+	
+	/**
+	 * Checks that the suggestions follow the keyword index.
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testRebuild() throws InterruptedException
+	{
+		final String root = new File("/music").getAbsolutePath();
+		final KeywordIndex keywordIndex = new KeywordIndex(root);
+		final SuggestionIndex suggestionIndex = new SuggestionIndex(keywordIndex, 10);
+		try
+		{
+			keywordIndex.add(new LocalFile(null, "Amajo", Collections.<String>emptySet(), Arrays.asList("Asmara All Stars"),
+					new File(root, "Soul/01 - Amajo.mp3").getAbsolutePath(), "Amajo", 1, 0, -1, -1, "Asmara All Stars", null, -1));
+			suggestionIndex.rebuild();
+			Assert.assertEquals(Arrays.asList("amajo"), suggestionIndex.suggest("am", 10));
+			
+			keywordIndex.remove(new File(root, "Soul/01 - Amajo.mp3").getAbsolutePath());
+			suggestionIndex.invalidate();
+			for (int i = 0; i < 500 && !suggestionIndex.suggest("am", 10).isEmpty(); i++) Thread.sleep(10);
+			Assert.assertTrue(suggestionIndex.suggest("am", 10).isEmpty());
+		}
+		finally
+		{
+			suggestionIndex.shutdown();
+		}
+	}
+	
+	/**
+	 * Returns the expected completions by scanning all keywords.
+	 * 
+	 * @param counts The number of files by keyword.
+	 * @param prefix The prefix.
+	 * 
+	 * @return The best completions.
+	 */
+	private static List<String> expected(final Map<String, Integer> counts, final String prefix)
+	{
+		final List<String> keywords = new ArrayList<String>();
+		for (final String keyword : counts.keySet()) if (keyword.startsWith(prefix)) keywords.add(keyword);
+		Collections.sort(keywords, new Comparator<String>() {
+			@Override public int compare(final String o1, final String o2) {
+				final int result = counts.get(o2).compareTo(counts.get(o1));
+				return result != 0 ? result : o1.compareTo(o2);
+			}
+		});
+		return keywords.subList(0, Math.min(keywords.size(), SuggestionTrie.maxSuggestions));
+	}
+}
@@ -0,0 +1,26 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.memory;
+
+import com.senselessweb.storage.library.LocalLibraryStorageService;
+import com.senselessweb.storage.library.LocalLibraryStorageServiceConformanceTest;
+
+/**
+ * Runs the {@link LocalLibraryStorageServiceConformanceTest} against the {@link MemoryLocalLibraryStorageService}.
+ * 
+ * @author thomas
+ */
+public class MemoryLocalLibraryStorageServiceTest extends LocalLibraryStorageServiceConformanceTest
+{
+
+	/**
+	 * @see com.senselessweb.storage.library.LocalLibraryStorageServiceConformanceTest#createService()
+	 */
+	@Override
+	protected LocalLibraryStorageService createService()
+	{
+		return new MemoryLocalLibraryStorageService();
+	}
+
+}
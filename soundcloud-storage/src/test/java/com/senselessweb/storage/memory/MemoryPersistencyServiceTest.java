@@ -0,0 +1,26 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.memory;
+
+import com.senselessweb.storage.PersistencyService;
+import com.senselessweb.storage.PersistencyServiceConformanceTest;
+
+/**
+ * Runs the {@link PersistencyServiceConformanceTest} against the {@link MemoryPersistencyService}.
+ * 
+ * @author thomas
+ */
+public class MemoryPersistencyServiceTest extends PersistencyServiceConformanceTest
+{
+
+	/**
+	 * @see com.senselessweb.storage.PersistencyServiceConformanceTest#createService()
+	 */
+	@Override
+	protected PersistencyService createService()
+	{
+		return new MemoryPersistencyService();
+	}
+
+}
@@ -0,0 +1,26 @@
+/**
+ * 
+ */
+package com.senselessweb.storage.memory;
+
+import com.senselessweb.storage.library.UserRadioStorageService;
+import com.senselessweb.storage.library.UserRadioStorageServiceConformanceTest;
+
+/**
+ * Runs the {@link UserRadioStorageServiceConformanceTest} against the {@link MemoryUserRadioStorageService}.
+ * 
+ * @author thomas
+ */
+public class MemoryUserRadioStorageServiceTest extends UserRadioStorageServiceConformanceTest
+{
+
+	/**
+	 * @see com.senselessweb.storage.library.UserRadioStorageServiceConformanceTest#createService()
+	 */
+	@Override
+	protected UserRadioStorageService createService()
+	{
+		return new MemoryUserRadioStorageService();
+	}
+
+}
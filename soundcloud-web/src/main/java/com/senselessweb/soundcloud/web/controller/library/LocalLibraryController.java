@@ -1,7 +1,8 @@
 package com.senselessweb.soundcloud.web.controller.library;
 
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,12 +13,16 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
+import com.senselessweb.soundcloud.domain.library.DuplicateGroup;
 import com.senselessweb.soundcloud.domain.library.LocalFile;
 import com.senselessweb.soundcloud.domain.library.LocalFolder;
+import com.senselessweb.soundcloud.domain.library.ResultPage;
 import com.senselessweb.soundcloud.domain.sources.MediaSource;
 import com.senselessweb.soundcloud.library.service.local.LocalLibraryService;
 import com.senselessweb.soundcloud.mediasupport.service.MediaPlayer;
 import com.senselessweb.soundcloud.mediasupport.service.Playlist;
+import com.senselessweb.soundcloud.web.service.PlaylistFeeder;
+import com.senselessweb.storage.library.extraction.ExtractionStatistics;
 
 /**
  * Web controller interface for the local music library
@@ -28,6 +33,16 @@ import com.senselessweb.soundcloud.mediasupport.service.Playlist;
 @RequestMapping("/library/local/*")
 public class LocalLibraryController
 {
+
+	/**
+	 * The default number of items per page
+	 */
+	private static final int defaultPageSize = 100;
+	
+	/**
+	 * The maximum number of search results
+	 */
+	private static final int maxSearchResults = 1000;
 	
 	/**
 	 * The localLibraryService
@@ -44,13 +59,19 @@ public class LocalLibraryController
 	 */
 	private final Playlist playlist;
 	
+	/**
+	 * The playlistFeeder
+	 */
+	private final PlaylistFeeder playlistFeeder;
+	
 	@Autowired
 	public LocalLibraryController(final LocalLibraryService localLibraryService,
-		final MediaPlayer mediaPlayer, final Playlist playlist) 
+		final MediaPlayer mediaPlayer, final Playlist playlist, final PlaylistFeeder playlistFeeder) 
 	{
 		this.localLibraryService = localLibraryService;
 		this.mediaPlayer = mediaPlayer;
 		this.playlist = playlist;
+		this.playlistFeeder = playlistFeeder;
 	}
 		
 	/**
@@ -77,13 +98,16 @@ public class LocalLibraryController
 	@ResponseStatus(HttpStatus.OK)
 	public void playFile(@RequestParam String file)
 	{
+		this.playlistFeeder.cancel();
 		this.mediaPlayer.stop();
 		this.playlist.set(this.localLibraryService.getFile(file).asMediaSources());
 		this.mediaPlayer.play();
 	}
 	
 	/**
-	 * Plays all entries of a folder
+	 * Plays all entries of a folder. Playback starts with the first entry, the
+	 * remaining entries are added while the folder is still being walked. Duplicates
+	 * of entries that have already been added are skipped.
 	 * 
 	 * @param folder The folder
 	 * @throws UnsupportedEncodingException 
@@ -92,13 +116,13 @@ public class LocalLibraryController
 	@ResponseStatus(HttpStatus.OK)
 	public void playFolder(@RequestParam String folder) throws UnsupportedEncodingException
 	{
-		final List<MediaSource> playlist = new ArrayList<MediaSource>();
-		for (final LocalFile file : this.localLibraryService.getFiles(java.net.URLDecoder.decode(folder, "UTF-8")))
-			playlist.addAll(file.asMediaSources());
+		final Iterator<LocalFile> files = this.localLibraryService.iterateFiles(java.net.URLDecoder.decode(folder, "UTF-8"), true);
 		
+		this.playlistFeeder.cancel();
 		this.mediaPlayer.stop();
-		this.playlist.set(playlist);
+		this.playlist.set(files.hasNext() ? files.next().asMediaSources() : Collections.<MediaSource>emptyList());
 		this.mediaPlayer.play();
+		this.playlistFeeder.feed(files);
 	}
 
 	/**
@@ -115,7 +139,8 @@ public class LocalLibraryController
 	}
 	
 	/**
-	 * Enqueues all entries of a folder
+	 * Enqueues all entries of a folder. The entries are added in the background, 
+	 * duplicates are skipped.
 	 * 
 	 * @param folder The folder
 	 * @throws UnsupportedEncodingException 
@@ -124,12 +149,155 @@ public class LocalLibraryController
 	@ResponseStatus(HttpStatus.OK)
 	public void enqueueFolder(@RequestParam String folder) throws UnsupportedEncodingException
 	{
-		final List<MediaSource> playlist = new ArrayList<MediaSource>();		
-		for (final LocalFile file : this.localLibraryService.getFiles(java.net.URLDecoder.decode(folder, "UTF-8")))
-			playlist.addAll(file.asMediaSources());
-			
-		this.playlist.addAll(playlist);
+		this.playlistFeeder.feed(this.localLibraryService.iterateFiles(java.net.URLDecoder.decode(folder, "UTF-8"), true));
+	}
+	
+	/**
+	 * Returns the statistics of the metadata extraction, like the number of queued files 
+	 * and the number of files per second.
+	 * 
+	 * @return The current statistics
+	 */
+	@RequestMapping("/getStatistics")
+	@ResponseBody
+	public ExtractionStatistics getStatistics()
+	{
+		return this.localLibraryService.getExtractionStatistics();
+	}
+
+	/**
+	 * Searches the library by title, keywords and path.
+	 * 
+	 * @param query The query
+	 * @param limit The maximum number of results. Defaults to 50, at most 1000.
+	 * 
+	 * @return The best matching files
+	 * @throws UnsupportedEncodingException 
+	 */
+	@RequestMapping("/search")
+	@ResponseBody
+	public List<LocalFile> search(@RequestParam String query, @RequestParam(required=false) Integer limit) throws UnsupportedEncodingException
+	{
+		return this.localLibraryService.search(java.net.URLDecoder.decode(query, "UTF-8"), 
+				limit != null ? Math.min(limit, maxSearchResults) : 50);
+	}
+
+	/**
+	 * Completes a prefix to the keywords of the library while the user is typing.
+	 * 
+	 * @param prefix The prefix
+	 * @param limit The maximum number of suggestions. Defaults to 10.
+	 * 
+	 * @return The suggested keywords
+	 * @throws UnsupportedEncodingException 
+	 */
+	@RequestMapping("/suggest")
+	@ResponseBody
+	public List<String> suggest(@RequestParam String prefix, @RequestParam(required=false) Integer limit) throws UnsupportedEncodingException
+	{
+		return this.localLibraryService.suggest(java.net.URLDecoder.decode(prefix, "UTF-8"), limit != null ? limit : 10);
+	}
+
+	/**
+	 * Returns a page of the artists of the library
+	 * 
+	 * @param offset The number of artists to skip. Defaults to 0.
+	 * @param limit The maximum number of artists. Defaults to 100.
+	 * 
+	 * @return The artists
+	 */
+	@RequestMapping("/getArtists")
+	@ResponseBody
+	public ResultPage<String> getArtists(@RequestParam(required=false) Integer offset, @RequestParam(required=false) Integer limit)
+	{
+		return this.localLibraryService.getArtists(offset != null ? offset : 0, limit != null ? limit : defaultPageSize);
 	}
 	
+	/**
+	 * Returns a page of the albums of an artist
+	 * 
+	 * @param artist The artist
+	 * @param offset The number of albums to skip. Defaults to 0.
+	 * @param limit The maximum number of albums. Defaults to 100.
+	 * 
+	 * @return The albums
+	 * @throws UnsupportedEncodingException 
+	 */
+	@RequestMapping("/getAlbums")
+	@ResponseBody
+	public ResultPage<String> getAlbums(@RequestParam String artist, @RequestParam(required=false) Integer offset, 
+		@RequestParam(required=false) Integer limit) throws UnsupportedEncodingException
+	{
+		return this.localLibraryService.getAlbums(java.net.URLDecoder.decode(artist, "UTF-8"), 
+				offset != null ? offset : 0, limit != null ? limit : defaultPageSize);
+	}
+	
+	/**
+	 * Returns a page of the genres of the library
+	 * 
+	 * @param offset The number of genres to skip. Defaults to 0.
+	 * @param limit The maximum number of genres. Defaults to 100.
+	 * 
+	 * @return The genres
+	 */
+	@RequestMapping("/getGenres")
+	@ResponseBody
+	public ResultPage<String> getGenres(@RequestParam(required=false) Integer offset, @RequestParam(required=false) Integer limit)
+	{
+		return this.localLibraryService.getGenres(offset != null ? offset : 0, limit != null ? limit : defaultPageSize);
+	}
+	
+	/**
+	 * Returns a page of the files of an artist or of one album of an artist
+	 * 
+	 * @param artist The artist
+	 * @param album The album. All albums of the artist if it is missing.
+	 * @param offset The number of files to skip. Defaults to 0.
+	 * @param limit The maximum number of files. Defaults to 100.
+	 * 
+	 * @return The files
+	 * @throws UnsupportedEncodingException 
+	 */
+	@RequestMapping("/getTracks")
+	@ResponseBody
+	public ResultPage<LocalFile> getTracks(@RequestParam String artist, @RequestParam(required=false) String album, 
+		@RequestParam(required=false) Integer offset, @RequestParam(required=false) Integer limit) throws UnsupportedEncodingException
+	{
+		return this.localLibraryService.getTracks(java.net.URLDecoder.decode(artist, "UTF-8"), 
+				album != null ? java.net.URLDecoder.decode(album, "UTF-8") : null, 
+				offset != null ? offset : 0, limit != null ? limit : defaultPageSize);
+	}
+	
+	/**
+	 * Returns a page of the files of a genre
+	 * 
+	 * @param genre The genre
+	 * @param offset The number of files to skip. Defaults to 0.
+	 * @param limit The maximum number of files. Defaults to 100.
+	 * 
+	 * @return The files
+	 * @throws UnsupportedEncodingException 
+	 */
+	@RequestMapping("/getGenreTracks")
+	@ResponseBody
+	public ResultPage<LocalFile> getGenreTracks(@RequestParam String genre, @RequestParam(required=false) Integer offset, 
+		@RequestParam(required=false) Integer limit) throws UnsupportedEncodingException
+	{
+		return this.localLibraryService.getGenreTracks(java.net.URLDecoder.decode(genre, "UTF-8"), 
+				offset != null ? offset : 0, limit != null ? limit : defaultPageSize);
+	}
+
+	/**
+	 * Returns the groups of files with the same audio content
+	 * 
+	 * @return The duplicate groups
+	 */
+	@RequestMapping("/getDuplicates")
+	@ResponseBody
+	public List<DuplicateGroup> getDuplicates()
+	{
+		return this.localLibraryService.getDuplicates();
+	}
+
 	
 }
@@ -0,0 +1,29 @@
+package com.senselessweb.soundcloud.web.service;
+
+import java.util.Iterator;
+
+import com.senselessweb.soundcloud.domain.library.LibraryItem;
+
+/**
+ * Adds the items of a possibly long running enumeration to the playlist in the
+ * background, so a request does not have to wait until all items are known.
+ * 
+ * @author thomas
+ */
+public interface PlaylistFeeder
+{
+
+	/**
+	 * Adds the remaining items of the given iterator to the playlist. Returns 
+	 * immediately. Feeds are processed one after another in the order they are started.
+	 * 
+	 * @param items The items to add.
+	 */
+	public void feed(Iterator<? extends LibraryItem> items);
+	
+	/**
+	 * Stops all running and pending feeds. Items that have already been added
+	 * remain in the playlist.
+	 */
+	public void cancel();
+}
@@ -0,0 +1,133 @@
+package com.senselessweb.soundcloud.web.service.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.senselessweb.soundcloud.domain.library.LibraryItem;
+import com.senselessweb.soundcloud.domain.sources.MediaSource;
+import com.senselessweb.soundcloud.mediasupport.service.Playlist;
+import com.senselessweb.soundcloud.web.service.PlaylistFeeder;
+
+/**
+ * Default implementation of the {@link PlaylistFeeder}. Uses a single worker thread,
+ * so the order of consecutive feeds is kept.
+ * 
+ * @author thomas
+ */
+@Service
+public class PlaylistFeederImpl implements PlaylistFeeder
+{
+
+	/**
+	 * The log
+	 */
+	static final Log log = LogFactory.getLog(PlaylistFeederImpl.class);
+	
+	/**
+	 * The maximum number of sources that are added to the playlist at once.
+	 */
+	static final int batchSize = 25;
+	
+	
+	/**
+	 * The playlist
+	 */
+	final Playlist playlist;
+	
+	/**
+	 * The worker that walks the iterators.
+	 */
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	
+	/**
+	 * Incremented on every cancel. A feed stops as soon as this differs from the value
+	 * at the time it was started.
+	 */
+	final AtomicInteger generation = new AtomicInteger();
+	
+	@Autowired
+	public PlaylistFeederImpl(final Playlist playlist)
+	{
+		this.playlist = playlist;
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.web.service.PlaylistFeeder#feed(java.util.Iterator)
+	 */
+	@Override
+	public void feed(final Iterator<? extends LibraryItem> items)
+	{
+		final int startGeneration = this.generation.get();
+		this.executor.execute(new Runnable() {
+			
+			/**
+			 * @see java.lang.Runnable#run()
+			 */
+			@Override
+			public void run()
+			{
+				try
+				{
+					final List<MediaSource> batch = new ArrayList<MediaSource>();
+					while (PlaylistFeederImpl.this.generation.get() == startGeneration && items.hasNext())
+					{
+						batch.addAll(items.next().asMediaSources());
+						if (batch.size() >= batchSize) this.flush(batch);
+					}
+					this.flush(batch);
+				}
+				catch (final RuntimeException e)
+				{
+					log.warn("Could not feed the playlist", e);
+				}
+			}
+			
+			/**
+			 * Adds the collected sources to the playlist unless the feed has been cancelled.
+			 * 
+			 * @param batch The collected sources. Is cleared afterwards.
+			 */
+			private void flush(final List<MediaSource> batch)
+			{
+				// Synchronized with cancel, so nothing is added after cancel has returned
+				synchronized (PlaylistFeederImpl.this.generation)
+				{
+					if (!batch.isEmpty() && PlaylistFeederImpl.this.generation.get() == startGeneration) 
+						PlaylistFeederImpl.this.playlist.addAll(new ArrayList<MediaSource>(batch));
+				}
+				batch.clear();
+			}
+		});
+	}
+	
+	/**
+	 * @see com.senselessweb.soundcloud.web.service.PlaylistFeeder#cancel()
+	 */
+	@Override
+	public void cancel()
+	{
+		synchronized (this.generation)
+		{
+			this.generation.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Stops the worker.
+	 */
+	@PreDestroy void shutdown()
+	{
+		this.executor.shutdownNow();
+	}
+}
@@ -77,7 +77,8 @@ Folder.prototype.appendAsElement = function(element, onSelectSubfolder, onPlayFo
 		subfolders.append(
 				'<div class="item item-subfolder-' + this.level + '-' + i + '">' + 
 					'<input type="radio" name="folder-' + this.level + '" id="folder-' + this.level + '-' + i + '" value="' + this.path + "/" + this.subfolders[i].decodedName + '"/>' +
-					'<label for="folder-' + this.level + '-' + i + '">' + this.subfolders[i].name + '</label>' +
+					'<label for="folder-' + this.level + '-' + i + '" title="' + formatStatistics(this.subfolders[i].statistics) + '">' + 
+						this.subfolders[i].name + '</label>' +
 				'</div>' +
 				'<div style="clear:both;"></div>');
 		
@@ -94,6 +95,24 @@ Folder.prototype.appendAsElement = function(element, onSelectSubfolder, onPlayFo
 		this.items[i].appendAsElement(files);
 };
 
+/**
+ * Formats the number of tracks, the size and the duration of a folder.
+ * 
+ * @param statistics The statistics of the folder. May be missing.
+ * 
+ * @return The formatted statistics, like "12 tracks, 98 MB, 0:52:10".
+ */
+function formatStatistics(statistics)
+{
+	if (!statistics) return '';
+	
+	var seconds = statistics.duration % 60;
+	var minutes = Math.floor(statistics.duration / 60) % 60;
+	var hours = Math.floor(statistics.duration / 3600);
+	return statistics.tracks + ' tracks, ' + Math.round(statistics.size / (1024 * 1024)) + ' MB, ' + 
+		hours + ':' + (minutes < 10 ? '0' : '') + minutes + ':' + (seconds < 10 ? '0' : '') + seconds;
+}
+
 /**
  * Filters the content of this folder by the given keyword 
  * 